@@ -0,0 +1,147 @@
+package org.threadly.load;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events and the {@link FlightRecorderEvents.EventSupport} implementation which 
+ * emits them.  This is compiled against JDK 11 and only loaded reflectively by 
+ * {@link FlightRecorderEvents}, so that the rest of the library can still run on Java 8.
+ */
+class JfrSupport implements FlightRecorderEvents.EventSupport {
+  @Override
+  public void registerListener() {
+    FlightRecorder.addListener(new FlightRecorderListener() {
+      @Override
+      public void recordingStateChanged(Recording changedRecording) {
+        updateRecording();
+      }
+    });
+    if (FlightRecorder.isInitialized()) {
+      // a recording may have been started before this class was loaded
+      updateRecording();
+    }
+  }
+  
+  private static void updateRecording() {
+    boolean anyRunning = false;
+    for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+      if (r.getState() == RecordingState.RUNNING) {
+        anyRunning = true;
+        break;
+      }
+    }
+    FlightRecorderEvents.recordingChanged(anyRunning);
+  }
+  
+  @Override
+  public Object beginStep() {
+    StepEvent event = new StepEvent();
+    event.begin();
+    return event;
+  }
+  
+  @Override
+  public void commitStep(Object event, CharSequence identifier, 
+                         ScriptStepType stepType, Throwable error) {
+    StepEvent stepEvent = (StepEvent)event;
+    stepEvent.end();
+    if (stepEvent.shouldCommit()) {
+      stepEvent.identifier = String.valueOf(identifier);
+      stepEvent.stepType = stepType.name();
+      stepEvent.passed = error == null;
+      if (error != null) {
+        stepEvent.errorClass = error.getClass();
+        stepEvent.errorMessage = error.getMessage();
+      }
+      stepEvent.commit();
+    }
+  }
+  
+  @Override
+  public Runnable wrapRateLimitedTask(final Runnable task) {
+    final RateLimiterWaitEvent event = new RateLimiterWaitEvent();
+    if (! event.isEnabled()) {
+      return task;
+    }
+    event.begin();
+    return new Runnable() {
+      @Override
+      public void run() {
+        event.commit();
+        task.run();
+      }
+    };
+  }
+  
+  @Override
+  public Object beginStartHandlerWait() {
+    StartHandlerWaitEvent event = new StartHandlerWaitEvent();
+    event.begin();
+    return event;
+  }
+  
+  @Override
+  public void commitStartHandlerWait(Object event, int neededSignals) {
+    StartHandlerWaitEvent waitEvent = (StartHandlerWaitEvent)event;
+    waitEvent.end();
+    if (waitEvent.shouldCommit()) {
+      waitEvent.neededSignals = neededSignals;
+      waitEvent.commit();
+    }
+  }
+  
+  /**
+   * Event for a single step run.
+   */
+  @Name("org.threadly.load.Step")
+  @Label("Script Step")
+  @Category("Ambush")
+  @Description("A script step which was run")
+  @StackTrace(false)
+  protected static class StepEvent extends Event {
+    @Label("Identifier")
+    protected String identifier;
+    @Label("Step Type")
+    protected String stepType;
+    @Label("Passed")
+    protected boolean passed;
+    @Label("Error Class")
+    protected Class<?> errorClass;
+    @Label("Error Message")
+    protected String errorMessage;
+  }
+  
+  /**
+   * Event for the time a step waited on the rate limiter.
+   */
+  @Name("org.threadly.load.RateLimiterWait")
+  @Label("Rate Limiter Wait")
+  @Category("Ambush")
+  @Description("Time between a step being ready to run, and the rate limiter allowing it to run")
+  @StackTrace(false)
+  protected static class RateLimiterWaitEvent extends Event {
+    // only the duration is recorded
+  }
+  
+  /**
+   * Event for the time a step was blocked by a start handler.
+   */
+  @Name("org.threadly.load.StartHandlerWait")
+  @Label("Start Handler Wait")
+  @Category("Ambush")
+  @Description("Time a step was blocked waiting for signals from other steps")
+  @StackTrace(false)
+  protected static class StartHandlerWaitEvent extends Event {
+    @Label("Needed Signals")
+    protected int neededSignals;
+  }
+}
@@ -0,0 +1,98 @@
+package org.threadly.load;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.threadly.util.StringUtils;
+
+/**
+ * Compares {@link CharsDeduplicator} against {@link String#intern()}.  Both for repeated lookups 
+ * of a fixed identifier set, as well as for a stream of never before seen (dynamic) identifiers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CharsDeduplicatorBenchmark {
+  private static final int IDENTIFIER_LENGTH = 24;
+  
+  @Param({"100", "10000"})
+  public int identifierCount;
+  
+  private String[] identifiers;
+  private int index;
+  private long dynamicCounter;
+  
+  /**
+   * Construct the identifiers, each is a unique reference so the lookup must compare contents.
+   */
+  @Setup
+  public void setup() {
+    identifiers = new String[identifierCount];
+    for (int i = 0; i < identifierCount; i++) {
+      identifiers[i] = new String(StringUtils.makeRandomString(IDENTIFIER_LENGTH));
+    }
+    CharsDeduplicator.clearCache();
+    for (String s : identifiers) {
+      CharsDeduplicator.deDuplicate(s);
+      s.intern();
+    }
+  }
+  
+  private String nextIdentifier() {
+    if (++index == identifiers.length) {
+      index = 0;
+    }
+    return identifiers[index];
+  }
+  
+  private String nextDynamicIdentifier() {
+    return "request-" + (dynamicCounter++);
+  }
+  
+  /**
+   * Lookup of an identifier already in the cache.
+   * 
+   * @return Deduplicated result
+   */
+  @Benchmark
+  public CharSequence deDuplicateExisting() {
+    return CharsDeduplicator.deDuplicate(nextIdentifier());
+  }
+  
+  /**
+   * Lookup of an identifier already in the string table.
+   * 
+   * @return Interned result
+   */
+  @Benchmark
+  public CharSequence internExisting() {
+    return nextIdentifier().intern();
+  }
+  
+  /**
+   * Lookup of identifiers which have never been seen before.
+   * 
+   * @return Deduplicated result
+   */
+  @Benchmark
+  public CharSequence deDuplicateDynamic() {
+    return CharsDeduplicator.deDuplicate(nextDynamicIdentifier());
+  }
+  
+  /**
+   * Intern of identifiers which have never been seen before.
+   * 
+   * @return Interned result
+   */
+  @Benchmark
+  public CharSequence internDynamic() {
+    return nextDynamicIdentifier().intern();
+  }
+}
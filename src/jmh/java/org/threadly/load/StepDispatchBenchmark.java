@@ -0,0 +1,110 @@
+package org.threadly.load;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the cost of dispatching steps which do no work.  Scripts are run with compact results 
+ * on a pool shared across invocations, so the result is the framework overhead per step.  Run 
+ * with {@code -PjmhProfiler=gc} to see the bytes allocated per step 
+ * ({@code gc.alloc.rate.norm}), which includes the per run (not per step) cost of starting the 
+ * script amortized across the steps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StepDispatchBenchmark {
+  private static final int STEP_COUNT = 10 * 1000;
+  
+  @Param({"sequential", "parallel"})
+  public String shape;
+  
+  private ExecutorService pool;
+  private ScriptExecutorFactory executorFactory;
+  private ExecutableScript script;
+  
+  /**
+   * Construct the pool shared by all runs.
+   */
+  @Setup(Level.Trial)
+  public void setupPool() {
+    pool = Executors.newFixedThreadPool(Math.max(3, Runtime.getRuntime().availableProcessors()));
+    executorFactory = new ScriptExecutorFactory() {
+      @Override
+      public Executor makeExecutor(int maximumThreadCount) {
+        return pool;
+      }
+    };
+  }
+  
+  /**
+   * Shutdown the shared pool.
+   */
+  @TearDown(Level.Trial)
+  public void shutdownPool() {
+    pool.shutdownNow();
+  }
+  
+  /**
+   * Build the script for the next invocation, scripts can only be run once.
+   */
+  @Setup(Level.Invocation)
+  public void setupScript() {
+    AbstractScriptBuilder builder;
+    if ("parallel".equals(shape)) {
+      ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+      pBuilder.addStep(new NoOpStep(), STEP_COUNT);
+      builder = pBuilder;
+    } else {
+      SequentialScriptBuilder sBuilder = new SequentialScriptBuilder();
+      for (int i = 0; i < STEP_COUNT; i++) {
+        sBuilder.addStep(new NoOpStep());
+      }
+      builder = sBuilder;
+    }
+    script = builder.build();
+    script.setCompactResults(true);
+    script.setGcBeforeStart(false);
+    script.setExecutorFactory(executorFactory);
+  }
+  
+  /**
+   * Run all the steps of the script and wait for them to complete.
+   * 
+   * @return The failed result, expected to be {@code null}
+   * @throws InterruptedException Thrown if interrupted while waiting for the steps
+   */
+  @Benchmark
+  @OperationsPerInvocation(STEP_COUNT)
+  public StepResult runNoOpSteps() throws InterruptedException {
+    return StepResultCollectionUtils.getFailedResult(script.startScript());
+  }
+  
+  /**
+   * Step which does nothing, so only the dispatch cost is measured.
+   */
+  private static class NoOpStep extends AbstractScriptStep {
+    public NoOpStep() {
+      super("noOp");
+    }
+    
+    @Override
+    public void runStep() {
+      // nothing to do
+    }
+  }
+}
@@ -5,8 +5,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
-import org.threadly.concurrent.future.FutureUtils;
 import org.threadly.concurrent.future.ListenableFuture;
 import org.threadly.concurrent.future.SettableListenableFuture;
 import org.threadly.load.ExecutableScript.ExecutionItem;
@@ -70,6 +70,59 @@ public abstract class AbstractScriptBuilder {
     addStep(new RateAdjustmentStep(stepsPerSecondLimit));
   }
   
+  /**
+   * Adds a warm up phase at the current position in the script.  The provided steps will be run 
+   * repeatedly until either the iteration limit or the duration limit has been reached.  This 
+   * allows JIT compilation (both in the steps and in the system under test) and caches to warm up 
+   * before the steps which are measured run.  
+   * <p>
+   * Results from the warm up steps are not part of the script's futures, and are not provided to 
+   * the script's {@link StepResultRecorder}'s.  So they are excluded from the results reported by 
+   * {@link ScriptRunner}.  Instead they are collected into a {@link ResultSummary} which the 
+   * returned future will complete with once the warm up has finished.  The rate limit only 
+   * applies to the warm up steps, the steps after the warm up run with the rate limit the script 
+   * had before the warm up.  Once the warm up has finished, steps run exactly as they would have 
+   * without the warm up.  
+   * <p>
+   * The duration limit is checked before each iteration is started, so the warm up may run 
+   * beyond the limit by up to the length of one iteration.  If a warm up step fails, the script 
+   * will be failed just like a failure in any other step.  Just like 
+   * {@link #addProgressFuture()}, the warm up is not retained when the builder is copied.  
+   * <p>
+   * The provided builder can not be modified after being provided.
+   * 
+   * @param warmUpSteps Steps to be run repeatedly during the warm up
+   * @param maxIterations Maximum times to run the steps, or {@code 0} to only limit by duration
+   * @param maxDurationMillis Maximum duration to start iterations within, or {@code 0} to only 
+   *                            limit by iterations
+   * @param stepsPerSecondLimit Rate limit for the warm up steps, or {@code 0} for no limit
+   * @return Future which will complete with the summary of the warm up results
+   */
+  public ListenableFuture<ResultSummary> addWarmUp(AbstractScriptBuilder warmUpSteps, 
+                                                   int maxIterations, long maxDurationMillis, 
+                                                   double stepsPerSecondLimit) {
+    ArgumentVerifier.assertNotNegative(maxIterations, "maxIterations");
+    ArgumentVerifier.assertNotNegative(maxDurationMillis, "maxDurationMillis");
+    ArgumentVerifier.assertNotNegative(stepsPerSecondLimit, "stepsPerSecondLimit");
+    if (maxIterations == 0 && maxDurationMillis == 0) {
+      throw new IllegalArgumentException("Must limit warm up by iterations or duration");
+    } else if (! warmUpSteps.hasSteps()) {
+      throw new IllegalArgumentException("No warm up steps provided");
+    }
+    verifyValid();
+    warmUpSteps.replaced();
+    
+    SettableListenableFuture<ResultSummary> slf = 
+        new SettableListenableFuture<ResultSummary>(false);
+    // wrapped so the thread needs are accounted for just like any added builder
+    SequentialScriptBuilder warmUpWrapper = new SequentialScriptBuilder();
+    warmUpWrapper.maybeUpdatedMaximumThreads(warmUpSteps.getMaximumNeededThreadCount());
+    warmUpWrapper.addStep(new WarmUpStep(warmUpSteps.getStepAsExecutionItem(), maxIterations, 
+                                         maxDurationMillis, stepsPerSecondLimit, slf));
+    addSteps(warmUpWrapper);
+    return slf;
+  }
+  
   /**
    * Checks if the builder has had at least one step added to it.  If this returns {@code false} 
    * then this builder is effectively a no-op.
@@ -115,6 +168,16 @@ public abstract class AbstractScriptBuilder {
    */
   public abstract void addSteps(ParallelScriptBuilder parallelSteps);
   
+  /**
+   * Add an instance of a {@link ScriptTemplate} to this builder.  The template can be added any 
+   * number of times, without needing to copy it.  Please see the more specific behavior 
+   * descriptions here: {@link SequentialScriptBuilder#addSteps(ScriptTemplate)} and 
+   * {@link ParallelScriptBuilder#addSteps(ScriptTemplate)}.
+   * 
+   * @param template Template to add an instance of
+   */
+  public abstract void addSteps(ScriptTemplate template);
+  
   /**
    * Adds steps for an unknown builder type.  This does instance of checks and defers to either 
    * {@link #addSteps(ParallelScriptBuilder)} or {@link #addSteps(SequentialScriptBuilder)}.
@@ -149,7 +212,9 @@ public abstract class AbstractScriptBuilder {
   /**
    * Make a copy of the script chain.  This is necessary if you want to add the chain multiple 
    * times to another chain.  The returned chain will execute the same script step instances (so 
-   * if added to a parallel builder make sure the script steps are thread safe).
+   * if added to a parallel builder make sure the script steps are thread safe).  If the same 
+   * steps will be added many times, a {@link ScriptTemplate} avoids copying the chain for each 
+   * addition.
    * 
    * @return A copy builder
    */
@@ -269,6 +334,19 @@ public abstract class AbstractScriptBuilder {
       return items != null && items.length > 0;
     }
 
+    @Override
+    public int getChildCount() {
+      return items == null ? 0 : items.length;
+    }
+    
+    @Override
+    public ExecutionItem getChild(int index) {
+      if (items == null) {
+        throw new IndexOutOfBoundsException();
+      }
+      return items[index];
+    }
+    
     @Override
     public Iterator<ExecutionItem> iterator() {
       if (hasChildren()) {
@@ -305,6 +383,101 @@ public abstract class AbstractScriptBuilder {
     }
   }
   
+  /**
+   * {@link ExecutionItem} which repeatedly runs a set of steps, recording their results 
+   * separately from the rest of the script.  The steps are compiled into their own 
+   * {@link ExecutionPlan}, which is prepared again for each iteration.
+   */
+  private static class WarmUpStep extends GhostExecutionItem {
+    private final ExecutionItem warmUpItem;
+    private final ExecutionPlan warmUpPlan;
+    private final int maxIterations;
+    private final long maxDurationMillis;
+    private final double stepsPerSecondLimit;
+    private final SettableListenableFuture<ResultSummary> slf;
+    
+    public WarmUpStep(ExecutionItem warmUpItem, int maxIterations, long maxDurationMillis, 
+                      double stepsPerSecondLimit, SettableListenableFuture<ResultSummary> slf) {
+      this.warmUpItem = warmUpItem;
+      this.warmUpPlan = new ExecutionPlan(warmUpItem);
+      this.maxIterations = maxIterations;
+      this.maxDurationMillis = maxDurationMillis;
+      this.stepsPerSecondLimit = stepsPerSecondLimit;
+      this.slf = slf;
+    }
+    
+    @Override
+    protected void runItem(ExecutionAssistant assistant) {
+      final ResultSummary summary = new ResultSummary();
+      /* copy so the rate and recorder changes do not impact the steps after the warm up, the 
+       * warm up rate is also not reported as the rate of the script
+       */
+      ExecutionAssistant warmUpAssistant = assistant.makeLocalRateCopy();
+      warmUpAssistant.setStepPerSecondLimit(stepsPerSecondLimit);
+      warmUpAssistant.setResultRecorder(new StepResultRecorder() {
+        @Override
+        public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                                 long startNanos, long runTimeNanos, Throwable error) {
+          synchronized (summary) {
+            summary.addStepCounts(1, 1);
+            summary.addResult(identifier.toString(), stepType != ScriptStepType.Normal, 
+                              runTimeNanos, error);
+          }
+        }
+      });
+      
+      long startMillis = Clock.accurateForwardProgressingMillis();
+      try {
+        for (int i = 0; maxIterations == 0 || i < maxIterations; i++) {
+          if (maxDurationMillis > 0 && 
+              Clock.accurateForwardProgressingMillis() - startMillis >= maxDurationMillis) {
+            break;
+          }
+          // results are only recorded into the summary, so no futures are needed
+          warmUpPlan.prepareForRun(false);
+          if (warmUpPlan.startRun(warmUpAssistant, null, false).get() != null || 
+              warmUpAssistant.getMarkedGlobalFailure()) {
+            break;
+          }
+        }
+      } catch (InterruptedException e) {
+        // reset status and let thread exit
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        slf.setFailure(e.getCause());
+        throw ExceptionUtils.makeRuntime(e.getCause());
+      } finally {
+        synchronized (summary) {
+          summary.setRunDurationMillis(Clock.accurateForwardProgressingMillis() - startMillis);
+          slf.setResult(summary);
+        }
+      }
+    }
+    
+    @Override
+    protected GhostExecutionItem makeInstanceItem() {
+      // the plan is prepared for each iteration, so concurrent instances can not share it
+      return new WarmUpStep(warmUpItem, maxIterations, maxDurationMillis, 
+                            stepsPerSecondLimit, slf);
+    }
+    
+    @Override
+    public boolean isChainExecutor() {
+      // steps are run through the assistant, not as a single step
+      return true;
+    }
+    
+    @Override
+    public String toString() {
+      return "WarmUp:" + warmUpItem;
+    }
+    
+    @Override
+    public boolean manipulatesExecutionAssistant() {
+      return false;
+    }
+  }
+  
   /**
    * Test step which will report the current running test progress.
    */
@@ -319,6 +492,10 @@ public abstract class AbstractScriptBuilder {
     protected void runItem(ExecutionAssistant assistant) {
       try {
         List<? extends ListenableFuture<?>> scriptFutures = assistant.getGlobalRunningFutureSet();
+        if (scriptFutures == null) {
+          slf.setFailure(new IllegalStateException("Run is streaming results without futures"));
+          return;
+        }
         double doneCount = 0;
         Iterator<? extends ListenableFuture<?>> it = scriptFutures.iterator();
         while (it.hasNext()) {
@@ -337,7 +514,7 @@ public abstract class AbstractScriptBuilder {
     public String toString() {
       return ProgressScriptStep.class.getSimpleName();
     }
-
+    
     @Override
     public boolean manipulatesExecutionAssistant() {
       return false;
@@ -345,18 +522,72 @@ public abstract class AbstractScriptBuilder {
   }
   
   /**
-   * Abstract implementation for any {@link ExecutionItem} which should not be ever seen to the 
-   * user.  Either by a future returned as a step, or copied into a new chain.
+   * {@link ExecutionItem} which represents a single instance of a {@link ScriptTemplate}.  This 
+   * only references the shared template, the {@link ExecutionPlan} holds the state of the 
+   * instance once the script is built.  Since the template's steps are shared, a start handler 
+   * set on this item is held here, and applied to each step of the instance.
    */
-  protected abstract static class GhostExecutionItem extends AbstractExecutionItem {
+  protected static class TemplateItem extends AbstractExecutionItem {
+    protected final ScriptTemplate template;
+    
+    public TemplateItem(ScriptTemplate template) {
+      this.template = template;
+    }
+    
+    @Override
+    public List<? extends SettableListenableFuture<StepResult>> getFutures() {
+      // futures are provided by the ExecutionPlan for each instance
+      return Collections.emptyList();
+    }
+    
+    @Override
+    public ExecutionItem makeCopy() {
+      return new TemplateItem(template);
+    }
+    
     @Override
-    public void prepareForRun() {
-      // nothing to do here
+    public ChildItems getChildItems() {
+      return template.rootItem.getChildItems();
+    }
+    
+    @Override
+    public boolean isChainExecutor() {
+      // not reported as a chain, so start handlers are set on the instance rather than the steps
+      return false;
+    }
+    
+    @Override
+    public String toString() {
+      return "Template:" + template.getStepCount();
     }
 
     @Override
-    public void runComplete() {
-      // nothing to do here
+    public boolean manipulatesExecutionAssistant() {
+      return false;
+    }
+  }
+  
+  /**
+   * Abstract implementation for any {@link ExecutionItem} which should not be ever seen to the 
+   * user.  Either by a future returned as a step, or copied into a new chain.
+   */
+  protected abstract static class GhostExecutionItem extends AbstractExecutionItem {
+    /**
+     * Invoked by the {@link ExecutionPlan} when the item is reached in the script.
+     * 
+     * @param assistant Assistant the script is running with
+     */
+    protected abstract void runItem(ExecutionAssistant assistant);
+    
+    /**
+     * Returns the item to run for an instance of a {@link ScriptTemplate}.  The template's items 
+     * are shared by every instance, so items which hold state while running must return a new 
+     * item.
+     * 
+     * @return Item to run within a single template instance
+     */
+    protected GhostExecutionItem makeInstanceItem() {
+      return this;
     }
     
     @Override
@@ -381,16 +612,17 @@ public abstract class AbstractScriptBuilder {
   }
   
   /**
-   * Basic abstract implementation for every test step collection to execute it's tests.  This 
-   * also provides the minimum API that any collection of steps must implement.
+   * Basic abstract implementation for every test step collection.  This also provides the 
+   * minimum API that any collection of steps must implement.  Collections only describe the 
+   * execution graph while the script is built, once compiled into an {@link ExecutionPlan} the 
+   * plan's nodes run the collection's items.
    */
   protected abstract static class StepCollectionRunner extends AbstractExecutionItem {
-    private final ArrayList<SettableListenableFuture<StepResult>> futures;
     private ExecutionItem[] steps;
+    private ChildItemContainer childItems;
     
     public StepCollectionRunner() {
       steps = new ExecutionItem[0];
-      futures = new ArrayList<SettableListenableFuture<StepResult>>();
     }
 
     /**
@@ -399,10 +631,6 @@ public abstract class AbstractScriptBuilder {
      * @return Number of steps this collection runs
      */
     public int getStepCount() {
-      if (steps == null) {
-        throw new IllegalStateException("Run has completed");
-      }
-      
       return steps.length;
     }
     
@@ -412,37 +640,30 @@ public abstract class AbstractScriptBuilder {
      * @return Array of items which will be ran
      */
     public ExecutionItem[] getSteps() {
-      if (steps == null) {
-        throw new IllegalStateException("Run has completed");
-      }
-      
       return steps;
     }
     
+    /**
+     * Returns a {@link ChildItems} for the current steps.  The container is retained until the 
+     * steps are modified, so repeated calls do not construct new instances.
+     * 
+     * @param runSequentially {@code true} if the steps are run one after another
+     * @return Container of the current steps
+     */
+    protected ChildItems getChildItems(boolean runSequentially) {
+      ExecutionItem[] steps = getSteps();
+      ChildItemContainer result = childItems;
+      if (result == null || result.items != steps) {
+        result = childItems = new ChildItemContainer(steps, runSequentially);
+      }
+      return result;
+    }
+    
     protected void setSteps(ExecutionItem[] steps) {
       ArgumentVerifier.assertNotNull(steps, "steps");
-      if (this.steps == null) {
-        throw new IllegalStateException("Run has completed");
-      }
       
       this.steps = steps;
     }
-
-    @Override
-    public void prepareForRun() {
-      futures.trimToSize();
-      
-      for (ExecutionItem ei : steps) {
-        ei.prepareForRun();
-      }
-    }
-
-    @Override
-    public void runComplete() {
-      steps = null;
-      // TODO - do we need to cancel here?  In theory these were canceled when each step finished
-      FutureUtils.cancelIncompleteFutures(getFutures(), true);
-    }
     
     private ExecutionItem[] makeStepsCopy(int extraEndSpace) {
       ExecutionItem[] newSteps = new ExecutionItem[steps.length + extraEndSpace];
@@ -456,12 +677,6 @@ public abstract class AbstractScriptBuilder {
      * @param item Item to be added, can not be {@code null}
      */
     public void addItem(ExecutionItem item) {
-      if (steps == null) {
-        throw new IllegalStateException("Run has completed");
-      }
-      
-      futures.addAll(item.getFutures());
-      
       ExecutionItem[] newSteps = makeStepsCopy(1);
       newSteps[steps.length] = item;
       steps = newSteps;
@@ -473,31 +688,34 @@ public abstract class AbstractScriptBuilder {
      * @param items Items to be added, can not be {@code null}
      */
     public void addItems(ExecutionItem[] items) {
-      if (steps == null) {
-        throw new IllegalStateException("Run has completed");
-      }
-      
       if (items.length == 0) {
         return;
       }
       
-      for (ExecutionItem ei : items) {
-        futures.addAll(ei.getFutures());
-      }
-      
       ExecutionItem[] newSteps = makeStepsCopy(items.length);
       System.arraycopy(items, 0, newSteps, steps.length, items.length);
       steps = newSteps;
     }
     
+    /**
+     * Returns the futures of the steps in this collection, collected from the steps on each call.  
+     * These are the futures completed by the first run of the script.
+     * 
+     * @return Futures of the steps in this collection, in the order they were added
+     */
     @Override
-    public List<? extends SettableListenableFuture<StepResult>> getFutures() {
-      return futures;
+    public List<SettableListenableFuture<StepResult>> getFutures() {
+      ArrayList<SettableListenableFuture<StepResult>> result = 
+          new ArrayList<SettableListenableFuture<StepResult>>(steps.length);
+      for (ExecutionItem ei : steps) {
+        result.addAll(ei.getFutures());
+      }
+      return result;
     }
     
     @Override
     public String toString() {
-      return steps == null ? "CompletedStepCollection" : Arrays.toString(steps);
+      return Arrays.toString(steps);
     }
 
     @Override
@@ -513,111 +731,29 @@ public abstract class AbstractScriptBuilder {
   }
 
   /**
-   * Implementation for executing a {@link ScriptStep} instance.  This class also represents 
-   * the future for the test step execution.  If executed it is guaranteed to provide a 
-   * {@link StepResult} (with or without error).
+   * Item which represents a {@link ScriptStep} in the execution graph.  The step is run by the 
+   * {@link ExecutionPlan}, which provides a new future for each run.  The future held here is the 
+   * one completed by the first run, so it can be returned while the script is being built.
    */
   protected static class ScriptStepRunner extends AbstractExecutionItem {
-    protected ScriptStep scriptStep;
-    protected SettableListenableFuture<StepResult> future;
+    protected final ScriptStep scriptStep;
+    protected final SettableListenableFuture<StepResult> future;
+    private final List<SettableListenableFuture<StepResult>> futures;
     
     public ScriptStepRunner(ScriptStep scriptStep) {
       this.scriptStep = scriptStep;
       future = new SettableListenableFuture<StepResult>(false);
-    }
-
-    @Override
-    public void prepareForRun() {
-      // nothing to do here
-    }
-
-    @Override
-    public void runComplete() {
-      scriptStep = null;
-      future.cancel(true);  // should be done anyways
-    }
-    
-    @Override
-    public void itemReadyForExecution(ExecutionAssistant assistant) {
-      // must override so we can set the running thread to handle the ability to interrupt
-      future.setRunningThread(Thread.currentThread());
-      super.itemReadyForExecution(assistant);
-    }
-
-    @Override
-    protected void runItem(ExecutionAssistant assistant) {
-      if (scriptStep == null) {
-        throw new IllegalStateException("Run has completed");
-      }
-      
-      if (assistant.getMarkedGlobalFailure()) {
-        future.cancel(false);
-        return;
-      }
-      
-      future.setRunningThread(Thread.currentThread());
-      
-      switch (scriptStep.getStepType()) {
-        case Normal: {
-          long startNanos = Clock.accurateTimeNanos();
-          try {
-            scriptStep.runStep();
-            long endNanos = Clock.accurateTimeNanos();
-            future.setResult(new PassStepResult(scriptStep.getIdentifier(), 
-                                                endNanos - startNanos));
-          } catch (Throwable t) {
-            long endNanos = Clock.accurateTimeNanos();
-            future.setResult(new ErrorStepResult(scriptStep.getIdentifier(), 
-                                                 endNanos - startNanos, t));
-            // must set result before marking failure
-            assistant.markGlobalFailure();
-          }
-        } break;
-        case AsyncMaintenance: {
-          // final reference since scriptStep will be nulled out after step completes
-          final ScriptStep fScriptStep = scriptStep;
-          
-          // set as complete immediately so script can continue
-          future.setResult(new MaintenancePassStepResult(scriptStep.getIdentifier()));
-          
-          assistant.executeAsyncMaintenanceTaskIfStillRunning(new Runnable() {
-            @Override
-            public void run() {
-              try {
-                fScriptStep.runStep();
-              } catch (Throwable t) {
-                ExceptionUtils.handleException(t);
-              }
-            }
-          });
-        } break;
-        case Maintenance: {
-          try {
-            scriptStep.runStep();
-            future.setResult(new MaintenancePassStepResult(scriptStep.getIdentifier()));
-          } catch (Throwable t) {
-            future.setResult(new MaintenanceErrorStepResult(scriptStep.getIdentifier(), t));
-            // must set result before marking failure
-            assistant.markGlobalFailure();
-          }
-        } break;
-        default:
-          throw new UnsupportedOperationException();
-      }
+      futures = Collections.singletonList(future);  // retained so that getFutures does not allocate
     }
 
     @Override
     public ScriptStepRunner makeCopy() {
-      if (scriptStep == null) {
-        throw new IllegalStateException("Run has completed");
-      }
-      
       return new ScriptStepRunner(scriptStep);
     }
 
     @Override
     public List<SettableListenableFuture<StepResult>> getFutures() {
-      return Collections.singletonList(future);
+      return futures;
     }
 
     @Override
@@ -627,7 +763,7 @@ public abstract class AbstractScriptBuilder {
     
     @Override
     public String toString() {
-      return scriptStep == null ? "CompletedScriptStep" : scriptStep.getIdentifier().toString();
+      return scriptStep.getIdentifier().toString();
     }
 
     @Override
@@ -648,6 +784,15 @@ public abstract class AbstractScriptBuilder {
   protected abstract static class AbstractExecutionItem implements ExecutionItem {
     private StepStartHandler handler = null;
 
+    /**
+     * Returns the handler set with {@link #setStartHandler(StepStartHandler)}.
+     * 
+     * @return Handler for when the item is ready to run, or {@code null} if not set
+     */
+    protected StepStartHandler getStartHandler() {
+      return handler;
+    }
+    
     @Override
     public void setStartHandler(StepStartHandler handler) {
       if (this.handler != null && handler != null) {
@@ -656,33 +801,5 @@ public abstract class AbstractScriptBuilder {
       }
       this.handler = handler;
     }
-    
-    @Override
-    public void itemReadyForExecution(ExecutionAssistant assistant) {
-      if (handler != null) {
-        handler.readyToRun(this, assistant);
-      } else {
-        runItem(assistant);
-      }
-    }
-    
-    protected abstract void runItem(ExecutionAssistant assistant);
-  }
-  
-  /**
-   * Runner to be added as a listener for when an execution item completes.  This runner is 
-   * just so that the complete action can be indicated to the original item.
-   */
-  protected static class ExecutionItemCompletionRunner implements Runnable {
-    private final ExecutionItem item;
-    
-    public ExecutionItemCompletionRunner(ExecutionItem item) {
-      this.item = item;
-    }
-    
-    @Override
-    public void run() {
-      item.runComplete();
-    }
   }
 }
@@ -1,10 +1,13 @@
 package org.threadly.load;
 
+import java.lang.management.ManagementFactory;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
+import org.threadly.util.Clock;
 import org.threadly.util.StringUtils;
 
 /**
@@ -14,6 +17,7 @@ import org.threadly.util.StringUtils;
 //extends ParameterStore so extending classes can get parameters easily
 abstract class AbstractScriptFactoryInitializer extends ParameterStore {
   protected final ExecutableScript script;
+  protected final long jvmStartNanos;
   
   protected AbstractScriptFactoryInitializer(String[] args) {
     this(args.length > 0 ? args[0] : null, 
@@ -23,6 +27,9 @@ abstract class AbstractScriptFactoryInitializer extends ParameterStore {
   protected AbstractScriptFactoryInitializer(String classStr, Properties properties) {
     super(properties);
 
+    // translate the JVM start time onto the nano clock so it can be compared with step times
+    long jvmUptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+    jvmStartNanos = Clock.accurateTimeNanos() - TimeUnit.MILLISECONDS.toNanos(jvmUptimeMillis);
     if (StringUtils.isNullOrEmpty(classStr)) {
       System.err.println("ScriptFactory class not provided");
       handleInitializationFailure(null);
@@ -0,0 +1,312 @@
+package org.threadly.load;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.threadly.util.ArgumentVerifier;
+
+/**
+ * Class for reading result files which were written by {@link BinaryResultWriter}.  The symbol 
+ * table is loaded at construction, but records are only ever streamed from disk.  This allows 
+ * result files which are much larger than the heap to be analyzed.  
+ * <p>
+ * This class can be run directly with the result file as the only argument, which will print a 
+ * report similar to the one {@link ScriptRunner} prints at the end of a run.
+ */
+public class BinaryResultReader {
+  private static final int READ_BUFFER_SIZE = BinaryResultWriter.RECORD_SIZE * 1024 * 32;
+  
+  /**
+   * Main function to print a report for a result file.
+   * 
+   * @param args Expected to contain a single argument, the path to the result file
+   * @throws IOException Thrown if the result file can not be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("java " + BinaryResultReader.class.getName() + " result.file");
+      System.exit(-1);
+    }
+    
+    new BinaryResultReader(new File(args[0])).printReport(System.out);
+  }
+  
+  private final File resultFile;
+  private final List<String> identifiers;
+  private final List<String> errors;
+  private final long startTimeMillis;
+  private final long startTimeNanos;
+  
+  /**
+   * Construct a new reader for the provided result file.  The symbol file must be located next to 
+   * the result file, as described by {@link BinaryResultWriter#getSymbolFile(File)}.
+   * 
+   * @param resultFile Result file which was written by {@link BinaryResultWriter}
+   * @throws IOException Thrown if the files could not be read, or are not in the expected format
+   */
+  public BinaryResultReader(File resultFile) throws IOException {
+    ArgumentVerifier.assertNotNull(resultFile, "resultFile");
+    
+    this.resultFile = resultFile;
+    identifiers = new ArrayList<String>();
+    errors = new ArrayList<String>();
+    
+    try (FileChannel channel = FileChannel.open(resultFile.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(BinaryResultWriter.HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) {
+          throw new IOException("Result file is missing header");
+        }
+      }
+      header.flip();
+      verifyHeader(header.getInt(), header.getInt(), BinaryResultWriter.RESULT_FILE_MAGIC);
+      startTimeMillis = header.getLong();
+      startTimeNanos = header.getLong();
+    }
+    
+    File symbolFile = BinaryResultWriter.getSymbolFile(resultFile);
+    try (DataInputStream in = new DataInputStream(
+             new BufferedInputStream(new FileInputStream(symbolFile)))) {
+      verifyHeader(in.readInt(), in.readInt(), BinaryResultWriter.SYMBOL_FILE_MAGIC);
+      while (true) {
+        byte type;
+        int id;
+        String value;
+        try {
+          type = in.readByte();
+          id = in.readInt();
+          value = in.readUTF();
+        } catch (EOFException e) {
+          // end of file, or a symbol which was only partially written
+          break;
+        }
+        List<String> symbols = 
+            type == BinaryResultWriter.SYMBOL_TYPE_IDENTIFIER ? identifiers : errors;
+        while (symbols.size() <= id) {
+          symbols.add(null);
+        }
+        symbols.set(id, value);
+      }
+    }
+  }
+  
+  private static void verifyHeader(int magic, int version, int expectedMagic) throws IOException {
+    if (magic != expectedMagic) {
+      throw new IOException("File not in expected format");
+    } else if (version != BinaryResultWriter.FORMAT_VERSION) {
+      throw new IOException("Unsupported format version: " + version);
+    }
+  }
+  
+  /**
+   * Returns the wall clock time (in milliseconds since epoch) when the writer was created.  This 
+   * corresponds to the nano time returned from {@link #getStartTimeNanos()}, allowing record start 
+   * times to be converted into wall clock time.
+   * 
+   * @return Time in milliseconds the file was started
+   */
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+  
+  /**
+   * Returns the nano time when the writer was created.  Record start times are on the same clock.
+   * 
+   * @return Time in nanoseconds the file was started
+   */
+  public long getStartTimeNanos() {
+    return startTimeNanos;
+  }
+  
+  /**
+   * Returns the number of complete records stored in the result file.
+   * 
+   * @return Count of records available to read
+   */
+  public long getRecordCount() {
+    return Math.max(0, resultFile.length() - BinaryResultWriter.HEADER_SIZE) / 
+             BinaryResultWriter.RECORD_SIZE;
+  }
+  
+  /**
+   * Returns the number of unique identifiers in the symbol table.  Valid identifier ids are from 
+   * {@code 0} to this value (exclusive).
+   * 
+   * @return Number of known identifiers
+   */
+  public int getIdentifierCount() {
+    return identifiers.size();
+  }
+  
+  /**
+   * Look up the identifier for a given identifier id.  The symbol table is written separately 
+   * from the records, so if the writing JVM exited unexpectedly a record may reference an id 
+   * which is not in the symbol table.  In that case a placeholder is returned.
+   * 
+   * @param identifierId Id provided from a record
+   * @return The step identifier, or {@code <unknown id N>} if the id is not known
+   */
+  public String getIdentifier(int identifierId) {
+    return lookupSymbol(identifiers, identifierId);
+  }
+  
+  /**
+   * Look up the error description for a given error id.
+   * 
+   * @param errorId Id provided from a record, must not be {@link BinaryResultWriter#NO_ERROR_ID}
+   * @return The error description (currently the class name of the thrown error), or 
+   *           {@code <unknown id N>} if the id is not known
+   */
+  public String getError(int errorId) {
+    return lookupSymbol(errors, errorId);
+  }
+  
+  private static String lookupSymbol(List<String> symbols, int id) {
+    String result = null;
+    if (id >= 0 && id < symbols.size()) {
+      result = symbols.get(id);
+    }
+    if (result == null) {
+      return "<unknown id " + id + ">";
+    }
+    return result;
+  }
+  
+  /**
+   * Stream all records in the file to the provided handler.  Records are provided in the order 
+   * they were written, which is the order the steps completed.  If the file ends with a partial 
+   * record (for example if the writing JVM exited unexpectedly) that record will be ignored.
+   * 
+   * @param handler Handler to receive each record
+   * @throws IOException Thrown if the file could not be read
+   */
+  public void readRecords(RecordHandler handler) throws IOException {
+    ArgumentVerifier.assertNotNull(handler, "handler");
+    
+    try (FileChannel channel = FileChannel.open(resultFile.toPath(), StandardOpenOption.READ)) {
+      channel.position(BinaryResultWriter.HEADER_SIZE);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+      while (channel.read(buffer) >= 0 || buffer.position() >= BinaryResultWriter.RECORD_SIZE) {
+        buffer.flip();
+        while (buffer.remaining() >= BinaryResultWriter.RECORD_SIZE) {
+          handler.handleRecord(buffer.getInt(), buffer.getLong(), buffer.getLong(), 
+                               buffer.get(), buffer.getInt());
+        }
+        buffer.compact();
+      }
+    }
+  }
+  
+  /**
+   * Stream through the records to print a report of the results.  This includes the step counts, 
+   * failure counts, and run time statistics for {@link ScriptStepType#Normal} steps.
+   * 
+   * @param out Stream to print the report to
+   * @throws IOException Thrown if the file could not be read
+   */
+  public void printReport(PrintStream out) throws IOException {
+    final RunTimeHistogram histogram = new RunTimeHistogram();
+    final long[] errorCounts = new long[errors.size()];
+    // errors referenced by records without being in the symbol table
+    final Map<Integer, Long> unknownErrorCounts = new TreeMap<Integer, Long>();
+    final long[] counts = new long[BinaryResultWriter.STATUS_MAINTENANCE_ERROR + 1];
+    // records with a status this reader does not know, from corruption or a newer format
+    final Map<Integer, Long> unknownStatusCounts = new TreeMap<Integer, Long>();
+    final long[] longestStep = new long[] { -1, -1 };  // identifier id, run time
+    final long[] timeRange = new long[] { Long.MAX_VALUE, Long.MIN_VALUE };
+    readRecords(new RecordHandler() {
+      @Override
+      public void handleRecord(int identifierId, long startNanos, long runTimeNanos, 
+                               byte status, int errorId) {
+        if (status < 0 || status >= counts.length) {
+          Long count = unknownStatusCounts.get((int)status);
+          unknownStatusCounts.put((int)status, count == null ? 1 : count + 1);
+          return;
+        }
+        counts[status]++;
+        if (errorId >= 0 && errorId < errorCounts.length) {
+          errorCounts[errorId]++;
+        } else if (errorId != BinaryResultWriter.NO_ERROR_ID) {
+          Long count = unknownErrorCounts.get(errorId);
+          unknownErrorCounts.put(errorId, count == null ? 1 : count + 1);
+        }
+        timeRange[0] = Math.min(timeRange[0], startNanos);
+        timeRange[1] = Math.max(timeRange[1], startNanos + runTimeNanos);
+        if (status == BinaryResultWriter.STATUS_PASS || status == BinaryResultWriter.STATUS_ERROR) {
+          histogram.recordValue(runTimeNanos);
+          if (runTimeNanos > longestStep[1]) {
+            longestStep[0] = identifierId;
+            longestStep[1] = runTimeNanos;
+          }
+        }
+      }
+    });
+    
+    long failures = counts[BinaryResultWriter.STATUS_ERROR] + 
+                      counts[BinaryResultWriter.STATUS_MAINTENANCE_ERROR];
+    out.println("Steps recorded: " + (counts[BinaryResultWriter.STATUS_PASS] + failures + 
+                                        counts[BinaryResultWriter.STATUS_MAINTENANCE_PASS]));
+    out.println("Failed steps: " + failures);
+    for (Map.Entry<Integer, Long> e : unknownStatusCounts.entrySet()) {
+      out.println("Records with unknown status " + e.getKey() + ": " + e.getValue());
+    }
+    for (int i = 0; i < errorCounts.length; i++) {
+      if (errorCounts[i] > 0) {
+        out.println('\t' + getError(i) + " occurred " + errorCounts[i] + " times");
+      }
+    }
+    for (Map.Entry<Integer, Long> e : unknownErrorCounts.entrySet()) {
+      out.println('\t' + getError(e.getKey()) + " occurred " + e.getValue() + " times");
+    }
+    if (histogram.getTotalCount() == 0) {
+      return;
+    }
+    out.println("Recorded duration: " + 
+                  TimeUnit.NANOSECONDS.toSeconds(timeRange[1] - timeRange[0]) + " seconds");
+    out.println("Average time spent per step: " + 
+                  (histogram.getMean() / TimeUnit.MILLISECONDS.toNanos(1)) + " milliseconds");
+    long[] percentileValues = histogram.getValuesAtPercentiles(ScriptRunner.RETURNED_PERCENTILES);
+    for (int i = 0; i < percentileValues.length; i++) {
+      double p = ScriptRunner.RETURNED_PERCENTILES[i];
+      if (p < 100) {
+        long valueMillis = TimeUnit.NANOSECONDS.toMillis(percentileValues[i]);
+        out.println("Percentile " + p + ": " + valueMillis + " milliseconds");
+      }
+    }
+    out.println("Longest running step: " + getIdentifier((int)longestStep[0]) + 
+                  ", ran for: " + TimeUnit.NANOSECONDS.toMillis(longestStep[1]) + " milliseconds");
+  }
+  
+  /**
+   * Interface for receiving records as they are streamed from 
+   * {@link BinaryResultReader#readRecords(RecordHandler)}.
+   */
+  public interface RecordHandler {
+    /**
+     * Invoked for each record read from the result file.
+     * 
+     * @param identifierId Identifier id, see {@link BinaryResultReader#getIdentifier(int)}
+     * @param startNanos Time the step started, see {@link BinaryResultReader#getStartTimeNanos()}
+     * @param runTimeNanos Time in nanoseconds the step ran for
+     * @param status Status of the step, one of the {@code STATUS_} values from 
+     *                 {@link BinaryResultWriter}
+     * @param errorId Error id (see {@link BinaryResultReader#getError(int)}), or 
+     *                  {@link BinaryResultWriter#NO_ERROR_ID} if the step did not fail
+     */
+    public void handleRecord(int identifierId, long startNanos, long runTimeNanos, 
+                             byte status, int errorId);
+  }
+}
@@ -0,0 +1,243 @@
+package org.threadly.load;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.threadly.util.ArgumentVerifier;
+import org.threadly.util.Clock;
+
+/**
+ * {@link StepResultRecorder} which appends every step result as a fixed width binary record to a 
+ * file.  This allows the raw results of a run to be retained after the JVM exits without having 
+ * to hold them in memory.  The file can then be analyzed using {@link BinaryResultReader}.  
+ * <p>
+ * Each record is {@value #RECORD_SIZE} bytes: an {@code int} identifier id, a {@code long} start 
+ * time in nanoseconds, a {@code long} run time in nanoseconds, a {@code byte} status, and an 
+ * {@code int} error id.  The identifier and error ids reference a symbol table which is written 
+ * to a separate file (see {@link #getSymbolFile(File)}) as new values are first observed.  
+ * <p>
+ * If an {@link IOException} occurs while recording, further results will be dropped, and the 
+ * exception will be thrown from {@link #close()}.
+ */
+public class BinaryResultWriter implements StepResultRecorder, Closeable {
+  protected static final int RESULT_FILE_MAGIC = 0x414D4252;  // "AMBR"
+  protected static final int SYMBOL_FILE_MAGIC = 0x414D4253;  // "AMBS"
+  protected static final int FORMAT_VERSION = 1;
+  protected static final int HEADER_SIZE = 24;
+  protected static final int RECORD_SIZE = 25;
+  protected static final byte SYMBOL_TYPE_IDENTIFIER = 0;
+  protected static final byte SYMBOL_TYPE_ERROR = 1;
+  /**
+   * Status for a {@link ScriptStepType#Normal} step which completed without error.
+   */
+  public static final byte STATUS_PASS = 0;
+  /**
+   * Status for a {@link ScriptStepType#Normal} step which completed with an error.
+   */
+  public static final byte STATUS_ERROR = 1;
+  /**
+   * Status for a maintenance step which completed without error.
+   */
+  public static final byte STATUS_MAINTENANCE_PASS = 2;
+  /**
+   * Status for a maintenance step which completed with an error.
+   */
+  public static final byte STATUS_MAINTENANCE_ERROR = 3;
+  /**
+   * Error id recorded when the step completed without error.
+   */
+  public static final int NO_ERROR_ID = -1;
+  private static final int BUFFER_SIZE = RECORD_SIZE * 2048;
+  
+  /**
+   * Get the file the symbol table is stored in for a given result file.
+   * 
+   * @param resultFile Result file being written or read
+   * @return File which holds the symbol table for the result file
+   */
+  public static File getSymbolFile(File resultFile) {
+    return new File(resultFile.getPath() + ".symbols");
+  }
+  
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final DataOutputStream symbolOut;
+  private final Map<CharSequence, Integer> identifierIds;
+  private final Map<String, Integer> errorIds;
+  private volatile IOException writeFailure;
+  private boolean closed;
+  
+  /**
+   * Constructs a new writer.  If the file already exists it will be truncated.
+   * 
+   * @param resultFile File to write results into
+   * @throws IOException Thrown if the result or symbol files can not be opened
+   */
+  public BinaryResultWriter(File resultFile) throws IOException {
+    ArgumentVerifier.assertNotNull(resultFile, "resultFile");
+    
+    channel = FileChannel.open(resultFile.toPath(), StandardOpenOption.CREATE, 
+                               StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    symbolOut = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(getSymbolFile(resultFile))));
+    identifierIds = new ConcurrentHashMap<CharSequence, Integer>();
+    errorIds = new ConcurrentHashMap<String, Integer>();
+    writeFailure = null;
+    closed = false;
+    
+    // start times are recorded from the nano clock, so record a reference point to wall time
+    buffer.putInt(RESULT_FILE_MAGIC).putInt(FORMAT_VERSION)
+          .putLong(Clock.accurateTimeMillis()).putLong(Clock.accurateTimeNanos());
+    symbolOut.writeInt(SYMBOL_FILE_MAGIC);
+    symbolOut.writeInt(FORMAT_VERSION);
+  }
+  
+  @Override
+  public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                           long startNanos, long runTimeNanos, Throwable error) {
+    int identifierId = identifierId(identifier);
+    int errorId = error == null ? NO_ERROR_ID : errorId(error);
+    byte status;
+    if (stepType == ScriptStepType.Normal) {
+      status = error == null ? STATUS_PASS : STATUS_ERROR;
+    } else {
+      status = error == null ? STATUS_MAINTENANCE_PASS : STATUS_MAINTENANCE_ERROR;
+    }
+    
+    synchronized (this) {
+      if (closed || writeFailure != null) {
+        return;
+      }
+      if (buffer.remaining() < RECORD_SIZE) {
+        try {
+          flushBuffer();
+        } catch (IOException e) {
+          writeFailure = e;
+          return;
+        }
+      }
+      buffer.putInt(identifierId).putLong(startNanos).putLong(runTimeNanos)
+            .put(status).putInt(errorId);
+    }
+  }
+  
+  private int identifierId(CharSequence identifier) {
+    if (identifier instanceof String) {
+      // String.equals only matches other Strings, so convert to be consistent with other keys
+      identifier = CharsDeduplicator.deDuplicate((String)identifier);
+    }
+    Integer result = identifierIds.get(identifier);
+    if (result == null) {
+      synchronized (symbolOut) {
+        result = identifierIds.get(identifier);
+        if (result == null) {
+          result = identifierIds.size();
+          writeSymbol(SYMBOL_TYPE_IDENTIFIER, result, identifier.toString());
+          identifierIds.put(identifier, result);
+        }
+      }
+    }
+    return result;
+  }
+  
+  private int errorId(Throwable error) {
+    String errorType = error.getClass().getName();
+    Integer result = errorIds.get(errorType);
+    if (result == null) {
+      synchronized (symbolOut) {
+        result = errorIds.get(errorType);
+        if (result == null) {
+          result = errorIds.size();
+          writeSymbol(SYMBOL_TYPE_ERROR, result, errorType);
+          errorIds.put(errorType, result);
+        }
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Writes a new symbol into the symbol table.  Must be invoked while holding the 
+   * {@code symbolOut} lock.
+   * 
+   * @param type Type of symbol being written
+   * @param id Id the symbol is referenced with
+   * @param value Value the id represents
+   */
+  private void writeSymbol(byte type, int id, String value) {
+    try {
+      symbolOut.writeByte(type);
+      symbolOut.writeInt(id);
+      symbolOut.writeUTF(value);
+    } catch (IOException e) {
+      // volatile set without locking to avoid lock ordering issues, retaining any failure is enough
+      writeFailure = e;
+    }
+  }
+  
+  /**
+   * Write the buffer contents into the file channel.  Must be invoked while holding the 
+   * {@code this} lock.
+   * 
+   * @throws IOException Thrown if the channel could not be written to
+   */
+  private void flushBuffer() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+  
+  /**
+   * Writes out any results which are currently buffered.
+   * 
+   * @throws IOException Thrown if a previous write failed, or if unable to write the buffered data
+   */
+  public void flush() throws IOException {
+    synchronized (symbolOut) {
+      symbolOut.flush();
+    }
+    synchronized (this) {
+      if (writeFailure != null) {
+        throw writeFailure;
+      } else if (! closed) {
+        flushBuffer();
+      }
+    }
+  }
+  
+  /**
+   * Flushes any buffered results and closes the files.  Any results provided after this call 
+   * will be ignored.
+   * 
+   * @throws IOException Thrown if any write failed, or if the files could not be closed
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      try {
+        synchronized (this) {
+          closed = true;
+          channel.close();
+        }
+      } finally {
+        synchronized (symbolOut) {
+          symbolOut.close();
+        }
+      }
+    }
+  }
+}
@@ -1,12 +1,52 @@
 package org.threadly.load;
 
+import java.util.Arrays;
+
 /**
- * Char sequence which is built from a chain of sequences.
+ * Char sequence which is built from a chain of sequences.  Sequences which are not already known 
+ * to be immutable ({@link LightCharSequence} or {@link CharSequenceChain}) are copied on 
+ * construction, and nested chains are flattened.  This allows the length, segment offsets and 
+ * hash code to be calculated once at construction.  Thus {@link #length()} is constant time, 
+ * {@link #charAt(int)} is a binary search over the segments, and {@link #subSequence(int, int)} 
+ * copies whole segments at a time.  The {@link String} form is only built the first time it is 
+ * requested.  
+ * <p>
+ * Both {@link #hashCode()} and {@link #equals(Object)} are consistent with {@link String} and 
+ * {@link LightCharSequence}.
  */
 public class CharSequenceChain implements CharSequence {
-  private static final int HASH_START_PRIME = 31;
+  /**
+   * Copy characters from the source sequence into the destination array.  This is similar to 
+   * {@link String#getChars(int, int, char[], int)}, but will use the most efficient bulk copy 
+   * available for the type of sequence.
+   * 
+   * @param cs Sequence to copy characters from
+   * @param srcBegin Index of the first character to copy
+   * @param srcEnd Index after the last character to copy
+   * @param dst Destination array
+   * @param dstBegin Starting position in the destination array
+   */
+  protected static void getChars(CharSequence cs, int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    if (cs instanceof LightCharSequence) {
+      System.arraycopy(((LightCharSequence)cs).chars, srcBegin, dst, dstBegin, srcEnd - srcBegin);
+    } else if (cs instanceof CharSequenceChain) {
+      ((CharSequenceChain)cs).getChars(srcBegin, srcEnd, dst, dstBegin);
+    } else if (cs instanceof String) {
+      ((String)cs).getChars(srcBegin, srcEnd, dst, dstBegin);
+    } else if (cs instanceof StringBuilder) {
+      ((StringBuilder)cs).getChars(srcBegin, srcEnd, dst, dstBegin);
+    } else {
+      for (int i = srcBegin; i < srcEnd; i++) {
+        dst[dstBegin++] = cs.charAt(i);
+      }
+    }
+  }
   
   private final CharSequence[] chain;
+  private final int[] offsets;  // start index of each segment within this sequence
+  private final int length;
+  private final int hash;
+  private String string;  // lazily set, racy single check is safe since String is immutable
   
   /**
    * Construct a new char sequence from several char sequences.
@@ -14,78 +54,130 @@ public class CharSequenceChain implements CharSequence {
    * @param chain Chain of sequences that produces this sequence
    */
   public CharSequenceChain(CharSequence ... chain) {
+    int segmentCount = 0;
+    for (CharSequence cs : chain) {
+      if (cs instanceof CharSequenceChain) {
+        segmentCount += ((CharSequenceChain)cs).chain.length;
+      } else if (cs.length() > 0) {
+        segmentCount++;
+      }
+    }
+    
+    CharSequence[] segments = new CharSequence[segmentCount];
     int index = 0;
-    CharSequence[] fooChain = new CharSequence[chain.length];
     for (CharSequence cs : chain) {
-      if (cs.length() > 0) {
-        if (cs instanceof String) {
-          cs = new LightCharSequence(((String)cs).toCharArray());
+      if (cs instanceof CharSequenceChain) {
+        CharSequence[] nestedChain = ((CharSequenceChain)cs).chain;
+        System.arraycopy(nestedChain, 0, segments, index, nestedChain.length);
+        index += nestedChain.length;
+      } else if (cs instanceof LightCharSequence) {
+        if (cs.length() > 0) {
+          segments[index++] = cs;
         }
-        fooChain[index++] = cs;
+      } else if (cs.length() > 0) {
+        // copy so we know the contents wont change after we calculated the length and hash
+        char[] chars = new char[cs.length()];
+        getChars(cs, 0, chars.length, chars, 0);
+        segments[index++] = new LightCharSequence(chars);
       }
     }
     
-    if (index == chain.length) {
-      this.chain = fooChain;
-    } else {
-      CharSequence[] newChain = new CharSequence[index];
-      System.arraycopy(fooChain, 0, newChain, 0, index);
-      this.chain = newChain;
+    this.chain = segments;
+    this.offsets = new int[segments.length];
+    int length = 0;
+    int hash = 0;
+    for (int i = 0; i < segments.length; i++) {
+      offsets[i] = length;
+      length += segments[i].length();
+      hash = LightCharSequence.hash(hash, segments[i]);
     }
+    this.length = length;
+    this.hash = hash;
+  }
+  
+  /**
+   * Find the segment which contains the provided index.
+   * 
+   * @param index Index within this sequence, must be within range
+   * @return Index of the segment within {@code chain}
+   */
+  private int segmentIndex(int index) {
+    int result = Arrays.binarySearch(offsets, index);
+    // segments are never empty, so a positive result is always the containing segment
+    return result >= 0 ? result : -result - 2;
   }
 
   @Override
   public char charAt(int index) {
-    int currIndex = 0;
-    for (CharSequence cs : chain) {
-      if (currIndex + cs.length() > index) {
-        return cs.charAt(index - currIndex);
-      } else {
-        currIndex += cs.length();
-      }
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException();
     }
     
-    throw new IndexOutOfBoundsException();
+    int segment = segmentIndex(index);
+    return chain[segment].charAt(index - offsets[segment]);
   }
 
   @Override
   public int length() {
-    int result = 0;
-    for (CharSequence cs : chain) {
-      result += cs.length();
+    return length;
+  }
+  
+  /**
+   * Copy characters from this sequence into the destination array.  This functions the same as 
+   * {@link String#getChars(int, int, char[], int)}.
+   * 
+   * @param srcBegin Index of the first character to copy
+   * @param srcEnd Index after the last character to copy
+   * @param dst Destination array
+   * @param dstBegin Starting position in the destination array
+   */
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+      throw new IndexOutOfBoundsException();
+    } else if (srcBegin == srcEnd) {
+      return;
     }
     
-    return result;
+    int segment = segmentIndex(srcBegin);
+    int position = srcBegin;
+    while (position < srcEnd) {
+      CharSequence cs = chain[segment];
+      int segmentStart = offsets[segment];
+      int copyEnd = Math.min(srcEnd - segmentStart, cs.length());
+      int copyStart = position - segmentStart;
+      getChars(cs, copyStart, copyEnd, dst, dstBegin);
+      dstBegin += copyEnd - copyStart;
+      position += copyEnd - copyStart;
+      segment++;
+    }
   }
 
   @Override
   public CharSequence subSequence(int start, int end) {
-    // TODO - improve performance dramatically by not using charAt to build result
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException();
+    }
     
     char[] resultArray = new char[end - start];
-    for (int i = 0; i < resultArray.length; i++) {
-      resultArray[i] = charAt(start + i);
-    }
+    getChars(start, end, resultArray, 0);
     
     return new LightCharSequence(resultArray);
   }
   
   @Override
   public String toString() {
-    StringBuilder sb = new StringBuilder();
-    for (CharSequence cs : chain) {
-      sb.append(cs);
+    String result = string;
+    if (result == null) {
+      char[] chars = new char[length];
+      getChars(0, length, chars, 0);
+      string = result = new String(chars);
     }
-    return sb.toString();
+    return result;
   }
   
   @Override
   public int hashCode() {
-    int result = HASH_START_PRIME;
-    for (CharSequence cs : chain) {
-      result ^= cs.hashCode();
-    }
-    return result;
+    return hash;
   }
   
   @Override
@@ -93,7 +185,7 @@ public class CharSequenceChain implements CharSequence {
     if (this == o) {
       return true;
     } else if (o instanceof CharSequence) {
-      return this.toString().equals(o.toString());
+      return LightCharSequence.contentEquals(this, (CharSequence)o);
     } else {
       return false;
     }
@@ -1,25 +1,29 @@
 package org.threadly.load;
 
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
-import org.threadly.concurrent.collections.ConcurrentArrayList;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Class used for de duplicating strings into a more minimal storage form.  This does a more 
- * aggressive form of reference aggregation than {@link String#intern()}.  And in fact the cache 
- * continues to grow infinitely until {@link CharsDeduplicator#clearCache()} is invoked.
+ * aggressive form of reference aggregation than {@link String#intern()}.  
  * <p>
  * The returned references are not Strings, but rather a reference which only holds the 
  * {@code char[]}, all invocations then calculate the result at the time of invocation.  Trading 
  * memory for extra CPU cycles.
+ * <p>
+ * The cache is a fixed size table indexed by the content hash, holding only weak references.  
+ * This means memory is bounded no matter how many unique values are provided (for example 
+ * identifiers which include request ids), and entries which are no longer referenced by any 
+ * script step can be garbage collected.  Lookups are lock free.  Because of these constraints 
+ * the de-duplication is best effort, if the table is saturated older entries will be evicted, 
+ * and then an equal (but not identical) reference may be returned.
  */
 public class CharsDeduplicator {
-  // TODO - should we make this hold soft references??
-  private static final ConcurrentMap<Integer, ConcurrentArrayList<LightCharSequence>> CACHE = 
-      new ConcurrentHashMap<Integer, ConcurrentArrayList<LightCharSequence>>();
+  protected static final int CACHE_SIZE = 1 << 14;  // must be a power of two
+  protected static final int MAX_PROBE_COUNT = 8;
+  private static final int HASH_SPREAD_SHIFT = 16;
+  private static final AtomicReferenceArray<WeakReference<LightCharSequence>> CACHE = 
+      new AtomicReferenceArray<WeakReference<LightCharSequence>>(CACHE_SIZE);
   
   /**
    * De-duplicate the provided string into a lighter memory form.  Because this form is a new 
@@ -30,7 +34,12 @@ public class CharsDeduplicator {
    * @return Immutable CharSequence which represents the strings contents
    */
   public static LightCharSequence deDuplicate(String str) {
-    return deDuplicate(str.toCharArray());
+    if (str == null) {
+      return null;
+    }
+    
+    // String caches its hash code, so hits can be found without copying or hashing the chars
+    return deDuplicate(str, null, str.hashCode());
   }
   
   protected static LightCharSequence deDuplicate(char[] chars) {
@@ -38,44 +47,57 @@ public class CharsDeduplicator {
       return null;
     }
     
-    ConcurrentArrayList<LightCharSequence> deDupList = CACHE.get(chars.length);
-    if (deDupList == null) {
-      deDupList = new ConcurrentArrayList<LightCharSequence>();
-      ConcurrentArrayList<LightCharSequence> existing = CACHE.putIfAbsent(chars.length, deDupList);
-      if (existing != null) {
-        deDupList = existing;
-      }
-    }
-    
-    // more likely to see updates from .get() calls than iterator, and RandomAccessList anyways
-    int lastIndex = 0;
-    for (; lastIndex < deDupList.size(); lastIndex++) {
-      LightCharSequence c = deDupList.get(lastIndex);
-      if (Arrays.equals(c.chars, chars)) {
-        return c;
+    return deDuplicate(null, chars, LightCharSequence.hash(0, chars));
+  }
+  
+  /**
+   * Search the cache for a matching value, adding it if none is found.  Only one of the two 
+   * content references should be provided, the other should be {@code null}.
+   * 
+   * @param str String contents to search for, or {@code null} if provided as {@code chars}
+   * @param chars Char contents to search for, or {@code null} if provided as {@code str}
+   * @param hash Hash of the contents, must be consistent with {@link String#hashCode()}
+   * @return Deduplicated sequence
+   */
+  private static LightCharSequence deDuplicate(String str, char[] chars, int hash) {
+    int homeIndex = (hash ^ (hash >>> HASH_SPREAD_SHIFT)) & (CACHE_SIZE - 1);
+    LightCharSequence result = null;
+    int probe = 0;
+    while (probe < MAX_PROBE_COUNT) {
+      int index = (homeIndex + probe) & (CACHE_SIZE - 1);
+      WeakReference<LightCharSequence> ref = CACHE.get(index);
+      LightCharSequence cached = ref == null ? null : ref.get();
+      if (cached == null) {
+        // free (or collected) slot, values are added to the first free slot so the value can only 
+        // be further down the probe chain if an earlier entry was collected
+        if (result == null) {
+          result = new LightCharSequence(chars == null ? str.toCharArray() : chars, hash);
+        }
+        if (CACHE.compareAndSet(index, ref, new WeakReference<LightCharSequence>(result))) {
+          return result;
+        }
+        // lost race, re-inspect the same slot as it may now contain our value
+      } else if (cached.contentEquals(str, chars)) {
+        return cached;
+      } else {
+        probe++;
       }
     }
     
-    // not found, so lock, verify absolutely not in list, then add if still not found
-    synchronized (deDupList.getModificationLock()) {
-      Iterator<LightCharSequence> it = deDupList.listIterator(lastIndex);
-      while (it.hasNext()) {
-        LightCharSequence c = it.next();
-        if (Arrays.equals(c.chars, chars)) {
-          return c;
-        }
-      }
-      
-      LightCharSequence result = new LightCharSequence(chars);
-      deDupList.add(result);
-      return result;
+    // table saturated in this region, evict the home slot so recently used values are retained
+    if (result == null) {
+      result = new LightCharSequence(chars == null ? str.toCharArray() : chars, hash);
     }
+    CACHE.set(homeIndex, new WeakReference<LightCharSequence>(result));
+    return result;
   }
   
   /**
    * Clears the stored cache, freeing up all stored memory here.
    */
   public static void clearCache() {
-    CACHE.clear();
+    for (int i = 0; i < CACHE_SIZE; i++) {
+      CACHE.lazySet(i, null);
+    }
   }
 }
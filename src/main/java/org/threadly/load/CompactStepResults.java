@@ -0,0 +1,317 @@
+package org.threadly.load;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage for step results in primitive arrays, rather than as one {@link StepResult} object 
+ * per step.  Each step in the script is assigned a slot when the script starts, and the step's 
+ * run time, status, and identifier id are stored into that slot as the step completes.  Errors 
+ * are rare, so they are stored separately and only for the slots which failed.  
+ * <p>
+ * {@link StepResult} instances are only created as views when requested, for example from 
+ * {@link #getResult(int)} or {@link #getFailedResults()}.  Values should only be read once the 
+ * step (or the script) has completed, which can be determined by the step futures.  
+ * <p>
+ * This mode is enabled with {@link ExecutableScript#setCompactResults(boolean)}.
+ */
+public class CompactStepResults {
+  /**
+   * Status for a slot whose step has not completed, or was never executed.
+   */
+  public static final byte STATUS_NOT_RUN = 0;
+  /**
+   * Status for a {@link ScriptStepType#Normal} step which completed without error.
+   */
+  public static final byte STATUS_PASS = 1;
+  /**
+   * Status for a {@link ScriptStepType#Normal} step which completed with an error.
+   */
+  public static final byte STATUS_ERROR = 2;
+  /**
+   * Status for a maintenance step which completed without error.
+   */
+  public static final byte STATUS_MAINTENANCE_PASS = 3;
+  /**
+   * Status for a maintenance step which completed with an error.
+   */
+  public static final byte STATUS_MAINTENANCE_ERROR = 4;
+  
+  private final long[] runTimes;
+  private final byte[] statuses;
+  private final int[] identifierIds;
+  private final List<CharSequence> identifiers;
+  private final Map<CharSequence, Integer> identifierLookup;
+  private final Map<Integer, Throwable> errors;
+  private int slotCount;
+  
+  /**
+   * Constructs a new store with a fixed number of slots.
+   * 
+   * @param capacity Number of steps which will be stored
+   */
+  protected CompactStepResults(int capacity) {
+    runTimes = new long[capacity];
+    statuses = new byte[capacity];
+    identifierIds = new int[capacity];
+    identifiers = new ArrayList<CharSequence>();
+    identifierLookup = new HashMap<CharSequence, Integer>();
+    errors = new ConcurrentHashMap<Integer, Throwable>();
+    slotCount = 0;
+  }
+  
+  /**
+   * Assigns the next slot to a step.  This must be invoked before the script starts, and from a 
+   * single thread.
+   * 
+   * @param identifier Identifier of the step the slot is for
+   * @return Slot index to provide to {@link #recordResult(int, ScriptStepType, long, Throwable)}
+   */
+  protected int assignSlot(CharSequence identifier) {
+    if (slotCount == statuses.length) {
+      throw new IllegalStateException("All slots already assigned");
+    }
+    if (identifier instanceof String) {
+      // String.equals only matches other Strings, so convert to be consistent with other keys
+      identifier = CharsDeduplicator.deDuplicate((String)identifier);
+    }
+    Integer identifierId = identifierLookup.get(identifier);
+    if (identifierId == null) {
+      identifierId = identifiers.size();
+      identifiers.add(identifier);
+      identifierLookup.put(identifier, identifierId);
+    }
+    identifierIds[slotCount] = identifierId;
+    return slotCount++;
+  }
+  
+  /**
+   * Store the result of a completed step.  This is invoked before the step's future completes, 
+   * so the values will be visible to anyone who has observed that future complete.
+   * 
+   * @param slot Slot which was assigned to the step
+   * @param stepType Type of step which completed
+   * @param runTimeNanos Time in nanoseconds the step ran for
+   * @param error Error thrown from the step, or {@code null} if completed normally
+   */
+  protected void recordResult(int slot, ScriptStepType stepType, long runTimeNanos, Throwable error) {
+    runTimes[slot] = runTimeNanos;
+    if (error != null) {
+      errors.put(slot, error);
+    }
+    if (stepType == ScriptStepType.Normal) {
+      statuses[slot] = error == null ? STATUS_PASS : STATUS_ERROR;
+    } else {
+      statuses[slot] = error == null ? STATUS_MAINTENANCE_PASS : STATUS_MAINTENANCE_ERROR;
+    }
+  }
+  
+  /**
+   * Returns the number of slots (and thus steps) held in this store.
+   * 
+   * @return Number of slots which can be inspected
+   */
+  public int size() {
+    return slotCount;
+  }
+  
+  /**
+   * Returns the status of the step in a given slot.  This will be one of the {@code STATUS_} 
+   * constants in this class.
+   * 
+   * @param slot Slot to inspect
+   * @return The status for the slot
+   */
+  public byte getStatus(int slot) {
+    return statuses[slot];
+  }
+  
+  /**
+   * Returns the run time for the step in a given slot.
+   * 
+   * @param slot Slot to inspect
+   * @param desiredUnit TimeUnit which result should be provided in
+   * @return Time the step ran for, or {@code 0} if not run or a maintenance step
+   */
+  public long getRunTime(int slot, TimeUnit desiredUnit) {
+    return desiredUnit.convert(runTimes[slot], TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Returns the description (identifier) of the step in a given slot.
+   * 
+   * @param slot Slot to inspect
+   * @return Description of the step
+   */
+  public String getDescription(int slot) {
+    return identifiers.get(identifierIds[slot]).toString();
+  }
+  
+  /**
+   * Returns the error thrown from the step in a given slot.
+   * 
+   * @param slot Slot to inspect
+   * @return Thrown error during execution or {@code null} if executed normally (or not run)
+   */
+  public Throwable getError(int slot) {
+    return errors.get(slot);
+  }
+  
+  /**
+   * Creates a {@link StepResult} view for a given slot.  Each invocation creates a new view.
+   * 
+   * @param slot Slot to get a result for
+   * @return Result for the slot, or {@code null} if the step has not completed
+   */
+  public StepResult getResult(int slot) {
+    if (slot < 0 || slot >= slotCount) {
+      throw new IndexOutOfBoundsException();
+    } else if (statuses[slot] == STATUS_NOT_RUN) {
+      return null;
+    } else {
+      return new SlotStepResult(slot);
+    }
+  }
+  
+  /**
+   * Get views for all the steps which have completed in error.
+   * 
+   * @return List of results which failed, will be empty if no failures occurred
+   */
+  public List<StepResult> getFailedResults() {
+    if (errors.isEmpty()) {
+      return new ArrayList<StepResult>(0);
+    }
+    List<StepResult> result = new ArrayList<StepResult>(errors.size());
+    for (int i = 0; i < slotCount; i++) {
+      if (statuses[i] == STATUS_ERROR || statuses[i] == STATUS_MAINTENANCE_ERROR) {
+        result.add(new SlotStepResult(i));
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Calculates the average run time for completed {@link ScriptStepType#Normal} steps.
+   * 
+   * @param timeUnit Time unit that the resulting time should be returned in
+   * @return Average time spent per step, or {@link Double#NaN} if no steps have completed
+   */
+  public double getRunTimeAverage(TimeUnit timeUnit) {
+    double count = 0;
+    double totalNanos = 0;
+    for (int i = 0; i < slotCount; i++) {
+      if (statuses[i] == STATUS_PASS || statuses[i] == STATUS_ERROR) {
+        count++;
+        totalNanos += runTimes[i];
+      }
+    }
+    
+    return (totalNanos / count) / TimeUnit.NANOSECONDS.convert(1, timeUnit);
+  }
+  
+  /**
+   * Builds a histogram of the run times for all completed {@link ScriptStepType#Normal} steps.
+   * 
+   * @return A new histogram containing the run times in nanoseconds
+   */
+  public RunTimeHistogram getRunTimeHistogram() {
+    RunTimeHistogram result = new RunTimeHistogram();
+    for (int i = 0; i < slotCount; i++) {
+      if (statuses[i] == STATUS_PASS || statuses[i] == STATUS_ERROR) {
+        result.recordValue(runTimes[i]);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Get step run time percentiles.  This functions the same as 
+   * {@link StepResultCollectionUtils#getRunTimePercentiles(java.util.Collection, double...)}, 
+   * except views are only created for the returned results.  Percentiles which can not be 
+   * provided because no steps have completed are not included in the map.
+   * 
+   * @param percentiles Percentile points requested, must be between 0 and 100 (inclusive)
+   * @return Map which key maps to percentile, and value maps to the result
+   */
+  public Map<Double, StepResult> getRunTimePercentiles(double ... percentiles) {
+    RunTimePercentiles runTimePercentiles = calculateRunTimePercentiles(percentiles);
+    Map<Double, StepResult> result = new LinkedHashMap<Double, StepResult>();
+    if (runTimePercentiles.getValueCount() > 0) {
+      for (int i = 0; i < runTimePercentiles.size(); i++) {
+        result.put(runTimePercentiles.getPercentile(i), runTimePercentiles.getResult(i));
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Find the step run time percentiles for completed {@link ScriptStepType#Normal} steps.  All 
+   * percentiles are found with a single selection pass over a primitive copy of the run times, 
+   * and views are only created for the results at the requested percentiles.
+   * 
+   * @param percentiles Percentile points requested, must be between 0 and 100 (inclusive)
+   * @return Run times and results at each requested percentile
+   */
+  public RunTimePercentiles calculateRunTimePercentiles(double ... percentiles) {
+    long[] selectRunTimes = new long[slotCount];
+    int[] slots = new int[slotCount];
+    int count = 0;
+    for (int i = 0; i < slotCount; i++) {
+      if (statuses[i] == STATUS_PASS || statuses[i] == STATUS_ERROR) {
+        selectRunTimes[count] = runTimes[i];
+        slots[count] = i;
+        count++;
+      }
+    }
+    
+    int[] resultSlots = new int[percentiles.length];
+    RunTimePercentiles result = 
+        RunTimePercentiles.select(selectRunTimes, slots, count, percentiles, resultSlots);
+    if (count == 0) {
+      return result;
+    }
+    StepResult[] percentileResults = new StepResult[percentiles.length];
+    for (int i = 0; i < resultSlots.length; i++) {
+      percentileResults[i] = new SlotStepResult(resultSlots[i]);
+    }
+    return result.withResults(percentileResults);
+  }
+  
+  /**
+   * {@link StepResult} implementation which reads the values from a slot in the arrays.
+   */
+  private class SlotStepResult implements StepResult {
+    private final int slot;
+    
+    public SlotStepResult(int slot) {
+      this.slot = slot;
+    }
+    
+    @Override
+    public boolean wasMaintanceStep() {
+      byte status = statuses[slot];
+      return status == STATUS_MAINTENANCE_PASS || status == STATUS_MAINTENANCE_ERROR;
+    }
+    
+    @Override
+    public String getDescription() {
+      return CompactStepResults.this.getDescription(slot);
+    }
+    
+    @Override
+    public long getRunTime(TimeUnit desiredUnit) {
+      return CompactStepResults.this.getRunTime(slot, desiredUnit);
+    }
+    
+    @Override
+    public Throwable getError() {
+      return CompactStepResults.this.getError(slot);
+    }
+  }
+}
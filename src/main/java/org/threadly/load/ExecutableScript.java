@@ -1,19 +1,27 @@
 package org.threadly.load;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.threadly.concurrent.PriorityScheduler;
 import org.threadly.concurrent.SubmitterExecutor;
+import org.threadly.concurrent.SubmitterScheduler;
 import org.threadly.concurrent.TaskPriority;
-import org.threadly.concurrent.future.ExecuteOnGetFutureTask;
 import org.threadly.concurrent.future.FutureUtils;
-import org.threadly.concurrent.future.ImmediateResultListenableFuture;
 import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.ListenableFutureTask;
 import org.threadly.concurrent.future.SettableListenableFuture;
 import org.threadly.concurrent.wrapper.limiter.RateLimiterExecutor;
 import org.threadly.util.ArgumentVerifier;
@@ -23,17 +31,25 @@ import org.threadly.util.ExceptionUtils;
  * This class handles the execution of a completely generated execution script.
  */
 public class ExecutableScript {
-  private static final int MAXIMUM_PRESTART_THREAD_COUNT = 1000;
-  
   protected final int neededThreadQty;
-  protected final ExecutionItem startExecutionItem;
-  protected final ScriptAssistant scriptAssistant;
+  protected final ExecutionPlan executionPlan;
+  protected volatile ScriptAssistant scriptAssistant;
+  private volatile boolean compactResultsEnabled;
+  private volatile CompactStepResults compactResults;
+  private volatile ScriptExecutorFactory executorFactory;
+  private volatile boolean gcBeforeStart;
+  private volatile StepResultRecorder resultRecorder;
+  private volatile ScriptMonitor monitor;
+  private Executor runExecutor;
+  private ScriptExecutorFactory runExecutorFactory;
   
   /**
    * Constructs a new {@link ExecutableScript}.  If the minimum threads needed don't match the 
    * execution graph provided, it may restrict load, or never complete.  
    * <p>
    * Execution will not proceed to the next step until the previous step has fully completed.
+   * The execution graph is compiled into an {@link ExecutionPlan} here, so the provided item and 
+   * the collections it contains are not retained.
    * 
    * @param neededThreadQty Minimum number of threads to execute provided steps
    * @param startExecutionItem Execution item which represents the script
@@ -45,8 +61,16 @@ public class ExecutableScript {
     ArgumentVerifier.assertGreaterThanZero(neededThreadQty, "neededThreadQty");
     
     this.neededThreadQty = neededThreadQty;
-    this.startExecutionItem = startExecutionItem;
+    executionPlan = new ExecutionPlan(startExecutionItem);
     scriptAssistant = new ScriptAssistant();
+    compactResultsEnabled = false;
+    compactResults = null;
+    executorFactory = ScriptExecutors.priorityScheduler();
+    gcBeforeStart = true;
+    resultRecorder = null;
+    monitor = null;
+    runExecutor = null;
+    runExecutorFactory = null;
   }
   
   /**
@@ -58,6 +82,173 @@ public class ExecutableScript {
     return neededThreadQty;
   }
   
+  /**
+   * Returns the plan which the script's execution graph was compiled into.  This can be used to 
+   * inspect the structure of the script, see also 
+   * {@link #visitExecutionGraph(ExecutionGraphVisitor)}.
+   * 
+   * @return The compiled plan for this script
+   */
+  public ExecutionPlan getExecutionPlan() {
+    return executionPlan;
+  }
+  
+  /**
+   * Adds a recorder which will be informed of each step result as the step completes.  This 
+   * must be invoked before {@link #startScript()}.  Recorders will be invoked in the order they 
+   * were added, and remain for every later run of the script.
+   * 
+   * @param recorder Recorder to be informed of step results
+   */
+  public void addResultRecorder(StepResultRecorder recorder) {
+    ArgumentVerifier.assertNotNull(recorder, "recorder");
+    
+    resultRecorder = combineRecorders(resultRecorder, recorder);
+  }
+  
+  private static StepResultRecorder combineRecorders(StepResultRecorder current, 
+                                                     StepResultRecorder recorder) {
+    if (current == null) {
+      return recorder;
+    } else if (current instanceof CompositeResultRecorder) {
+      return ((CompositeResultRecorder)current).add(recorder);
+    } else {
+      return new CompositeResultRecorder(new StepResultRecorder[] { current, recorder });
+    }
+  }
+  
+  /**
+   * Sets the factory which will produce the pool to execute the script on.  By default 
+   * {@link ScriptExecutors#priorityScheduler()} is used.  This must be invoked before 
+   * {@link #startScript()}.  The pool is retained, and used again if the script is run again 
+   * without changing the factory.
+   * 
+   * @param executorFactory Factory to produce the pool to execute on
+   */
+  public void setExecutorFactory(ScriptExecutorFactory executorFactory) {
+    ArgumentVerifier.assertNotNull(executorFactory, "executorFactory");
+    
+    this.executorFactory = executorFactory;
+  }
+  
+  /**
+   * Registers a {@link ScriptMonitorMXBean} with the platform MBean server, so that statistics 
+   * about the script can be observed, and the script controlled, while it is running.  The bean 
+   * is registered as {@code org.threadly.load:type=ExecutableScript,name=<name>}, and monitors 
+   * every run started after this is invoked.  
+   * <p>
+   * Monitored runs count each step as it starts and completes (as if started with 
+   * {@link #startScriptWithControl()}), so there is a small cost per step while registered.
+   * 
+   * @param name Name to identify this script by
+   * @return Monitor which was registered
+   * @throws JMException Thrown if the bean could not be registered
+   * @throws IllegalStateException Thrown if a bean is already registered for this script
+   */
+  public synchronized ScriptMonitor registerMBean(String name) throws JMException {
+    ArgumentVerifier.assertNotNull(name, "name");
+    if (monitor != null) {
+      throw new IllegalStateException("Already registered as: " + monitor.getObjectName());
+    }
+    
+    ObjectName objectName = 
+        new ObjectName("org.threadly.load:type=ExecutableScript,name=" + ObjectName.quote(name));
+    ScriptMonitor monitor = new ScriptMonitor(this, objectName);
+    ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, objectName);
+    this.monitor = monitor;
+    return monitor;
+  }
+  
+  /**
+   * Unregisters the bean registered by {@link #registerMBean(String)}.  Runs started after this 
+   * will no longer be monitored.  If no bean is registered this has no effect.
+   * 
+   * @throws JMException Thrown if the bean could not be unregistered
+   */
+  public synchronized void unregisterMBean() throws JMException {
+    ScriptMonitor monitor = this.monitor;
+    if (monitor != null) {
+      this.monitor = null;
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(monitor.getObjectName());
+    }
+  }
+  
+  /**
+   * Returns the control for the current run, if the run is controlled.  The returned control 
+   * may be for a run which has already finished.
+   * 
+   * @return Control for the most recent run, or {@code null} if not controlled
+   */
+  protected ScriptControl getRunControl() {
+    return scriptAssistant.control;
+  }
+  
+  /**
+   * Returns the executor steps are currently running on.
+   * 
+   * @return Executor for the current run, or {@code null} if the script is not running
+   */
+  protected Executor getRunExecutor() {
+    return scriptAssistant.executor.get();
+  }
+  
+  /**
+   * Sets if {@link System#gc()} should be invoked before the first step is executed.  This is 
+   * enabled by default, so that garbage from building the script is less likely to cause a 
+   * collection while the script runs.  On large heaps the explicit collection is a full stop the 
+   * world pause which can significantly delay the script start, in which case it can be 
+   * disabled.  This must be invoked before {@link #startScript()}.
+   * 
+   * @param enabled {@code true} to request a garbage collection before the script starts
+   */
+  public void setGcBeforeStart(boolean enabled) {
+    gcBeforeStart = enabled;
+  }
+  
+  /**
+   * Sets if step results should be stored in the compact form of {@link CompactStepResults}.  
+   * When enabled the futures for steps which pass will complete with a {@code null} result rather 
+   * than holding a {@link StepResult} object.  Steps which fail will still provide a full 
+   * {@link StepResult} in their future.  After the script has started, the results for every 
+   * step can be accessed from {@link #getCompactResults()}.  
+   * <p>
+   * This must be invoked before {@link #startScript()}.  It can greatly reduce the heap used to 
+   * retain results for scripts with a large number of steps.
+   * 
+   * @param enabled {@code true} to store results in the compact form
+   */
+  public void setCompactResults(boolean enabled) {
+    compactResultsEnabled = enabled;
+  }
+  
+  /**
+   * Returns the compact results for the current (or last) execution.  This will be {@code null} 
+   * if the script has not started, or if {@link #setCompactResults(boolean)} was not enabled.
+   * 
+   * @return The compact results for the script, or {@code null} if not available
+   */
+  public CompactStepResults getCompactResults() {
+    return compactResults;
+  }
+  
+  /**
+   * Traverse the execution graph of this script, informing the visitor of each collection and 
+   * step.  The children of parallel collections are visited in the order they were added if the 
+   * script has not yet started, otherwise in the order they were started for the most recent run.  
+   * The traversal is done on the invoking thread and does not allocate per node, so it can be 
+   * used to inspect very large scripts.  
+   * <p>
+   * {@link ExecutionGraphStatistics} and {@link ExecutionGraphDotWriter} are visitors provided 
+   * for common use.
+   * 
+   * @param visitor Visitor to inform of the graph structure
+   */
+  public void visitExecutionGraph(ExecutionGraphVisitor visitor) {
+    ArgumentVerifier.assertNotNull(visitor, "visitor");
+    
+    new GraphWalker(executionPlan, visitor).visit(0, -1, 0);
+  }
+  
   /**
    * Starts the execution of the script.  It will traverse through the execution graph an execute 
    * things as previously defined by using the builder.  
@@ -72,39 +263,163 @@ public class ExecutableScript {
    * This will block till all steps have completed (or a failed test step occurred).  If 
    * {@link StepResultCollectionUtils#getFailedResult(java.util.Collection)} returns null, then the test 
    * completed without error. 
+   * <p>
+   * If {@link #setCompactResults(boolean)} has been enabled, futures for steps which pass will 
+   * provide a {@code null} result.
+   * <p>
+   * Once a run has finished the script can be started again, without needing to build it again.  
+   * Each run provides new futures, and the pool from the previous run is used again.  If the 
+   * futures from the previous run have all completed, but the run is still releasing its 
+   * resources, this will block until it has finished.  Items which only report once (like 
+   * {@link AbstractScriptBuilder#addProgressFuture()}), and start handlers from 
+   * {@link ScriptBuilderUtils}, only apply to the first run.
    * 
    * @return A collection of futures which will represent each execution step
+   * @throws IllegalStateException Thrown if the script is still running from a previous start
    */
   public List<ListenableFuture<StepResult>> startScript() {
-    // copy result list to handle generics madness
-    final ArrayList<ListenableFuture<StepResult>> result = new ArrayList<ListenableFuture<StepResult>>(0);
-    startExecutionItem.prepareForRun();
-    result.addAll(startExecutionItem.getFutures());
-    result.trimToSize();
+    return startScript(null, true, null, null);
+  }
+  
+  /**
+   * Starts the execution of the script, streaming each step's result to the provided recorder 
+   * as the step completes.  Unlike {@link #startScript()} no future is constructed for each 
+   * step, and steps which pass do not construct a {@link StepResult}.  So the run holds no state 
+   * per step, and reporting can be done incrementally from the recorder.  Because of this the 
+   * futures returned from the builders are not completed by this run, and progress futures 
+   * (from {@link AbstractScriptBuilder#addProgressFuture()}) fail if reached.  
+   * <p>
+   * The recorder is invoked on the thread which ran the step, so it must be thread safe.  It is 
+   * only used for this run, and is invoked after any recorders added with 
+   * {@link #addResultRecorder(StepResultRecorder)}.  If {@link #setCompactResults(boolean)} has 
+   * been enabled the compact results will still be recorded.  
+   * <p>
+   * The returned future completes once all steps have completed, or once the script has been 
+   * stopped due to a failure.  It will provide the first failed {@link StepResult} found, or 
+   * {@code null} if all steps passed.  Once it completes the run has finished, and the script 
+   * can be started again (see {@link #startScript()}).
+   * 
+   * @param recorder Recorder to be informed of each step result
+   * @return Future which completes once the script has finished
+   * @throws IllegalStateException Thrown if the script is still running from a previous start
+   */
+  public ListenableFuture<StepResult> startScript(StepResultRecorder recorder) {
+    ArgumentVerifier.assertNotNull(recorder, "recorder");
+    
+    SettableListenableFuture<StepResult> completionFuture = 
+        new SettableListenableFuture<StepResult>(false);
+    startScript(completionFuture, false, recorder, null);
+    return completionFuture;
+  }
+  
+  /**
+   * Starts the execution of the script, returning a {@link ScriptControl} which can change the 
+   * rate and concurrency of steps, or pause, resume and stop the script while it is running.  The 
+   * futures for each step are available from {@link ScriptControl#getFutures()}, and complete in 
+   * the same way as those returned from {@link #startScript()}.  
+   * <p>
+   * Controlling the run has a small cost as each step starts and completes, so 
+   * {@link #startScript()} should be preferred when this is not needed.
+   * 
+   * @return Control for the started run
+   * @throws IllegalStateException Thrown if the script is still running from a previous start
+   */
+  public ScriptControl startScriptWithControl() {
+    SettableListenableFuture<StepResult> completionFuture = 
+        new SettableListenableFuture<StepResult>(false);
+    ScriptControl control = new ScriptControl(completionFuture);
+    startScript(completionFuture, true, null, control);
+    return control;
+  }
+  
+  private List<ListenableFuture<StepResult>>
+      startScript(final SettableListenableFuture<StepResult> completionFuture, 
+                  boolean retainPassResults, StepResultRecorder runRecorder, 
+                  ScriptControl control) {
+    ScriptAssistant previousAssistant = this.scriptAssistant;
+    final ScriptAssistant scriptAssistant = previousAssistant.begin();
+    this.scriptAssistant = scriptAssistant;
+    
+    final ArrayList<ListenableFuture<StepResult>> result;
+    if (runRecorder == null) {
+      // copy result list to handle generics madness
+      result = new ArrayList<ListenableFuture<StepResult>>(executionPlan.getStepCount());
+      executionPlan.prepareForRun(true);
+      result.addAll(executionPlan.getFutures());
+    } else {
+      // results are streamed to the recorder, completion is reported from the run itself
+      result = null;
+      executionPlan.prepareForRun(false);
+    }
+    
+    CompactStepResults compactResults = null;
+    if (compactResultsEnabled) {
+      compactResults = makeCompactResults(executionPlan);
+    }
+    this.compactResults = compactResults;
 
     CharsDeduplicator.clearCache();
     
-    scriptAssistant.start(neededThreadQty + 1, result);
+    StepResultRecorder resultRecorder = this.resultRecorder;
+    if (runRecorder != null) {
+      resultRecorder = combineRecorders(resultRecorder, runRecorder);
+    }
+    ScriptMonitor monitor = this.monitor;
+    if (monitor != null) {
+      resultRecorder = combineRecorders(resultRecorder, monitor);
+      if (control == null) {
+        // monitored runs are always controlled so that they can be stopped from the monitor
+        control = new ScriptControl(completionFuture);
+      }
+    }
+    scriptAssistant.resultRecorder = resultRecorder;
+    ScriptExecutorFactory executorFactory = this.executorFactory;
+    if (runExecutor == null || runExecutorFactory != executorFactory || 
+        ! previousAssistant.isQuiescent()) {
+      if (runExecutor != null) {
+        /* tasks from the previous run may still be queued or running (for example steps which 
+         * ignored being interrupted by a failure), so this run gets its own pool
+         */
+        previousAssistant.retireExecutor(runExecutor);
+      }
+      runExecutor = executorFactory.makeExecutor(neededThreadQty + 1);
+      runExecutorFactory = executorFactory;
+    }
+    scriptAssistant.start(runExecutor, result);
+    if (control != null) {
+      control.attach(result, scriptAssistant);
+      scriptAssistant.control = control;
+    }
     
-    // perform a gc before starting execution so that we can run as smooth as possible
-    System.gc();
+    if (gcBeforeStart) {
+      // perform a gc before starting execution so that we can run as smooth as possible
+      System.gc();
+    }
     
-    // TODO - move this to a regular class?
-    scriptAssistant.scheduler.get().execute(new Runnable() {
+    final ListenableFuture<StepResult> runFuture = 
+        executionPlan.startRun(scriptAssistant, compactResults, retainPassResults);
+    runFuture.listener(new Runnable() {
       @Override
       public void run() {
-        startExecutionItem.itemReadyForExecution(scriptAssistant);
-        // this call will block till the step is done, thus preventing execution of the next step
+        StepResult failedResult = null;
         try {
-          if (StepResultCollectionUtils.getFailedResult(result) != null) {
-            FutureUtils.cancelIncompleteFutures(scriptAssistant.getGlobalRunningFutureSet(), true);
-            return;
+          if (result == null) {
+            failedResult = runFuture.get();
+          } else {
+            // steps which did not run have been canceled, so every future is now complete
+            failedResult = StepResultCollectionUtils.getFailedResult(result);
           }
         } catch (InterruptedException e) {
-          // let thread exit
-          return;
+          // not possible since the futures are complete, reset status and continue to finish
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // not possible, the run is only ever provided a result
+          ExceptionUtils.handleException(e.getCause());
         } finally {
-          startExecutionItem.runComplete();
+          scriptAssistant.finish();
+          if (completionFuture != null) {
+            completionFuture.setResult(failedResult);
+          }
         }
       }
     });
@@ -112,31 +427,193 @@ public class ExecutableScript {
     return result;
   }
   
+  /**
+   * Construct the compact results for a run of the plan.  Slots are assigned in the same order as 
+   * the step futures.
+   * 
+   * @param plan Plan to assign the slots of
+   * @return Results with a slot assigned for every step
+   */
+  private static CompactStepResults makeCompactResults(ExecutionPlan plan) {
+    CompactStepResults compactResults = new CompactStepResults(plan.getStepCount());
+    for (int node = 0; node < plan.getNodeCount(); node++) {
+      if (plan.getNodeType(node) == ExecutionPlan.NodeType.Step) {
+        compactResults.assignSlot(plan.getStepIdentifier(node));
+      }
+    }
+    return compactResults;
+  }
+  
+  /**
+   * Depth first traversal of the {@link ExecutionPlan} for {@link ExecutionGraphVisitor}.  The 
+   * estimates for the last visited node are held in fields so that no per node results need to 
+   * be constructed.
+   */
+  private static class GraphWalker {
+    private final ExecutionPlan plan;
+    private final ExecutionGraphVisitor visitor;
+    private int nextNodeId;
+    private int lastConcurrency;
+    private int lastThreads;
+    
+    public GraphWalker(ExecutionPlan plan, ExecutionGraphVisitor visitor) {
+      this.plan = plan;
+      this.visitor = visitor;
+      nextNodeId = 0;
+    }
+    
+    /**
+     * Visit a plan node and all of its children.  Once returned {@code lastConcurrency} and 
+     * {@code lastThreads} contain the estimates for the node.
+     * 
+     * @param node Index of the node in the plan
+     * @param parentNodeId Node id of the containing collection, or {@code -1}
+     * @param depth Depth of the node
+     */
+    public void visit(int node, int parentNodeId, int depth) {
+      ExecutionPlan.NodeType type = plan.getNodeType(node);
+      if (type == ExecutionPlan.NodeType.Step) {
+        visitor.visitStep(nextNodeId++, parentNodeId, depth, plan.getStepIdentifier(node));
+        lastConcurrency = 1;
+        lastThreads = 1;
+        return;
+      } else if (type != ExecutionPlan.NodeType.Sequence && 
+                 type != ExecutionPlan.NodeType.Parallel) {
+        // synthetic item which only changes how the script runs
+        lastConcurrency = 0;
+        lastThreads = 0;
+        return;
+      }
+      
+      int nodeId = nextNodeId++;
+      boolean sequential = type == ExecutionPlan.NodeType.Sequence;
+      int childCount = plan.getChildCount(node);
+      visitor.startCollection(nodeId, parentNodeId, depth, sequential, childCount);
+      int concurrency = 0;
+      int threads = 0;
+      for (int i = 0; i < childCount; i++) {
+        visit(plan.getChild(node, i), nodeId, depth + 1);
+        if (sequential) {
+          concurrency = Math.max(concurrency, lastConcurrency);
+          threads = Math.max(threads, lastThreads);
+        } else {
+          concurrency += lastConcurrency;
+          threads += lastThreads;
+        }
+      }
+      if (sequential) {
+        threads++;  // thread which runs the sequence
+      }
+      visitor.endCollection(nodeId, depth, sequential, childCount, concurrency, threads);
+      lastConcurrency = concurrency;
+      lastThreads = threads;
+    }
+  }
+  
+  /**
+   * Implementation of {@link StepResultRecorder} which distributes results to multiple recorders.
+   */
+  private static class CompositeResultRecorder implements StepResultRecorder {
+    private final StepResultRecorder[] recorders;
+    
+    public CompositeResultRecorder(StepResultRecorder[] recorders) {
+      this.recorders = recorders;
+    }
+    
+    public CompositeResultRecorder add(StepResultRecorder recorder) {
+      StepResultRecorder[] newRecorders = new StepResultRecorder[recorders.length + 1];
+      System.arraycopy(recorders, 0, newRecorders, 0, recorders.length);
+      newRecorders[recorders.length] = recorder;
+      return new CompositeResultRecorder(newRecorders);
+    }
+    
+    @Override
+    public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                             long startNanos, long runTimeNanos, Throwable error) {
+      for (StepResultRecorder r : recorders) {
+        r.recordResult(identifier, stepType, startNanos, runTimeNanos, error);
+      }
+    }
+  }
+  
+  /**
+   * {@link SubmitterExecutor} which hands tasks off to another executor once the delaying 
+   * executor runs them.  Returned futures complete once the task has run on the final executor.
+   */
+  private static class HandOffExecutor implements SubmitterExecutor {
+    private final Executor delayExecutor;
+    private final Executor executor;
+    
+    public HandOffExecutor(Executor delayExecutor, Executor executor) {
+      this.delayExecutor = delayExecutor;
+      this.executor = executor;
+    }
+    
+    @Override
+    public void execute(final Runnable task) {
+      delayExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          executor.execute(task);
+        }
+      });
+    }
+    
+    @Override
+    public ListenableFuture<?> submit(Runnable task) {
+      return submit(task, null);
+    }
+    
+    @Override
+    public <T> ListenableFuture<T> submit(Runnable task, T result) {
+      ListenableFutureTask<T> lft = new ListenableFutureTask<T>(false, task, result);
+      execute(lft);
+      return lft;
+    }
+    
+    @Override
+    public <T> ListenableFuture<T> submit(Callable<T> task) {
+      ListenableFutureTask<T> lft = new ListenableFutureTask<T>(false, task);
+      execute(lft);
+      return lft;
+    }
+  }
+  
   /**
    * Small class for managing access and needs from running script steps.
    */
-  private static class ScriptAssistant implements ExecutionItem.ExecutionAssistant {
+  private static class ScriptAssistant implements ExecutionItem.ExecutionAssistant, 
+                                                  ScriptControl.RateLimiterFactory {
     private final AtomicBoolean running;
-    private final AtomicReference<PriorityScheduler> scheduler;
+    private final AtomicReference<Executor> executor;
+    private final AtomicReference<PriorityScheduler> delayScheduler;
+    private final AtomicReference<Executor> retiredExecutor;
+    private final AtomicInteger outstandingTasks;
     private final AtomicReference<List<ListenableFuture<StepResult>>> futures;
     private final AtomicBoolean markedFailure;
     private final ArrayList<Runnable> failureListeners;
-    private volatile ListenableFuture<?> completionFuture;
+    private volatile SettableListenableFuture<Void> completionFuture;
     private volatile SubmitterExecutor limiter;
+    private volatile StepResultRecorder resultRecorder;
+    private volatile ScriptControl control;
+    private final boolean localRate;
     
-    private ScriptAssistant(ScriptAssistant scriptAssistant) {
+    private ScriptAssistant(ScriptAssistant scriptAssistant, boolean localRate) {
+      this.localRate = localRate;
       running = scriptAssistant.running;
-      scheduler = scriptAssistant.scheduler;
+      executor = scriptAssistant.executor;
+      delayScheduler = scriptAssistant.delayScheduler;
+      retiredExecutor = scriptAssistant.retiredExecutor;
+      outstandingTasks = scriptAssistant.outstandingTasks;
       futures = scriptAssistant.futures;
       markedFailure = scriptAssistant.markedFailure;
       failureListeners = scriptAssistant.failureListeners;
       limiter = scriptAssistant.limiter;
+      resultRecorder = scriptAssistant.resultRecorder;
       completionFuture = scriptAssistant.completionFuture;
+      control = scriptAssistant.control;
       
-      /* with the way FutureUtils works, the ListenableFuture made here wont be able to be 
-       * garbage collected, even though we don't have a reference to it.  Thus ensuring we 
-       * cleanup our running references.
-       */
+      // completion future is shared with the original assistant, ensuring we cleanup references
       completionFuture.listener(new Runnable() {
         @Override
         public void run() {
@@ -146,12 +623,22 @@ public class ExecutableScript {
     }
     
     public ScriptAssistant() {
-      running = new AtomicBoolean(false);
-      scheduler = new AtomicReference<PriorityScheduler>(null);
+      this(new AtomicBoolean(false));
+    }
+    
+    private ScriptAssistant(AtomicBoolean running) {
+      localRate = false;
+      this.running = running;
+      executor = new AtomicReference<Executor>(null);
+      delayScheduler = new AtomicReference<PriorityScheduler>(null);
+      retiredExecutor = new AtomicReference<Executor>(null);
+      outstandingTasks = new AtomicInteger(0);
       futures = new AtomicReference<List<ListenableFuture<StepResult>>>(null);
       markedFailure = new AtomicBoolean(false);
       failureListeners = new ArrayList<Runnable>(1);
       limiter = null;
+      resultRecorder = null;
+      control = null;
     }
 
     @Override
@@ -197,43 +684,125 @@ public class ExecutableScript {
       return markedFailure.get();
     }
 
-    public void start(int threadPoolSize, List<ListenableFuture<StepResult>> futures) {
+    /**
+     * Marks the script as running, returning a new assistant to run it with.  Each run uses its 
+     * own assistant, so that tasks still finishing from a failed run can not effect the next run.  
+     * If the futures from the previous run have all completed, this will wait for the run to 
+     * finish releasing its resources.
+     * 
+     * @return Assistant for the new run
+     * @throws IllegalStateException Thrown if the previous run has not finished
+     */
+    public ScriptAssistant begin() {
       if (! running.compareAndSet(false, true)) {
-        throw new IllegalStateException("Already running");
-      }
-      PriorityScheduler ps;
-      if (threadPoolSize > MAXIMUM_PRESTART_THREAD_COUNT) {
-        ps = new PriorityScheduler(1000);
-        // just prestart the maximum, then allow the pool to grow beyond that
-        // if rate limiting is used, our actual needed thread count may be lower than this number
-        ps.prestartAllThreads();
-        ps.setPoolSize(threadPoolSize);
-      } else {
-        ps = new PriorityScheduler(threadPoolSize);
-        ps.prestartAllThreads();
+        SettableListenableFuture<Void> previousCompletion = completionFuture;
+        List<ListenableFuture<StepResult>> previousFutures = futures.get();
+        if (previousCompletion == null || previousFutures == null || 
+            ! allDone(previousFutures)) {
+          throw new IllegalStateException("Already running");
+        }
+        try {
+          previousCompletion.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted waiting for previous run to finish", e);
+        } catch (ExecutionException e) {
+          // not possible, completion is only ever provided a result
+          throw ExceptionUtils.makeRuntime(e.getCause());
+        }
+        if (! running.compareAndSet(false, true)) {
+          throw new IllegalStateException("Already running");
+        }
       }
       
-      scheduler.set(ps);
-      this.futures.set(Collections.unmodifiableList(futures));
+      return new ScriptAssistant(running);
+    }
+    
+    private static boolean allDone(List<ListenableFuture<StepResult>> futures) {
+      for (int i = 0; i < futures.size(); i++) {
+        if (! futures.get(i).isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+    
+    /**
+     * Starts the run, must be invoked on the assistant returned from {@link #begin()}.
+     * 
+     * @param stepExecutor Executor to run steps on
+     * @param futures Futures for the steps of this run, or {@code null} if results are streamed
+     */
+    public void start(Executor stepExecutor, List<ListenableFuture<StepResult>> futures) {
+      executor.set(stepExecutor);
+      this.futures.set(futures == null ? null : Collections.unmodifiableList(futures));
       
-      /* with the way FutureUtils works, the ListenableFuture made here wont be able to be 
-       * garbage collected, even though we don't have a reference to it.  Thus ensuring we 
-       * cleanup our running references.
+      /* completed from finish() once all futures are done, rather than listening to each 
+       * future, so that tracking completion has no per step cost
        */
-      completionFuture = FutureUtils.makeCompleteFuture(futures);
-      completionFuture.listener(new Runnable() {
-        @Override
-        public void run() {
-          scheduler.set(null);
-          limiter = null;
-          running.set(false);
-        }
-      });
+      completionFuture = new SettableListenableFuture<Void>(false);
       
       synchronized (failureListeners) {
         failureListeners.trimToSize();
       }
     }
+    
+    /**
+     * Invoked once all the futures provided to {@link #start(Executor, List)} have completed.  
+     * This releases the references held for the run, allowing another run to begin.
+     */
+    public void finish() {
+      SettableListenableFuture<Void> completionFuture = this.completionFuture;
+      executor.set(null);
+      limiter = null;
+      if (control != null) {
+        control.runFinished();
+      }
+      // released before completing, so once complete the next run can begin
+      running.set(false);
+      completionFuture.setResult(null);
+      releaseIfQuiescent();
+    }
+    
+    /**
+     * Check if every task dispatched by this run has finished.  Until then tasks from the run 
+     * may still be queued on (or running in) the run's pool, even if the run has finished.
+     * 
+     * @return {@code true} if no tasks from the run remain
+     */
+    public boolean isQuiescent() {
+      return outstandingTasks.get() == 0;
+    }
+    
+    /**
+     * Shut down the pool this run executed on once every task from the run has finished.  This 
+     * is invoked when the next run is provided a different pool.
+     * 
+     * @param executor Pool the run executed on
+     */
+    public void retireExecutor(Executor executor) {
+      retiredExecutor.set(executor);
+      releaseIfQuiescent();
+    }
+    
+    /**
+     * Release the pools the run no longer needs, once it has finished and every task it 
+     * dispatched has finished.  Rate limited tasks may be queued on the delay scheduler until 
+     * then, so it can not be shutdown when the run finishes.
+     */
+    private void releaseIfQuiescent() {
+      if (outstandingTasks.get() != 0 || ! completionFuture.isDone()) {
+        return;
+      }
+      Executor executor = retiredExecutor.getAndSet(null);
+      if (executor != null) {
+        ScriptExecutors.shutdown(executor);
+      }
+      PriorityScheduler ps = delayScheduler.getAndSet(null);
+      if (ps != null) {
+        ps.shutdown();
+      }
+    }
 
     @Override
     public List<ListenableFuture<StepResult>> getGlobalRunningFutureSet() {
@@ -241,58 +810,198 @@ public class ExecutableScript {
     }
     
     @Override
-    public void executeAsyncMaintenanceTaskIfStillRunning(Runnable task) {
-      PriorityScheduler ps = scheduler.get();
-      if (ps != null) {
-        ps.execute(task, TaskPriority.Starvable);
+    public void executeAsyncMaintenanceTaskIfStillRunning(final Runnable task) {
+      Executor executor = this.executor.get();
+      if (executor == null) {
+        return;
+      }
+      outstandingTasks.incrementAndGet();
+      Runnable countedTask = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            taskFinished();
+          }
+        }
+      };
+      try {
+        if (executor instanceof PriorityScheduler) {
+          ((PriorityScheduler)executor).execute(countedTask, TaskPriority.Starvable);
+        } else {
+          executor.execute(countedTask);
+        }
+      } catch (RuntimeException e) {
+        taskFinished();
+        throw e;
       }
     }
     
     @Override
-    public ListenableFuture<?> executeIfStillRunning(ExecutionItem item, boolean forceAsync) {
-      // the existence of the scheduler (and possibly limiter) indicate still running
-      SubmitterExecutor limiter = this.limiter;
-      if (limiter != null && ! item.isChainExecutor()) {
-        return limiter.submit(wrapInRunnable(item));
-      } else {
-        PriorityScheduler scheduler = this.scheduler.get();
-        if (scheduler != null) {
-          if (forceAsync) {
-            ExecuteOnGetFutureTask<?> result = new ExecuteOnGetFutureTask<Void>(wrapInRunnable(item));
-            scheduler.execute(result);
-            return result;
-          } else {
-            item.itemReadyForExecution(this);
+    public boolean dispatchIfStillRunning(Runnable task, boolean rateLimited) {
+      // the existence of the executor indicates still running
+      Executor executor = this.executor.get();
+      if (executor == null) {
+        return false;
+      }
+      SubmitterExecutor limiter = rateLimited ? getLimiter() : null;
+      outstandingTasks.incrementAndGet();
+      try {
+        if (limiter != null) {
+          if (FlightRecorderEvents.isRecording()) {
+            task = FlightRecorderEvents.wrapRateLimitedTask(task);
           }
+          limiter.execute(task);
+        } else {
+          executor.execute(task);
         }
+      } catch (RuntimeException e) {
+        taskFinished();
+        throw e;
       }
-      return ImmediateResultListenableFuture.NULL_RESULT;
+      return true;
     }
     
-    private Runnable wrapInRunnable(final ExecutionItem item) {
-      return new Runnable() {
-        @Override
-        public void run() {
-          item.itemReadyForExecution(ScriptAssistant.this);
-        }
-      };
+    @Override
+    public void taskFinished() {
+      if (outstandingTasks.decrementAndGet() == 0) {
+        releaseIfQuiescent();
+      }
+    }
+    
+    @Override
+    public boolean isRateLimited() {
+      return getLimiter() != null;
+    }
+    
+    @Override
+    public boolean isStillRunning() {
+      ScriptControl control = this.control;
+      return executor.get() != null && ! markedFailure.get() && 
+               (control == null || ! control.isStopped());
+    }
+    
+    /**
+     * Returns the limiter steps should be submitted to.  A rate set through the 
+     * {@link ScriptControl} takes priority over the rate set while building.
+     * 
+     * @return Limiter to submit to, or {@code null} if there is no rate limit
+     */
+    private SubmitterExecutor getLimiter() {
+      ScriptControl control = this.control;
+      if (control != null && control.isLimiterOverridden()) {
+        return control.getLimiter();
+      }
+      return limiter;
     }
     
     @Override
     public void setStepPerSecondLimit(double newLimit) {
-      if (newLimit <= 0) {
-        limiter = null;
+      limiter = makeLimiter(newLimit);
+      ScriptControl control = this.control;
+      if (control != null && ! localRate) {
+        control.scriptRateChanged(newLimit);
+      }
+    }
+    
+    @Override
+    public SubmitterExecutor makeLimiter(double stepsPerSecondLimit) {
+      if (stepsPerSecondLimit <= 0) {
+        return null;
+      }
+      Executor executor = this.executor.get();
+      if (executor instanceof SubmitterScheduler) {
+        return new RateLimiterExecutor((SubmitterScheduler)executor, stepsPerSecondLimit);
+      } else if (executor != null) {
+        // delay on a single thread, then hand the step off to the executor to run
+        return new HandOffExecutor(new RateLimiterExecutor(getDelayScheduler(), 
+                                                           stepsPerSecondLimit), 
+                                   executor);
       } else {
-        PriorityScheduler scheduler = this.scheduler.get();
-        if (scheduler != null) {
-          limiter = new RateLimiterExecutor(scheduler, newLimit);
+        return null;
+      }
+    }
+    
+    @Override
+    public RunPermit acquireRunPermit(Runnable retryTask) {
+      ScriptControl control = this.control;
+      if (control == null) {
+        return RunPermit.Granted;
+      }
+      return control.acquireRunPermit(retryTask == null ? null : new RetryDispatcher(retryTask));
+    }
+    
+    @Override
+    public void releaseRunPermit() {
+      ScriptControl control = this.control;
+      if (control != null) {
+        control.releaseRunPermit();
+      }
+    }
+    
+    @Override
+    public void finishRunPermit() {
+      ScriptControl control = this.control;
+      if (control != null) {
+        control.finishRunPermit();
+      }
+    }
+    
+    private PriorityScheduler getDelayScheduler() {
+      PriorityScheduler ps = delayScheduler.get();
+      if (ps == null) {
+        ps = new PriorityScheduler(1);
+        if (! delayScheduler.compareAndSet(null, ps)) {
+          ps.shutdown();
+          ps = delayScheduler.get();
         }
       }
+      return ps;
+    }
+    
+    @Override
+    public StepResultRecorder getResultRecorder() {
+      return resultRecorder;
+    }
+    
+    @Override
+    public void setResultRecorder(StepResultRecorder recorder) {
+      resultRecorder = recorder;
     }
     
     @Override
     public ScriptAssistant makeCopy() {
-      return new ScriptAssistant(this);
+      return new ScriptAssistant(this, localRate);
+    }
+    
+    @Override
+    public ScriptAssistant makeLocalRateCopy() {
+      return new ScriptAssistant(this, true);
+    }
+    
+    /**
+     * Dispatches a step's retry task once the {@link ScriptControl} allows it to try again.  This 
+     * is invoked from whichever thread resumed the script or released a permit, so the task is 
+     * never run there unless the script has stopped.
+     */
+    private class RetryDispatcher implements Runnable {
+      private final Runnable retryTask;
+      
+      protected RetryDispatcher(Runnable retryTask) {
+        this.retryTask = retryTask;
+      }
+      
+      @Override
+      public void run() {
+        if (! dispatchIfStillRunning(retryTask, false)) {
+          /* the run is stopping, run the task here so that it can complete its node without 
+           * running the step, counted as if dispatched since it reports when finished
+           */
+          outstandingTasks.incrementAndGet();
+          retryTask.run();
+        }
+      }
     }
   }
   
@@ -302,35 +1011,13 @@ public class ExecutableScript {
    */
   protected interface ExecutionItem {
     /**
-     * Set a handler for when {@link #itemReadyForExecution(ExecutionAssistant)} is invoked.  If a handler 
-     * is set on a step, it is expected to defer to that handler, and NOT perform any further 
-     * action.
+     * Set a handler to be invoked before the item runs.  The handler is taken from the item when 
+     * the script is built, and is only invoked for the first run of the script.
      * 
-     * @param handler Handler to defer to, or {@code null} to unset handler
+     * @param handler Handler to invoke, or {@code null} to unset handler
      */
     public void setStartHandler(StepStartHandler handler);
     
-    /**
-     * Called to allow the {@link ExecutionItem} do any cleanup, or other operations needed to 
-     * ensure a smooth invocation of {@link #itemReadyForExecution(ExecutionAssistant)}.
-     */
-    public void prepareForRun();
-    
-    /**
-     * Called when the execution has completed, allowing for any potential cleanup.
-     */
-    public void runComplete();
-
-    /**
-     * Indicates the item is ready for execution.  If a {@link StepStartHandler} is set, this 
-     * invocation should defer to that.  If it is not set, then the items execution should start.  
-     * This may execute async on the provided {@link ExecutionAssistant}, but returned futures 
-     * from {@link #getFutures()} should not complete until the chain item completes.
-     * 
-     * @param assistant {@link ExecutionAssistant} which is performing the execution
-     */
-    public void itemReadyForExecution(ExecutionAssistant assistant);
-    
     /**
      * Check if this execution item directly applies changes to the provided 
      * {@link ExecutionAssistant}.
@@ -365,11 +1052,12 @@ public class ExecutableScript {
     
     /**
      * Get information about if this {@link ExecutionItem} has child items it runs or not.  This 
-     * can be used to understand the graph structure for execution.
+     * can be used to understand the graph structure for execution.  Implementations should avoid 
+     * constructing a new instance on each call, so that the graph can be traversed without 
+     * allocation.
      * 
      * @return A implementation of {@link ChildItems} to understand child execution
      */
-    // TODO - I don't like how we are constructing objects for this, can we avoid these calls?
     public ChildItems getChildItems();
     
     /**
@@ -391,6 +1079,22 @@ public class ExecutableScript {
        * @return {@code true} if this {@link ExecutionItem} runs multiple {@link ExecutionItem}'s
        */
       public boolean hasChildren();
+      
+      /**
+       * Returns how many child items will be executed.  Together with {@link #getChild(int)} this 
+       * allows the children to be inspected without constructing an iterator.
+       * 
+       * @return Number of child items
+       */
+      public int getChildCount();
+      
+      /**
+       * Returns the child item at the given index.
+       * 
+       * @param index Index of the child, must be less than {@link #getChildCount()}
+       * @return The child item at that index
+       */
+      public ExecutionItem getChild(int index);
 
       /**
        * Get an iterator which will iterate over the executable items.  No modifications should be 
@@ -408,19 +1112,42 @@ public class ExecutableScript {
      */
     public interface ExecutionAssistant {
       /**
-       * This farms off tasks on to another thread for execution.  This may not execute if the script 
-       * has already stopped (likely from an error or failed step).  In those cases the task's future 
-       * was already canceled so execution should not be needed.
+       * This farms off tasks on to another thread for execution.  No future is constructed to 
+       * represent the execution, the task is expected to signal its own completion.  If the 
+       * script has already finished the task will not be executed.
+       * 
+       * @param task Task to be executed
+       * @param rateLimited {@code true} to delay the task by the current step rate limit
+       * @return {@code false} if the script has finished and the task will not be executed
+       */
+      public boolean dispatchIfStillRunning(Runnable task, boolean rateLimited);
+      
+      /**
+       * Must be invoked once a task accepted by {@link #dispatchIfStillRunning(Runnable, boolean)} 
+       * has finished running.  This allows the script to know once no tasks from the run remain 
+       * in its pool, before the pool is used for another run.
+       */
+      public void taskFinished();
+      
+      /**
+       * Check if steps are currently delayed by a rate limit, either set by the script or through 
+       * a {@link ScriptControl}.
        * 
-       * @param item ExecutionItem to be executed
-       * @param forceAsync {@code false} to potentially allow execution inside calling thread
-       * @return Future that will complete when runnable has finished running
+       * @return {@code true} if tasks dispatched as rate limited will be delayed
        */
-      public ListenableFuture<?> executeIfStillRunning(ExecutionItem item, boolean forceAsync);
+      public boolean isRateLimited();
+      
+      /**
+       * Check if more steps may be started.  This will be {@code false} once a failure has been 
+       * marked, the script has been stopped, or the run has finished.
+       * 
+       * @return {@code true} if the script is still running
+       */
+      public boolean isStillRunning();
       
       /**
        * Call to get a asynchronously execute a maintenance task.  Typically 
-       * {@link #executeIfStillRunning(ExecutionItem, boolean)} should be the go-to execution point, 
+       * {@link #dispatchIfStillRunning(Runnable, boolean)} should be the go-to execution point, 
        * but for internal tasks this can be used as well.
        * 
        * @param task Task to be executed 
@@ -437,13 +1164,31 @@ public class ExecutableScript {
       public void setStepPerSecondLimit(double newLimit);
 
       /**
-       * Returns the list of futures for the current test script run.  If not currently running this 
-       * will be null.
+       * Returns the list of futures for the current test script run.  If not currently running, or 
+       * if the run streams its results without futures, this will be null.
        * 
        * @return List of futures that will complete for the current execution
        */
       public List<ListenableFuture<StepResult>> getGlobalRunningFutureSet();
       
+      /**
+       * Returns the recorder which should be informed of each step's result as it completes.  If 
+       * no recorders have been added to the script this will return {@code null}.
+       * 
+       * @return Recorder to provide step results to, or {@code null} if none are set
+       */
+      public StepResultRecorder getResultRecorder();
+      
+      /**
+       * Sets the recorder which will be informed of the results from steps executed with this 
+       * assistant.  This is typically done on a copy from {@link #makeCopy()}, so that results 
+       * from a portion of the script can be recorded separately.  Copies made after this call 
+       * will also use the provided recorder.
+       * 
+       * @param recorder Recorder to provide step results to, or {@code null} to not record results
+       */
+      public void setResultRecorder(StepResultRecorder recorder);
+      
       /**
        * Copies this assistant.  The copied assistant will be backed by the same scheduler and 
        * futures.  However things which are chain sensitive (like the execution limit) will be 
@@ -453,6 +1198,16 @@ public class ExecutableScript {
        */
       public ExecutionAssistant makeCopy();
       
+      /**
+       * Copies this assistant for a portion of the script which runs at its own rate, like a 
+       * warm up.  This is the same as {@link #makeCopy()}, except that rates set on the copy (or 
+       * copies made from it) are not reported as the script's rate to a {@link ScriptControl} 
+       * or {@link ScriptMonitor}.
+       * 
+       * @return A new assistant instance
+       */
+      public ExecutionAssistant makeLocalRateCopy();
+      
       /**
        * Register a listener to be invoked if a failure occurs.  This listener will be invoked 
        * when any steps within the script invoke {@link #markGlobalFailure()}.
@@ -473,21 +1228,65 @@ public class ExecutableScript {
        * @return {@code true} if the script has been marked as failure
        */
       public boolean getMarkedGlobalFailure();
+      
+      /**
+       * Invoked before a step runs, so that the run can be controlled through a 
+       * {@link ScriptControl}.  This never blocks, instead while the script is paused (or too 
+       * many steps are running) {@link RunPermit#Deferred} is returned.  If a retry task was 
+       * provided it will be dispatched once the step may be able to run, at which point the 
+       * permit should be requested again.  Without a retry task nothing is retained, so the 
+       * caller can prepare one only once it is needed.  
+       * <p>
+       * If {@link RunPermit#Granted} is returned {@link #releaseRunPermit()} must be invoked once 
+       * the step has run, followed by {@link #finishRunPermit()} once its future has completed.
+       * 
+       * @param retryTask Task to dispatch once the step may run, or {@code null} to only check
+       * @return Permit indicating if the step should run now, later, or not at all
+       */
+      public RunPermit acquireRunPermit(Runnable retryTask);
+      
+      /**
+       * Invoked once a step provided a permit from {@link #acquireRunPermit(Runnable)} has run, 
+       * before the step's future is completed.
+       */
+      public void releaseRunPermit();
+      
+      /**
+       * Invoked after {@link #releaseRunPermit()} once the step's future has completed.
+       */
+      public void finishRunPermit();
+      
+      /**
+       * Result of {@link ExecutionAssistant#acquireRunPermit(Runnable)}.
+       */
+      public enum RunPermit {
+        /**
+         * The step may run now.
+         */
+        Granted, 
+        /**
+         * The step can not run yet, the retry task (if provided) will be dispatched later.
+         */
+        Deferred, 
+        /**
+         * The script was stopped, so the step must not run.
+         */
+        Denied;
+      }
     }
     
     /**
      * Interface to be invoked if set on a step at start.  This can be used for multiple 
      * reasons, one may to just get an indication that a step is ready to execute.  Another may be 
-     * to set a pre-run condition.  Meaning that this could prevent step execution, and just be 
-     * invoked to indicate that a step is ready to execute.
+     * to set a pre-run condition, since the step will not run until the handler returns.
      */
     public interface StepStartHandler {
       /**
-       * Invoked by the {@link ExecutionItem} when 
-       * {@link ExecutionItem#itemReadyForExecution(ExecutionAssistant)} is invoked.
+       * Invoked by the {@link ExecutionPlan} when the step is reached, before it runs.  The step 
+       * runs once this returns.
        * 
-       * @param step Step which is being invoked
-       * @param assistant Assistant the step is being invoked with
+       * @param step Step which is about to run
+       * @param assistant Assistant the step will run with
        */
       public void readyToRun(ExecutionItem step, ExecutionAssistant assistant);
     }
@@ -0,0 +1,129 @@
+package org.threadly.load;
+
+import java.io.IOException;
+
+/**
+ * {@link ExecutionGraphVisitor} which writes the graph in the 
+ * <a href="https://graphviz.org/doc/info/lang.html">DOT</a> format.  Collections are labeled with
+ * how their children run, as well as the estimated concurrency and threads they need.  Steps are 
+ * labeled with their identifier.
+ */
+public class ExecutionGraphDotWriter implements ExecutionGraphVisitor {
+  /**
+   * Write the execution graph of a script in the DOT format.
+   * 
+   * @param script Script to write the graph of, should not have been started yet
+   * @param out Destination to write the graph to
+   * @throws IOException Thrown if the destination could not be written to
+   */
+  public static void write(ExecutableScript script, Appendable out) throws IOException {
+    ExecutionGraphDotWriter writer = new ExecutionGraphDotWriter(out);
+    writer.writeStart();
+    script.visitExecutionGraph(writer);
+    writer.writeEnd();
+  }
+  
+  private static void appendEscaped(Appendable out, CharSequence str) throws IOException {
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\');
+      } else if (c == '\n') {
+        out.append("\\n");
+        continue;
+      }
+      out.append(c);
+    }
+  }
+  
+  private final Appendable out;
+  private IOException failure;
+  
+  /**
+   * Constructs a new writer.  {@link #writeStart()} must be invoked before the graph is visited, 
+   * and {@link #writeEnd()} after.
+   * 
+   * @param out Destination to write the graph to
+   */
+  public ExecutionGraphDotWriter(Appendable out) {
+    this.out = out;
+    this.failure = null;
+  }
+  
+  /**
+   * Writes the opening of the graph.
+   * 
+   * @throws IOException Thrown if the destination could not be written to
+   */
+  public void writeStart() throws IOException {
+    out.append("digraph script {").append(System.lineSeparator());
+  }
+  
+  /**
+   * Writes the closing of the graph.  If a failure occurred while the graph was being visited it 
+   * will be thrown from here.
+   * 
+   * @throws IOException Thrown if the destination could not be written to
+   */
+  public void writeEnd() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    out.append('}').append(System.lineSeparator());
+  }
+  
+  private void writeEdge(int parentNodeId, int nodeId) throws IOException {
+    if (parentNodeId >= 0) {
+      out.append("  n").append(Integer.toString(parentNodeId))
+         .append(" -> n").append(Integer.toString(nodeId)).append(';')
+         .append(System.lineSeparator());
+    }
+  }
+  
+  @Override
+  public void visitStep(int nodeId, int parentNodeId, int depth, CharSequence identifier) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      out.append("  n").append(Integer.toString(nodeId)).append(" [label=\"");
+      appendEscaped(out, identifier);
+      out.append("\"];").append(System.lineSeparator());
+      writeEdge(parentNodeId, nodeId);
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+  
+  @Override
+  public void startCollection(int nodeId, int parentNodeId, int depth, 
+                              boolean sequential, int childCount) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      writeEdge(parentNodeId, nodeId);
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+  
+  @Override
+  public void endCollection(int nodeId, int depth, boolean sequential, int childCount, 
+                            int estimatedConcurrency, int estimatedThreads) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      // declared after children, once the estimates are known
+      out.append("  n").append(Integer.toString(nodeId)).append(" [shape=box, label=\"")
+         .append(sequential ? "sequential" : "parallel")
+         .append(" (").append(Integer.toString(childCount)).append(")\\nconcurrency=")
+         .append(Integer.toString(estimatedConcurrency)).append(" threads=")
+         .append(Integer.toString(estimatedThreads)).append("\"];")
+         .append(System.lineSeparator());
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+}
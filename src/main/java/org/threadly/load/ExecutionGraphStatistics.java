@@ -0,0 +1,115 @@
+package org.threadly.load;
+
+/**
+ * {@link ExecutionGraphVisitor} which collects structural statistics about a script.  This can 
+ * be used to validate a large generated script (for example that the threads it will need are 
+ * reasonable for the machine) before it is started.  A single instance should only be used for 
+ * one traversal.
+ */
+public class ExecutionGraphStatistics implements ExecutionGraphVisitor {
+  /**
+   * Collect the statistics for the provided script.
+   * 
+   * @param script Script to inspect, should not have been started yet
+   * @return Statistics of the script's execution graph
+   */
+  public static ExecutionGraphStatistics of(ExecutableScript script) {
+    ExecutionGraphStatistics result = new ExecutionGraphStatistics();
+    script.visitExecutionGraph(result);
+    return result;
+  }
+  
+  private int stepCount = 0;
+  private int collectionCount = 0;
+  private int maxDepth = 0;
+  private int maxFanOut = 0;
+  private int estimatedConcurrency = 0;
+  private int estimatedThreadCount = 0;
+  
+  @Override
+  public void visitStep(int nodeId, int parentNodeId, int depth, CharSequence identifier) {
+    stepCount++;
+    maxDepth = Math.max(maxDepth, depth);
+  }
+  
+  @Override
+  public void startCollection(int nodeId, int parentNodeId, int depth, 
+                              boolean sequential, int childCount) {
+    collectionCount++;
+    maxDepth = Math.max(maxDepth, depth);
+    maxFanOut = Math.max(maxFanOut, childCount);
+  }
+  
+  @Override
+  public void endCollection(int nodeId, int depth, boolean sequential, int childCount, 
+                            int estimatedConcurrency, int estimatedThreads) {
+    if (depth == 0) {
+      this.estimatedConcurrency = estimatedConcurrency;
+      this.estimatedThreadCount = estimatedThreads;
+    }
+  }
+  
+  /**
+   * Returns the number of {@link ScriptStep}'s in the graph.
+   * 
+   * @return Total number of steps
+   */
+  public int getStepCount() {
+    return stepCount;
+  }
+  
+  /**
+   * Returns the number of sequential and parallel collections in the graph.
+   * 
+   * @return Total number of step collections
+   */
+  public int getCollectionCount() {
+    return collectionCount;
+  }
+  
+  /**
+   * Returns the deepest nesting of collections.  Steps directly in the script's root collection 
+   * are at depth {@code 1}.
+   * 
+   * @return Maximum depth of the graph
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+  
+  /**
+   * Returns the largest number of children directly held by any one collection.
+   * 
+   * @return Maximum fan out of the graph
+   */
+  public int getMaxFanOut() {
+    return maxFanOut;
+  }
+  
+  /**
+   * Returns the estimated maximum number of steps which may run at the same time.
+   * 
+   * @return Estimated peak step concurrency
+   */
+  public int getEstimatedConcurrency() {
+    return estimatedConcurrency;
+  }
+  
+  /**
+   * Returns the estimated number of threads needed to run the script.  This is computed from the 
+   * graph in the same way the builders account for threads, so is comparable to 
+   * {@link AbstractScriptBuilder#getMaximumNeededThreadCount()}.
+   * 
+   * @return Estimated threads needed
+   */
+  public int getEstimatedThreadCount() {
+    return estimatedThreadCount;
+  }
+  
+  @Override
+  public String toString() {
+    return "steps=" + stepCount + ", collections=" + collectionCount + ", maxDepth=" + maxDepth + 
+             ", maxFanOut=" + maxFanOut + ", estimatedConcurrency=" + estimatedConcurrency + 
+             ", estimatedThreads=" + estimatedThreadCount;
+  }
+}
@@ -0,0 +1,55 @@
+package org.threadly.load;
+
+/**
+ * Visitor which can be provided to 
+ * {@link ExecutableScript#visitExecutionGraph(ExecutionGraphVisitor)} to inspect the structure of 
+ * a script before it is run.  The graph is visited depth first, with 
+ * each collection of steps reported before and after its children.  
+ * <p>
+ * Each node is given an identifier which is unique within a single traversal.  Synthetic items 
+ * which only adjust how the script runs (for example rate changes or progress futures) are not 
+ * reported.  
+ * <p>
+ * The traversal does not allocate per node, so it can be used to validate very large generated 
+ * scripts.  Implementations should avoid retaining the provided identifiers if memory is a 
+ * concern.
+ */
+public interface ExecutionGraphVisitor {
+  /**
+   * Invoked for each {@link ScriptStep} in the graph.
+   * 
+   * @param nodeId Identifier for this node within the traversal
+   * @param parentNodeId Identifier of the collection containing this step, or {@code -1}
+   * @param depth How many collections contain this step
+   * @param identifier Identifier of the script step
+   */
+  public void visitStep(int nodeId, int parentNodeId, int depth, CharSequence identifier);
+  
+  /**
+   * Invoked when a collection of steps is reached, before any of its children are visited.
+   * 
+   * @param nodeId Identifier for this node within the traversal
+   * @param parentNodeId Identifier of the collection containing this one, or {@code -1} for root
+   * @param depth How many collections contain this collection
+   * @param sequential {@code true} if children run one after another, {@code false} if parallel
+   * @param childCount Number of child items (the fan out of this collection)
+   */
+  public void startCollection(int nodeId, int parentNodeId, int depth, 
+                              boolean sequential, int childCount);
+  
+  /**
+   * Invoked after all children of a collection have been visited.  The estimates match how the 
+   * script builders account for threads: parallel collections need the sum of their children, 
+   * and sequential collections need the most any one child needs, plus the thread running the 
+   * sequence.
+   * 
+   * @param nodeId Identifier for this node within the traversal
+   * @param depth How many collections contain this collection
+   * @param sequential {@code true} if children run one after another, {@code false} if parallel
+   * @param childCount Number of child items (the fan out of this collection)
+   * @param estimatedConcurrency Maximum number of steps from this collection which may run at once
+   * @param estimatedThreads Estimated number of threads needed to run this collection
+   */
+  public void endCollection(int nodeId, int depth, boolean sequential, int childCount, 
+                            int estimatedConcurrency, int estimatedThreads);
+}
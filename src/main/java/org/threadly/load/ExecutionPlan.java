@@ -0,0 +1,934 @@
+package org.threadly.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+import org.threadly.load.AbstractScriptBuilder.AbstractExecutionItem;
+import org.threadly.load.AbstractScriptBuilder.GhostExecutionItem;
+import org.threadly.load.AbstractScriptBuilder.ScriptStepRunner;
+import org.threadly.load.AbstractScriptBuilder.TemplateItem;
+import org.threadly.load.ExecutableScript.ExecutionItem;
+import org.threadly.load.ExecutableScript.ExecutionItem.ExecutionAssistant;
+import org.threadly.load.ExecutableScript.ExecutionItem.ExecutionAssistant.RunPermit;
+import org.threadly.load.ExecutableScript.ExecutionItem.StepStartHandler;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Flat form of a script's execution graph.  {@link ExecutableScript} compiles the tree of step 
+ * collections produced by the builders into this plan when it is constructed, and runs the 
+ * script from the plan.  
+ * <p>
+ * Nodes are stored depth first in parallel arrays, so node {@code 0} is the root and every node 
+ * is followed by its subtree.  The children of each collection are held as a range of a single 
+ * shared index array.  Since the steps of a collection are all within its subtree, the futures 
+ * for any collection are a contiguous range of {@link #getFutures()}, in the same order the 
+ * steps were added to the builders.  
+ * <p>
+ * Only the steps (and synthetic items like rate changes) are retained from the builders.  The 
+ * collections are interpreted from the plan arrays when run, so the collections, and the futures 
+ * each of them held, can be released once compiled.  No thread is held while a collection waits 
+ * on its children, instead a collection continues from the thread which completed its child.
+ * <p>
+ * Instances of a {@link ScriptTemplate} are expanded into the plan like any other collection.  
+ * The template's step runners are shared by every instance, the state of each instance is only 
+ * held in the plan's arrays (indexed by the instance's nodes), so no objects are constructed per 
+ * instance when compiled.  
+ * <p>
+ * The state of each run (the futures, results and progress of the collections) is held by the 
+ * run, not by the items.  So tasks which are still queued from a failed run can not effect the 
+ * next run of the plan.  Runs which stream their results to a recorder are not provided futures 
+ * at all, so no state is held per step.
+ */
+public class ExecutionPlan {
+  /**
+   * Type of a node in the plan.
+   */
+  public enum NodeType {
+    /**
+     * A {@link ScriptStep} which will provide a result.
+     */
+    Step, 
+    /**
+     * A collection which runs its children one after another.
+     */
+    Sequence, 
+    /**
+     * A collection which runs all of its children at once.
+     */
+    Parallel, 
+    /**
+     * A change to the rate steps are run at.  This applies to the items after it in the 
+     * containing sequence.
+     */
+    RateChange, 
+    /**
+     * An item which does not provide a result, but adjusts or reports on how the script runs.  
+     * For example progress futures or warm up phases.
+     */
+    Synthetic;
+  }
+  
+  private static final NodeType[] NODE_TYPES = NodeType.values();
+  // states of a sequence's collection slot while a child runs
+  private static final int CHILD_STARTING = 1;
+  private static final int CHILD_PENDING = 2;
+  private static final int CHILD_DONE = 3;
+  
+  private final byte[] nodeTypes;
+  private final int[] subtreeEnds;
+  private final int[] parentNodes;
+  private final int[] childStarts;
+  private final int[] childCounts;
+  private final int[] childNodes;
+  private final int[] collectionSlots;
+  private final int[] futureIndexes;
+  private final ExecutionItem[] items;
+  private final NodeTask[] tasks;
+  private StepStartHandler[] startHandlers;
+  private ArrayList<SettableListenableFuture<StepResult>> firstRunFutures;
+  private List<SettableListenableFuture<StepResult>> futures;
+  private int nextChildSlot;
+  private int collectionCount;
+  private boolean started;
+  
+  /**
+   * Compiles the provided execution graph into a plan.
+   * 
+   * @param rootItem Item which represents the script
+   */
+  protected ExecutionPlan(ExecutionItem rootItem) {
+    int nodeCount = countNodes(rootItem);
+    nodeTypes = new byte[nodeCount];
+    subtreeEnds = new int[nodeCount];
+    parentNodes = new int[nodeCount];
+    childStarts = new int[nodeCount];
+    childCounts = new int[nodeCount];
+    childNodes = new int[nodeCount - 1];
+    collectionSlots = new int[nodeCount];
+    futureIndexes = new int[nodeCount + 1];
+    items = new ExecutionItem[nodeCount];
+    tasks = new NodeTask[nodeCount];
+    startHandlers = null;
+    firstRunFutures = 
+        new ArrayList<SettableListenableFuture<StepResult>>(rootItem.getFutures().size());
+    nextChildSlot = 0;
+    collectionCount = 0;
+    started = false;
+    
+    parentNodes[0] = -1;
+    compile(rootItem, 0, false, null);
+    futureIndexes[nodeCount] = firstRunFutures.size();
+    futures = firstRunFutures;
+  }
+  
+  private static int countNodes(ExecutionItem item) {
+    int result = 1;
+    ExecutionItem.ChildItems childItems = item.getChildItems();
+    for (int i = 0; i < childItems.getChildCount(); i++) {
+      result += countNodes(childItems.getChild(i));
+    }
+    return result;
+  }
+  
+  /**
+   * Add an item and its subtree into the plan arrays.  Within a {@link TemplateItem} the 
+   * template's step runners are shared with every other instance, so their futures can not be 
+   * used.  Instead the first run futures for those steps are constructed once the plan is first 
+   * run.  Synthetic items which hold state while running (like warm ups) are copied for each 
+   * instance.  Start handlers are taken from the items here, and only apply to the first run.
+   * 
+   * @param item Item to add
+   * @param node Index to store the item at
+   * @param instantiate {@code true} if the item is within a template instance
+   * @param startHandler Start handler of the template instance, or {@code null} if none is set
+   * @return Index after the item's subtree
+   */
+  private int compile(ExecutionItem item, int node, 
+                      boolean instantiate, StepStartHandler startHandler) {
+    if (item instanceof TemplateItem) {
+      instantiate = true;
+      StepStartHandler templateHandler = ((TemplateItem)item).getStartHandler();
+      if (templateHandler != null) {
+        startHandler = templateHandler;
+      }
+    }
+    ExecutionItem.ChildItems childItems = item.getChildItems();
+    int childCount = childItems.getChildCount();
+    futureIndexes[node] = firstRunFutures.size();
+    if (childCount == 0) {
+      NodeType type;
+      StepStartHandler handler = null;
+      if (item instanceof ScriptStepRunner) {
+        type = NodeType.Step;
+        if (instantiate) {
+          handler = startHandler;
+        }
+      } else if (item.manipulatesExecutionAssistant()) {
+        type = NodeType.RateChange;
+      } else {
+        type = NodeType.Synthetic;
+        if (instantiate && item instanceof GhostExecutionItem) {
+          item = ((GhostExecutionItem)item).makeInstanceItem();
+        }
+      }
+      if (! instantiate && item instanceof AbstractExecutionItem) {
+        handler = ((AbstractExecutionItem)item).getStartHandler();
+      }
+      if (handler != null) {
+        if (startHandlers == null) {
+          // most scripts have no handlers, so only allocated once one is found
+          startHandlers = new StepStartHandler[items.length];
+        }
+        startHandlers[node] = handler;
+      }
+      nodeTypes[node] = (byte)type.ordinal();
+      items[node] = item;
+      if (instantiate && type == NodeType.Step) {
+        // constructed when first run, see prepareForRun(boolean)
+        firstRunFutures.add(null);
+      } else {
+        firstRunFutures.addAll(item.getFutures());
+      }
+      subtreeEnds[node] = node + 1;
+      return node + 1;
+    }
+    
+    if (childItems.itemsRunSequential()) {
+      nodeTypes[node] = (byte)NodeType.Sequence.ordinal();
+    } else {
+      nodeTypes[node] = (byte)NodeType.Parallel.ordinal();
+    }
+    collectionSlots[node] = collectionCount++;
+    int childStart = nextChildSlot;
+    nextChildSlot += childCount;
+    childStarts[node] = childStart;
+    childCounts[node] = childCount;
+    int nextNode = node + 1;
+    for (int i = 0; i < childCount; i++) {
+      childNodes[childStart + i] = nextNode;
+      parentNodes[nextNode] = node;
+      nextNode = compile(childItems.getChild(i), nextNode, instantiate, startHandler);
+    }
+    subtreeEnds[node] = nextNode;
+    return nextNode;
+  }
+  
+  /**
+   * Returns the number of nodes in the plan.  Node {@code 0} is always the root collection.
+   * 
+   * @return Total number of nodes
+   */
+  public int getNodeCount() {
+    return items.length;
+  }
+  
+  /**
+   * Returns the type of the node at the provided index.
+   * 
+   * @param node Index of the node
+   * @return Type of the node
+   */
+  public NodeType getNodeType(int node) {
+    return NODE_TYPES[nodeTypes[node]];
+  }
+  
+  /**
+   * Returns the number of children of the provided node.  This will be {@code 0} for everything 
+   * other than {@link NodeType#Sequence} and {@link NodeType#Parallel} nodes.
+   * 
+   * @param node Index of the node
+   * @return Number of child nodes
+   */
+  public int getChildCount(int node) {
+    return childCounts[node];
+  }
+  
+  /**
+   * Returns the index of a child node.  Children of parallel nodes are reordered each time the 
+   * script is started.
+   * 
+   * @param node Index of the collection node
+   * @param index Index of the child, must be less than {@link #getChildCount(int)}
+   * @return Index of the child node
+   */
+  public int getChild(int node, int index) {
+    if (index < 0 || index >= childCounts[node]) {
+      throw new IndexOutOfBoundsException();
+    }
+    return childNodes[childStarts[node] + index];
+  }
+  
+  /**
+   * Returns the index after the last node in the provided node's subtree.  So the subtree of 
+   * the node is the range from the node (inclusive) to this index (exclusive).
+   * 
+   * @param node Index of the node
+   * @return Exclusive end of the node's subtree
+   */
+  public int getSubtreeEnd(int node) {
+    return subtreeEnds[node];
+  }
+  
+  /**
+   * Returns the identifier of a {@link NodeType#Step} node.
+   * 
+   * @param node Index of the step node
+   * @return Identifier of the script step
+   */
+  public CharSequence getStepIdentifier(int node) {
+    if (nodeTypes[node] != NodeType.Step.ordinal()) {
+      throw new IllegalArgumentException("Not a step node: " + node);
+    }
+    return ((ScriptStepRunner)items[node]).scriptStep.getIdentifier();
+  }
+  
+  /**
+   * Returns the number of steps in the plan.
+   * 
+   * @return Number of steps which will provide a future
+   */
+  public int getStepCount() {
+    return futureIndexes[items.length];
+  }
+  
+  /**
+   * Returns the futures for every step in the plan.  New futures are provided each time the plan 
+   * is prepared to run again.  Until the plan is first prepared the steps of template instances 
+   * have a {@code null} future.
+   * 
+   * @return Futures for all steps in the order the steps were added, or {@code null} if the plan 
+   *           was prepared to run without futures
+   */
+  protected List<SettableListenableFuture<StepResult>> getFutures() {
+    return futures;
+  }
+  
+  /**
+   * Returns the futures for the steps within a node's subtree.
+   * 
+   * @param node Index of the node
+   * @return Futures for the steps the node runs
+   */
+  protected List<SettableListenableFuture<StepResult>> getFutures(int node) {
+    return getFutures(futures, node);
+  }
+  
+  private List<SettableListenableFuture<StepResult>>
+      getFutures(List<SettableListenableFuture<StepResult>> runFutures, int node) {
+    int from = futureIndexes[node];
+    int to = futureIndexes[subtreeEnds[node]];
+    if (from == to) {
+      return Collections.emptyList();
+    }
+    return runFutures.subList(from, to);
+  }
+  
+  /**
+   * Returns the item which runs the node at the provided index.  Collections are run from the 
+   * plan itself, so no item is retained for {@link NodeType#Sequence} and 
+   * {@link NodeType#Parallel} nodes.
+   * 
+   * @param node Index of the node
+   * @return Item to run the node, or {@code null} for collection nodes
+   */
+  protected ExecutionItem getItem(int node) {
+    return items[node];
+  }
+  
+  /**
+   * Prepare the plan to be run.  This reorders the children of each parallel collection so that 
+   * the order steps are started in is not biased.  The first run which provides futures completes 
+   * the futures the steps were built with, after that each step is provided a new future.  This 
+   * must only be invoked once any previous run has finished.
+   * 
+   * @param provideFutures {@code false} to run without a future for each step
+   */
+  protected void prepareForRun(boolean provideFutures) {
+    if (! provideFutures) {
+      futures = null;
+    } else if (started) {
+      // a new list so that tasks still finishing from the previous run only see its futures
+      int stepCount = getStepCount();
+      ArrayList<SettableListenableFuture<StepResult>> newFutures = 
+          new ArrayList<SettableListenableFuture<StepResult>>(stepCount);
+      for (int i = 0; i < stepCount; i++) {
+        newFutures.add(new SettableListenableFuture<StepResult>(false));
+      }
+      futures = newFutures;
+    } else {
+      for (int i = 0; i < firstRunFutures.size(); i++) {
+        if (firstRunFutures.get(i) == null) {
+          // step of a template instance
+          firstRunFutures.set(i, new SettableListenableFuture<StepResult>(false));
+        }
+      }
+      futures = firstRunFutures;
+      firstRunFutures = null;
+      started = true;
+    }
+    Random random = new Random(Clock.accurateTimeNanos());
+    for (int node = 0; node < items.length; node++) {
+      if (nodeTypes[node] == NodeType.Parallel.ordinal()) {
+        int start = childStarts[node];
+        for (int i = childCounts[node] - 1; i > 0; i--) {
+          int swapIndex = start + random.nextInt(i + 1);
+          int child = childNodes[start + i];
+          childNodes[start + i] = childNodes[swapIndex];
+          childNodes[swapIndex] = child;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Start running the plan.  {@link #prepareForRun(boolean)} must be invoked first.  The root 
+   * node is dispatched to the assistant's executor, so this returns without waiting for any 
+   * steps.  
+   * <p>
+   * The returned future completes once the run has finished.  That is once every node has 
+   * completed, or once the run has been halted because a step failed.  If the script is stopped 
+   * the steps which are already running are still waited on.  Before it completes the futures 
+   * of any steps which did not run are canceled.  It provides the result of the first step to 
+   * fail, so that runs without futures can still report a failure.
+   * 
+   * @param assistant Assistant to run with
+   * @param compactResults Results to record into (slots assigned in step order), or {@code null}
+   * @param retainPassResults {@code false} to complete passing steps with a {@code null} result
+   * @return Future which completes once the run has finished, with the first failed result
+   */
+  protected ListenableFuture<StepResult> startRun(ExecutionAssistant assistant, 
+                                         CompactStepResults compactResults, 
+                                         boolean retainPassResults) {
+    return new PlanRun(assistant, futures, compactResults, retainPassResults).start();
+  }
+  
+  /**
+   * The state of a single run of the plan.  Collection nodes are interpreted from here, holding 
+   * their progress in arrays indexed by {@link #collectionSlots}, rather than in objects 
+   * constructed per collection.  
+   * <p>
+   * A node either completes synchronously (signaled by returning {@code true} from 
+   * {@link #runNode(int, ExecutionAssistant)}), or later invokes {@link #nodeComplete(int)}, 
+   * never both.  Sequences continue on whichever thread completed their child.  Parallel nodes 
+   * count down their children, completing as soon as one fails rather than waiting on the rest.
+   */
+  private class PlanRun {
+    private final ExecutionAssistant assistant;
+    private final List<SettableListenableFuture<StepResult>> futures;
+    private final CompactStepResults compactResults;
+    private final boolean retainPassResults;
+    private final SettableListenableFuture<StepResult> completionFuture;
+    private final AtomicReference<StepResult> failure;
+    private final AtomicIntegerArray collectionStates;
+    private final int[] sequenceCursors;
+    private final ExecutionAssistant[] sequenceAssistants;
+    
+    protected PlanRun(ExecutionAssistant assistant, 
+                      List<SettableListenableFuture<StepResult>> futures, 
+                      CompactStepResults compactResults, boolean retainPassResults) {
+      this.assistant = assistant;
+      this.futures = futures;
+      this.compactResults = compactResults;
+      this.retainPassResults = retainPassResults;
+      completionFuture = new SettableListenableFuture<StepResult>(false);
+      failure = new AtomicReference<StepResult>(null);
+      collectionStates = new AtomicIntegerArray(collectionCount);
+      sequenceCursors = new int[collectionCount];
+      sequenceAssistants = new ExecutionAssistant[collectionCount];
+    }
+    
+    protected ListenableFuture<StepResult> start() {
+      if (! assistant.dispatchIfStillRunning(makeTask(0, assistant), false)) {
+        finished();
+      }
+      return completionFuture;
+    }
+    
+    protected void finished() {
+      if (futures != null) {
+        FutureUtils.cancelIncompleteFutures(futures, true);
+      }
+      completionFuture.setResult(failure.get());
+    }
+    
+    /**
+     * Returns a task to dispatch the node with.  The task of the node is reused from earlier 
+     * runs, unless it is still queued from one of them.
+     * 
+     * @param node Index of the node to dispatch
+     * @param assistant Assistant to run the node with
+     * @return Task to provide to the executor
+     */
+    private NodeTask makeTask(int node, ExecutionAssistant assistant) {
+      NodeTask task = tasks[node];
+      if (task == null || task.inFlight) {
+        task = new NodeTask(node);
+        tasks[node] = task;
+      }
+      task.prepare(this, assistant);
+      return task;
+    }
+    
+    /**
+     * Dispatch a node to be run on another thread.  Items which run steps (rather than other 
+     * items) are delayed by the assistant's rate limit.
+     * 
+     * @param node Index of the node to dispatch
+     * @param assistant Assistant to run the node with
+     * @return {@code false} if the run has stopped and the node was not dispatched
+     */
+    private boolean dispatch(int node, ExecutionAssistant assistant) {
+      boolean rateLimited = childCounts[node] == 0 && ! items[node].isChainExecutor();
+      return assistant.dispatchIfStillRunning(makeTask(node, assistant), rateLimited);
+    }
+    
+    /**
+     * Run a node, returning {@code true} if it completed before returning.  Otherwise 
+     * {@link #nodeComplete(int)} will be invoked once the node completes.
+     * 
+     * @param node Index of the node to run
+     * @param assistant Assistant to run the node with
+     * @return {@code true} if the node has completed
+     */
+    private boolean runNode(int node, ExecutionAssistant assistant) {
+      if (childCounts[node] == 0) {
+        if (assistant.isRateLimited() && ! items[node].isChainExecutor()) {
+          // completed from the dispatched task once the limiter has run it
+          return ! dispatch(node, assistant);
+        }
+        return runLeaf(node, assistant);
+      } else if (nodeTypes[node] == NodeType.Sequence.ordinal()) {
+        int slot = collectionSlots[node];
+        sequenceAssistants[slot] = assistant;
+        return runSequence(node, slot, childStarts[node]);
+      } else {
+        return runParallel(node, assistant);
+      }
+    }
+    
+    /**
+     * Run the children of a sequence, starting from the child at the provided index into 
+     * {@link #childNodes}.  If a child does not complete synchronously, the sequence is left 
+     * pending and continued from {@link #nodeComplete(int)}.
+     * 
+     * @param node Index of the sequence node
+     * @param slot Collection slot of the sequence
+     * @param from Index into {@link #childNodes} of the next child to run
+     * @return {@code true} if the sequence has completed
+     */
+    private boolean runSequence(int node, int slot, int from) {
+      ExecutionAssistant assistant = sequenceAssistants[slot];
+      int end = childStarts[node] + childCounts[node];
+      try {
+        for (int i = from; i < end && assistant.isStillRunning(); i++) {
+          int child = childNodes[i];
+          if (nodeTypes[child] == NodeType.RateChange.ordinal()) {
+            // rate changes only apply to the items after it in this sequence
+            assistant = assistant.makeCopy();
+            sequenceAssistants[slot] = assistant;
+          }
+          sequenceCursors[slot] = i;
+          collectionStates.set(slot, CHILD_STARTING);
+          if (! runNode(child, assistant) && 
+              collectionStates.compareAndSet(slot, CHILD_STARTING, CHILD_PENDING)) {
+            // child will continue the sequence once complete
+            return false;
+          }
+        }
+      } catch (Throwable t) {
+        ExceptionUtils.handleException(t);
+        this.assistant.markGlobalFailure();
+      }
+      sequenceAssistants[slot] = null;
+      return true;
+    }
+    
+    /**
+     * Dispatch all the children of a parallel node.  One count is held while dispatching, so 
+     * that the node can not complete until every child has been dispatched (or the run fails).
+     * 
+     * @param node Index of the parallel node
+     * @param assistant Assistant to run the children with
+     * @return {@code true} if the node has completed
+     */
+    private boolean runParallel(int node, ExecutionAssistant assistant) {
+      int slot = collectionSlots[node];
+      int start = childStarts[node];
+      int end = start + childCounts[node];
+      collectionStates.set(slot, end - start + 1);
+      try {
+        for (int i = start; i < end; i++) {
+          if ((! assistant.isStillRunning() || ! dispatch(childNodes[i], assistant)) && 
+              childComplete(slot)) {
+            return true;
+          }
+        }
+      } catch (Throwable t) {
+        ExceptionUtils.handleException(t);
+        this.assistant.markGlobalFailure();
+      }
+      return childComplete(slot);
+    }
+    
+    /**
+     * Count down a child of a parallel node.  Once the run has failed the node completes 
+     * immediately, without waiting on the children which are still running.
+     * 
+     * @param slot Collection slot of the parallel node
+     * @return {@code true} if the parallel node has now completed
+     */
+    private boolean childComplete(int slot) {
+      while (true) {
+        int remaining = collectionStates.get(slot);
+        if (remaining == 0) {
+          // already completed from a failure
+          return false;
+        }
+        int updated = assistant.getMarkedGlobalFailure() ? 0 : remaining - 1;
+        if (collectionStates.compareAndSet(slot, remaining, updated)) {
+          return updated == 0;
+        }
+      }
+    }
+    
+    /**
+     * Run a node without children.  A start handler for the node is invoked first, and then 
+     * cleared so that it only applies to the first run.
+     * 
+     * @param node Index of the node to run
+     * @param assistant Assistant to run the node with
+     * @return {@code true} if the node has completed, {@code false} if the step was deferred
+     */
+    private boolean runLeaf(int node, ExecutionAssistant assistant) {
+      boolean step = nodeTypes[node] == NodeType.Step.ordinal();
+      if (step && assistant.getMarkedGlobalFailure()) {
+        // futures for the run were canceled when the failure was marked
+        return true;
+      }
+      StepStartHandler[] startHandlers = ExecutionPlan.this.startHandlers;
+      if (startHandlers != null && startHandlers[node] != null) {
+        StepStartHandler handler = startHandlers[node];
+        startHandlers[node] = null;
+        handler.readyToRun(items[node], assistant);
+      }
+      if (step) {
+        return runStep(node, assistant);
+      } else {
+        ((GhostExecutionItem)items[node]).runItem(assistant);
+        return true;
+      }
+    }
+    
+    /**
+     * Run a step once permitted by the assistant, recording the run if flight recorder events 
+     * are enabled.  If the assistant defers the step (for example while paused), the node's task 
+     * is provided to be dispatched again once the step may run, and the node completes from that 
+     * task instead.
+     * 
+     * @param node Index of the step node
+     * @param assistant Assistant the step is running with
+     * @return {@code true} if the node has completed, {@code false} if the step was deferred
+     */
+    private boolean runStep(int node, ExecutionAssistant assistant) {
+      RunPermit permit = assistant.acquireRunPermit(null);
+      if (permit == RunPermit.Deferred) {
+        // only prepare the task once needed, as a prepared task can not be reused until run
+        NodeTask task = makeTask(node, assistant);
+        permit = assistant.acquireRunPermit(task);
+        if (permit == RunPermit.Deferred) {
+          return false;
+        }
+        task.release();
+      }
+      if (permit == RunPermit.Denied) {
+        // script was stopped, the future is canceled once the running steps complete
+        return true;
+      }
+      ScriptStep scriptStep = ((ScriptStepRunner)items[node]).scriptStep;
+      Object event = FlightRecorderEvents.isRecording() ? FlightRecorderEvents.beginStep() : null;
+      Throwable error = null;
+      try {
+        error = runStep(node, scriptStep, assistant);
+      } finally {
+        assistant.finishRunPermit();
+        if (event != null) {
+          FlightRecorderEvents.commitStep(event, scriptStep.getIdentifier(), 
+                                          scriptStep.getStepType(), error);
+        }
+      }
+      return true;
+    }
+    
+    /**
+     * Run the step and complete its future.  The run permit is released before the future is 
+     * completed, so that the step is no longer counted as running once its result is visible.
+     * 
+     * @param node Index of the step node
+     * @param scriptStep Step to run
+     * @param assistant Assistant the step is running with
+     * @return Error thrown from the step, or {@code null} if the step passed
+     */
+    private Throwable runStep(int node, final ScriptStep scriptStep, 
+                              ExecutionAssistant assistant) {
+      SettableListenableFuture<StepResult> future = null;
+      if (futures != null) {
+        future = futures.get(futureIndexes[node]);
+        future.setRunningThread(Thread.currentThread());
+      }
+      
+      StepResultRecorder recorder = assistant.getResultRecorder();
+      Throwable error = null;
+      switch (scriptStep.getStepType()) {
+        case Normal: {
+          long startNanos = Clock.accurateTimeNanos();
+          try {
+            scriptStep.runStep();
+          } catch (Throwable t) {
+            error = t;
+          }
+          long runTimeNanos = Clock.accurateTimeNanos() - startNanos;
+          recordResult(recorder, scriptStep, ScriptStepType.Normal, 
+                       startNanos, runTimeNanos, error);
+          assistant.releaseRunPermit();
+          if (error == null) {
+            setPassResult(node, future, scriptStep, ScriptStepType.Normal, runTimeNanos);
+          } else {
+            setErrorResult(node, future, scriptStep, ScriptStepType.Normal, runTimeNanos, error);
+            // must set result before marking failure
+            assistant.markGlobalFailure();
+          }
+        } break;
+        case AsyncMaintenance: {
+          recordResult(recorder, scriptStep, ScriptStepType.AsyncMaintenance, 
+                       Clock.accurateTimeNanos(), 0, null);
+          assistant.releaseRunPermit();
+          // set as complete immediately so script can continue
+          setPassResult(node, future, scriptStep, ScriptStepType.AsyncMaintenance, 0);
+          
+          assistant.executeAsyncMaintenanceTaskIfStillRunning(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                scriptStep.runStep();
+              } catch (Throwable t) {
+                ExceptionUtils.handleException(t);
+              }
+            }
+          });
+        } break;
+        case Maintenance: {
+          long startNanos = recorder == null ? 0 : Clock.accurateTimeNanos();
+          try {
+            scriptStep.runStep();
+          } catch (Throwable t) {
+            error = t;
+          }
+          recordResult(recorder, scriptStep, ScriptStepType.Maintenance, startNanos, 0, error);
+          assistant.releaseRunPermit();
+          if (error == null) {
+            setPassResult(node, future, scriptStep, ScriptStepType.Maintenance, 0);
+          } else {
+            setErrorResult(node, future, scriptStep, ScriptStepType.Maintenance, 0, error);
+            // must set result before marking failure
+            assistant.markGlobalFailure();
+          }
+        } break;
+        default:
+          assistant.releaseRunPermit();
+          throw new UnsupportedOperationException();
+      }
+      return error;
+    }
+    
+    /**
+     * Complete the future for a step which passed.  If compact results are enabled the result is 
+     * stored in the compact form, and the future is completed with a {@code null} result.
+     * 
+     * @param node Index of the step node, its future index is also its compact result slot
+     * @param future Future of the step for this run, or {@code null} if the run has no futures
+     * @param scriptStep Step which completed
+     * @param stepType Type of step which completed
+     * @param runTimeNanos Time in nanoseconds the step ran for
+     */
+    private void setPassResult(int node, SettableListenableFuture<StepResult> future, 
+                               ScriptStep scriptStep, ScriptStepType stepType, 
+                               long runTimeNanos) {
+      if (compactResults != null) {
+        compactResults.recordResult(futureIndexes[node], stepType, runTimeNanos, null);
+      }
+      if (future == null) {
+        return;
+      } else if (compactResults != null || ! retainPassResults) {
+        future.setResult(null);
+      } else if (stepType == ScriptStepType.Normal) {
+        future.setResult(new PassStepResult(scriptStep.getIdentifier(), runTimeNanos));
+      } else {
+        future.setResult(new MaintenancePassStepResult(scriptStep.getIdentifier()));
+      }
+    }
+    
+    /**
+     * Complete the future for a step which failed.  Failures are always provided to the future so 
+     * that they can be observed by the rest of the script.  The first failure is also retained 
+     * to complete the run with.
+     * 
+     * @param node Index of the step node, its future index is also its compact result slot
+     * @param future Future of the step for this run, or {@code null} if the run has no futures
+     * @param scriptStep Step which completed
+     * @param stepType Type of step which completed
+     * @param runTimeNanos Time in nanoseconds the step ran for
+     * @param error Error thrown from the step
+     */
+    private void setErrorResult(int node, SettableListenableFuture<StepResult> future, 
+                                ScriptStep scriptStep, ScriptStepType stepType, 
+                                long runTimeNanos, Throwable error) {
+      if (compactResults != null) {
+        compactResults.recordResult(futureIndexes[node], stepType, runTimeNanos, error);
+      }
+      StepResult result;
+      if (stepType == ScriptStepType.Normal) {
+        result = new ErrorStepResult(scriptStep.getIdentifier(), runTimeNanos, error);
+      } else {
+        result = new MaintenanceErrorStepResult(scriptStep.getIdentifier(), error);
+      }
+      failure.compareAndSet(null, result);
+      if (future != null) {
+        future.setResult(result);
+      }
+    }
+    
+    /**
+     * Provide the result to the recorder (if one is set).  Any failures from the recorder are 
+     * handled here so they can not prevent the step's future from completing.
+     * 
+     * @param recorder Recorder to inform, or {@code null} if none is set
+     * @param scriptStep Step which completed
+     * @param stepType Type of step which completed
+     * @param startNanos Time the step started at
+     * @param runTimeNanos Time in nanoseconds the step ran for
+     * @param error Error thrown from the step, or {@code null} if completed normally
+     */
+    private void recordResult(StepResultRecorder recorder, ScriptStep scriptStep, 
+                              ScriptStepType stepType, long startNanos, long runTimeNanos, 
+                              Throwable error) {
+      if (recorder != null) {
+        try {
+          recorder.recordResult(scriptStep.getIdentifier(), stepType, 
+                                startNanos, runTimeNanos, error);
+        } catch (Throwable t) {
+          ExceptionUtils.handleException(t);
+        }
+      }
+    }
+    
+    /**
+     * Invoked once a node which did not complete synchronously has completed.  Completion is 
+     * propagated up through the parents, continuing any sequence which was waiting on it.  If 
+     * the root completes {@link #finished()} must be invoked by the caller, so that it can first 
+     * report its task as finished to the assistant.
+     * 
+     * @param node Index of the node which completed
+     * @return {@code true} if the run has completed
+     */
+    protected boolean nodeComplete(int node) {
+      while (true) {
+        int parent = parentNodes[node];
+        if (parent < 0) {
+          return true;
+        }
+        int slot = collectionSlots[parent];
+        if (nodeTypes[parent] == NodeType.Parallel.ordinal()) {
+          if (! childComplete(slot)) {
+            return false;
+          }
+        } else if (collectionStates.compareAndSet(slot, CHILD_STARTING, CHILD_DONE) || 
+                   ! runSequence(parent, slot, sequenceCursors[slot] + 1)) {
+          // either the thread starting the child will continue, or a later child is pending
+          return false;
+        }
+        node = parent;
+      }
+    }
+    
+    /**
+     * Run a node which was dispatched to the executor.  Items have already been delayed by the 
+     * rate limit when dispatched, so they are run directly.
+     * 
+     * @param node Index of the node to run
+     * @param assistant Assistant to run the node with
+     * @return {@code true} if the run has completed and {@link #finished()} must be invoked
+     */
+    protected boolean runDispatched(int node, ExecutionAssistant assistant) {
+      boolean complete = true;
+      try {
+        if (childCounts[node] == 0) {
+          complete = runLeaf(node, assistant);
+        } else {
+          complete = runNode(node, assistant);
+        }
+      } catch (Throwable t) {
+        ExceptionUtils.handleException(t);
+        this.assistant.markGlobalFailure();
+      }
+      return complete && nodeComplete(node);
+    }
+  }
+  
+  /**
+   * Task to run a node which was dispatched to the executor.  Each node is dispatched at most 
+   * once per run, so one task is retained per node and bound to each run as it is dispatched.  A 
+   * task is only reused once it has been run, so a task still queued from a failed run keeps 
+   * the state of that run.
+   */
+  private static class NodeTask implements Runnable {
+    private final int node;
+    private PlanRun run;
+    private ExecutionAssistant assistant;
+    // written last when prepared, and cleared once the dispatch state has been read
+    protected volatile boolean inFlight;
+    
+    protected NodeTask(int node) {
+      this.node = node;
+      run = null;
+      assistant = null;
+      inFlight = false;
+    }
+    
+    protected void prepare(PlanRun run, ExecutionAssistant assistant) {
+      this.run = run;
+      this.assistant = assistant;
+      inFlight = true;
+    }
+    
+    protected void release() {
+      run = null;
+      assistant = null;
+      inFlight = false;
+    }
+    
+    @Override
+    public void run() {
+      PlanRun run = this.run;
+      ExecutionAssistant assistant = this.assistant;
+      release();
+      boolean runComplete = false;
+      try {
+        runComplete = run.runDispatched(node, assistant);
+      } finally {
+        assistant.taskFinished();
+      }
+      if (runComplete) {
+        // completed after the task is released, so the pool is idle once the run completes
+        run.finished();
+      }
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package org.threadly.load;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Groups failures by their {@link FailureSignature} as they occur.  Each group counts its 
+ * failures, and keeps a small sample of the steps which failed and of the full (trimmed) stack 
+ * traces.  Stack trace strings are only built for the sampled failures, so the cost of 
+ * reporting depends on the number of distinct kinds of failures, rather than the number of 
+ * failures.  
+ * <p>
+ * This class is thread safe, and can be added to a script with 
+ * {@link ExecutableScript#addResultRecorder(StepResultRecorder)} so that failures are grouped on 
+ * the step threads as they occur.
+ */
+public class FailureAggregator implements StepResultRecorder {
+  protected static final int MAX_STEP_SAMPLES = 32;
+  protected static final int MAX_TRACE_SAMPLES = 3;
+  private static final int MAX_STRING_LENGTH = 16 * 1024;  // keeps writeUTF within 64k bytes
+  
+  /**
+   * Produces the description of a failure which is reported.  This includes the stack of the 
+   * failure and each cause, trimmed to remove the ambush frames.
+   * 
+   * @param t Failure to describe
+   * @return The description of the failure
+   */
+  protected static String describeFailure(Throwable t) {
+    StringBuilder sb = new StringBuilder();
+    while (t != null) {
+      if (sb.length() > 0) {
+        // will have line separator from last loop
+        sb.append("Caused by: ");
+      }
+      
+      sb.append(t.toString()).append(System.lineSeparator());
+      StackTraceElement[] stack = t.getStackTrace();
+      int length = FailureSignature.trimmedStackLength(stack);
+      if (length < stack.length) {
+        StackTraceElement[] trimmedStack = new StackTraceElement[length];
+        System.arraycopy(stack, 0, trimmedStack, 0, length);
+        stack = trimmedStack;
+      }
+      ExceptionUtils.writeStackTo(stack, sb);
+      
+      t = t.getCause();
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Write a string with {@link DataOutput#writeUTF(String)}, truncating it if it is too long to 
+   * be written.
+   * 
+   * @param out Output to write to
+   * @param str String to be written
+   * @throws IOException Thrown if the output could not be written to
+   */
+  protected static void writeString(DataOutput out, String str) throws IOException {
+    if (str.length() > MAX_STRING_LENGTH) {
+      str = str.substring(0, MAX_STRING_LENGTH);
+    }
+    out.writeUTF(str);
+  }
+  
+  /**
+   * Read failures which were written with {@link #writeTo(DataOutput)}.
+   * 
+   * @param in Input to read the failures from
+   * @return A new aggregator with the failures which were written
+   * @throws IOException Thrown if the input could not be read
+   */
+  public static FailureAggregator readFrom(DataInput in) throws IOException {
+    FailureAggregator result = new FailureAggregator();
+    int groupCount = in.readInt();
+    for (int i = 0; i < groupCount; i++) {
+      FailureSignature signature = new FailureSignature(in.readUTF(), in.readLong());
+      FailureGroup group = new FailureGroup(signature);
+      group.count.set(in.readLong());
+      int stepCount = in.readInt();
+      for (int j = 0; j < stepCount; j++) {
+        group.stepDescriptions.add(in.readUTF());
+      }
+      int traceCount = in.readInt();
+      for (int j = 0; j < traceCount; j++) {
+        group.traces.add(in.readUTF());
+      }
+      group.updateSamplesFull();
+      result.groups.put(signature, group);
+      result.failureCount.addAndGet(group.getCount());
+    }
+    return result;
+  }
+  
+  private final ConcurrentMap<FailureSignature, FailureGroup> groups;
+  private final AtomicLong failureCount;
+  
+  /**
+   * Constructs a new aggregator with no failures.
+   */
+  public FailureAggregator() {
+    groups = new ConcurrentHashMap<FailureSignature, FailureGroup>();
+    failureCount = new AtomicLong(0);
+  }
+  
+  @Override
+  public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                           long startNanos, long runTimeNanos, Throwable error) {
+    if (error != null) {
+      recordFailure(identifier, error);
+    }
+  }
+  
+  /**
+   * Record a failure into its group.
+   * 
+   * @param stepDescription Description of the step which failed, or {@code null} if unknown
+   * @param error Failure which occurred
+   */
+  public void recordFailure(CharSequence stepDescription, Throwable error) {
+    FailureSignature signature = FailureSignature.of(error);
+    FailureGroup group = groups.get(signature);
+    if (group == null) {
+      group = new FailureGroup(signature);
+      FailureGroup existingGroup = groups.putIfAbsent(signature, group);
+      if (existingGroup != null) {
+        group = existingGroup;
+      }
+    }
+    failureCount.incrementAndGet();
+    group.count.incrementAndGet();
+    if (! group.samplesFull) {
+      group.addSample(stepDescription == null ? null : stepDescription.toString(), error);
+    }
+  }
+  
+  /**
+   * Combine the failures from another aggregator into this one.  The provided aggregator is not 
+   * modified.
+   * 
+   * @param aggregator Aggregator to merge in
+   */
+  public void merge(FailureAggregator aggregator) {
+    for (FailureGroup otherGroup : aggregator.groups.values()) {
+      FailureGroup group = groups.get(otherGroup.signature);
+      if (group == null) {
+        group = new FailureGroup(otherGroup.signature);
+        FailureGroup existingGroup = groups.putIfAbsent(otherGroup.signature, group);
+        if (existingGroup != null) {
+          group = existingGroup;
+        }
+      }
+      long count = otherGroup.getCount();
+      failureCount.addAndGet(count);
+      group.count.addAndGet(count);
+      for (String description : otherGroup.getStepDescriptions()) {
+        group.addSample(description, null);
+      }
+      for (String trace : otherGroup.getSampleTraces()) {
+        group.addTrace(trace);
+      }
+    }
+  }
+  
+  /**
+   * Write the failures so that they can be read with {@link #readFrom(DataInput)}.  Very long 
+   * traces are truncated.
+   * 
+   * @param out Output to write the failures to
+   * @throws IOException Thrown if the output could not be written to
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    List<FailureGroup> groups = new ArrayList<FailureGroup>(this.groups.values());
+    out.writeInt(groups.size());
+    for (FailureGroup group : groups) {
+      synchronized (group) {
+        writeString(out, group.signature.getTypeName());
+        out.writeLong(group.signature.getStackHash());
+        out.writeLong(group.getCount());
+        out.writeInt(group.stepDescriptions.size());
+        for (String description : group.stepDescriptions) {
+          writeString(out, description);
+        }
+        out.writeInt(group.traces.size());
+        for (String trace : group.traces) {
+          writeString(out, trace);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Returns the total number of failures which have been recorded.
+   * 
+   * @return Number of failures
+   */
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+  
+  /**
+   * Returns the groups of failures which have been recorded.  The returned map is backed by this 
+   * aggregator, so will reflect failures which are recorded after this call.
+   * 
+   * @return Unmodifiable map of failure signatures to their group
+   */
+  public Map<FailureSignature, FailureGroup> getFailureGroups() {
+    return Collections.unmodifiableMap(groups);
+  }
+  
+  /**
+   * A group of failures which share the same {@link FailureSignature}.
+   */
+  public static class FailureGroup {
+    private final FailureSignature signature;
+    private final AtomicLong count;
+    private final List<String> stepDescriptions;  // guarded by this
+    private final List<String> traces;  // guarded by this
+    private volatile boolean samplesFull;
+    
+    protected FailureGroup(FailureSignature signature) {
+      this.signature = signature;
+      this.count = new AtomicLong(0);
+      this.stepDescriptions = new ArrayList<String>(1);
+      this.traces = new ArrayList<String>(1);
+      this.samplesFull = false;
+    }
+    
+    private synchronized void addSample(String stepDescription, Throwable error) {
+      if (stepDescription != null && stepDescriptions.size() < MAX_STEP_SAMPLES && 
+          ! stepDescriptions.contains(stepDescription)) {
+        stepDescriptions.add(stepDescription);
+      }
+      if (error != null && traces.size() < MAX_TRACE_SAMPLES) {
+        traces.add(describeFailure(error));
+      }
+      updateSamplesFull();
+    }
+    
+    private synchronized void addTrace(String trace) {
+      if (traces.size() < MAX_TRACE_SAMPLES && ! traces.contains(trace)) {
+        traces.add(trace);
+      }
+      updateSamplesFull();
+    }
+    
+    private void updateSamplesFull() {
+      samplesFull = stepDescriptions.size() == MAX_STEP_SAMPLES && 
+                      traces.size() == MAX_TRACE_SAMPLES;
+    }
+    
+    /**
+     * Returns the signature shared by all failures in this group.
+     * 
+     * @return Signature for the group
+     */
+    public FailureSignature getSignature() {
+      return signature;
+    }
+    
+    /**
+     * Returns how many times this failure occurred.
+     * 
+     * @return Number of failures in this group
+     */
+    public long getCount() {
+      return count.get();
+    }
+    
+    /**
+     * Returns a sample of the distinct step descriptions which failed in this group.  At most 
+     * {@value FailureAggregator#MAX_STEP_SAMPLES} descriptions are retained.
+     * 
+     * @return Copy of the sampled step descriptions
+     */
+    public synchronized List<String> getStepDescriptions() {
+      return new ArrayList<String>(stepDescriptions);
+    }
+    
+    /**
+     * Returns a sample of the full (trimmed) stack traces for failures in this group.  Traces are 
+     * sampled from the first failures, at most {@value FailureAggregator#MAX_TRACE_SAMPLES} 
+     * traces are retained.
+     * 
+     * @return Copy of the sampled stack traces
+     */
+    public synchronized List<String> getSampleTraces() {
+      return new ArrayList<String>(traces);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package org.threadly.load;
+
+/**
+ * Cheap identity for a kind of failure, used to group equivalent failures without building 
+ * their stack trace strings.  The signature is made from the exception type, and a hash of the 
+ * types and stack frames of the exception and its causes.  Just like the reported failure 
+ * descriptions, the stack frames are trimmed to exclude the ambush frames which invoked the 
+ * step, so failures from the same point in the step are equal no matter how the step was 
+ * scheduled.  
+ * <p>
+ * The hash only uses the strings held by the stack frames, so equal failures will produce equal 
+ * signatures in different JVM's.  Exception messages are not included, so failures which only 
+ * differ in their message are grouped together.
+ */
+public class FailureSignature {
+  private static final boolean TRIM_AMBUSH_STACK_AWAY = true;
+  private static final String AMBUSH_PACKAGE = FailureSignature.class.getPackage().getName();
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  
+  /**
+   * Get the number of stack frames which should be reported for a failure.  This will remove 
+   * the frames from ambush which invoked the step.
+   * 
+   * @param stack Stack from the failure
+   * @return The number of frames from the start of the stack to report
+   */
+  protected static int trimmedStackLength(StackTraceElement[] stack) {
+    if (! TRIM_AMBUSH_STACK_AWAY) {
+      return stack.length;
+    }
+    int i = 1;
+    for (; i < stack.length; i++) {
+      if (stack[i].getClassName().startsWith(AMBUSH_PACKAGE)) {
+        break;
+      }
+    }
+    return Math.min(i, stack.length);
+  }
+  
+  private static long mix(long hash, int value) {
+    return (hash + value) * HASH_MULTIPLIER;
+  }
+  
+  /**
+   * Produce the signature for a failure.
+   * 
+   * @param t Failure to produce the signature for
+   * @return Signature representing the failure
+   */
+  public static FailureSignature of(Throwable t) {
+    String typeName = t.getClass().getName();
+    long hash = 0;
+    while (t != null) {
+      hash = mix(hash, t.getClass().getName().hashCode());
+      StackTraceElement[] stack = t.getStackTrace();
+      int length = trimmedStackLength(stack);
+      for (int i = 0; i < length; i++) {
+        StackTraceElement ste = stack[i];
+        hash = mix(hash, ste.getClassName().hashCode());
+        hash = mix(hash, ste.getMethodName().hashCode());
+        hash = mix(hash, ste.getLineNumber());
+      }
+      t = t.getCause();
+    }
+    return new FailureSignature(typeName, hash);
+  }
+  
+  private final String typeName;
+  private final long stackHash;
+  
+  /**
+   * Construct a new signature with known values.
+   * 
+   * @param typeName Class name of the exception
+   * @param stackHash Hash of the exception stack and causes
+   */
+  protected FailureSignature(String typeName, long stackHash) {
+    this.typeName = typeName;
+    this.stackHash = stackHash;
+  }
+  
+  /**
+   * Returns the class name of the exception which failed the step.
+   * 
+   * @return Failure exception class name
+   */
+  public String getTypeName() {
+    return typeName;
+  }
+  
+  /**
+   * Returns the hash of the stack frames and cause types of the failure.
+   * 
+   * @return Hash of the failure stack
+   */
+  public long getStackHash() {
+    return stackHash;
+  }
+  
+  @Override
+  public int hashCode() {
+    return (int)(stackHash ^ (stackHash >>> 32));
+  }
+  
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    } else if (o instanceof FailureSignature) {
+      FailureSignature fs = (FailureSignature)o;
+      return stackHash == fs.stackHash && typeName.equals(fs.typeName);
+    } else {
+      return false;
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return typeName + '@' + Long.toHexString(stackHash);
+  }
+}
@@ -0,0 +1,161 @@
+package org.threadly.load;
+
+/**
+ * Java Flight Recorder events emitted while a script runs.  This allows the latency of steps to 
+ * be correlated with GC, lock contention, and other JVM events in JDK Mission Control.  Events 
+ * are emitted for: 
+ * <ul>
+ * <li>Each step run, with the step identifier, type and outcome ({@code org.threadly.load.Step})
+ * <li>The time a step waited on the rate limiter before running
+ * ({@code org.threadly.load.RateLimiterWait}) 
+ * <li>The time a step was blocked by a start handler, for example waiting for signals added by
+ * {@link ScriptBuilderUtils} ({@code org.threadly.load.StartHandlerWait}) 
+ * </ul>
+ * Events are only constructed while a flight recording is running, so otherwise the cost is a 
+ * single volatile read per step.  If the JVM does not provide flight recording no events will 
+ * be emitted.
+ * <p>
+ * The events themselves are compiled separately against JDK 11 (from {@code src/jfr/java}), and 
+ * are loaded reflectively so that the rest of the library can still run on Java 8.
+ */
+public class FlightRecorderEvents {
+  private static final String SUPPORT_CLASS = "org.threadly.load.JfrSupport";
+  private static final EventSupport SUPPORT;
+  private static volatile boolean recording = false;
+  
+  static {
+    EventSupport support;
+    try {
+      support = (EventSupport)Class.forName(SUPPORT_CLASS).getDeclaredConstructor().newInstance();
+      support.registerListener();
+    } catch (Throwable t) {
+      // flight recording is not available in this JVM, events will never be emitted
+      support = null;
+    }
+    SUPPORT = support;
+  }
+  
+  /**
+   * Check if a flight recording is currently running.  The other functions in this class must 
+   * only be invoked if this returns {@code true}.
+   * 
+   * @return {@code true} if events should be constructed
+   */
+  public static boolean isRecording() {
+    return recording;
+  }
+  
+  /**
+   * Invoked by the flight recorder support when a recording has started or stopped.
+   * 
+   * @param anyRunning {@code true} if any flight recording is currently running
+   */
+  static void recordingChanged(boolean anyRunning) {
+    recording = anyRunning;
+  }
+  
+  /**
+   * Begin the event for a step which is about to run.
+   * 
+   * @return Event to provide to 
+   *           {@link #commitStep(Object, CharSequence, ScriptStepType, Throwable)}
+   */
+  protected static Object beginStep() {
+    return SUPPORT.beginStep();
+  }
+  
+  /**
+   * Commit the event for a step which has completed.
+   * 
+   * @param event Event returned from {@link #beginStep()}
+   * @param identifier Identifier of the step
+   * @param stepType Type of the step
+   * @param error Error thrown from the step, or {@code null} if the step passed
+   */
+  protected static void commitStep(Object event, CharSequence identifier, 
+                                   ScriptStepType stepType, Throwable error) {
+    SUPPORT.commitStep(event, identifier, stepType, error);
+  }
+  
+  /**
+   * Wrap a task which is about to be submitted to a rate limiter, so that the time it waits to 
+   * run is recorded.
+   * 
+   * @param task Task to be rate limited
+   * @return Task to submit to the limiter instead
+   */
+  protected static Runnable wrapRateLimitedTask(Runnable task) {
+    return SUPPORT.wrapRateLimitedTask(task);
+  }
+  
+  /**
+   * Begin the event for a step which is about to be blocked by a start handler.
+   * 
+   * @return Event to provide to {@link #commitStartHandlerWait(Object, int)}
+   */
+  protected static Object beginStartHandlerWait() {
+    return SUPPORT.beginStartHandlerWait();
+  }
+  
+  /**
+   * Commit the event for a step which is no longer blocked by a start handler.
+   * 
+   * @param event Event returned from {@link #beginStartHandlerWait()}
+   * @param neededSignals Number of signals the step was waiting for
+   */
+  protected static void commitStartHandlerWait(Object event, int neededSignals) {
+    SUPPORT.commitStartHandlerWait(event, neededSignals);
+  }
+  
+  /**
+   * Functions which depend on the flight recorder classes.  These are kept separate so that the 
+   * rest of the script can still be loaded if the flight recorder classes are not available.
+   */
+  interface EventSupport {
+    /**
+     * Start listening for flight recordings starting and stopping.
+     */
+    void registerListener();
+    
+    /**
+     * See {@link FlightRecorderEvents#beginStep()}.
+     * 
+     * @return Event which has begun
+     */
+    Object beginStep();
+    
+    /**
+     * See {@link FlightRecorderEvents#commitStep(Object, CharSequence, ScriptStepType, Throwable)}.
+     * 
+     * @param event Event returned from {@link #beginStep()}
+     * @param identifier Identifier of the step
+     * @param stepType Type of the step
+     * @param error Error thrown from the step, or {@code null} if the step passed
+     */
+    void commitStep(Object event, CharSequence identifier, 
+                    ScriptStepType stepType, Throwable error);
+    
+    /**
+     * See {@link FlightRecorderEvents#wrapRateLimitedTask(Runnable)}.
+     * 
+     * @param task Task to be rate limited
+     * @return Task to submit to the limiter instead
+     */
+    Runnable wrapRateLimitedTask(Runnable task);
+    
+    /**
+     * See {@link FlightRecorderEvents#beginStartHandlerWait()}.
+     * 
+     * @return Event which has begun
+     */
+    Object beginStartHandlerWait();
+    
+    /**
+     * See {@link FlightRecorderEvents#commitStartHandlerWait(Object, int)}.
+     * 
+     * @param event Event returned from {@link #beginStartHandlerWait()}
+     * @param neededSignals Number of signals the step was waiting for
+     */
+    void commitStartHandlerWait(Object event, int neededSignals);
+  }
+}
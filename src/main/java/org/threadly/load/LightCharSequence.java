@@ -1,14 +1,91 @@
 package org.threadly.load;
 
+import java.util.Arrays;
+
 /**
  * A light weight char sequence implementation.  This implementation only holds the char[], and 
  * calculates everything lazily.  Thus saving heap usage by giving up possibly more computation 
- * complexity.
+ * complexity.  The only exception is the hash code, which is calculated once at construction so 
+ * that these can be used efficiently as map keys.  
+ * <p>
+ * Both {@link #hashCode()} and {@link #equals(Object)} are consistent with {@link String} (and 
+ * {@link CharSequenceChain}).  So a {@link String} key can be found in a map by looking up with 
+ * an equal {@link LightCharSequence}.  The reverse is not true since {@link String#equals(Object)} 
+ * will only consider other {@link String} instances.
  */
 public class LightCharSequence implements CharSequence {
-  private static final int HASH_START_PRIME = 31;
+  protected static final int HASH_MULTIPLIER = 31;
+  
+  /**
+   * Continue calculating a hash from a previous hash state.  Providing {@code 0} as the starting 
+   * hash will produce a result consistent with {@link String#hashCode()}.  This allows a hash to 
+   * be built from several sequences, producing the same hash as if they were a single sequence.
+   * 
+   * @param startHash Hash of the previous characters, or {@code 0} if this is the start
+   * @param cs Sequence to add into the hash
+   * @return Resulting hash code
+   */
+  protected static int hash(int startHash, CharSequence cs) {
+    if (cs instanceof LightCharSequence) {
+      return hash(startHash, ((LightCharSequence)cs).chars);
+    }
+    int result = startHash;
+    for (int i = 0; i < cs.length(); i++) {
+      result = HASH_MULTIPLIER * result + cs.charAt(i);
+    }
+    return result;
+  }
+  
+  /**
+   * Continue calculating a hash from a previous hash state.  Providing {@code 0} as the starting 
+   * hash will produce a result consistent with {@link String#hashCode()}.
+   * 
+   * @param startHash Hash of the previous characters, or {@code 0} if this is the start
+   * @param chars Characters to add into the hash
+   * @return Resulting hash code
+   */
+  protected static int hash(int startHash, char[] chars) {
+    int result = startHash;
+    for (char c : chars) {
+      result = HASH_MULTIPLIER * result + c;
+    }
+    return result;
+  }
+  
+  /**
+   * Check if the contents of two sequences are equal.  This will use the cached hash codes as a 
+   * quick check when both sides are known to cache them.
+   * 
+   * @param cs1 First sequence to compare
+   * @param cs2 Second sequence to compare
+   * @return {@code true} if the sequences hold the same characters
+   */
+  protected static boolean contentEquals(CharSequence cs1, CharSequence cs2) {
+    if (cs1 == cs2) {
+      return true;
+    }
+    int length = cs1.length();
+    if (length != cs2.length()) {
+      return false;
+    } else if (hasCachedHash(cs1) && hasCachedHash(cs2) && cs1.hashCode() != cs2.hashCode()) {
+      return false;
+    } else if (cs1 instanceof LightCharSequence && cs2 instanceof LightCharSequence) {
+      return Arrays.equals(((LightCharSequence)cs1).chars, ((LightCharSequence)cs2).chars);
+    }
+    for (int i = 0; i < length; i++) {
+      if (cs1.charAt(i) != cs2.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  private static boolean hasCachedHash(CharSequence cs) {
+    return cs instanceof LightCharSequence || cs instanceof CharSequenceChain || cs instanceof String;
+  }
   
   protected final char[] chars;
+  protected final int hash;
   
   /**
    * Construct a new light char sequence with the following array to back it.  This array is not 
@@ -17,7 +94,19 @@ public class LightCharSequence implements CharSequence {
    * @param chars non-null reference to characters
    */
   public LightCharSequence(char[] chars) {
+    this(chars, hash(0, chars));
+  }
+  
+  /**
+   * Construct a new light char sequence with an already known hash code.  This array is not 
+   * copied.
+   * 
+   * @param chars non-null reference to characters
+   * @param hash Hash code which must be consistent with {@link String#hashCode()}
+   */
+  protected LightCharSequence(char[] chars, int hash) {
     this.chars = chars;
+    this.hash = hash;
   }
 
   @Override
@@ -56,26 +145,35 @@ public class LightCharSequence implements CharSequence {
     if (this == o) {
       return true;
     } else if (o instanceof CharSequence) {
-      CharSequence cs = (CharSequence)o;
-      if (chars.length == cs.length()) {
-        for (int i = 0; i < chars.length; i++) {
-          if (chars[i] != cs.charAt(i)) {
-            return false;
-          }
-        }
-        
-        return true;
-      }
+      return contentEquals(this, (CharSequence)o);
     }
     return false;
   }
   
+  /**
+   * Compare the contents of this sequence against either a {@link String} or a {@code char[]}.  
+   * Only one of the two references should be provided, the other should be {@code null}.
+   * 
+   * @param str String to compare against, or {@code null} if comparing against {@code otherChars}
+   * @param otherChars Characters to compare against, or {@code null} if comparing against {@code str}
+   * @return {@code true} if the contents are equal
+   */
+  protected boolean contentEquals(String str, char[] otherChars) {
+    if (otherChars != null) {
+      return Arrays.equals(chars, otherChars);
+    } else if (chars.length != str.length() || hash != str.hashCode()) {
+      return false;
+    }
+    for (int i = 0; i < chars.length; i++) {
+      if (chars[i] != str.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
   @Override
   public int hashCode() {
-    int result = HASH_START_PRIME;
-    for (char c : chars) {
-      result ^= c;
-    }
-    return result;
+    return hash;
   }
 }
@@ -1,14 +1,8 @@
 package org.threadly.load;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.Random;
-
-import org.threadly.concurrent.future.FutureUtils;
 import org.threadly.load.ExecutableScript.ExecutionItem;
 import org.threadly.load.ExecutableScript.ExecutionItem.StepStartHandler;
-import org.threadly.util.Clock;
+import org.threadly.util.ArgumentVerifier;
 
 /**
  * A builder which's added steps will all be executed in parallel.  Typically this is constructed 
@@ -138,38 +132,43 @@ public class ParallelScriptBuilder extends AbstractScriptBuilder {
   }
   
   /**
-   * Collection of steps which will all be farmed off to the executor as fast as possible.
+   * Adds an instance of a template which will be executed concurrently with other steps added to 
+   * this builder.  The execution graph of the template will be maintained.  
+   * <p>
+   * Unlike adding a builder, the template is not consumed, so it can be added again (to this or 
+   * any other builder) without needing to copy it.
+   * 
+   * @param template Template to add an instance of
    */
-  protected static class ParallelStep extends StepCollectionRunner {
-    @Override
-    protected void runItem(ExecutionAssistant assistant) {
-      for (ExecutionItem chainItem : getSteps()) {
-        assistant.executeIfStillRunning(chainItem, true)
-                 .listener(new ExecutionItemCompletionRunner(chainItem));
-      }
-      // block till all parallel steps finish, or first error
-      try {
-        if (StepResultCollectionUtils.getFailedResult(getFutures()) != null) {
-          FutureUtils.cancelIncompleteFutures(getFutures(), true);
-          return;
-        }
-      } catch (InterruptedException e) {
-        // let thread exit
-        return;
-      }
-    }
-
-    @Override
-    public void prepareForRun() {
-      // shuffle steps so that the execution order is not biased
-      ExecutionItem[] steps = getSteps();
-      List<ExecutionItem> shuffledList = Arrays.asList(steps);
-      Collections.shuffle(shuffledList, new Random(Clock.accurateTimeNanos()));
-      setSteps(shuffledList.toArray(steps));
-      
-      super.prepareForRun();
+  @Override
+  public void addSteps(ScriptTemplate template) {
+    addSteps(template, 1);
+  }
+  
+  /**
+   * Adds instances of a template which will be executed concurrently with other steps added to 
+   * this builder.  The template will be run concurrently the number of times provided in this 
+   * call.  Each instance only references the shared template, so this is far cheaper than adding 
+   * copies of a builder.
+   * 
+   * @param template Template to add instances of
+   * @param times Quantity of times the template should be ran concurrently
+   */
+  public void addSteps(ScriptTemplate template, int times) {
+    ArgumentVerifier.assertNotNull(template, "template");
+    verifyValid();
+    incrementThreads(template.getMaximumNeededThreadCount() * times);
+    for (int i = 0; i < times; i++) {
+      currentStep.addItem(new TemplateItem(template));
     }
-
+  }
+  
+  /**
+   * Collection of steps which will all be farmed off to the executor as fast as possible.  This 
+   * is run by the parallel node it is compiled into within an {@link ExecutionPlan}, which also 
+   * shuffles the steps before each run so that the execution order is not biased.
+   */
+  protected static class ParallelStep extends StepCollectionRunner {
     @Override
     public ParallelStep makeCopy() {
       ParallelStep result = new ParallelStep();
@@ -184,7 +183,7 @@ public class ParallelScriptBuilder extends AbstractScriptBuilder {
 
     @Override
     public ChildItems getChildItems() {
-      return new ChildItemContainer(getSteps(), false);
+      return getChildItems(false);
     }
   }
 }
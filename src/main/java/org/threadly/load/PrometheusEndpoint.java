@@ -0,0 +1,106 @@
+package org.threadly.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.threadly.util.ArgumentVerifier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link PrometheusMetrics} from the HTTP server built into the JDK.  Metrics are served 
+ * from the {@code /metrics} path on a single thread, so scrapes do not compete with the script 
+ * for threads.  If metrics need to be served from another server, {@link PrometheusMetrics} can 
+ * be used directly instead.
+ */
+public class PrometheusEndpoint implements Closeable {
+  /**
+   * Path which the metrics are served from.
+   */
+  public static final String METRICS_PATH = "/metrics";
+  
+  protected final PrometheusMetrics metrics;
+  private final HttpServer server;
+  
+  /**
+   * Starts a server which serves the provided metrics on all interfaces.
+   * 
+   * @param metrics Metrics to be served
+   * @param port Port to listen on, or {@code 0} to use any free port
+   * @throws IOException Thrown if the server could not be started
+   */
+  public PrometheusEndpoint(PrometheusMetrics metrics, int port) throws IOException {
+    this(metrics, new InetSocketAddress(port));
+  }
+  
+  /**
+   * Starts a server which serves the provided metrics on a specific address.
+   * 
+   * @param metrics Metrics to be served
+   * @param address Address to listen on
+   * @throws IOException Thrown if the server could not be started
+   */
+  public PrometheusEndpoint(PrometheusMetrics metrics, 
+                            InetSocketAddress address) throws IOException {
+    ArgumentVerifier.assertNotNull(metrics, "metrics");
+    ArgumentVerifier.assertNotNull(address, "address");
+    
+    this.metrics = metrics;
+    server = HttpServer.create(address, 0);
+    server.createContext(METRICS_PATH, new MetricsHandler());
+    // null executor runs handlers on the server's dispatch thread
+    server.setExecutor(null);
+    server.start();
+  }
+  
+  /**
+   * Returns the port the server is listening on.  This is useful when started with port 
+   * {@code 0}.
+   * 
+   * @return Port the metrics are served from
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+  
+  /**
+   * Stops the server, closing any connections which are still open.
+   */
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+  
+  /**
+   * Handler which writes the current metrics as the response to every request.
+   */
+  private class MetricsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        if (! "GET".equals(exchange.getRequestMethod()) && 
+            ! "HEAD".equals(exchange.getRequestMethod())) {
+          exchange.sendResponseHeaders(405, -1);
+          return;
+        }
+        byte[] body = metrics.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", PrometheusMetrics.CONTENT_TYPE);
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+          exchange.sendResponseHeaders(200, -1);
+          return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.flush();
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package org.threadly.load;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.threadly.util.ArgumentVerifier;
+
+/**
+ * {@link StepResultRecorder} which maintains metrics for each step identifier, so they can be 
+ * scraped by Prometheus.  Each step result is counted into atomic counters held for the step's 
+ * identifier, so writing the metrics only needs to read those counters.  The cost of a scrape 
+ * depends on the number of distinct step identifiers, never on the number of steps.  
+ * <p>
+ * The following metrics are written by {@link #writeTo(Writer)} in the Prometheus text 
+ * exposition format: 
+ * <ul>
+ * <li>{@code ambush_steps_total} - {@link ScriptStepType#Normal} steps completed, by step
+ * <li>{@code ambush_step_errors_total} - Steps which failed, by step
+ * <li>{@code ambush_step_duration_seconds} - Histogram of normal step run times, by step
+ * <li>{@code ambush_script_running}, {@code ambush_steps_in_flight},
+ * {@code ambush_step_rate_limit}, {@code ambush_pool_threads} and 
+ * {@code ambush_pool_queued_tasks} - Health of the load generator, only written if a script was 
+ * provided at construction.  Steps in flight and the rate limit are only known for runs which 
+ * are controlled, either started with {@link ExecutableScript#startScriptWithControl()} or while 
+ * an MBean is registered with {@link ExecutableScript#registerMBean(String)}.  
+ * </ul>
+ * Step metrics are labeled with the step identifier as {@code step}.  Steps are expected to 
+ * share identifiers (for example many parallel instances of the same step), if every step has a 
+ * unique identifier the number of series may be very large.  
+ * <p>
+ * This class is thread safe.  It must be added to the script with 
+ * {@link ExecutableScript#addResultRecorder(StepResultRecorder)}, then served either from a 
+ * {@link PrometheusEndpoint}, or from any other server by invoking {@link #writeTo(Writer)}.
+ */
+public class PrometheusMetrics implements StepResultRecorder {
+  /**
+   * Content type of the output from {@link #writeTo(Writer)}.
+   */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  /**
+   * Upper bounds (in seconds) of the default step duration histogram buckets.
+   */
+  protected static final double[] DEFAULT_BUCKET_BOUNDS_SECONDS = 
+      new double[] { .001, .005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10 };
+  
+  protected final ExecutableScript script;
+  private final double[] boundsSeconds;
+  private final long[] boundsNanos;
+  private final ConcurrentMap<String, StepMetrics> steps;
+  
+  /**
+   * Constructs a new set of metrics using the default duration buckets.
+   * 
+   * @param script Script to report health for, or {@code null} to only report step metrics
+   */
+  public PrometheusMetrics(ExecutableScript script) {
+    this(script, DEFAULT_BUCKET_BOUNDS_SECONDS);
+  }
+  
+  /**
+   * Constructs a new set of metrics with specific duration histogram buckets.
+   * 
+   * @param script Script to report health for, or {@code null} to only report step metrics
+   * @param bucketBoundsSeconds Upper bounds of each duration bucket in seconds, ascending
+   */
+  public PrometheusMetrics(ExecutableScript script, double ... bucketBoundsSeconds) {
+    ArgumentVerifier.assertNotNull(bucketBoundsSeconds, "bucketBoundsSeconds");
+    for (int i = 1; i < bucketBoundsSeconds.length; i++) {
+      if (bucketBoundsSeconds[i] <= bucketBoundsSeconds[i - 1]) {
+        throw new IllegalArgumentException("Bucket bounds must be in ascending order");
+      }
+    }
+    
+    this.script = script;
+    boundsSeconds = bucketBoundsSeconds.clone();
+    boundsNanos = new long[boundsSeconds.length];
+    for (int i = 0; i < boundsSeconds.length; i++) {
+      boundsNanos[i] = (long)(boundsSeconds[i] * TimeUnit.SECONDS.toNanos(1));
+    }
+    steps = new ConcurrentHashMap<String, StepMetrics>();
+  }
+  
+  @Override
+  public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                           long startNanos, long runTimeNanos, Throwable error) {
+    if (stepType != ScriptStepType.Normal && error == null) {
+      return;
+    }
+    StepMetrics metrics = getStepMetrics(identifier);
+    if (stepType == ScriptStepType.Normal) {
+      int bucket = Arrays.binarySearch(boundsNanos, runTimeNanos);
+      if (bucket < 0) {
+        bucket = -(bucket + 1);
+      }
+      metrics.bucketCounts.incrementAndGet(bucket);
+      metrics.runTimeTotal.addAndGet(runTimeNanos);
+    }
+    if (error != null) {
+      metrics.errorCount.incrementAndGet();
+    }
+  }
+  
+  private StepMetrics getStepMetrics(CharSequence identifier) {
+    /* Our sequence implementations are equal to (and hash the same as) strings of the same 
+     * content, so they can be used to lookup without a string being built for each step
+     */
+    Object key;
+    if (identifier instanceof String || identifier instanceof LightCharSequence || 
+        identifier instanceof CharSequenceChain) {
+      key = identifier;
+    } else {
+      key = String.valueOf(identifier);
+    }
+    StepMetrics metrics = steps.get(key);
+    if (metrics == null) {
+      metrics = new StepMetrics(boundsNanos.length + 1);
+      StepMetrics existingMetrics = steps.putIfAbsent(String.valueOf(identifier), metrics);
+      if (existingMetrics != null) {
+        metrics = existingMetrics;
+      }
+    }
+    return metrics;
+  }
+  
+  /**
+   * Write the current metrics in the Prometheus text exposition format.  The output is built 
+   * before anything is written, so the writer is only invoked once.
+   * 
+   * @param out Writer to write the metrics to
+   * @throws IOException Thrown if the metrics could not be written
+   */
+  public void writeTo(Writer out) throws IOException {
+    out.write(toString());
+  }
+  
+  /**
+   * Returns the current metrics in the Prometheus text exposition format.
+   * 
+   * @return Current metrics
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("# HELP ambush_steps_total Normal steps completed\n")
+      .append("# TYPE ambush_steps_total counter\n");
+    for (Map.Entry<String, StepMetrics> e : steps.entrySet()) {
+      appendSample(sb, "ambush_steps_total", e.getKey(), null, e.getValue().getCount());
+    }
+    sb.append("# HELP ambush_step_errors_total Steps which failed\n")
+      .append("# TYPE ambush_step_errors_total counter\n");
+    for (Map.Entry<String, StepMetrics> e : steps.entrySet()) {
+      appendSample(sb, "ambush_step_errors_total", e.getKey(), null, 
+                   e.getValue().errorCount.get());
+    }
+    sb.append("# HELP ambush_step_duration_seconds Run time of normal steps\n")
+      .append("# TYPE ambush_step_duration_seconds histogram\n");
+    for (Map.Entry<String, StepMetrics> e : steps.entrySet()) {
+      StepMetrics metrics = e.getValue();
+      long cumulativeCount = 0;
+      for (int i = 0; i < boundsSeconds.length; i++) {
+        cumulativeCount += metrics.bucketCounts.get(i);
+        appendSample(sb, "ambush_step_duration_seconds_bucket", e.getKey(), 
+                     Double.toString(boundsSeconds[i]), cumulativeCount);
+      }
+      cumulativeCount += metrics.bucketCounts.get(boundsSeconds.length);
+      appendSample(sb, "ambush_step_duration_seconds_bucket", e.getKey(), "+Inf", 
+                   cumulativeCount);
+      appendLabels(sb.append("ambush_step_duration_seconds_sum"), e.getKey(), null)
+        .append(' ').append((double)metrics.runTimeTotal.get() / TimeUnit.SECONDS.toNanos(1))
+        .append('\n');
+      appendSample(sb, "ambush_step_duration_seconds_count", e.getKey(), null, cumulativeCount);
+    }
+    
+    if (script != null) {
+      ScriptControl control = script.getRunControl();
+      boolean running = script.getRunExecutor() != null;
+      appendGauge(sb, "ambush_script_running", "If the script is currently running", 
+                  running ? 1 : 0);
+      if (control != null) {
+        appendGauge(sb, "ambush_steps_in_flight", "Steps currently running", 
+                    control.getRunningStepCount());
+        appendGauge(sb, "ambush_step_rate_limit", 
+                    "Steps per second limit, 0 if not limited", 
+                    running ? control.getCurrentStepPerSecondLimit() : 0);
+      }
+      appendGauge(sb, "ambush_pool_threads", "Threads in the pool running steps", 
+                  ScriptExecutors.getPoolSize(script.getRunExecutor()));
+      appendGauge(sb, "ambush_pool_queued_tasks", "Tasks waiting to be run by the pool", 
+                  ScriptExecutors.getQueuedTaskCount(script.getRunExecutor()));
+    }
+    return sb.toString();
+  }
+  
+  private static void appendSample(StringBuilder sb, String name, String step, 
+                                   String le, long value) {
+    appendLabels(sb.append(name), step, le).append(' ').append(value).append('\n');
+  }
+  
+  private static StringBuilder appendLabels(StringBuilder sb, String step, String le) {
+    sb.append("{step=\"");
+    for (int i = 0; i < step.length(); i++) {
+      char c = step.charAt(i);
+      if (c == '\\' || c == '"') {
+        sb.append('\\').append(c);
+      } else if (c == '\n') {
+        sb.append("\\n");
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+    if (le != null) {
+      sb.append(",le=\"").append(le).append('"');
+    }
+    return sb.append('}');
+  }
+  
+  private static void appendGauge(StringBuilder sb, String name, String help, double value) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n')
+      .append("# TYPE ").append(name).append(" gauge\n")
+      .append(name).append(' ').append(value).append('\n');
+  }
+  
+  /**
+   * Counters for all steps which share an identifier.
+   */
+  private static class StepMetrics {
+    private final AtomicLongArray bucketCounts;
+    private final AtomicLong runTimeTotal;
+    private final AtomicLong errorCount;
+    
+    public StepMetrics(int bucketCount) {
+      bucketCounts = new AtomicLongArray(bucketCount);
+      runTimeTotal = new AtomicLong(0);
+      errorCount = new AtomicLong(0);
+    }
+    
+    public long getCount() {
+      long result = 0;
+      for (int i = 0; i < bucketCounts.length(); i++) {
+        result += bucketCounts.get(i);
+      }
+      return result;
+    }
+  }
+}
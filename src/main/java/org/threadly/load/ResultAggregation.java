@@ -0,0 +1,213 @@
+package org.threadly.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+import org.threadly.util.ArgumentVerifier;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Aggregates the futures returned by {@link ExecutableScript#startScript()} in a single pass.  
+ * Rather than separately walking the futures to find failures, counts, the average run time and 
+ * the percentiles (as the functions in {@link StepResultCollectionUtils} do), each future is only 
+ * inspected once, producing both a {@link ResultSummary} and the list of failed results.  
+ * <p>
+ * Large lists of futures are split into ranges which are aggregated in parallel on a 
+ * {@link ForkJoinPool}.  The partial summaries are then merged together, so the merge cost 
+ * depends on the number of ranges and step identifiers, rather than the number of steps.
+ */
+public class ResultAggregation {
+  protected static final int SEQUENTIAL_THRESHOLD = 16 * 1024;
+  
+  /**
+   * Aggregate the results from the provided futures.  This call blocks until all the futures 
+   * have completed.  Lists larger than {@value #SEQUENTIAL_THRESHOLD} will be aggregated in 
+   * parallel, using a temporary {@link ForkJoinPool} sized to the number of available processors.  
+   * <p>
+   * The run duration of the returned summary is not set, it should be set with 
+   * {@link ResultSummary#setRunDurationMillis(long)} once known.
+   * 
+   * @param futures Futures for the script steps, should be a {@link RandomAccess} list
+   * @param recordedFailures Aggregator the step failures were recorded into, or {@code null}
+   * @return The aggregated results
+   * @throws InterruptedException Thrown if the thread is interrupted while waiting for results
+   */
+  public static ResultAggregation aggregate(List<? extends Future<? extends StepResult>> futures, 
+                                            FailureAggregator recordedFailures)
+      throws InterruptedException {
+    if (futures.size() <= SEQUENTIAL_THRESHOLD || ! (futures instanceof RandomAccess)) {
+      return finish(aggregateRange(futures, 0, futures.size(), recordedFailures == null), 
+                    recordedFailures);
+    }
+    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      return aggregate(futures, recordedFailures, pool);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+  
+  /**
+   * Aggregate the results from the provided futures using the provided pool.  This call blocks 
+   * until all the futures have completed.  The run duration of the returned summary is not set, 
+   * it should be set with {@link ResultSummary#setRunDurationMillis(long)} once known.
+   * 
+   * @param futures Futures for the script steps, should be a {@link RandomAccess} list
+   * @param recordedFailures Aggregator the step failures were recorded into, or {@code null}
+   * @param pool Pool to aggregate ranges of the futures on
+   * @return The aggregated results
+   * @throws InterruptedException Thrown if the thread is interrupted while waiting for results
+   */
+  public static ResultAggregation aggregate(List<? extends Future<? extends StepResult>> futures, 
+                                            FailureAggregator recordedFailures, 
+                                            ForkJoinPool pool) throws InterruptedException {
+    ArgumentVerifier.assertNotNull(pool, "pool");
+    
+    Future<ResultAggregation> result = 
+        pool.submit(new AggregationTask(futures, 0, futures.size(), recordedFailures == null));
+    try {
+      return finish(result.get(), recordedFailures);
+    } catch (InterruptedException e) {
+      result.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof AggregationInterruptedException) {
+        throw (InterruptedException)cause.getCause();
+      }
+      throw ExceptionUtils.makeRuntime(cause);
+    }
+  }
+  
+  private static ResultAggregation finish(ResultAggregation aggregation, 
+                                          FailureAggregator recordedFailures) {
+    if (recordedFailures == null) {
+      return aggregation;
+    }
+    // ranges recorded into their own aggregators, report from the provided aggregator instead
+    ResultSummary summary = new ResultSummary(recordedFailures, false);
+    summary.merge(aggregation.summary);
+    return new ResultAggregation(summary, aggregation.failedResults);
+  }
+  
+  private static ResultAggregation
+      aggregateRange(List<? extends Future<? extends StepResult>> futures, 
+                     int from, int to, boolean recordFailures) throws InterruptedException {
+    ResultSummary summary = new ResultSummary(new FailureAggregator(), recordFailures);
+    List<StepResult> failedResults = new ArrayList<StepResult>(2);
+    long executedCount = 0;
+    for (int i = from; i < to; i++) {
+      StepResult sr;
+      try {
+        sr = futures.get(i).get();
+      } catch (CancellationException e) {
+        // possible if canceled after a failure event, step did not execute
+        continue;
+      } catch (ExecutionException e) {
+        executedCount++;
+        summary.getFailures().recordFailure(null, e.getCause());
+        continue;
+      }
+      executedCount++;
+      if (sr != null) {
+        summary.addResult(sr.getDescription(), sr.wasMaintanceStep(), 
+                          sr.getRunTime(TimeUnit.NANOSECONDS), sr.getError());
+        if (sr.getError() != null) {
+          failedResults.add(sr);
+        }
+      }
+    }
+    summary.addStepCounts(to - from, executedCount);
+    return new ResultAggregation(summary, failedResults);
+  }
+  
+  private final ResultSummary summary;
+  private final List<StepResult> failedResults;
+  
+  /**
+   * Constructs a new aggregation with the already aggregated values.
+   * 
+   * @param summary Summary of the results
+   * @param failedResults Results which completed in error
+   */
+  protected ResultAggregation(ResultSummary summary, List<StepResult> failedResults) {
+    this.summary = summary;
+    this.failedResults = failedResults;
+  }
+  
+  /**
+   * Returns the summary of the aggregated results.
+   * 
+   * @return Summary of the results
+   */
+  public ResultSummary getSummary() {
+    return summary;
+  }
+  
+  /**
+   * Returns the step results which completed in error.  The results are in the same order as 
+   * the futures they were provided from.
+   * 
+   * @return Unmodifiable list of failed results, empty if no steps failed
+   */
+  public List<StepResult> getFailedResults() {
+    return Collections.unmodifiableList(failedResults);
+  }
+  
+  /**
+   * Task which splits the futures into ranges, aggregating each range and merging the results.
+   */
+  @SuppressWarnings("serial")
+  private static class AggregationTask extends RecursiveTask<ResultAggregation> {
+    private final List<? extends Future<? extends StepResult>> futures;
+    private final int from;
+    private final int to;
+    private final boolean recordFailures;
+    
+    protected AggregationTask(List<? extends Future<? extends StepResult>> futures, 
+                              int from, int to, boolean recordFailures) {
+      this.futures = futures;
+      this.from = from;
+      this.to = to;
+      this.recordFailures = recordFailures;
+    }
+    
+    @Override
+    protected ResultAggregation compute() {
+      if (to - from <= SEQUENTIAL_THRESHOLD) {
+        try {
+          return aggregateRange(futures, from, to, recordFailures);
+        } catch (InterruptedException e) {
+          throw new AggregationInterruptedException(e);
+        }
+      }
+      int middle = (from + to) >>> 1;
+      AggregationTask left = new AggregationTask(futures, from, middle, recordFailures);
+      AggregationTask right = new AggregationTask(futures, middle, to, recordFailures);
+      left.fork();
+      ResultAggregation rightResult = right.compute();
+      ResultAggregation result = left.join();
+      result.summary.merge(rightResult.summary);
+      result.failedResults.addAll(rightResult.failedResults);
+      return result;
+    }
+  }
+  
+  /**
+   * Exception used to carry an interruption out of an {@link AggregationTask}.
+   */
+  @SuppressWarnings("serial")
+  private static class AggregationInterruptedException extends RuntimeException {
+    protected AggregationInterruptedException(InterruptedException cause) {
+      super(cause);
+    }
+  }
+}
@@ -0,0 +1,594 @@
+package org.threadly.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.util.ArgumentVerifier;
+
+/**
+ * Compact summary of the results from a script execution.  Rather than holding each 
+ * {@link StepResult}, this holds a {@link RunTimeHistogram} of the run times, step counts, 
+ * failures grouped by a {@link FailureAggregator}, and counts and run times for each step 
+ * identifier.  
+ * <p>
+ * Summaries can be combined with {@link #merge(ResultSummary)}, for example to combine the 
+ * results from multiple {@link ScriptAgent}'s, or from multiple runs of the same script.  They 
+ * can also be written with {@link #writeTo(File)} and read back with {@link #readFrom(File)}.  
+ * Running this class with a list of summary files will print the report of the merged results.  
+ * <p>
+ * This class is NOT thread safe.
+ */
+public class ResultSummary {
+  protected static final int SUMMARY_FILE_MAGIC = 0x416d5253;  // "AmRS"
+  protected static final int FORMAT_VERSION = 2;
+  
+  /**
+   * Reads each provided summary file, and prints the report for the merged results.
+   * 
+   * @param args Summary files written by {@link #writeTo(File)}
+   * @throws IOException Thrown if a summary file could not be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("java " + ResultSummary.class.getName() + " summary.file...");
+      System.exit(-1);
+    }
+    ResultSummary summary = new ResultSummary();
+    for (String file : args) {
+      summary.merge(readFrom(new File(file)));
+    }
+    for (String line : summary.getReportLines(ScriptRunner.RETURNED_PERCENTILES)) {
+      System.out.println(line);
+    }
+  }
+  
+  /**
+   * Summarize the results from the futures returned by {@link ExecutableScript#startScript()}.  
+   * Futures which have not completed, or were canceled, are counted as steps which did not 
+   * execute.  Futures which completed with a {@code null} result (as with 
+   * {@link ExecutableScript#setCompactResults(boolean)}) are only counted as executed, use 
+   * {@link #fromCompactResults(CompactStepResults, long)} for those scripts instead.
+   * 
+   * @param futures Futures for the script steps
+   * @param runDurationMillis The duration in milliseconds that it took to run the entire script
+   * @return A new summary of the results
+   * @throws InterruptedException Thrown if the thread is interrupted while checking the futures
+   */
+  public static ResultSummary
+      fromFutures(Collection<? extends ListenableFuture<? extends StepResult>> futures, 
+                  long runDurationMillis) throws InterruptedException {
+    return fromFutures(futures, runDurationMillis, null);
+  }
+  
+  /**
+   * Summarize the results from the futures returned by {@link ExecutableScript#startScript()}.  
+   * This functions the same as {@link #fromFutures(Collection, long)}, except step failures are 
+   * not grouped again if they were already recorded into an aggregator while the script ran.
+   * 
+   * @param futures Futures for the script steps
+   * @param runDurationMillis The duration in milliseconds that it took to run the entire script
+   * @param recordedFailures Aggregator the step failures were recorded into, or {@code null}
+   * @return A new summary of the results
+   * @throws InterruptedException Thrown if the thread is interrupted while checking the futures
+   */
+  public static ResultSummary
+      fromFutures(Collection<? extends ListenableFuture<? extends StepResult>> futures, 
+                  long runDurationMillis, 
+                  FailureAggregator recordedFailures) throws InterruptedException {
+    ResultSummary result = makeSummary(recordedFailures);
+    result.runDurationMillis = runDurationMillis;
+    for (ListenableFuture<? extends StepResult> f : futures) {
+      result.stepCount++;
+      if (! f.isDone() || f.isCancelled()) {
+        continue;
+      }
+      result.executedCount++;
+      StepResult sr;
+      try {
+        sr = f.get();
+      } catch (ExecutionException e) {
+        result.failures.recordFailure(null, e.getCause());
+        continue;
+      }
+      if (sr != null) {
+        result.addResult(sr.getDescription(), sr.wasMaintanceStep(), 
+                         sr.getRunTime(TimeUnit.NANOSECONDS), sr.getError());
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Summarize the results held in a {@link CompactStepResults}.  Slots which were not run are 
+   * counted as steps which did not execute.
+   * 
+   * @param compactResults Results from the script execution
+   * @param runDurationMillis The duration in milliseconds that it took to run the entire script
+   * @return A new summary of the results
+   */
+  public static ResultSummary fromCompactResults(CompactStepResults compactResults, 
+                                                 long runDurationMillis) {
+    return fromCompactResults(compactResults, runDurationMillis, null);
+  }
+  
+  /**
+   * Summarize the results held in a {@link CompactStepResults}.  This functions the same as 
+   * {@link #fromCompactResults(CompactStepResults, long)}, except step failures are not grouped 
+   * again if they were already recorded into an aggregator while the script ran.
+   * 
+   * @param compactResults Results from the script execution
+   * @param runDurationMillis The duration in milliseconds that it took to run the entire script
+   * @param recordedFailures Aggregator the step failures were recorded into, or {@code null}
+   * @return A new summary of the results
+   */
+  public static ResultSummary fromCompactResults(CompactStepResults compactResults, 
+                                                 long runDurationMillis, 
+                                                 FailureAggregator recordedFailures) {
+    ResultSummary result = makeSummary(recordedFailures);
+    result.runDurationMillis = runDurationMillis;
+    result.stepCount = compactResults.size();
+    for (int i = 0; i < compactResults.size(); i++) {
+      byte status = compactResults.getStatus(i);
+      if (status == CompactStepResults.STATUS_NOT_RUN) {
+        continue;
+      }
+      result.executedCount++;
+      result.addResult(compactResults.getDescription(i), 
+                       status == CompactStepResults.STATUS_MAINTENANCE_PASS || 
+                         status == CompactStepResults.STATUS_MAINTENANCE_ERROR, 
+                       compactResults.getRunTime(i, TimeUnit.NANOSECONDS), 
+                       compactResults.getError(i));
+    }
+    return result;
+  }
+  
+  private static ResultSummary makeSummary(FailureAggregator recordedFailures) {
+    if (recordedFailures == null) {
+      return new ResultSummary();
+    } else {
+      return new ResultSummary(recordedFailures, false);
+    }
+  }
+  
+  /**
+   * Read a summary which was written with {@link #writeTo(File)}.
+   * 
+   * @param file File to read the summary from
+   * @return A new summary with the values which were written
+   * @throws IOException Thrown if the file could not be read, or is not a summary file
+   */
+  public static ResultSummary readFrom(File file) throws IOException {
+    try (DataInputStream in = 
+             new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int magic = in.readInt();
+      int version = in.readInt();
+      if (magic != SUMMARY_FILE_MAGIC) {
+        throw new IOException("Not a summary file: " + file);
+      } else if (version != FORMAT_VERSION) {
+        throw new IOException("Unsupported summary format version: " + version);
+      }
+      return readFrom(in);
+    }
+  }
+  
+  /**
+   * Read a summary which was written with {@link #writeTo(DataOutput)}.
+   * 
+   * @param in Input to read the summary from
+   * @return A new summary with the values which were written
+   * @throws IOException Thrown if the input could not be read
+   */
+  public static ResultSummary readFrom(DataInput in) throws IOException {
+    ResultSummary result = new ResultSummary();
+    result.stepCount = in.readLong();
+    result.executedCount = in.readLong();
+    result.runDurationMillis = in.readLong();
+    result.longestStepNanos = in.readLong();
+    result.longestStepDescription = in.readBoolean() ? in.readUTF() : null;
+    result.histogram.merge(RunTimeHistogram.readFrom(in));
+    result.failures.merge(FailureAggregator.readFrom(in));
+    int identifierCount = in.readInt();
+    for (int i = 0; i < identifierCount; i++) {
+      String identifier = in.readUTF();
+      IdentifierSummary is = new IdentifierSummary();
+      is.count = in.readLong();
+      is.failureCount = in.readLong();
+      is.totalRunTimeNanos = in.readLong();
+      is.maxRunTimeNanos = in.readLong();
+      result.identifiers.put(identifier, is);
+    }
+    return result;
+  }
+  
+  private final RunTimeHistogram histogram;
+  private final FailureAggregator failures;
+  private final boolean recordFailures;
+  private final Map<String, IdentifierSummary> identifiers;
+  private long stepCount;
+  private long executedCount;
+  private long runDurationMillis;
+  private String longestStepDescription;
+  private long longestStepNanos;
+  
+  /**
+   * Constructs a new empty summary.  Results can be added with 
+   * {@link #addResult(String, boolean, long, Throwable)} or by merging other summaries.
+   */
+  public ResultSummary() {
+    this(new FailureAggregator(), true);
+  }
+  
+  /**
+   * Constructs a new empty summary which will report the failures from the provided 
+   * aggregator.  If {@code recordFailures} is {@code false} the aggregator is expected to have 
+   * already been provided the failures (for example as a {@link StepResultRecorder}), so 
+   * failures provided to {@link #addResult(String, boolean, long, Throwable)} will only be 
+   * counted in the step identifier summaries.
+   * 
+   * @param failures Aggregator to group failures into
+   * @param recordFailures {@code true} to record added failures into the aggregator
+   */
+  public ResultSummary(FailureAggregator failures, boolean recordFailures) {
+    ArgumentVerifier.assertNotNull(failures, "failures");
+    
+    histogram = new RunTimeHistogram();
+    this.failures = failures;
+    this.recordFailures = recordFailures;
+    identifiers = new HashMap<String, IdentifierSummary>();
+    stepCount = 0;
+    executedCount = 0;
+    runDurationMillis = 0;
+    longestStepDescription = null;
+    longestStepNanos = -1;
+  }
+  
+  /**
+   * Add the result of a step which completed.  This does not change the step or executed 
+   * counts, those should be set with {@link #addStepCounts(long, long)}.
+   * 
+   * @param description Description (identifier) of the step
+   * @param maintenanceStep {@code true} if the step was not a {@link ScriptStepType#Normal} step
+   * @param runTimeNanos Time in nanoseconds the step ran for
+   * @param error Error thrown from the step, or {@code null} if completed normally
+   */
+  public void addResult(String description, boolean maintenanceStep, 
+                        long runTimeNanos, Throwable error) {
+    IdentifierSummary is = identifiers.get(description);
+    if (is == null) {
+      is = new IdentifierSummary();
+      identifiers.put(description, is);
+    }
+    is.count++;
+    is.totalRunTimeNanos += runTimeNanos;
+    if (runTimeNanos > is.maxRunTimeNanos) {
+      is.maxRunTimeNanos = runTimeNanos;
+    }
+    if (! maintenanceStep) {
+      histogram.recordValue(runTimeNanos);
+      if (runTimeNanos > longestStepNanos) {
+        longestStepNanos = runTimeNanos;
+        longestStepDescription = description;
+      }
+    }
+    if (error != null) {
+      is.failureCount++;
+      if (recordFailures) {
+        failures.recordFailure(description, error);
+      }
+    }
+  }
+  
+  /**
+   * Add to the counts of steps in the script.
+   * 
+   * @param steps Number of steps to add to the total count
+   * @param executed Number of those steps which were executed
+   */
+  public void addStepCounts(long steps, long executed) {
+    stepCount += steps;
+    executedCount += executed;
+  }
+  
+  /**
+   * Combine the results from another summary into this summary.  The provided summary is not 
+   * modified.  Merged summaries are assumed to have run concurrently, so the longer run duration 
+   * of the two is kept.
+   * 
+   * @param summary Summary to merge in
+   */
+  public void merge(ResultSummary summary) {
+    stepCount += summary.stepCount;
+    executedCount += summary.executedCount;
+    runDurationMillis = Math.max(runDurationMillis, summary.runDurationMillis);
+    histogram.merge(summary.histogram);
+    if (summary.longestStepNanos > longestStepNanos) {
+      longestStepNanos = summary.longestStepNanos;
+      longestStepDescription = summary.longestStepDescription;
+    }
+    failures.merge(summary.failures);
+    for (Map.Entry<String, IdentifierSummary> e : summary.identifiers.entrySet()) {
+      IdentifierSummary is = identifiers.get(e.getKey());
+      if (is == null) {
+        is = new IdentifierSummary();
+        identifiers.put(e.getKey(), is);
+      }
+      is.count += e.getValue().count;
+      is.failureCount += e.getValue().failureCount;
+      is.totalRunTimeNanos += e.getValue().totalRunTimeNanos;
+      is.maxRunTimeNanos = Math.max(is.maxRunTimeNanos, e.getValue().maxRunTimeNanos);
+    }
+  }
+  
+  /**
+   * Write this summary to a file, so that it can be read with {@link #readFrom(File)}.  Any 
+   * existing file will be replaced.
+   * 
+   * @param file File to write the summary to
+   * @throws IOException Thrown if the file could not be written
+   */
+  public void writeTo(File file) throws IOException {
+    try (DataOutputStream out = 
+             new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(SUMMARY_FILE_MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      writeTo(out);
+    }
+  }
+  
+  /**
+   * Write this summary so that it can be read with {@link #readFrom(DataInput)}.  Very long 
+   * descriptions are truncated.
+   * 
+   * @param out Output to write the summary to
+   * @throws IOException Thrown if the output could not be written to
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeLong(stepCount);
+    out.writeLong(executedCount);
+    out.writeLong(runDurationMillis);
+    out.writeLong(longestStepNanos);
+    out.writeBoolean(longestStepDescription != null);
+    if (longestStepDescription != null) {
+      FailureAggregator.writeString(out, longestStepDescription);
+    }
+    histogram.writeTo(out);
+    failures.writeTo(out);
+    out.writeInt(identifiers.size());
+    for (Map.Entry<String, IdentifierSummary> e : identifiers.entrySet()) {
+      FailureAggregator.writeString(out, e.getKey());
+      out.writeLong(e.getValue().count);
+      out.writeLong(e.getValue().failureCount);
+      out.writeLong(e.getValue().totalRunTimeNanos);
+      out.writeLong(e.getValue().maxRunTimeNanos);
+    }
+  }
+  
+  /**
+   * Returns the total number of steps in the script.
+   * 
+   * @return Number of steps
+   */
+  public long getStepCount() {
+    return stepCount;
+  }
+  
+  /**
+   * Returns the number of steps which were executed (not canceled).
+   * 
+   * @return Number of executed steps
+   */
+  public long getExecutedCount() {
+    return executedCount;
+  }
+  
+  /**
+   * Returns the number of steps which failed.
+   * 
+   * @return Number of failed steps
+   */
+  public long getFailureCount() {
+    return failures.getFailureCount();
+  }
+  
+  /**
+   * Returns the duration that it took to run the entire script.
+   * 
+   * @return The run duration in milliseconds
+   */
+  public long getRunDurationMillis() {
+    return runDurationMillis;
+  }
+  
+  /**
+   * Set the duration that it took to run the entire script.  This is useful when the summary is 
+   * the result of merging summaries which ran concurrently.
+   * 
+   * @param runDurationMillis The run duration in milliseconds
+   */
+  public void setRunDurationMillis(long runDurationMillis) {
+    this.runDurationMillis = runDurationMillis;
+  }
+  
+  /**
+   * Returns the histogram of run times for all completed {@link ScriptStepType#Normal} steps.  
+   * The returned histogram is backed by this summary, and should not be modified.
+   * 
+   * @return Histogram of run times in nanoseconds
+   */
+  public RunTimeHistogram getRunTimeHistogram() {
+    return histogram;
+  }
+  
+  /**
+   * Returns the description of the longest running {@link ScriptStepType#Normal} step.
+   * 
+   * @return Description of the longest step, or {@code null} if no steps completed
+   */
+  public String getLongestStepDescription() {
+    return longestStepDescription;
+  }
+  
+  /**
+   * Returns how long the longest running {@link ScriptStepType#Normal} step ran for.
+   * 
+   * @param desiredUnit TimeUnit which result should be provided in
+   * @return Time the longest step ran for, or {@code -1} if no steps completed
+   */
+  public long getLongestStepRunTime(TimeUnit desiredUnit) {
+    if (longestStepNanos < 0) {
+      return -1;
+    }
+    return desiredUnit.convert(longestStepNanos, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Returns the failures which occurred, grouped by their {@link FailureSignature}.
+   * 
+   * @return Aggregator holding the failures
+   */
+  public FailureAggregator getFailures() {
+    return failures;
+  }
+  
+  /**
+   * Returns the breakdown of results for each step identifier.
+   * 
+   * @return Unmodifiable map of step descriptions to their summary
+   */
+  public Map<String, IdentifierSummary> getIdentifierSummaries() {
+    return Collections.unmodifiableMap(identifiers);
+  }
+  
+  /**
+   * Produces the human readable report for this summary, one line per entry in the list.  This 
+   * is the report {@link ScriptRunner} outputs once the script completes.
+   * 
+   * @param percentiles Run time percentiles to include, {@code 100} is reported as the longest step
+   * @return List of lines for the report
+   */
+  public List<String> getReportLines(double ... percentiles) {
+    List<String> result = new ArrayList<String>();
+    long failureCount = failures.getFailureCount();
+    if (failureCount == 0) {
+      result.add("All steps passed!");
+    } else {
+      result.add(failureCount + " STEPS FAILED!!" + System.lineSeparator());
+      for (FailureAggregator.FailureGroup group : failures.getFailureGroups().values()) {
+        List<String> stepDescriptions = group.getStepDescriptions();
+        List<String> traces = group.getSampleTraces();
+        if (group.getCount() > 1) {
+          result.add("Error occured " + group.getCount() + " times for the following steps:");
+          for (String s : stepDescriptions) {
+            result.add('\t' + s);
+          }
+          if (group.getCount() > stepDescriptions.size() && 
+              stepDescriptions.size() == FailureAggregator.MAX_STEP_SAMPLES) {
+            result.add("\t...");
+          }
+          result.add("All share failure cause:");
+        } else {
+          result.add("Step " + (stepDescriptions.isEmpty() ? 
+                                  "" : stepDescriptions.get(0)) + " failed due to:");
+        }
+        result.add((traces.isEmpty() ? group.getSignature().toString() : traces.get(0)) + 
+                     System.lineSeparator());
+      }
+    }
+    result.add("Totals steps executed: " + executedCount + " / " + stepCount);
+    result.add("Test execution time: " + (runDurationMillis / 1000) + " seconds");
+    if (histogram.getTotalCount() == 0) {
+      return result;
+    }
+    result.add("Average time spent per step: " + 
+                 (histogram.getMean() / TimeUnit.MILLISECONDS.toNanos(1)) + " milliseconds");
+    boolean reportLongest = false;
+    long[] percentileValues = histogram.getValuesAtPercentiles(percentiles);
+    for (int i = 0; i < percentiles.length; i++) {
+      double p = percentiles[i];
+      if (p < 100) {
+        result.add("Percentile " + p + ": " + 
+                     TimeUnit.NANOSECONDS.toMillis(percentileValues[i]) + " milliseconds");
+      } else {
+        reportLongest = true;
+      }
+    }
+    if (reportLongest) {
+      result.add("Longest running step: " + longestStepDescription + 
+                   ", ran for: " + TimeUnit.NANOSECONDS.toMillis(longestStepNanos) + 
+                   " milliseconds");
+    }
+    return result;
+  }
+  
+  /**
+   * Summary of the results for a single step identifier.
+   */
+  public static class IdentifierSummary {
+    private long count;
+    private long failureCount;
+    private long totalRunTimeNanos;
+    private long maxRunTimeNanos;
+    
+    protected IdentifierSummary() {
+      count = 0;
+      failureCount = 0;
+      totalRunTimeNanos = 0;
+      maxRunTimeNanos = 0;
+    }
+    
+    /**
+     * Returns how many times steps with this identifier completed.
+     * 
+     * @return Number of completed steps
+     */
+    public long getCount() {
+      return count;
+    }
+    
+    /**
+     * Returns how many times steps with this identifier failed.
+     * 
+     * @return Number of failed steps
+     */
+    public long getFailureCount() {
+      return failureCount;
+    }
+    
+    /**
+     * Returns the average run time for steps with this identifier.
+     * 
+     * @param timeUnit Time unit that the resulting time should be returned in
+     * @return Average run time, or {@link Double#NaN} if no steps completed
+     */
+    public double getRunTimeAverage(TimeUnit timeUnit) {
+      return ((double)totalRunTimeNanos / count) / TimeUnit.NANOSECONDS.convert(1, timeUnit);
+    }
+    
+    /**
+     * Returns the longest run time for steps with this identifier.
+     * 
+     * @param desiredUnit TimeUnit which result should be provided in
+     * @return Longest run time
+     */
+    public long getMaxRunTime(TimeUnit desiredUnit) {
+      return desiredUnit.convert(maxRunTimeNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+}
@@ -0,0 +1,314 @@
+package org.threadly.load;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Histogram for recording step run times in a constant amount of memory, no matter how many 
+ * values are recorded.  Values below {@code 128} nanoseconds are recorded exactly, larger values 
+ * are recorded into logarithmic buckets which are divided into 64 linear sub-buckets.  This 
+ * means any reported value is within about 1.6% of the actual recorded value.  The minimum, 
+ * maximum and mean are tracked exactly.  
+ * <p>
+ * This class is NOT thread safe.  If values are recorded from multiple threads, each thread 
+ * should record into its own instance, then combine them using {@link #merge(RunTimeHistogram)}.
+ */
+public class RunTimeHistogram {
+  private static final int LINEAR_BUCKET_COUNT = 128;
+  private static final int LINEAR_BUCKET_BITS = 7;  // bits needed to represent linear buckets
+  private static final int SUB_BUCKET_COUNT = 64;
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int MAX_VALUE_BITS = 63;
+  protected static final int BUCKET_COUNT = 
+      LINEAR_BUCKET_COUNT + ((MAX_VALUE_BITS - LINEAR_BUCKET_BITS) * SUB_BUCKET_COUNT);
+  
+  /**
+   * Get the bucket index a given value should be recorded into.
+   * 
+   * @param value Value to be recorded, must not be negative
+   * @return Index into the bucket count array
+   */
+  protected static int bucketIndex(long value) {
+    if (value < LINEAR_BUCKET_COUNT) {
+      return (int)value;
+    }
+    int exponent = MAX_VALUE_BITS - Long.numberOfLeadingZeros(value);
+    int mantissa = (int)(value >>> (exponent - SUB_BUCKET_BITS));  // within [64, 127]
+    return LINEAR_BUCKET_COUNT + ((exponent - LINEAR_BUCKET_BITS) * SUB_BUCKET_COUNT) + 
+             (mantissa - SUB_BUCKET_COUNT);
+  }
+  
+  /**
+   * Get the highest value which would be recorded into the provided bucket.
+   * 
+   * @param index Index of the bucket
+   * @return Highest value which is equivalent to this bucket
+   */
+  protected static long bucketHighestValue(int index) {
+    if (index < LINEAR_BUCKET_COUNT) {
+      return index;
+    }
+    int offset = index - LINEAR_BUCKET_COUNT;
+    int exponent = (offset / SUB_BUCKET_COUNT) + LINEAR_BUCKET_BITS;
+    long mantissa = (offset % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+    int shift = exponent - SUB_BUCKET_BITS;
+    return (mantissa << shift) + (1L << shift) - 1;
+  }
+  
+  /**
+   * Read a histogram which was written with {@link #writeTo(DataOutput)}.
+   * 
+   * @param in Input to read the histogram from
+   * @return A new histogram with the values which were written
+   * @throws IOException Thrown if the input could not be read
+   */
+  public static RunTimeHistogram readFrom(DataInput in) throws IOException {
+    RunTimeHistogram result = new RunTimeHistogram();
+    result.totalCount = in.readLong();
+    result.totalValue = in.readLong();
+    result.minValue = in.readLong();
+    result.maxValue = in.readLong();
+    int bucketCount = in.readInt();
+    for (int i = 0; i < bucketCount; i++) {
+      int index = in.readInt();
+      if (index < 0 || index >= BUCKET_COUNT) {
+        throw new IOException("Invalid bucket index: " + index);
+      }
+      result.counts[index] = in.readLong();
+    }
+    return result;
+  }
+  
+  private final long[] counts;
+  private long totalCount;
+  private long totalValue;
+  private long minValue;
+  private long maxValue;
+  
+  /**
+   * Constructs a new empty histogram.
+   */
+  public RunTimeHistogram() {
+    counts = new long[BUCKET_COUNT];
+    reset();
+  }
+  
+  /**
+   * Clears all recorded values, returning the histogram to an empty state.
+   */
+  public void reset() {
+    Arrays.fill(counts, 0);
+    totalCount = 0;
+    totalValue = 0;
+    minValue = Long.MAX_VALUE;
+    maxValue = 0;
+  }
+  
+  /**
+   * Record a single value into the histogram.  Negative values will be recorded as zero.
+   * 
+   * @param value Value to record, typically a run time in nanoseconds
+   */
+  public void recordValue(long value) {
+    recordValue(value, 1);
+  }
+  
+  /**
+   * Record a value into the histogram multiple times.  Negative values will be recorded as zero.
+   * 
+   * @param value Value to record, typically a run time in nanoseconds
+   * @param count Number of times the value should be recorded
+   */
+  public void recordValue(long value, long count) {
+    if (count < 1) {
+      return;
+    } else if (value < 0) {
+      value = 0;
+    }
+    counts[bucketIndex(value)] += count;
+    totalCount += count;
+    totalValue += value * count;
+    if (value < minValue) {
+      minValue = value;
+    }
+    if (value > maxValue) {
+      maxValue = value;
+    }
+  }
+  
+  /**
+   * Add all the values recorded into another histogram into this one.  The provided histogram is 
+   * not modified.
+   * 
+   * @param histogram Histogram to add values from
+   */
+  public void merge(RunTimeHistogram histogram) {
+    if (histogram.totalCount == 0) {
+      return;
+    }
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] += histogram.counts[i];
+    }
+    totalCount += histogram.totalCount;
+    totalValue += histogram.totalValue;
+    if (histogram.minValue < minValue) {
+      minValue = histogram.minValue;
+    }
+    if (histogram.maxValue > maxValue) {
+      maxValue = histogram.maxValue;
+    }
+  }
+  
+  /**
+   * Write the histogram to the provided output.  Only buckets which have recorded values are 
+   * written, so the output size is proportional to the range of recorded values.  The 
+   * histogram can be read back using {@link #readFrom(DataInput)}.
+   * 
+   * @param out Output to write the histogram to
+   * @throws IOException Thrown if the output could not be written to
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeLong(totalCount);
+    out.writeLong(totalValue);
+    out.writeLong(minValue);
+    out.writeLong(maxValue);
+    int bucketCount = 0;
+    for (long c : counts) {
+      if (c != 0) {
+        bucketCount++;
+      }
+    }
+    out.writeInt(bucketCount);
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      if (counts[i] != 0) {
+        out.writeInt(i);
+        out.writeLong(counts[i]);
+      }
+    }
+  }
+  
+  /**
+   * Returns the total number of values recorded.
+   * 
+   * @return Count of recorded values
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+  
+  /**
+   * Returns the smallest value recorded, or {@code 0} if no values have been recorded.
+   * 
+   * @return Smallest recorded value
+   */
+  public long getMinValue() {
+    return totalCount == 0 ? 0 : minValue;
+  }
+  
+  /**
+   * Returns the largest value recorded, or {@code 0} if no values have been recorded.
+   * 
+   * @return Largest recorded value
+   */
+  public long getMaxValue() {
+    return maxValue;
+  }
+  
+  /**
+   * Returns the exact average of the values recorded.  If no values have been recorded this will 
+   * return {@link Double#NaN}.
+   * 
+   * @return Average recorded value
+   */
+  public double getMean() {
+    return totalCount == 0 ? Double.NaN : ((double)totalValue) / totalCount;
+  }
+  
+  /**
+   * Get the value at a given percentile.  The returned value is the highest value equivalent to 
+   * the bucket which contains the percentile, but will never exceed the exact maximum.  Requests 
+   * for the {@code 0} and {@code 100} percentiles will return the exact minimum and maximum.
+   * 
+   * @param percentile Percentile to look up, must be between 0 and 100 (inclusive)
+   * @return Value at the requested percentile, or {@code 0} if no values have been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (percentile > 100 || percentile < 0) {
+      throw new IllegalArgumentException("Percentile not in range of 0 to 100: " + percentile);
+    } else if (totalCount == 0) {
+      return 0;
+    } else if (percentile == 0) {
+      return minValue;
+    } else if (percentile == 100) {
+      return maxValue;
+    }
+    
+    long targetCount = Math.max(1, (long)Math.ceil((percentile / 100) * totalCount));
+    long currentCount = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      currentCount += counts[i];
+      if (currentCount >= targetCount) {
+        return Math.max(minValue, Math.min(maxValue, bucketHighestValue(i)));
+      }
+    }
+    return maxValue;
+  }
+  
+  /**
+   * Get the values at multiple percentiles.  This functions the same as 
+   * {@link #getValueAtPercentile(double)}, except all percentiles are found in a single pass 
+   * over the buckets.
+   * 
+   * @param percentiles Percentiles to look up, must be between 0 and 100 (inclusive)
+   * @return Values at the requested percentiles, in the same order as requested
+   */
+  public long[] getValuesAtPercentiles(double ... percentiles) {
+    long[] result = new long[percentiles.length];
+    int[] order = new int[percentiles.length];
+    for (int i = 0; i < percentiles.length; i++) {
+      if (percentiles[i] > 100 || percentiles[i] < 0) {
+        throw new IllegalArgumentException("Percentile not in range of 0 to 100: " + 
+                                             percentiles[i]);
+      }
+      order[i] = i;
+    }
+    if (totalCount == 0) {
+      return result;
+    }
+    // few percentiles are expected, so a simple insertion sort of their order is sufficient
+    for (int i = 1; i < order.length; i++) {
+      for (int j = i; j > 0 && percentiles[order[j - 1]] > percentiles[order[j]]; j--) {
+        int temp = order[j];
+        order[j] = order[j - 1];
+        order[j - 1] = temp;
+      }
+    }
+    
+    int orderIndex = 0;
+    long currentCount = 0;
+    for (int i = 0; i < BUCKET_COUNT && orderIndex < order.length; i++) {
+      currentCount += counts[i];
+      while (orderIndex < order.length) {
+        double percentile = percentiles[order[orderIndex]];
+        long targetCount = Math.max(1, (long)Math.ceil((percentile / 100) * totalCount));
+        if (percentile == 0) {
+          result[order[orderIndex]] = minValue;
+        } else if (percentile == 100) {
+          result[order[orderIndex]] = maxValue;
+        } else if (currentCount >= targetCount) {
+          result[order[orderIndex]] = 
+              Math.max(minValue, Math.min(maxValue, bucketHighestValue(i)));
+        } else {
+          break;
+        }
+        orderIndex++;
+      }
+    }
+    for (; orderIndex < order.length; orderIndex++) {
+      result[order[orderIndex]] = maxValue;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,304 @@
+package org.threadly.load;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run times at a set of requested percentiles.  Percentiles are computed from primitive 
+ * nanosecond run times using selection rather than sorting, so all requested percentiles are 
+ * found in a single {@code O(n log k)} pass (where {@code k} is the number of percentiles).  
+ * Percentiles can also be produced from a {@link RunTimeHistogram}, in which case they will be 
+ * approximate.  
+ * <p>
+ * When produced from step results, the {@link StepResult} at each percentile is also available 
+ * from {@link #getResult(int)}.
+ */
+public class RunTimePercentiles {
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+  
+  /**
+   * Find the run times at the requested percentiles.  The provided array will be reordered.  
+   * The value for a percentile {@code p} is at index {@code (p / 100) * count} of the sorted 
+   * values, except {@code 100} which is the maximum value.
+   * 
+   * @param runTimesNanos Run times to inspect, will be reordered
+   * @param count Number of values from the start of the array to inspect
+   * @param percentiles Percentile points requested, must be between 0 and 100 (inclusive)
+   * @return Run times at the requested percentiles
+   */
+  public static RunTimePercentiles fromRunTimes(long[] runTimesNanos, int count, 
+                                                double ... percentiles) {
+    return select(runTimesNanos, null, count, percentiles, null);
+  }
+  
+  /**
+   * Get the approximate run times at the requested percentiles from a histogram.  All 
+   * percentiles are found in a single pass over the histogram.
+   * 
+   * @param histogram Histogram of run times in nanoseconds
+   * @param percentiles Percentile points requested, must be between 0 and 100 (inclusive)
+   * @return Run times at the requested percentiles
+   */
+  public static RunTimePercentiles fromHistogram(RunTimeHistogram histogram, 
+                                                 double ... percentiles) {
+    verifyPercentiles(percentiles);
+    long totalCount = histogram.getTotalCount();
+    return new RunTimePercentiles(percentiles.clone(), 
+                                  histogram.getValuesAtPercentiles(percentiles), 
+                                  null, (int)Math.min(Integer.MAX_VALUE, totalCount));
+  }
+  
+  private static void verifyPercentiles(double[] percentiles) {
+    if (percentiles.length == 0) {
+      throw new IllegalArgumentException("No percentiles requested");
+    }
+    for (double p : percentiles) {
+      if (p > 100 || p < 0) {
+        throw new IllegalArgumentException("Percentile not in range of 0 to 100: " + p);
+      }
+    }
+  }
+  
+  /**
+   * Find the run times at the requested percentiles, also tracking an identifying tag with each 
+   * run time.  Both arrays will be reordered together.
+   * 
+   * @param runTimesNanos Run times to inspect, will be reordered
+   * @param tags Tags which are moved along with the run times, or {@code null}
+   * @param count Number of values from the start of the arrays to inspect
+   * @param percentiles Percentile points requested, must be between 0 and 100 (inclusive)
+   * @param resultTagsOut Array the length of {@code percentiles} to store the selected tags into
+   * @return Run times at the requested percentiles
+   */
+  protected static RunTimePercentiles select(long[] runTimesNanos, int[] tags, int count, 
+                                             double[] percentiles, int[] resultTagsOut) {
+    verifyPercentiles(percentiles);
+    long[] values = new long[percentiles.length];
+    if (count > 0) {
+      int[] indexes = new int[percentiles.length];
+      for (int i = 0; i < percentiles.length; i++) {
+        if (percentiles[i] == 100) {
+          indexes[i] = count - 1;
+        } else {
+          indexes[i] = (int)((percentiles[i] / 100.) * count);
+        }
+      }
+      int[] ranks = indexes.clone();
+      Arrays.sort(ranks);
+      int rankCount = 0;
+      for (int i = 0; i < ranks.length; i++) {
+        if (rankCount == 0 || ranks[rankCount - 1] != ranks[i]) {
+          ranks[rankCount++] = ranks[i];
+        }
+      }
+      
+      multiSelect(runTimesNanos, tags, 0, count, ranks, 0, rankCount);
+      
+      for (int i = 0; i < indexes.length; i++) {
+        values[i] = runTimesNanos[indexes[i]];
+        if (resultTagsOut != null) {
+          resultTagsOut[i] = tags[indexes[i]];
+        }
+      }
+    }
+    return new RunTimePercentiles(percentiles.clone(), values, null, count);
+  }
+  
+  /**
+   * Partially order the values so that each requested rank contains the value which would be at 
+   * that index if the values were sorted.
+   * 
+   * @param values Values to reorder
+   * @param tags Tags to reorder along with the values, or {@code null}
+   * @param from Inclusive start of the range to order
+   * @param to Exclusive end of the range to order
+   * @param ranks Sorted, unique, indexes to select
+   * @param rankFrom Inclusive start of the ranks which are within the range
+   * @param rankTo Exclusive end of the ranks which are within the range
+   */
+  private static void multiSelect(long[] values, int[] tags, int from, int to, 
+                                  int[] ranks, int rankFrom, int rankTo) {
+    while (rankFrom < rankTo) {
+      if (to - from <= INSERTION_SORT_THRESHOLD) {
+        insertionSort(values, tags, from, to);
+        return;
+      }
+      
+      long pivot = medianOfThree(values[from], values[(from + to) >>> 1], values[to - 1]);
+      // three way partition: [from, lt) < pivot, [lt, gt) == pivot, [gt, to) > pivot
+      int lt = from;
+      int gt = to;
+      int i = from;
+      while (i < gt) {
+        if (values[i] < pivot) {
+          swap(values, tags, lt++, i++);
+        } else if (values[i] > pivot) {
+          swap(values, tags, i, --gt);
+        } else {
+          i++;
+        }
+      }
+      
+      int leftRankTo = rankFrom;
+      while (leftRankTo < rankTo && ranks[leftRankTo] < lt) {
+        leftRankTo++;
+      }
+      int rightRankFrom = leftRankTo;
+      while (rightRankFrom < rankTo && ranks[rightRankFrom] < gt) {
+        rightRankFrom++;  // ranks within the pivot range are already in place
+      }
+      
+      // recurse into the smaller side, loop on the larger side to bound stack depth
+      if (lt - from < to - gt) {
+        multiSelect(values, tags, from, lt, ranks, rankFrom, leftRankTo);
+        from = gt;
+        rankFrom = rightRankFrom;
+      } else {
+        multiSelect(values, tags, gt, to, ranks, rightRankFrom, rankTo);
+        to = lt;
+        rankTo = leftRankTo;
+      }
+    }
+  }
+  
+  private static long medianOfThree(long a, long b, long c) {
+    if (a < b) {
+      return b < c ? b : (a < c ? c : a);
+    } else {
+      return a < c ? a : (b < c ? c : b);
+    }
+  }
+  
+  private static void insertionSort(long[] values, int[] tags, int from, int to) {
+    for (int i = from + 1; i < to; i++) {
+      for (int j = i; j > from && values[j - 1] > values[j]; j--) {
+        swap(values, tags, j - 1, j);
+      }
+    }
+  }
+  
+  private static void swap(long[] values, int[] tags, int i, int j) {
+    long value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+    if (tags != null) {
+      int tag = tags[i];
+      tags[i] = tags[j];
+      tags[j] = tag;
+    }
+  }
+  
+  private final double[] percentiles;
+  private final long[] runTimesNanos;
+  private final StepResult[] results;
+  private final int valueCount;
+  
+  /**
+   * Constructs a new result with the already computed values.
+   * 
+   * @param percentiles Percentiles which were requested
+   * @param runTimesNanos Run time at each of the percentiles
+   * @param results Results at each of the percentiles, or {@code null} if not available
+   * @param valueCount Number of run times the percentiles were computed from
+   */
+  protected RunTimePercentiles(double[] percentiles, long[] runTimesNanos, 
+                               StepResult[] results, int valueCount) {
+    this.percentiles = percentiles;
+    this.runTimesNanos = runTimesNanos;
+    this.results = results;
+    this.valueCount = valueCount;
+  }
+  
+  /**
+   * Create a copy of this instance which also provides the step results at each percentile.
+   * 
+   * @param results Results at each of the percentiles, in the same order as the percentiles
+   * @return New instance with the results
+   */
+  protected RunTimePercentiles withResults(StepResult[] results) {
+    return new RunTimePercentiles(percentiles, runTimesNanos, results, valueCount);
+  }
+  
+  /**
+   * Returns the number of percentiles which were requested.
+   * 
+   * @return Number of percentiles held
+   */
+  public int size() {
+    return percentiles.length;
+  }
+  
+  /**
+   * Returns the number of run times the percentiles were computed from.  If {@code 0} all run 
+   * times will be reported as {@code 0}, and no results will be available.
+   * 
+   * @return Number of run times inspected
+   */
+  public int getValueCount() {
+    return valueCount;
+  }
+  
+  /**
+   * Returns the percentile at a given index, in the order they were requested.
+   * 
+   * @param index Index of the requested percentile
+   * @return Percentile at that index
+   */
+  public double getPercentile(int index) {
+    return percentiles[index];
+  }
+  
+  /**
+   * Returns the run time at a given percentile index.
+   * 
+   * @param index Index of the requested percentile
+   * @param desiredUnit TimeUnit which result should be provided in
+   * @return Run time at that percentile
+   */
+  public long getRunTime(int index, TimeUnit desiredUnit) {
+    return desiredUnit.convert(runTimesNanos[index], TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Returns the run time at a requested percentile.
+   * 
+   * @param percentile Percentile which was requested
+   * @param desiredUnit TimeUnit which result should be provided in
+   * @return Run time at that percentile
+   */
+  public long getRunTime(double percentile, TimeUnit desiredUnit) {
+    return getRunTime(indexOf(percentile), desiredUnit);
+  }
+  
+  /**
+   * Returns the step result at a given percentile index.
+   * 
+   * @param index Index of the requested percentile
+   * @return Result at that percentile, or {@code null} if not available
+   */
+  public StepResult getResult(int index) {
+    if (results == null) {
+      return null;
+    }
+    return results[index];
+  }
+  
+  /**
+   * Returns the step result at a requested percentile.
+   * 
+   * @param percentile Percentile which was requested
+   * @return Result at that percentile, or {@code null} if not available
+   */
+  public StepResult getResult(double percentile) {
+    return getResult(indexOf(percentile));
+  }
+  
+  private int indexOf(double percentile) {
+    for (int i = 0; i < percentiles.length; i++) {
+      if (percentiles[i] == percentile) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Percentile was not requested: " + percentile);
+  }
+}
@@ -0,0 +1,135 @@
+package org.threadly.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.Properties;
+
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * Runner which executes its share of a script on behalf of a {@link ScriptCoordinator}.  The 
+ * agent connects to the coordinator to receive the {@link ScriptFactory} and parameters, builds 
+ * the script, then waits for the coordinator to signal all agents to start.  Once the script 
+ * completes, the {@link ResultSummary} is sent back to the coordinator rather than being reported 
+ * locally.  
+ * <p>
+ * Agents are typically started by the coordinator, but can be started manually (for example on 
+ * another machine) with the coordinator's host and port as the arguments.
+ */
+public class ScriptAgent extends ScriptRunner {
+  /**
+   * Main function, usually executed by the JVM on startup.
+   * 
+   * @param args Arguments for startup, the coordinator's host and port
+   * @throws Exception Thrown if error communicating with the coordinator or running the script
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("java " + ScriptAgent.class.getName() + 
+                           " coordinator.host coordinator.port");
+      System.exit(-1);
+    }
+    setupExceptionHandler();
+    ScriptAgent agent = null;
+    try {
+      agent = connect(args[0], Integer.parseInt(args[1]));
+    } catch (Throwable t) {
+      System.err.println("Unexpected failure when building script: ");
+      printFailureAndExit(t);
+    }
+    System.exit(agent.runScript());
+  }
+  
+  /**
+   * Connect to the coordinator and build the script this agent should run.
+   * 
+   * @param host Host the coordinator is running on
+   * @param port Port the coordinator is listening on
+   * @return The agent, ready to wait for the start signal by invoking {@link #runScript()}
+   * @throws IOException Thrown if unable to communicate with the coordinator
+   */
+  public static ScriptAgent connect(String host, int port) throws IOException {
+    Socket socket = new Socket(host, port);
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = 
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      String classStr = in.readUTF();
+      int propertyCount = in.readInt();
+      Properties properties = new Properties();
+      for (int i = 0; i < propertyCount; i++) {
+        properties.setProperty(in.readUTF(), in.readUTF());
+      }
+      return new ScriptAgent(socket, in, out, classStr, properties);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+  
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream coordinatorOut;
+  
+  protected ScriptAgent(Socket socket, DataInputStream in, DataOutputStream coordinatorOut, 
+                        String classStr, Properties properties) {
+    super(classStr, properties);
+    
+    this.socket = socket;
+    this.in = in;
+    this.coordinatorOut = coordinatorOut;
+  }
+  
+  @Override
+  protected void handleInitializationFailure(String buildingScript) {
+    // coordinator will see the connection close without a ready signal
+    System.err.println("Agent failed to build script: " + buildingScript);
+    System.exit(-1);
+  }
+  
+  @Override
+  protected void out(String msg) {
+    super.out("[agent " + getStringValue(ScriptFactory.AGENT_INDEX_PARAMETER, "?") + "] " + msg);
+  }
+  
+  /**
+   * Signals to the coordinator that the script is ready, then waits for the start signal before 
+   * running the script.  Once the script completes the results are sent to the coordinator.
+   * 
+   * @return Number of failed steps
+   * @throws Exception Thrown if error communicating with the coordinator or running the script
+   */
+  @Override
+  protected int runScript() throws Exception {
+    try {
+      coordinatorOut.writeByte(ScriptCoordinator.MESSAGE_READY);
+      coordinatorOut.flush();
+      byte message = in.readByte();
+      if (message != ScriptCoordinator.MESSAGE_START) {
+        throw new IOException("Unexpected message from coordinator: " + message);
+      }
+      
+      return super.runScript();
+    } finally {
+      socket.close();
+    }
+  }
+  
+  /**
+   * Sends the {@link ResultSummary} for this agent's share of the script to the coordinator, 
+   * rather than reporting it locally.
+   */
+  @Override
+  protected void handleRunFinish(List<ListenableFuture<StepResult>> rawFutures, 
+                                 List<StepResult> fails, long runDurationMillis) throws Exception {
+    ResultSummary summary = summarizeResults(rawFutures, runDurationMillis);
+    coordinatorOut.writeByte(ScriptCoordinator.MESSAGE_RESULT);
+    summary.writeTo(coordinatorOut);
+    coordinatorOut.flush();
+  }
+}
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.threadly.load.AbstractScriptBuilder.TemplateItem;
 import org.threadly.load.ExecutableScript.ExecutionItem;
 import org.threadly.load.ExecutableScript.ExecutionItem.ChildItems;
 import org.threadly.load.ExecutableScript.ExecutionItem.ExecutionAssistant;
@@ -107,6 +108,9 @@ public class ScriptBuilderUtils {
     for (ExecutionItem item : items) {
       if (item.isChainExecutor()) {
         count += countScriptSteps(item.getChildItems());
+      } else if (item instanceof TemplateItem) {
+        // start handler is held by the template item, and applied to each step in the instance
+        count += ((TemplateItem)item).template.getStepCount();
       } else {
         count++;
       }
@@ -152,17 +156,23 @@ public class ScriptBuilderUtils {
       }
       try {
         /* TODO - I wish we could do this without blocking.  The trick here is that if we don't 
-         * block we must somehow ensure the future returned from 
-         * ExecutableScript.ScriptAssistant#executeIfStillRunning does not complete until we allow 
-         * execution here (and complete execution of course).
+         * block we must somehow ensure the step's node in the ExecutionPlan does not complete 
+         * until we allow execution here (and complete execution of course).
          */
-        runSemaphore.acquire(neededSignalCountPerStep);
+        if (FlightRecorderEvents.isRecording()) {
+          Object event = FlightRecorderEvents.beginStartHandlerWait();
+          try {
+            runSemaphore.acquire(neededSignalCountPerStep);
+          } finally {
+            FlightRecorderEvents.commitStartHandlerWait(event, neededSignalCountPerStep);
+          }
+        } else {
+          runSemaphore.acquire(neededSignalCountPerStep);
+        }
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
       }
-      
-      step.setStartHandler(null); // unset ourself so that execution can happen naturally
-      step.itemReadyForExecution(assistant);
+      // step runs once we return, the plan only invokes handlers for the first run
     }
   }
   
@@ -182,9 +192,6 @@ public class ScriptBuilderUtils {
       for (RunSignalAcceptor rsa : signalAcceptors) {
         rsa.handleRunSignal();
       }
-      
-      step.setStartHandler(null); // unset ourself so that execution can happen naturally
-      step.itemReadyForExecution(assistant);
     }
   }
 }
@@ -0,0 +1,420 @@
+package org.threadly.load;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.threadly.concurrent.SubmitterExecutor;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.load.ExecutableScript.ExecutionItem.ExecutionAssistant.RunPermit;
+import org.threadly.util.ArgumentVerifier;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Handle to control a script while it is running.  This is returned from 
+ * {@link ExecutableScript#startScriptWithControl()}, and allows the rate and concurrency of 
+ * steps to be changed, execution to be paused and resumed, and the script to be stopped once the 
+ * steps currently running have completed.  
+ * <p>
+ * Control is applied as each step is about to run.  While paused (or at the concurrency limit) 
+ * the step is queued and its thread is released, the step is dispatched again once resumed (or 
+ * once another step completes).  Steps which have already started are never interrupted.  A 
+ * rate set here replaces any rate set while building the script for the rest of the run.  Steps 
+ * which have already been scheduled by the previous rate limiter will still start at the 
+ * previous rate.  
+ * <p>
+ * Once the run has finished the control has no effect.
+ */
+public class ScriptControl {
+  private final ListenableFuture<StepResult> completionFuture;
+  private List<ListenableFuture<StepResult>> futures;
+  private RateLimiterFactory limiterFactory;
+  private final Object permitLock;
+  private final ArrayDeque<Runnable> gatedTasks;
+  private final AtomicInteger runningSteps;
+  private final AtomicInteger unfinishedSteps;  // running, or have run but not completed future
+  private volatile boolean gated;
+  private volatile boolean paused;
+  private volatile boolean stopped;
+  private volatile int maxConcurrency;
+  private volatile double stepsPerSecondLimit;
+  private volatile double scriptStepsPerSecondLimit;
+  private volatile boolean limiterOverridden;
+  private volatile SubmitterExecutor limiter;
+  
+  /**
+   * Constructs a new control for a single run of a script.  
+   * {@link #attach(List, RateLimiterFactory)} must be invoked before the run starts.
+   * 
+   * @param completionFuture Future which completes once the run has finished
+   */
+  protected ScriptControl(ListenableFuture<StepResult> completionFuture) {
+    this.completionFuture = completionFuture;
+    futures = null;
+    limiterFactory = null;
+    permitLock = new Object();
+    gatedTasks = new ArrayDeque<Runnable>();
+    runningSteps = new AtomicInteger(0);
+    unfinishedSteps = new AtomicInteger(0);
+    gated = false;
+    paused = false;
+    stopped = false;
+    maxConcurrency = 0;
+    stepsPerSecondLimit = 0;
+    scriptStepsPerSecondLimit = 0;
+    limiterOverridden = false;
+    limiter = null;
+  }
+  
+  /**
+   * Attach the control to the run once the futures for the run are known.  This must be invoked 
+   * before the control is provided to any other threads.
+   * 
+   * @param futures Futures for the steps of the run, or {@code null} if results are streamed
+   * @param limiterFactory Factory to produce limiters when the rate is changed
+   */
+  protected void attach(List<ListenableFuture<StepResult>> futures, 
+                        RateLimiterFactory limiterFactory) {
+    this.futures = futures;
+    this.limiterFactory = limiterFactory;
+  }
+  
+  /**
+   * Returns the futures for each step of the run.  See {@link ExecutableScript#startScript()} 
+   * for details about how these futures complete.
+   * 
+   * @return Futures which represent each step, or {@code null} if the run streams its results
+   */
+  public List<ListenableFuture<StepResult>> getFutures() {
+    return futures;
+  }
+  
+  /**
+   * Returns a future which completes once the run has finished.  It will provide the first 
+   * failed {@link StepResult} found, or {@code null} if no steps failed.  Once complete the 
+   * script can be started again.
+   * 
+   * @return Future which completes once the script has finished
+   */
+  public ListenableFuture<StepResult> getCompletionFuture() {
+    return completionFuture;
+  }
+  
+  /**
+   * Changes the limit of how many steps per second are allowed to start.  This replaces any rate 
+   * set while building the script for the rest of the run.  Provide {@code 0} to remove any 
+   * limit, allowing steps to run as fast as possible.
+   * 
+   * @param stepsPerSecondLimit Limit of steps run per second, or {@code 0} for no limit
+   */
+  public void setStepPerSecondLimit(double stepsPerSecondLimit) {
+    ArgumentVerifier.assertNotNegative(stepsPerSecondLimit, "stepsPerSecondLimit");
+    
+    synchronized (permitLock) {
+      if (stopped) {
+        // no more steps will start, and the run may have already released its resources
+        return;
+      }
+      limiter = limiterFactory.makeLimiter(stepsPerSecondLimit);
+      this.stepsPerSecondLimit = stepsPerSecondLimit;
+      limiterOverridden = true;
+    }
+  }
+  
+  /**
+   * Returns the rate set with {@link #setStepPerSecondLimit(double)}.  This will be {@code 0} if 
+   * no rate has been set, or the limit was removed.
+   * 
+   * @return Limit of steps run per second, or {@code 0} if not limited by this control
+   */
+  public double getStepPerSecondLimit() {
+    return stepsPerSecondLimit;
+  }
+  
+  /**
+   * Returns the rate steps are currently being started at.  This is the rate set with 
+   * {@link #setStepPerSecondLimit(double)}, or if not set the rate most recently set by the 
+   * script.
+   * 
+   * @return Limit of steps run per second, or {@code 0} if not limited
+   */
+  public double getCurrentStepPerSecondLimit() {
+    return limiterOverridden ? stepsPerSecondLimit : scriptStepsPerSecondLimit;
+  }
+  
+  /**
+   * Sets the maximum number of steps which may run at the same time.  If more steps are running 
+   * than the new limit, they are allowed to complete, but no more steps will start until the 
+   * running count is below the limit.
+   * 
+   * @param maxConcurrency Maximum steps to run at once, or {@code 0} for no limit
+   */
+  public void setMaxConcurrency(int maxConcurrency) {
+    ArgumentVerifier.assertNotNegative(maxConcurrency, "maxConcurrency");
+    
+    Runnable[] tasks;
+    synchronized (permitLock) {
+      this.maxConcurrency = maxConcurrency;
+      updateGated();
+      tasks = takeRunnableTasks();
+    }
+    runTasks(tasks);
+  }
+  
+  /**
+   * Returns the limit set by {@link #setMaxConcurrency(int)}.
+   * 
+   * @return Maximum steps to run at once, or {@code 0} if there is no limit
+   */
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+  
+  /**
+   * Returns the number of steps which are currently running.  Steps stop being counted before 
+   * their futures complete, so once a step's future is done it is no longer included.
+   * 
+   * @return Number of running steps
+   */
+  public int getRunningStepCount() {
+    return runningSteps.get();
+  }
+  
+  /**
+   * Pause the script.  Steps which are already running will complete, but no more steps will 
+   * start until {@link #resume()} is invoked.
+   */
+  public void pause() {
+    synchronized (permitLock) {
+      paused = true;
+      updateGated();
+    }
+  }
+  
+  /**
+   * Resume a script paused with {@link #pause()}.  If the script is not paused this has no 
+   * effect.
+   */
+  public void resume() {
+    Runnable[] tasks;
+    synchronized (permitLock) {
+      paused = false;
+      updateGated();
+      tasks = takeRunnableTasks();
+    }
+    runTasks(tasks);
+  }
+  
+  /**
+   * Check if the script is currently paused.
+   * 
+   * @return {@code true} if {@link #pause()} has been invoked and not yet resumed
+   */
+  public boolean isPaused() {
+    return paused;
+  }
+  
+  /**
+   * Gracefully stop the script.  Steps which are already running will complete, while steps 
+   * which have not yet started will not run.  Once the running steps have completed, the futures 
+   * for the steps which did not run are canceled, allowing the script to finish.
+   * 
+   * @return Future which completes once the script has finished
+   */
+  public ListenableFuture<StepResult> stop() {
+    boolean drained;
+    Runnable[] tasks;
+    synchronized (permitLock) {
+      stopped = true;
+      updateGated();
+      tasks = takeRunnableTasks();
+      drained = unfinishedSteps.get() == 0;
+    }
+    // queued steps are denied once retried, allowing them to complete without running
+    runTasks(tasks);
+    if (drained) {
+      cancelPendingSteps();
+    }
+    return completionFuture;
+  }
+  
+  /**
+   * Check if {@link #stop()} has been invoked, or the run has finished.
+   * 
+   * @return {@code true} if no more steps will be started
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+  
+  private void updateGated() {
+    gated = paused || stopped || maxConcurrency > 0;
+  }
+  
+  /**
+   * Takes the queued steps which may now be able to run.  Once stopped every queued step is 
+   * taken, so that it can be denied.  The lock must be held while invoking this.
+   * 
+   * @return Retry tasks to run outside of the lock, or {@code null} if none can run
+   */
+  private Runnable[] takeRunnableTasks() {
+    int count = gatedTasks.size();
+    if (count == 0 || (paused && ! stopped)) {
+      return null;
+    } else if (! stopped && maxConcurrency > 0) {
+      count = Math.min(count, maxConcurrency - runningSteps.get());
+      if (count <= 0) {
+        return null;
+      }
+    }
+    Runnable[] result = new Runnable[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = gatedTasks.poll();
+    }
+    return result;
+  }
+  
+  /**
+   * Run the retry tasks taken from {@link #takeRunnableTasks()}.  This must not be invoked while 
+   * holding the lock.
+   * 
+   * @param tasks Tasks to run, or {@code null} if there are none
+   */
+  private static void runTasks(Runnable[] tasks) {
+    if (tasks == null) {
+      return;
+    }
+    for (Runnable r : tasks) {
+      try {
+        r.run();
+      } catch (Throwable t) {
+        ExceptionUtils.handleException(t);
+      }
+    }
+  }
+  
+  private void cancelPendingSteps() {
+    if (futures != null) {
+      // steps which are running have completed, so there is no need to interrupt
+      FutureUtils.cancelIncompleteFutures(futures, false);
+    }
+  }
+  
+  /**
+   * Returns the limiter which should be used instead of the one set while building the script.
+   * 
+   * @return Limiter to use, or {@code null} if the limit was removed
+   */
+  protected SubmitterExecutor getLimiter() {
+    return limiter;
+  }
+  
+  /**
+   * Invoked when the script changes its rate, as set while building the script.
+   * 
+   * @param stepsPerSecondLimit Limit of steps run per second, or {@code 0} for no limit
+   */
+  protected void scriptRateChanged(double stepsPerSecondLimit) {
+    scriptStepsPerSecondLimit = stepsPerSecondLimit;
+  }
+  
+  /**
+   * Check if a rate has been set with {@link #setStepPerSecondLimit(double)}, in which case 
+   * {@link #getLimiter()} should be used instead of the limit set while building.
+   * 
+   * @return {@code true} if the limiter from this control should be used
+   */
+  protected boolean isLimiterOverridden() {
+    return limiterOverridden;
+  }
+  
+  /**
+   * Invoked before a step runs.  While paused or at the concurrency limit this does not block, 
+   * instead the retry task is queued and {@link RunPermit#Deferred} is returned.  Queued tasks 
+   * are run once the step may be able to run (or once stopped), and must request the permit 
+   * again.  If {@link RunPermit#Granted} is returned {@link #releaseRunPermit()} must be invoked 
+   * once the step has run, then {@link #finishRunPermit()} once the step's future has completed.
+   * 
+   * @param retryTask Task to run once the step may run, or {@code null} to not queue the step
+   * @return Permit indicating if the step should run now, later, or not at all
+   */
+  protected RunPermit acquireRunPermit(Runnable retryTask) {
+    if (! gated) {
+      unfinishedSteps.incrementAndGet();
+      runningSteps.incrementAndGet();
+      if (! gated) {
+        return RunPermit.Granted;
+      }
+      // control changed while acquiring, go through the checks below
+      releaseRunPermit();
+      finishRunPermit();
+    }
+    synchronized (permitLock) {
+      if (stopped) {
+        return RunPermit.Denied;
+      } else if (paused || (maxConcurrency > 0 && runningSteps.get() >= maxConcurrency)) {
+        if (retryTask != null) {
+          gatedTasks.add(retryTask);
+        }
+        return RunPermit.Deferred;
+      }
+      unfinishedSteps.incrementAndGet();
+      runningSteps.incrementAndGet();
+      return RunPermit.Granted;
+    }
+  }
+  
+  /**
+   * Invoked once a step which was provided a permit from {@link #acquireRunPermit(Runnable)} 
+   * has run, before its future is completed.  This allows a queued step to run.
+   */
+  protected void releaseRunPermit() {
+    runningSteps.decrementAndGet();
+    if (gated) {
+      Runnable[] tasks;
+      synchronized (permitLock) {
+        tasks = takeRunnableTasks();
+      }
+      runTasks(tasks);
+    }
+  }
+  
+  /**
+   * Invoked after {@link #releaseRunPermit()} once the step's future has completed.  If the 
+   * script was stopped, the last step to finish cancels the steps which will not be run.  This 
+   * must happen after the future completes, so that the result of the step is not canceled.
+   */
+  protected void finishRunPermit() {
+    if (unfinishedSteps.decrementAndGet() == 0 && stopped) {
+      cancelPendingSteps();
+    }
+  }
+  
+  /**
+   * Invoked once the run has finished, releasing any steps still queued and the limiter.
+   */
+  protected void runFinished() {
+    Runnable[] tasks;
+    synchronized (permitLock) {
+      stopped = true;
+      updateGated();
+      limiter = null;
+      tasks = takeRunnableTasks();
+    }
+    runTasks(tasks);
+  }
+  
+  /**
+   * Produces the limiter used when the rate is changed through a {@link ScriptControl}.
+   */
+  protected interface RateLimiterFactory {
+    /**
+     * Construct a limiter which steps will be submitted to.
+     * 
+     * @param stepsPerSecondLimit Limit of steps run per second, or {@code 0} for no limit
+     * @return Limiter to submit steps to, or {@code null} if there is no limit
+     */
+    public SubmitterExecutor makeLimiter(double stepsPerSecondLimit);
+  }
+}
@@ -0,0 +1,244 @@
+package org.threadly.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.threadly.util.Clock;
+
+/**
+ * Runner which splits the execution of a script across multiple {@link ScriptAgent} JVM's.  This 
+ * allows more load to be produced than a single JVM can generate.  The coordinator listens on a 
+ * local socket, and (by default) starts the agent processes itself.  Each agent builds the script 
+ * from the same {@link ScriptFactory} and parameters, with the addition of 
+ * {@link ScriptFactory#AGENT_INDEX_PARAMETER} and {@link ScriptFactory#AGENT_COUNT_PARAMETER}.  
+ * Factories should use {@link ScriptFactory#splitLoad(int)}, 
+ * {@link ScriptFactory#splitRate(double)} and 
+ * {@link ScriptFactory#splitBuilders(AbstractScriptBuilder...)} so that each agent only builds 
+ * its share of the load.  
+ * <p>
+ * Once every agent has built its script, they are all signaled to start at the same time.  The 
+ * {@link ResultSummary} from each agent is then merged into a single report.  
+ * <p>
+ * The script is also built by the coordinator (as agent {@code 0}) so that parameter problems 
+ * are reported before any agents are started.  The coordinator does not run the script itself.
+ */
+public class ScriptCoordinator extends ScriptRunner {
+  /**
+   * Parameter key for the port the coordinator should listen on for agents.  Defaults to any 
+   * available port.
+   */
+  public static final String PORT_PARAMETER = "ambush.coordinatorPort";
+  /**
+   * Parameter key which can be set to {@code false} if the agents will be started manually, 
+   * rather than having the coordinator start agent processes on this machine.
+   */
+  public static final String SPAWN_AGENTS_PARAMETER = "ambush.spawnAgents";
+  /**
+   * Parameter key for the maximum time in milliseconds to wait for each agent to connect.
+   */
+  public static final String AGENT_TIMEOUT_MILLIS_PARAMETER = "ambush.agentTimeoutMillis";
+  protected static final byte MESSAGE_READY = 1;
+  protected static final byte MESSAGE_START = 2;
+  protected static final byte MESSAGE_RESULT = 3;
+  private static final int DEFAULT_AGENT_TIMEOUT_MILLIS = 60 * 1000;
+  
+  /**
+   * Main function, usually executed by the JVM on startup.
+   * 
+   * @param args Arguments for startup, including which test should run and params for that test
+   * @throws Exception Thrown if error or interruption while waiting for agents
+   */
+  public static void main(String[] args) throws Exception {
+    setupExceptionHandler();
+    ScriptCoordinator coordinator = null;
+    try {
+      coordinator = new ScriptCoordinator(args);
+    } catch (Throwable t) {
+      System.err.println("Unexpected failure when building script: ");
+      printFailureAndExit(t);
+    }
+    System.exit(coordinator.runScript());
+  }
+  
+  protected final String scriptFactoryClass;
+  
+  protected ScriptCoordinator(String[] args) {
+    super(args);
+    
+    scriptFactoryClass = args.length > 0 ? args[0] : null;
+  }
+  
+  @Override
+  public Map<String, String> getPossibleParameters() {
+    Map<String, String> result = new HashMap<String, String>(super.getPossibleParameters());
+    result.put(ScriptFactory.AGENT_COUNT_PARAMETER, "Number of agents to split the script across");
+    result.put(PORT_PARAMETER, "Optional port to listen for agents on");
+    result.put(SPAWN_AGENTS_PARAMETER, "Optional, false if agents will be started manually");
+    result.put(AGENT_TIMEOUT_MILLIS_PARAMETER, 
+               "Optional time to wait for agents, defaults to " + DEFAULT_AGENT_TIMEOUT_MILLIS);
+    return result;
+  }
+  
+  /**
+   * Start the agent processes which will connect to this coordinator.  By default this will start 
+   * a JVM for each agent using the same java installation and class path as this JVM, unless 
+   * {@link #SPAWN_AGENTS_PARAMETER} is {@code false}.
+   * 
+   * @param port Port the coordinator is listening on
+   * @param agentCount Number of agents which are needed
+   * @return Started processes which will be waited on once the run completes
+   * @throws IOException Thrown if an agent process could not be started
+   */
+  protected List<Process> startAgents(int port, int agentCount) throws IOException {
+    if (! getBoolValue(SPAWN_AGENTS_PARAMETER, true)) {
+      out("Waiting for " + agentCount + " agents to connect on port: " + port);
+      return Collections.emptyList();
+    }
+    String javaBin = 
+        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    List<Process> result = new ArrayList<Process>(agentCount);
+    for (int i = 0; i < agentCount; i++) {
+      ProcessBuilder pb = new ProcessBuilder(javaBin, 
+                                             "-cp", System.getProperty("java.class.path"), 
+                                             ScriptAgent.class.getName(), 
+                                             "localhost", Integer.toString(port));
+      pb.inheritIO();
+      result.add(pb.start());
+    }
+    return result;
+  }
+  
+  /**
+   * Starts the agents, waits for them to build their scripts, then starts the execution on all 
+   * of them.  Once all agents have completed, their results are merged and reported to 
+   * {@link #out(String)}.
+   * 
+   * @return Number of failed steps, or {@code -1} if the agents failed to start
+   * @throws Exception Thrown if error communicating with the agents
+   */
+  @Override
+  protected int runScript() throws Exception {
+    int agentCount = getIntValue(ScriptFactory.AGENT_COUNT_PARAMETER, 1);
+    List<AgentConnection> agents = new ArrayList<AgentConnection>(agentCount);
+    List<Process> processes = Collections.emptyList();
+    ServerSocket server = new ServerSocket(getIntValue(PORT_PARAMETER, 0));
+    try {
+      server.setSoTimeout(getIntValue(AGENT_TIMEOUT_MILLIS_PARAMETER, 
+                                      DEFAULT_AGENT_TIMEOUT_MILLIS));
+      processes = startAgents(server.getLocalPort(), agentCount);
+      for (int i = 0; i < agentCount; i++) {
+        AgentConnection agent = new AgentConnection(server.accept(), i);
+        agents.add(agent);
+        agent.sendScript(agentCount);
+      }
+      for (AgentConnection agent : agents) {
+        if (! agent.awaitReady()) {
+          out("Agent " + agent.agentIndex + " failed to build the script");
+          return -1;
+        }
+      }
+      
+      long start = Clock.accurateForwardProgressingMillis();
+      for (AgentConnection agent : agents) {
+        agent.sendStart();
+      }
+      out("Started script on " + agentCount + " agents");
+      for (AgentConnection agent : agents) {
+        agent.readResult();
+      }
+      long end = Clock.accurateForwardProgressingMillis();
+      
+      ResultSummary summary = new ResultSummary();
+      for (AgentConnection agent : agents) {
+        summary.merge(agent.summary);
+      }
+      // coordinator duration includes the time to signal agents, and is reported instead
+      summary.setRunDurationMillis(end - start);
+      String summaryFile = getStringValue(SUMMARY_FILE_PARAMETER, null);
+      if (summaryFile != null) {
+        summary.writeTo(new File(summaryFile));
+        out("Result summary written to: " + summaryFile);
+      }
+      reportSummary(summary);
+      return (int)summary.getFailureCount();
+    } finally {
+      for (AgentConnection agent : agents) {
+        agent.socket.close();
+      }
+      server.close();
+      for (Process p : processes) {
+        p.waitFor();
+      }
+    }
+  }
+  
+  /**
+   * Class which holds the connection and results for a single agent.
+   */
+  private class AgentConnection {
+    private final Socket socket;
+    private final int agentIndex;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private ResultSummary summary;
+    
+    public AgentConnection(Socket socket, int agentIndex) throws IOException {
+      this.socket = socket;
+      this.agentIndex = agentIndex;
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      socket.setSoTimeout(0);  // script build and run times are unbounded
+    }
+    
+    public void sendScript(int agentCount) throws IOException {
+      Map<String, String> agentProperties = new HashMap<String, String>();
+      for (String key : properties.stringPropertyNames()) {
+        agentProperties.put(key, properties.getProperty(key));
+      }
+      agentProperties.put(ScriptFactory.AGENT_INDEX_PARAMETER, Integer.toString(agentIndex));
+      agentProperties.put(ScriptFactory.AGENT_COUNT_PARAMETER, Integer.toString(agentCount));
+      
+      out.writeUTF(scriptFactoryClass);
+      out.writeInt(agentProperties.size());
+      for (Map.Entry<String, String> e : agentProperties.entrySet()) {
+        out.writeUTF(e.getKey());
+        out.writeUTF(e.getValue());
+      }
+      out.flush();
+    }
+    
+    public boolean awaitReady() throws IOException {
+      int message = in.read();  // -1 if agent exited
+      if (message < 0) {
+        return false;
+      } else if (message != MESSAGE_READY) {
+        throw new IOException("Unexpected message from agent " + agentIndex + ": " + message);
+      }
+      return true;
+    }
+    
+    public void sendStart() throws IOException {
+      out.writeByte(MESSAGE_START);
+      out.flush();
+    }
+    
+    public void readResult() throws IOException {
+      byte message = in.readByte();
+      if (message != MESSAGE_RESULT) {
+        throw new IOException("Unexpected message from agent " + agentIndex + ": " + message);
+      }
+      summary = ResultSummary.readFrom(in);
+    }
+  }
+}
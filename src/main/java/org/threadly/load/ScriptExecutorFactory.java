@@ -0,0 +1,32 @@
+package org.threadly.load;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Factory for the pool which script steps are executed on.  A factory can be set with 
+ * {@link ExecutableScript#setExecutorFactory(ScriptExecutorFactory)}, common implementations 
+ * are available from {@link ScriptExecutors}.  
+ * <p>
+ * Sequential chains and parallel groups do not hold a thread while their steps run, but steps 
+ * which block (for example waiting on a start handler from {@link ScriptBuilderUtils}) do, so the 
+ * returned pool must be able to run at least as many tasks concurrently as the script needs to 
+ * make progress.  Returned pools should use daemon threads, as the script does 
+ * not shut down the pool once it has completed.  The pool is reused for later runs of the 
+ * script, unless tasks from the previous run are still queued or running when the next run 
+ * starts.  In that case a new pool is requested, and the replaced pool is shutdown (if it is a 
+ * {@link java.util.concurrent.ExecutorService} or 
+ * {@link org.threadly.concurrent.PriorityScheduler}) once those tasks have finished.
+ */
+public interface ScriptExecutorFactory {
+  /**
+   * Construct a new pool to execute a script on.  If the returned executor is a 
+   * {@link org.threadly.concurrent.SubmitterScheduler} it will also be used to delay steps when 
+   * rate limiting.  If the returned executor is a 
+   * {@link org.threadly.concurrent.PriorityScheduler}, asynchronous maintenance steps will be 
+   * executed as {@link org.threadly.concurrent.TaskPriority#Starvable}.
+   * 
+   * @param maximumThreadCount Worst case number of threads the script's structure could need
+   * @return Executor to run the script on
+   */
+  public Executor makeExecutor(int maximumThreadCount);
+}
@@ -0,0 +1,279 @@
+package org.threadly.load;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.util.ArgumentVerifier;
+
+/**
+ * Common {@link ScriptExecutorFactory} implementations.  
+ * <p>
+ * The maximum thread count provided to a factory comes from the structure of the script, and 
+ * assumes every parallel step runs at once.  When the script is rate limited the number of steps 
+ * actually running at once can be far lower.  {@link #priorityScheduler()} starts the worst case 
+ * number of threads up front (which can take a long time for large scripts), while the other 
+ * factories only start threads as tasks are submitted, so the pool size follows the observed 
+ * demand.  Idle threads in the {@link #workStealingPool()} and {@link #fixedSizePool(int)} pools 
+ * are released after they have been idle for a while.
+ */
+public class ScriptExecutors {
+  protected static final int MAXIMUM_PRESTART_THREAD_COUNT = 1000;
+  protected static final int IDLE_THREAD_TIMEOUT_SECONDS = 60;
+  private static final int MAXIMUM_FORK_JOIN_PARALLELISM = 0x7fff;
+  
+  /**
+   * Returns the default factory, which prestarts a {@link PriorityScheduler} sized to the 
+   * maximum thread count of the script.  To reduce startup time, at most 
+   * {@value #MAXIMUM_PRESTART_THREAD_COUNT} threads are prestarted, beyond that the pool grows 
+   * as needed.
+   * 
+   * @return Factory which produces prestarted {@link PriorityScheduler}'s
+   */
+  public static ScriptExecutorFactory priorityScheduler() {
+    return priorityScheduler(MAXIMUM_PRESTART_THREAD_COUNT, "priorityScheduler");
+  }
+  
+  /**
+   * Returns a factory which produces a {@link PriorityScheduler} that starts threads as they are 
+   * needed.  A number of warm up threads equal to the available processors are started before 
+   * the script starts, so the first steps do not wait on thread creation.  Beyond that the pool 
+   * grows as steps are submitted while no thread is idle, up to the maximum thread count of the 
+   * script.  
+   * <p>
+   * This greatly reduces the startup time of scripts which need many threads, and avoids starting 
+   * threads which will never be used when the script is rate limited.
+   * 
+   * @return Factory which produces lazily started {@link PriorityScheduler}'s
+   */
+  public static ScriptExecutorFactory lazyPriorityScheduler() {
+    return lazyPriorityScheduler(Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * Returns a factory which produces a {@link PriorityScheduler} that starts threads as they are 
+   * needed, after first starting the provided number of warm up threads.  See 
+   * {@link #lazyPriorityScheduler()} for more details.
+   * 
+   * @param warmUpThreadCount Number of threads to start before the script starts
+   * @return Factory which produces lazily started {@link PriorityScheduler}'s
+   */
+  public static ScriptExecutorFactory lazyPriorityScheduler(int warmUpThreadCount) {
+    ArgumentVerifier.assertGreaterThanZero(warmUpThreadCount, "warmUpThreadCount");
+    
+    return priorityScheduler(warmUpThreadCount, 
+                             "lazyPriorityScheduler(" + warmUpThreadCount + ")");
+  }
+  
+  private static ScriptExecutorFactory priorityScheduler(final int prestartThreadCount, 
+                                                         final String name) {
+    return new ScriptExecutorFactory() {
+      @Override
+      public Executor makeExecutor(int maximumThreadCount) {
+        PriorityScheduler ps;
+        if (maximumThreadCount > prestartThreadCount) {
+          ps = new PriorityScheduler(prestartThreadCount);
+          // just prestart the requested threads, then allow the pool to grow beyond that
+          ps.prestartAllThreads();
+          ps.setPoolSize(maximumThreadCount);
+        } else {
+          ps = new PriorityScheduler(maximumThreadCount);
+          ps.prestartAllThreads();
+        }
+        return ps;
+      }
+      
+      @Override
+      public String toString() {
+        return name;
+      }
+    };
+  }
+  
+  /**
+   * Returns a factory which produces work stealing {@link ForkJoinPool}'s.  The parallelism is 
+   * set to the maximum thread count of the script, but worker threads are only started when a 
+   * task is submitted and no worker is idle.  Tasks are run in first in first out order, so 
+   * steps are started in the order they became ready.  Because the pool does not need a shared 
+   * queue, this can reduce contention when many short steps are executed.
+   * 
+   * @return Factory which produces work stealing pools
+   */
+  public static ScriptExecutorFactory workStealingPool() {
+    return new ScriptExecutorFactory() {
+      @Override
+      public Executor makeExecutor(int maximumThreadCount) {
+        return new ForkJoinPool(Math.min(maximumThreadCount, MAXIMUM_FORK_JOIN_PARALLELISM), 
+                                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+      }
+      
+      @Override
+      public String toString() {
+        return "workStealingPool";
+      }
+    };
+  }
+  
+  /**
+   * Returns a factory which produces pools sized to the number of available processors (but no 
+   * smaller than three threads).  This is 
+   * intended for scripts made up of steps which do not block (for example steps which start 
+   * asynchronous requests), so that threads are not oversubscribed.  
+   * <p>
+   * Sequential chains and parallel groups do not hold a thread while waiting for their children 
+   * to complete.  However steps which block while waiting on other steps (for example those 
+   * balanced with {@link ScriptBuilderUtils}, or warm ups waiting on their iterations) do, so the 
+   * pool must be larger than the number of those which can be waiting at once, otherwise the 
+   * script will be unable to progress.
+   * 
+   * @return Factory which produces processor sized pools
+   */
+  public static ScriptExecutorFactory processorSizedPool() {
+    return fixedSizePool(Math.max(3, Runtime.getRuntime().availableProcessors()));
+  }
+  
+  /**
+   * Returns a factory which produces pools with a fixed number of threads.  The maximum thread 
+   * count of the script is ignored, see {@link #processorSizedPool()} for the limitations of 
+   * running a script on a pool smaller than that count.
+   * 
+   * @param threadCount Number of threads to run steps on
+   * @return Factory which produces fixed size pools
+   */
+  public static ScriptExecutorFactory fixedSizePool(final int threadCount) {
+    ArgumentVerifier.assertGreaterThanZero(threadCount, "threadCount");
+    
+    return new ScriptExecutorFactory() {
+      @Override
+      public Executor makeExecutor(int maximumThreadCount) {
+        ThreadPoolExecutor tpe = 
+            new ThreadPoolExecutor(threadCount, threadCount, 
+                                   IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, 
+                                   new LinkedBlockingQueue<Runnable>(), 
+                                   new DaemonThreadFactory("ambush-step-"));
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+      }
+      
+      @Override
+      public String toString() {
+        return "fixedSizePool(" + threadCount + ")";
+      }
+    };
+  }
+  
+  /**
+   * Get a factory by name, as returned from the factory's {@link Object#toString()}.  Accepted 
+   * names are {@code priorityScheduler}, {@code lazyPriorityScheduler}, 
+   * {@code lazyPriorityScheduler(<warmUpThreadCount>)}, {@code workStealingPool}, 
+   * {@code processorSizedPool} and {@code fixedSizePool(<threadCount>)}.
+   * 
+   * @param name Name of the factory
+   * @return Factory which matches the name
+   * @throws IllegalArgumentException Thrown if the name is not recognized
+   */
+  public static ScriptExecutorFactory forName(String name) {
+    name = name.trim();
+    if (name.equals("priorityScheduler")) {
+      return priorityScheduler();
+    } else if (name.equals("lazyPriorityScheduler")) {
+      return lazyPriorityScheduler();
+    } else if (name.startsWith("lazyPriorityScheduler(") && name.endsWith(")")) {
+      return lazyPriorityScheduler(parseCount(name, "lazyPriorityScheduler("));
+    } else if (name.equals("workStealingPool")) {
+      return workStealingPool();
+    } else if (name.equals("processorSizedPool")) {
+      return processorSizedPool();
+    } else if (name.startsWith("fixedSizePool(") && name.endsWith(")")) {
+      return fixedSizePool(parseCount(name, "fixedSizePool("));
+    } else {
+      throw new IllegalArgumentException("Unknown executor: " + name);
+    }
+  }
+  
+  /**
+   * Returns how many threads are currently in a pool produced by one of these factories.
+   * 
+   * @param executor Executor to inspect, may be {@code null}
+   * @return Number of threads in the pool, or {@code -1} if not known
+   */
+  protected static int getPoolSize(Executor executor) {
+    if (executor instanceof PriorityScheduler) {
+      return ((PriorityScheduler)executor).getCurrentPoolSize();
+    } else if (executor instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor)executor).getPoolSize();
+    } else if (executor instanceof ForkJoinPool) {
+      return ((ForkJoinPool)executor).getPoolSize();
+    } else {
+      return -1;
+    }
+  }
+  
+  /**
+   * Returns how many tasks are waiting to be run by a pool produced by one of these factories.
+   * 
+   * @param executor Executor to inspect, may be {@code null}
+   * @return Number of queued tasks, or {@code -1} if not known
+   */
+  protected static int getQueuedTaskCount(Executor executor) {
+    if (executor instanceof PriorityScheduler) {
+      return ((PriorityScheduler)executor).getQueuedTaskCount();
+    } else if (executor instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor)executor).getQueue().size();
+    } else if (executor instanceof ForkJoinPool) {
+      ForkJoinPool fjp = (ForkJoinPool)executor;
+      return (int)Math.min(Integer.MAX_VALUE, 
+                           fjp.getQueuedSubmissionCount() + fjp.getQueuedTaskCount());
+    } else {
+      return -1;
+    }
+  }
+  
+  /**
+   * Shutdown a pool which is no longer used to run the script.  Tasks already queued are still 
+   * run, but no new tasks are accepted.  Executors which can not be shutdown are ignored.
+   * 
+   * @param executor Executor to shutdown
+   */
+  protected static void shutdown(Executor executor) {
+    if (executor instanceof PriorityScheduler) {
+      ((PriorityScheduler)executor).shutdown();
+    } else if (executor instanceof ExecutorService) {
+      ((ExecutorService)executor).shutdown();
+    }
+  }
+  
+  private static int parseCount(String name, String prefix) {
+    try {
+      return Integer.parseInt(name.substring(prefix.length(), name.length() - 1).trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid thread count: " + name, e);
+    }
+  }
+  
+  /**
+   * Thread factory which produces named daemon threads.
+   */
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private final String namePrefix;
+    private final AtomicInteger nextThreadId;
+    
+    protected DaemonThreadFactory(String namePrefix) {
+      this.namePrefix = namePrefix;
+      this.nextThreadId = new AtomicInteger(1);
+    }
+    
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, namePrefix + nextThreadId.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -12,6 +12,17 @@ package org.threadly.load;
  * {@link #getStringValue(String, String)}.
  */
 public abstract class ScriptFactory extends ParameterStore {
+  /**
+   * Parameter key provided by {@link ScriptCoordinator} to indicate which agent (starting at 
+   * {@code 0}) is building the script.  See {@link #getAgentIndex()}.
+   */
+  public static final String AGENT_INDEX_PARAMETER = "ambush.agentIndex";
+  /**
+   * Parameter key for how many agents the script load will be split across.  See 
+   * {@link #getAgentCount()}.
+   */
+  public static final String AGENT_COUNT_PARAMETER = "ambush.agentCount";
+  
   /**
    * Call to have the factory build the respective execution script.  This may be simply adding 
    * items on to a {@link SequentialScriptBuilder} or a {@link ParallelScriptBuilder}.  Or it may 
@@ -27,4 +38,66 @@ public abstract class ScriptFactory extends ParameterStore {
    * @return A constructed script, ready to be ran
    */
   public abstract ExecutableScript buildScript();
+  
+  /**
+   * Returns how many agents the load is being split across.  If the script is not being run by 
+   * {@link ScriptCoordinator} this will be {@code 1}.
+   * 
+   * @return Number of agents running the script
+   */
+  public int getAgentCount() {
+    return getIntValue(AGENT_COUNT_PARAMETER, 1);
+  }
+  
+  /**
+   * Returns the index of the agent this script is being built for.  This will be between 
+   * {@code 0} and {@link #getAgentCount()} (exclusive).
+   * 
+   * @return Index of the agent running the script
+   */
+  public int getAgentIndex() {
+    return getIntValue(AGENT_INDEX_PARAMETER, 0);
+  }
+  
+  /**
+   * Get this agent's share of a load amount (for example the {@code times} provided to 
+   * {@link ParallelScriptBuilder#addStep(ScriptStep, int)}).  The load is split as evenly as 
+   * possible, so that the sum of all agent shares is equal to the provided total.
+   * 
+   * @param totalLoad Load amount for the entire script, across all agents
+   * @return The amount of load this agent should run
+   */
+  public int splitLoad(int totalLoad) {
+    int agentCount = getAgentCount();
+    return (totalLoad / agentCount) + (getAgentIndex() < totalLoad % agentCount ? 1 : 0);
+  }
+  
+  /**
+   * Get this agent's share of a rate (for example the limit provided to 
+   * {@link AbstractScriptBuilder#setMaxScriptStepRate(double)}).
+   * 
+   * @param totalRate Rate for the entire script, across all agents
+   * @return The rate this agent should run at
+   */
+  public double splitRate(double totalRate) {
+    return totalRate / getAgentCount();
+  }
+  
+  /**
+   * Get the builders this agent should run, from the set of builders which would be run if 
+   * there was only a single agent.  Builders are assigned round robin, so each agent will get 
+   * either the same number of builders, or at most one more than other agents.  This is useful 
+   * with {@link ScriptBuilderUtils#balanceBuilders(AbstractScriptBuilder...)}.
+   * 
+   * @param builders All builders for the script
+   * @return The builders this agent should run
+   */
+  public AbstractScriptBuilder[] splitBuilders(AbstractScriptBuilder ... builders) {
+    AbstractScriptBuilder[] result = new AbstractScriptBuilder[splitLoad(builders.length)];
+    int agentCount = getAgentCount();
+    for (int i = 0; i < result.length; i++) {
+      result[i] = builders[getAgentIndex() + (i * agentCount)];
+    }
+    return result;
+  }
 }
@@ -0,0 +1,273 @@
+package org.threadly.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+import org.threadly.util.Clock;
+
+/**
+ * {@link ScriptMonitorMXBean} implementation which is registered by 
+ * {@link ExecutableScript#registerMBean(String)}.  This is added as a {@link StepResultRecorder} 
+ * to each run of the script, counting step completions and failures into atomic counters.  
+ * <p>
+ * Run times are recorded into a small ring of histograms, each covering a fixed window of 
+ * {@value #RECENT_WINDOW_SECONDS} seconds by default, using the same buckets as 
+ * {@link RunTimeHistogram}.  Recording a run time is a single atomic increment, while percentiles 
+ * are only calculated when they are read.  Percentiles are reported from the most recent window 
+ * which has fully completed, so they will lag the run by up to one window.
+ */
+public class ScriptMonitor implements ScriptMonitorMXBean, StepResultRecorder {
+  /**
+   * Default duration of each window percentiles are reported over.
+   */
+  public static final int RECENT_WINDOW_SECONDS = 10;
+  private static final int WINDOW_COUNT = 3;  // current, reported, and one to be reset
+  private static final int BUCKET_COUNT = RunTimeHistogram.BUCKET_COUNT;
+  private static final long RESETTING_WINDOW = -1;
+  
+  protected final ExecutableScript script;
+  protected final ObjectName objectName;
+  protected final long startNanos;
+  protected final long windowNanos;
+  private final AtomicLong completedCount;
+  private final AtomicLong failedCount;
+  private final AtomicLongArray windowCounts;
+  private final AtomicLongArray slotWindows;  // window each slot is currently recording for
+  private final AtomicLongArray slotRecorders;  // threads currently recording into each slot
+  private volatile long currentWindow;
+  
+  /**
+   * Constructs a new monitor for the provided script.
+   * 
+   * @param script Script which will be monitored
+   * @param objectName Name the monitor is registered under
+   */
+  protected ScriptMonitor(ExecutableScript script, ObjectName objectName) {
+    this(script, objectName, TimeUnit.SECONDS.toNanos(RECENT_WINDOW_SECONDS));
+  }
+  
+  /**
+   * Constructs a new monitor for the provided script with a specific window duration.
+   * 
+   * @param script Script which will be monitored
+   * @param objectName Name the monitor is registered under
+   * @param windowNanos Duration of each window percentiles are reported over in nanoseconds
+   */
+  protected ScriptMonitor(ExecutableScript script, ObjectName objectName, long windowNanos) {
+    this.script = script;
+    this.objectName = objectName;
+    this.windowNanos = windowNanos;
+    startNanos = Clock.accurateTimeNanos();
+    completedCount = new AtomicLong(0);
+    failedCount = new AtomicLong(0);
+    windowCounts = new AtomicLongArray(WINDOW_COUNT * BUCKET_COUNT);
+    slotWindows = new AtomicLongArray(WINDOW_COUNT);
+    for (int i = 0; i < WINDOW_COUNT; i++) {
+      slotWindows.set(i, i);
+    }
+    slotRecorders = new AtomicLongArray(WINDOW_COUNT);
+    currentWindow = 0;
+  }
+  
+  /**
+   * Returns the name this monitor is registered with.
+   * 
+   * @return Registered name of the monitor
+   */
+  public ObjectName getObjectName() {
+    return objectName;
+  }
+  
+  @Override
+  public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                           long startNanos, long runTimeNanos, Throwable error) {
+    if (error != null) {
+      failedCount.incrementAndGet();
+    }
+    if (stepType != ScriptStepType.Normal) {
+      return;
+    }
+    completedCount.incrementAndGet();
+    
+    long window = Math.max(0, (startNanos + runTimeNanos - this.startNanos) / windowNanos);
+    int bucket = RunTimeHistogram.bucketIndex(Math.max(0, runTimeNanos));
+    while (true) {
+      long currentWindow = this.currentWindow;
+      if (window > currentWindow) {
+        advance(window);
+      } else if (window < currentWindow - 1) {
+        // too late to be reported, and the window may be in the process of being reset
+        return;
+      }
+      
+      int slot = (int)(window % WINDOW_COUNT);
+      slotRecorders.incrementAndGet(slot);
+      try {
+        /* The reset marks the slot before waiting for recorders to finish, so if the slot still 
+         * belongs to our window it can not be reset until we have recorded into it.
+         */
+        if (slotWindows.get(slot) == window) {
+          windowCounts.incrementAndGet(slot * BUCKET_COUNT + bucket);
+          return;
+        }
+      } finally {
+        slotRecorders.decrementAndGet(slot);
+      }
+      // slot was reset for a later window after we read the current window, check again
+    }
+  }
+  
+  /**
+   * Move the current window forward, resetting the windows which will be recorded into.  Each 
+   * slot is marked as resetting first, then once threads which are still recording into it have 
+   * finished it is reset and handed to the new window.
+   * 
+   * @param window New current window
+   */
+  private synchronized void advance(long window) {
+    if (window <= currentWindow) {
+      return;
+    }
+    for (long w = Math.max(currentWindow + 1, window - WINDOW_COUNT + 1); w <= window; w++) {
+      int slot = (int)(w % WINDOW_COUNT);
+      slotWindows.set(slot, RESETTING_WINDOW);
+      while (slotRecorders.get(slot) != 0) {
+        // recorders only do a couple atomic operations while counted, so this wait is short
+        Thread.yield();
+      }
+      int offset = slot * BUCKET_COUNT;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        windowCounts.set(offset + i, 0);
+      }
+      slotWindows.set(slot, w);
+    }
+    // must be set after resetting so that no other thread can record into the reset windows
+    currentWindow = window;
+  }
+  
+  /**
+   * Copy the most recent full window into a histogram.
+   * 
+   * @return Histogram of run times from the last full window, empty if there were none
+   */
+  protected RunTimeHistogram getRecentHistogram() {
+    long reportedWindow = ((Clock.accurateTimeNanos() - startNanos) / windowNanos) - 1;
+    long currentWindow = this.currentWindow;
+    if (reportedWindow < 0 || reportedWindow > currentWindow || 
+        reportedWindow < currentWindow - 1) {
+      // no steps have completed in the window
+      return new RunTimeHistogram();
+    }
+    return getWindowHistogram(reportedWindow);
+  }
+  
+  /**
+   * Copy a window into a histogram.  If the window's slot has already been handed to a later 
+   * window the returned histogram will be empty.
+   * 
+   * @param window Window to copy
+   * @return Histogram of run times recorded into the window
+   */
+  RunTimeHistogram getWindowHistogram(long window) {
+    RunTimeHistogram result = new RunTimeHistogram();
+    int slot = (int)(window % WINDOW_COUNT);
+    int offset = slot * BUCKET_COUNT;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long count = windowCounts.get(offset + i);
+      if (count > 0) {
+        result.recordValue(RunTimeHistogram.bucketHighestValue(i), count);
+      }
+    }
+    if (slotWindows.get(slot) != window) {
+      // slot was reset while we were reading it
+      return new RunTimeHistogram();
+    }
+    return result;
+  }
+  
+  private static double toMillis(long nanos) {
+    return (double)nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+  
+  @Override
+  public boolean isRunning() {
+    // the executor is only set while running
+    return script.getRunExecutor() != null;
+  }
+  
+  @Override
+  public long getCompletedStepCount() {
+    return completedCount.get();
+  }
+  
+  @Override
+  public long getFailedStepCount() {
+    return failedCount.get();
+  }
+  
+  @Override
+  public int getRunningStepCount() {
+    ScriptControl control = script.getRunControl();
+    return control == null ? 0 : control.getRunningStepCount();
+  }
+  
+  @Override
+  public double getStepPerSecondLimit() {
+    ScriptControl control = script.getRunControl();
+    return control == null ? 0 : control.getCurrentStepPerSecondLimit();
+  }
+  
+  @Override
+  public void setStepPerSecondLimit(double stepsPerSecondLimit) {
+    ScriptControl control = script.getRunControl();
+    if (control != null) {
+      control.setStepPerSecondLimit(stepsPerSecondLimit);
+    }
+  }
+  
+  @Override
+  public int getPoolSize() {
+    return ScriptExecutors.getPoolSize(script.getRunExecutor());
+  }
+  
+  @Override
+  public int getQueuedTaskCount() {
+    return ScriptExecutors.getQueuedTaskCount(script.getRunExecutor());
+  }
+  
+  @Override
+  public double getRecentMedianRunTimeMillis() {
+    return toMillis(getRecentHistogram().getValueAtPercentile(50));
+  }
+  
+  @Override
+  public double getRecent90thPercentileRunTimeMillis() {
+    return toMillis(getRecentHistogram().getValueAtPercentile(90));
+  }
+  
+  @Override
+  public double getRecent99thPercentileRunTimeMillis() {
+    return toMillis(getRecentHistogram().getValueAtPercentile(99));
+  }
+  
+  @Override
+  public double getRecentMaxRunTimeMillis() {
+    return toMillis(getRecentHistogram().getMaxValue());
+  }
+  
+  @Override
+  public void stop() {
+    ScriptControl control = script.getRunControl();
+    if (control != null) {
+      control.stop();
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "ScriptMonitor:" + objectName;
+  }
+}
@@ -0,0 +1,107 @@
+package org.threadly.load;
+
+/**
+ * Management interface for a running {@link ExecutableScript}.  This is registered with the 
+ * platform MBean server by {@link ExecutableScript#registerMBean(String)}, so that a script can 
+ * be observed (for example from JConsole) while it runs.  
+ * <p>
+ * All values are read from counters which are maintained as steps complete, so reading them does 
+ * not effect the script.  Values which depend on the current run will report {@code 0} (or 
+ * {@code -1} where noted) while the script is not running.
+ */
+public interface ScriptMonitorMXBean {
+  /**
+   * Check if the script is currently running.
+   * 
+   * @return {@code true} if the script has been started and not yet finished
+   */
+  public boolean isRunning();
+  
+  /**
+   * Returns how many {@link ScriptStepType#Normal} steps have completed (including those which 
+   * failed) since the bean was registered.
+   * 
+   * @return Number of completed steps
+   */
+  public long getCompletedStepCount();
+  
+  /**
+   * Returns how many steps have failed since the bean was registered.
+   * 
+   * @return Number of failed steps
+   */
+  public long getFailedStepCount();
+  
+  /**
+   * Returns how many steps are currently running.
+   * 
+   * @return Number of steps which have started but not completed
+   */
+  public int getRunningStepCount();
+  
+  /**
+   * Returns the limit of steps per second steps are currently started at.
+   * 
+   * @return Steps per second limit, or {@code 0} if there is no limit
+   */
+  public double getStepPerSecondLimit();
+  
+  /**
+   * Changes the limit of steps per second for the rest of the current run, see 
+   * {@link ScriptControl#setStepPerSecondLimit(double)}.  This has no effect if the script is not 
+   * running.
+   * 
+   * @param stepsPerSecondLimit Limit of steps run per second, or {@code 0} for no limit
+   */
+  public void setStepPerSecondLimit(double stepsPerSecondLimit);
+  
+  /**
+   * Returns how many threads are currently in the pool the script is running on.
+   * 
+   * @return Number of threads in the pool, or {@code -1} if not known
+   */
+  public int getPoolSize();
+  
+  /**
+   * Returns how many tasks are waiting to be executed by the pool the script is running on.
+   * 
+   * @return Number of queued tasks, or {@code -1} if not known
+   */
+  public int getQueuedTaskCount();
+  
+  /**
+   * Returns the median run time of steps which completed within the most recent full window.
+   * 
+   * @return Median step run time in milliseconds
+   */
+  public double getRecentMedianRunTimeMillis();
+  
+  /**
+   * Returns the 90th percentile run time of steps which completed within the most recent full 
+   * window.
+   * 
+   * @return 90th percentile step run time in milliseconds
+   */
+  public double getRecent90thPercentileRunTimeMillis();
+  
+  /**
+   * Returns the 99th percentile run time of steps which completed within the most recent full 
+   * window.
+   * 
+   * @return 99th percentile step run time in milliseconds
+   */
+  public double getRecent99thPercentileRunTimeMillis();
+  
+  /**
+   * Returns the longest run time of steps which completed within the most recent full window.
+   * 
+   * @return Maximum step run time in milliseconds
+   */
+  public double getRecentMaxRunTimeMillis();
+  
+  /**
+   * Gracefully stop the current run, see {@link ScriptControl#stop()}.  This has no effect if the 
+   * script is not running.
+   */
+  public void stop();
+}
@@ -1,12 +1,16 @@
 package org.threadly.load;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.threadly.concurrent.future.ListenableFuture;
 import org.threadly.util.Clock;
@@ -19,9 +23,45 @@ import org.threadly.util.StringUtils;
  * then runs the provided script and informs of any errors which occurred.
  */
 public class ScriptRunner extends AbstractScriptFactoryInitializer {
-  private static final double[] RETURNED_PERCENTILES = new double[]{50, 75, 80, 85, 90, 95, 
+  /**
+   * Parameter key which can be provided with a file path.  If provided every step result will be 
+   * written into that file so that it can be analyzed later using {@link BinaryResultReader}.
+   */
+  public static final String RESULT_LOG_PARAMETER = "ambush.resultLog";
+  /**
+   * Parameter key which can be set to {@code true} to store step results using 
+   * {@link CompactStepResults}, reducing the heap needed for scripts with many steps.
+   */
+  public static final String COMPACT_RESULTS_PARAMETER = "ambush.compactResults";
+  /**
+   * Parameter key which can be provided with a file path.  If provided a 
+   * {@link ThroughputTimeline} will be written to that file.  The output will be JSON if the file 
+   * name ends with {@code .json}, otherwise it will be CSV.
+   */
+  public static final String TIMELINE_PARAMETER = "ambush.timeline";
+  /**
+   * Parameter key for the duration in milliseconds of each slice in the timeline (if enabled).
+   */
+  public static final String TIMELINE_SLICE_MILLIS_PARAMETER = "ambush.timelineSliceMillis";
+  /**
+   * Parameter key which can be provided with a file path.  If provided the 
+   * {@link ResultSummary} will be written to that file, so that it can be merged with the 
+   * results of other runs.
+   */
+  public static final String SUMMARY_FILE_PARAMETER = "ambush.summaryFile";
+  /**
+   * Parameter key for the pool the script should be executed on.  The value is provided to 
+   * {@link ScriptExecutors#forName(String)}, for example {@code workStealingPool}.
+   */
+  public static final String EXECUTOR_PARAMETER = "ambush.executor";
+  /**
+   * Parameter key which can be set to {@code false} to avoid requesting a garbage collection 
+   * before the script starts.  See {@link ExecutableScript#setGcBeforeStart(boolean)}.
+   */
+  public static final String GC_BEFORE_START_PARAMETER = "ambush.gcBeforeStart";
+  private static final long DEFAULT_TIMELINE_SLICE_MILLIS = 1000;
+  protected static final double[] RETURNED_PERCENTILES = new double[]{50, 75, 80, 85, 90, 95, 
                                                                     98, 99, 99.5, 99.9, 100};
-  private static final boolean TRIM_AMBUSH_STACK_AWAY = true;
   /**
    * Main function, usually executed by the JVM on startup.
    * 
@@ -75,10 +115,35 @@ public class ScriptRunner extends AbstractScriptFactoryInitializer {
     System.exit(hashCode);
   }
   
+  protected final FailureAggregator failureAggregator = new FailureAggregator();
+  private List<ListenableFuture<StepResult>> aggregatedFutures = null;
+  private ResultAggregation runAggregation = null;
+  
   protected ScriptRunner(String[] args) {
     super(args);
   }
   
+  protected ScriptRunner(String classStr, Properties properties) {
+    super(classStr, properties);
+  }
+  
+  @Override
+  public Map<String, String> getPossibleParameters() {
+    Map<String, String> result = new HashMap<String, String>();
+    result.put(RESULT_LOG_PARAMETER, "Optional file to write binary step results into");
+    result.put(COMPACT_RESULTS_PARAMETER, "Optional, true to store step results in primitive arrays");
+    result.put(TIMELINE_PARAMETER, "Optional file to write a throughput timeline into");
+    result.put(SUMMARY_FILE_PARAMETER, "Optional file to write the result summary into");
+    result.put(EXECUTOR_PARAMETER, 
+               "Optional pool to execute on, priorityScheduler (default), workStealingPool, " + 
+                 "lazyPriorityScheduler, processorSizedPool or fixedSizePool(<threads>)");
+    result.put(GC_BEFORE_START_PARAMETER, 
+               "Optional, false to skip the System.gc() before the script starts");
+    result.put(TIMELINE_SLICE_MILLIS_PARAMETER, 
+               "Optional timeline slice duration, defaults to " + DEFAULT_TIMELINE_SLICE_MILLIS);
+    return result;
+  }
+  
   /**
    * Prints the usage for the expected arguments to be taken in from the main class, and then 
    * exits with a non-zero status code.
@@ -105,6 +170,61 @@ public class ScriptRunner extends AbstractScriptFactoryInitializer {
     System.out.println(msg);
   }
   
+  /**
+   * Builds the summary of the results from the script execution.  If the futures are the ones 
+   * which were aggregated while waiting for the script to finish, that summary is used rather 
+   * than inspecting the futures again.
+   * 
+   * @param rawFutures Futures for test steps, all now completed with either a result, or canceled
+   * @param runDurationMillis The duration in milliseconds that it took to run the entire script
+   * @return Summary of the script results
+   * @throws InterruptedException Thrown if the thread is interrupted while checking the futures
+   */
+  protected ResultSummary summarizeResults(List<ListenableFuture<StepResult>> rawFutures, 
+                                           long runDurationMillis) throws InterruptedException {
+    CompactStepResults compactResults = script.getCompactResults();
+    if (compactResults != null) {
+      return ResultSummary.fromCompactResults(compactResults, runDurationMillis, 
+                                              failureAggregator);
+    } else if (rawFutures == aggregatedFutures) {
+      ResultSummary result = runAggregation.getSummary();
+      result.setRunDurationMillis(runDurationMillis);
+      return result;
+    } else {
+      return ResultSummary.fromFutures(rawFutures, runDurationMillis, failureAggregator);
+    }
+  }
+  
+  /**
+   * Reports how long it took for the script to start executing steps to {@link #out(String)}.  
+   * This is reported from when the JVM started, and separately from when  
+   * the built script was started (which includes starting the threads for the script).
+   * 
+   * @param scriptStartNanos Time the script was started, from {@link Clock#accurateTimeNanos()}
+   * @param firstStepStartNanos Time the first step started, or {@link Long#MAX_VALUE} if none ran
+   */
+  protected void reportStartup(long scriptStartNanos, long firstStepStartNanos) {
+    if (firstStepStartNanos == Long.MAX_VALUE) {
+      return;
+    }
+    out("Time to first step: " + 
+          TimeUnit.NANOSECONDS.toMillis(firstStepStartNanos - jvmStartNanos) + 
+          " milliseconds from JVM start (" + 
+          TimeUnit.NANOSECONDS.toMillis(firstStepStartNanos - scriptStartNanos) + 
+          " milliseconds after the script was built)");
+  }
+  
+  /**
+   * Reports the summary of the results to {@link #out(String)}.
+   * 
+   * @param summary Summary of the script results
+   */
+  protected void reportSummary(ResultSummary summary) {
+    for (String line : summary.getReportLines(RETURNED_PERCENTILES)) {
+      out(line);
+    }
+  }
+  
   /**
    * Invoked once the script has finished, either in success or failure.  This can overridden if 
    * the default logging behavior wants to be changed.
@@ -116,96 +236,13 @@ public class ScriptRunner extends AbstractScriptFactoryInitializer {
    */
   protected void handleRunFinish(List<ListenableFuture<StepResult>> rawFutures, 
                                  List<StepResult> fails, long runDurationMillis) throws Exception {
-    if (fails.isEmpty()) {
-      out("All steps passed!");
-    } else {
-      Map<String, List<StepResult>> failureCountMap = new HashMap<String, List<StepResult>>();
-      out(fails.size() + " STEPS FAILED!!" + System.lineSeparator());
-      {
-        Iterator<StepResult> it = fails.iterator();
-        StringBuilder sb = new StringBuilder();
-        while (it.hasNext()) {
-          sb.setLength(0);
-          StepResult tr = it.next();
-          Throwable t = tr.getError();
-          while (t != null) {
-            if (sb.length() > 0) {
-              // will have line separator from last loop
-              sb.append("Caused by: ");
-            }
-            
-            sb.append(t.toString()).append(System.lineSeparator());
-            StackTraceElement[] origStack = t.getStackTrace();
-            StackTraceElement[] trimmedStack;
-            if (TRIM_AMBUSH_STACK_AWAY) {
-              String packageStr = ScriptRunner.class.getPackage().getName();
-              int i = 1;
-              for (; i < origStack.length; i++) {
-                if (origStack[i].getClassName().startsWith(packageStr)) {
-                  break;
-                }
-              }
-              trimmedStack = Arrays.copyOf(origStack, i);
-            } else {
-              trimmedStack = origStack;
-            }
-            ExceptionUtils.writeStackTo(trimmedStack, sb);
-            
-            t = t.getCause();
-          }
-          String errorMsg = sb.toString();
-          List<StepResult> currentSteps = failureCountMap.get(errorMsg);
-          if (currentSteps == null) {
-            currentSteps = new ArrayList<StepResult>(1);
-            failureCountMap.put(errorMsg, currentSteps);
-          }
-          currentSteps.add(tr);
-        }
-      }
-      {
-        Iterator<Map.Entry<String, List<StepResult>>> it = failureCountMap.entrySet().iterator();
-        while (it.hasNext()) {
-          Map.Entry<String, List<StepResult>> e = it.next();
-          if (e.getValue().size() > 1) {
-            List<String> descriptions = new ArrayList<String>(e.getValue().size());
-            for (StepResult sr : e.getValue()) {
-              if (! descriptions.contains(sr.getDescription())) {
-                descriptions.add(sr.getDescription());
-              }
-            }
-            out("Error occured " + e.getValue().size() + " times for the following steps:");
-            for (String s : descriptions) {
-              out('\t' + s);
-            }
-            out("All share failure cause:");
-          } else {
-            out("Step " + e.getValue().get(0).getDescription() + " failed due to:");
-          }
-          out(e.getKey() + System.lineSeparator());
-        }
-      }
-    }
-    int totalExecuted = 0;
-    for (ListenableFuture<StepResult> f : rawFutures) {
-      if (! f.isCancelled()) {
-        totalExecuted++;
-      }
+    ResultSummary summary = summarizeResults(rawFutures, runDurationMillis);
+    String summaryFile = getStringValue(SUMMARY_FILE_PARAMETER, null);
+    if (summaryFile != null) {
+      summary.writeTo(new File(summaryFile));
+      out("Result summary written to: " + summaryFile);
     }
-    out("Totals steps executed: " + totalExecuted + " / " + rawFutures.size());
-    out("Test execution time: " + (runDurationMillis / 1000) + " seconds");
-    double averageRunMillis = StepResultCollectionUtils.getRunTimeAverage(rawFutures, TimeUnit.MILLISECONDS);
-    out("Average time spent per step: " + averageRunMillis + " milliseconds");
-    Map<Double, StepResult> percentileResults = StepResultCollectionUtils.getRunTimePercentiles(rawFutures, 
-                                                                                                RETURNED_PERCENTILES);
-    for (Map.Entry<Double, StepResult> e : percentileResults.entrySet()) {
-      if (e.getKey() < 100) {
-        out("Percentile " + e.getKey() + ": " + e.getValue().getRunTime(TimeUnit.MILLISECONDS) + " milliseconds");
-      }
-    }
-    
-    StepResult longestStep = percentileResults.get(RETURNED_PERCENTILES[RETURNED_PERCENTILES.length - 1]);
-    out("Longest running step: " + longestStep.getDescription() + 
-          ", ran for: " + longestStep.getRunTime(TimeUnit.MILLISECONDS) + " milliseconds");
+    reportSummary(summary);
   }
   
   /**
@@ -217,13 +254,83 @@ public class ScriptRunner extends AbstractScriptFactoryInitializer {
    * @throws Exception Thrown if error or interruption while waiting for script
    */
   protected int runScript() throws Exception {
+    script.setCompactResults(getBoolValue(COMPACT_RESULTS_PARAMETER, false));
+    String executor = getStringValue(EXECUTOR_PARAMETER, null);
+    if (executor != null) {
+      script.setExecutorFactory(ScriptExecutors.forName(executor));
+    }
+    script.setGcBeforeStart(getBoolValue(GC_BEFORE_START_PARAMETER, true));
+    FirstStepRecorder firstStepRecorder = new FirstStepRecorder();
+    script.addResultRecorder(firstStepRecorder);
+    // group failures as they occur, rather than describing each failure once the run finishes
+    script.addResultRecorder(failureAggregator);
+    List<Closeable> recorders = new ArrayList<Closeable>(2);
+    String resultLog = getStringValue(RESULT_LOG_PARAMETER, null);
+    if (resultLog != null) {
+      BinaryResultWriter resultWriter = new BinaryResultWriter(new File(resultLog));
+      recorders.add(resultWriter);
+      script.addResultRecorder(resultWriter);
+    }
+    String timelineFile = getStringValue(TIMELINE_PARAMETER, null);
+    if (timelineFile != null) {
+      ThroughputTimeline.OutputFormat format = timelineFile.endsWith(".json") ? 
+          ThroughputTimeline.OutputFormat.JSON : ThroughputTimeline.OutputFormat.CSV;
+      long sliceMillis = getLongValue(TIMELINE_SLICE_MILLIS_PARAMETER, DEFAULT_TIMELINE_SLICE_MILLIS);
+      ThroughputTimeline timeline = 
+          new ThroughputTimeline(new BufferedWriter(new FileWriter(timelineFile)), format, 
+                                 sliceMillis, TimeUnit.MILLISECONDS);
+      recorders.add(timeline);
+      script.addResultRecorder(timeline);
+    }
+    long startNanos = Clock.accurateTimeNanos();
     long start = Clock.accurateForwardProgressingMillis();
-    List<ListenableFuture<StepResult>> futures = script.startScript();
-    List<StepResult> fails = StepResultCollectionUtils.getAllFailedResults(futures);
+    List<ListenableFuture<StepResult>> futures;
+    List<StepResult> fails;
+    try {
+      futures = script.startScript();
+      // single (parallel) pass which waits for completion, and aggregates the results
+      runAggregation = ResultAggregation.aggregate(futures, failureAggregator);
+      aggregatedFutures = futures;
+      fails = runAggregation.getFailedResults();
+    } finally {
+      for (Closeable c : recorders) {
+        c.close();
+      }
+    }
     long end = Clock.accurateForwardProgressingMillis();
+    if (resultLog != null) {
+      out("Step results written to: " + resultLog);
+    }
+    if (timelineFile != null) {
+      out("Throughput timeline written to: " + timelineFile);
+    }
+    reportStartup(startNanos, firstStepRecorder.getFirstStartNanos());
     
     handleRunFinish(futures, fails, end - start);
     
     return fails.size();
   }
+  
+  /**
+   * {@link StepResultRecorder} which tracks the earliest time a step started.
+   */
+  private static class FirstStepRecorder implements StepResultRecorder {
+    private final AtomicLong firstStartNanos = new AtomicLong(Long.MAX_VALUE);
+    
+    @Override
+    public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                             long startNanos, long runTimeNanos, Throwable error) {
+      long current;
+      // steps complete out of order, but after the first few results this will rarely update
+      while (startNanos < (current = firstStartNanos.get())) {
+        if (firstStartNanos.compareAndSet(current, startNanos)) {
+          break;
+        }
+      }
+    }
+    
+    public long getFirstStartNanos() {
+      return firstStartNanos.get();
+    }
+  }
 }
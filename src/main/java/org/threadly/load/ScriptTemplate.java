@@ -0,0 +1,65 @@
+package org.threadly.load;
+
+import org.threadly.load.ExecutableScript.ExecutionItem;
+import org.threadly.util.ArgumentVerifier;
+
+/**
+ * An immutable set of steps which can be added to builders many times.  Unlike 
+ * {@link AbstractScriptBuilder#makeCopy()}, adding a template does not copy the collections and 
+ * step runners of the graph.  Each addition only holds a reference to the shared template, and 
+ * the state needed to run each instance (the future and result slot of each step) is only held 
+ * in the arrays of the {@link ExecutionPlan} the script is built into.  
+ * <p>
+ * Every instance will execute the same {@link ScriptStep} instances, so if added to a parallel 
+ * builder make sure the script steps are thread safe.  Items which do not provide a result (for 
+ * example progress futures or warm ups) report to the same future for every instance, so they 
+ * will only report for the first instance to complete them.  Each instance still runs its own 
+ * warm up.
+ */
+public class ScriptTemplate {
+  protected final ExecutionItem rootItem;
+  protected final int neededThreadCount;
+  protected final int stepCount;
+  
+  /**
+   * Constructs a new template from the steps added to the provided builder.  The builder is 
+   * replaced by the template, so it can not be modified or built after this.
+   * 
+   * @param builder Builder to take the steps from
+   */
+  public ScriptTemplate(AbstractScriptBuilder builder) {
+    ArgumentVerifier.assertNotNull(builder, "builder");
+    builder.replaced();
+    if (! builder.hasSteps()) {
+      throw new IllegalArgumentException("Can not construct template with no steps");
+    }
+    
+    rootItem = builder.getStepAsExecutionItem();
+    neededThreadCount = builder.getMaximumNeededThreadCount();
+    stepCount = rootItem.getFutures().size();
+  }
+  
+  /**
+   * Returns how many threads a single instance of the template needs at it's most parallel 
+   * point.  See {@link AbstractScriptBuilder#getMaximumNeededThreadCount()}.
+   * 
+   * @return Number of threads to run one instance of the template
+   */
+  public int getMaximumNeededThreadCount() {
+    return neededThreadCount;
+  }
+  
+  /**
+   * Returns the number of {@link ScriptStep}'s run by each instance of the template.
+   * 
+   * @return Number of steps in the template
+   */
+  public int getStepCount() {
+    return stepCount;
+  }
+  
+  @Override
+  public String toString() {
+    return "ScriptTemplate:" + stepCount;
+  }
+}
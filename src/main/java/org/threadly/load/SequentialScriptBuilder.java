@@ -1,12 +1,8 @@
 package org.threadly.load;
 
-import java.util.concurrent.ExecutionException;
-
-import org.threadly.concurrent.future.FutureUtils;
-import org.threadly.concurrent.future.ListenableFuture;
 import org.threadly.load.ExecutableScript.ExecutionItem;
 import org.threadly.load.ExecutableScript.ExecutionItem.StepStartHandler;
-import org.threadly.util.ExceptionUtils;
+import org.threadly.util.ArgumentVerifier;
 
 /**
  * A builder which's added steps will all be executed in sequence.  Typically this is constructed 
@@ -122,41 +118,29 @@ public class SequentialScriptBuilder extends AbstractScriptBuilder {
   }
   
   /**
-   * Collection of steps which will all be executed on this thread, one after another.
+   * Adds an instance of a template to be run sequentially.  The template's steps wont be started 
+   * until all previously added steps have completed, and future steps wont be executed till all 
+   * of the template's steps are complete.  The execution graph of the template will be 
+   * maintained.  
+   * <p>
+   * Unlike adding a builder, the template is not consumed, so it can be added again (to this or 
+   * any other builder) without needing to copy it.
+   * 
+   * @param template Template to add an instance of
+   */
+  @Override
+  public void addSteps(ScriptTemplate template) {
+    ArgumentVerifier.assertNotNull(template, "template");
+    verifyValid();
+    maybeUpdatedMaximumThreads(template.getMaximumNeededThreadCount());
+    addStep(new TemplateItem(template));
+  }
+  
+  /**
+   * Collection of steps which will be executed one after another.  This is run by the 
+   * sequence node it is compiled into within an {@link ExecutionPlan}.
    */
   protected static class SequentialStep extends StepCollectionRunner {
-    @Override
-    protected void runItem(ExecutionAssistant assistant) {
-      for (ExecutionItem chainItem : getSteps()) {
-        if (chainItem.manipulatesExecutionAssistant()) {
-          assistant = assistant.makeCopy();
-        }
-        ListenableFuture<?> f = assistant.executeIfStillRunning(chainItem, false);
-        f.listener(new ExecutionItemCompletionRunner(chainItem));
-        // block till execution is done (and also allow thread to do execution)
-        try {
-          f.get();
-        } catch (InterruptedException e) {
-          // reset status and let thread exit
-          Thread.currentThread().interrupt();
-          return;
-        } catch (ExecutionException e) {
-          throw ExceptionUtils.makeRuntime(e.getCause());
-        }
-        // block till all child executions finish, thus making us wait to run the next chain item
-        try {
-          if (StepResultCollectionUtils.getFailedResult(chainItem.getFutures()) != null) {
-            // failure occurred, cancel other steps
-            FutureUtils.cancelIncompleteFutures(getFutures(), true);
-            return;
-          }
-        } catch (InterruptedException e) {
-          // let thread exit
-          return;
-        }
-      }
-    }
-    
     @Override
     public SequentialStep makeCopy() {
       SequentialStep result = new SequentialStep();
@@ -171,7 +155,7 @@ public class SequentialScriptBuilder extends AbstractScriptBuilder {
 
     @Override
     public ChildItems getChildItems() {
-      return new ChildItemContainer(getSteps(), true);
+      return getChildItems(true);
     }
   }
 }
@@ -2,12 +2,11 @@ package org.threadly.load;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -17,6 +16,15 @@ import java.util.concurrent.TimeUnit;
  * Some utilities for when dealing with a collection of {@link StepResult}'s.  One of the most 
  * notable is {@link #getFailedResult(Collection)} which is an easy way to know if a set of test 
  * steps completed without error.
+ * <p>
+ * Futures which provide a {@code null} result (as done when 
+ * {@link ExecutableScript#setCompactResults(boolean)} is enabled) are considered to have passed, 
+ * but are excluded from any run time statistics.  {@link CompactStepResults} should be used for 
+ * those statistics instead.
+ * <p>
+ * Each of these functions inspects every future.  If several statistics are needed from a large 
+ * number of futures, {@link ResultAggregation} will produce them together in a single parallel 
+ * pass.
  */
 public class StepResultCollectionUtils {
   /**
@@ -32,24 +40,52 @@ public class StepResultCollectionUtils {
    */
   public static StepResult getFailedResult(Collection<? extends Future<? extends StepResult>> futures) 
       throws InterruptedException {
-    Iterator<? extends Future<? extends StepResult>> it = futures.iterator();
-    while (it.hasNext()) {
-      try {
-        StepResult tr = it.next().get();
-        if (tr.getError() != null) {
+    if (futures instanceof List && futures instanceof RandomAccess) {
+      // indexed to avoid constructing an iterator, this is invoked after every sequential step
+      List<? extends Future<? extends StepResult>> futureList = 
+          (List<? extends Future<? extends StepResult>>)futures;
+      for (int i = 0; i < futureList.size(); i++) {
+        StepResult tr = getResultIfFailed(futureList.get(i));
+        if (tr != null) {
+          return tr;
+        }
+      }
+    } else {
+      Iterator<? extends Future<? extends StepResult>> it = futures.iterator();
+      while (it.hasNext()) {
+        StepResult tr = getResultIfFailed(it.next());
+        if (tr != null) {
           return tr;
         }
-      } catch (CancellationException e) {
-        // likely was canceled already from another thread
-      } catch (ExecutionException e) {
-        // should not be possible
-        throw new RuntimeException(e);
       }
     }
     
     return null;
   }
   
+  /**
+   * Blocks until the future completes, returning its result only if it is a failure.
+   * 
+   * @param future Future to inspect
+   * @return The failed result, or {@code null} if it passed or was canceled
+   * @throws InterruptedException Thrown if the thread is interrupted while waiting
+   */
+  protected static StepResult getResultIfFailed(Future<? extends StepResult> future)
+      throws InterruptedException {
+    try {
+      StepResult tr = future.get();
+      if (tr != null && tr.getError() != null) {
+        return tr;
+      }
+    } catch (CancellationException e) {
+      // likely was canceled already from another thread
+    } catch (ExecutionException e) {
+      // should not be possible
+      throw new RuntimeException(e);
+    }
+    return null;
+  }
+  
   /**
    * Looks through collection of futures looking for any {@link StepResult}'s that are in a failure 
    * state.  Unlike {@link #getFailedResult(Collection)}, which stops searching after it finds the 
@@ -67,7 +103,7 @@ public class StepResultCollectionUtils {
     while (it.hasNext()) {
       try {
         StepResult tr = it.next().get();
-        if (tr.getError() != null) {
+        if (tr != null && tr.getError() != null) {
           result.add(tr);
         }
       } catch (CancellationException e) {
@@ -100,7 +136,7 @@ public class StepResultCollectionUtils {
     while (it.hasNext()) {
       try {
         StepResult tr = it.next().get();
-        if (tr.wasMaintanceStep()) {
+        if (tr == null || tr.wasMaintanceStep()) {
           continue;
         }
         count++;
@@ -117,30 +153,56 @@ public class StepResultCollectionUtils {
   }
   
   /**
-   * Sort through results to get step run time percentiles.
+   * Get step run time percentiles.  This is a convenience for 
+   * {@link #calculateRunTimePercentiles(Collection, double...)}, providing the results in a map.
    * 
    * @param futures Future collection to iterate over and inspect
    * @param percentiles Percentile points requested, must be provided, must be between 0 and 100 (inclusive)
    * @return Map which key maps to percentile, and value maps to the result
    * @throws InterruptedException Thrown if thread is interrupted while waiting for results to complete
    */
-  // TODO - map can be confusing if trying to retrieve from int/long...better structure?
   public static Map<Double, StepResult> 
       getRunTimePercentiles(Collection<? extends Future<? extends StepResult>> futures, 
                             double ... percentiles) throws InterruptedException {
-    if (percentiles.length == 0) {
-      throw new IllegalArgumentException("No percentiles requested");
+    RunTimePercentiles runTimePercentiles = calculateRunTimePercentiles(futures, percentiles);
+    if (runTimePercentiles.getValueCount() == 0) {
+      throw new IndexOutOfBoundsException("No step results to inspect");
+    }
+    Map<Double, StepResult> result = new LinkedHashMap<Double, StepResult>();
+    for (int i = 0; i < runTimePercentiles.size(); i++) {
+      result.put(runTimePercentiles.getPercentile(i), runTimePercentiles.getResult(i));
     }
+    return result;
+  }
     
-    List<StepResult> runTimes = new ArrayList<StepResult>(futures.size());
+  /**
+   * Find the step run time percentiles.  Run times are compared with nanosecond precision, and 
+   * all percentiles are found with a single selection pass rather than sorting the results.  The 
+   * {@link StepResult} at each percentile is available from the returned instance.
+   * 
+   * @param futures Future collection to iterate over and inspect
+   * @param percentiles Percentile points requested, must be provided, must be between 0 and 100 (inclusive)
+   * @return Run times and results at each requested percentile
+   * @throws InterruptedException Thrown if thread is interrupted while waiting for results to complete
+   */
+  public static RunTimePercentiles
+      calculateRunTimePercentiles(Collection<? extends Future<? extends StepResult>> futures, 
+                                  double ... percentiles) throws InterruptedException {
+    StepResult[] results = new StepResult[futures.size()];
+    long[] runTimes = new long[futures.size()];
+    int[] tags = new int[futures.size()];
+    int count = 0;
     Iterator<? extends Future<? extends StepResult>> it = futures.iterator();
     while (it.hasNext()) {
       try {
         StepResult sr = it.next().get();
-        if (sr.wasMaintanceStep()) {
+        if (sr == null || sr.wasMaintanceStep()) {
           continue;
         }
-        runTimes.add(sr);
+        results[count] = sr;
+        runTimes[count] = sr.getRunTime(TimeUnit.NANOSECONDS);
+        tags[count] = count;
+        count++;
       } catch (CancellationException e) {
         // possible if canceled after a failure event
       } catch (ExecutionException e) {
@@ -149,27 +211,16 @@ public class StepResultCollectionUtils {
       }
     }
     
-    Collections.sort(runTimes, new Comparator<StepResult>() {
-      @Override
-      public int compare(StepResult sr1, StepResult sr2) {
-        return (int)(sr1.getRunTime(TimeUnit.MILLISECONDS) - sr2.getRunTime(TimeUnit.MILLISECONDS));
-      }
-    });
-    
-    Map<Double, StepResult> result = new LinkedHashMap<Double, StepResult>();
-    for (double p : percentiles) {
-      if (p > 100 || p < 0) {
-        throw new IllegalArgumentException("Percentile not in range of 0 to 100: " + p);
-      }
-      
-      int index;
-      if (p == 100) {
-        index = runTimes.size() - 1;
-      } else {
-        index = (int)((p / 100.) * runTimes.size());
-      }
-      result.put(p, runTimes.get(index));
+    int[] resultTags = new int[percentiles.length];
+    RunTimePercentiles result = 
+        RunTimePercentiles.select(runTimes, tags, count, percentiles, resultTags);
+    if (count == 0) {
+      return result;
     }
-    return result;
+    StepResult[] percentileResults = new StepResult[percentiles.length];
+    for (int i = 0; i < resultTags.length; i++) {
+      percentileResults[i] = results[resultTags[i]];
+    }
+    return result.withResults(percentileResults);
   }
 }
@@ -0,0 +1,28 @@
+package org.threadly.load;
+
+/**
+ * Interface for receiving the results of each step as it completes.  This allows results to be 
+ * consumed incrementally (for example written to disk), rather than needing to hold every 
+ * {@link StepResult} until the script finishes.  Recorders are added to a script with 
+ * {@link ExecutableScript#addResultRecorder(StepResultRecorder)}.  
+ * <p>
+ * This will be invoked on the thread which executed the step, and before the step's future 
+ * completes.  So implementations must be thread safe, and should be quick to avoid impacting 
+ * script execution.
+ */
+public interface StepResultRecorder {
+  /**
+   * Invoked once a step has finished executing.  If the step is of the type 
+   * {@link ScriptStepType#Maintenance} or {@link ScriptStepType#AsyncMaintenance} the run time 
+   * will always be zero.
+   * 
+   * @param identifier Identifier of the step which was executed
+   * @param stepType Type of the step which was executed
+   * @param startNanos Time the step started, as provided by 
+   *                     {@link org.threadly.util.Clock#accurateTimeNanos()}
+   * @param runTimeNanos Time in nanoseconds the step ran for
+   * @param error Error thrown from the step, or {@code null} if the step completed normally
+   */
+  public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                           long startNanos, long runTimeNanos, Throwable error);
+}
@@ -0,0 +1,256 @@
+package org.threadly.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.threadly.util.ArgumentVerifier;
+import org.threadly.util.Clock;
+
+/**
+ * {@link StepResultRecorder} which buckets step completions, errors, and run times into fixed 
+ * time slices (for example one second).  This allows warm up, GC pauses, or degradation during 
+ * the run to be observed, which are otherwise hidden by the overall averages.  
+ * <p>
+ * Results are counted into a small ring of atomic counters, so recording is lock free.  Once a 
+ * slice is complete it is drained from the ring and written to the provided {@link Writer} as 
+ * either CSV or JSON.  This means memory usage is constant no matter how long the script runs.  
+ * Draining is done by the first step to complete in a new slice, so output is delayed by up to 
+ * two slices.  The remaining slices are written on {@link #close()}.  
+ * <p>
+ * Steps are counted into the slice in which they completed.  Only {@link ScriptStepType#Normal} 
+ * steps are included in the completion count and run times, but errors from any step type will 
+ * be counted.
+ */
+public class ThroughputTimeline implements StepResultRecorder, Closeable {
+  private static final int RING_SIZE = 8;  // must be larger than the 2 undrained slices
+  private static final int FIELD_COUNT = 4;
+  private static final int COMPLETIONS_FIELD = 0;
+  private static final int ERRORS_FIELD = 1;
+  private static final int RUN_TIME_TOTAL_FIELD = 2;
+  private static final int RUN_TIME_MAX_FIELD = 3;
+  private static final long DRAINING_SLICE = -1;
+  
+  protected final long startNanos;
+  protected final long startMillis;
+  private final Writer out;
+  private final OutputFormat format;
+  private final long sliceNanos;
+  private final AtomicLongArray ring;
+  private final AtomicLongArray slotSlices;  // slice each slot is currently recording for
+  private final AtomicLongArray slotRecorders;  // threads currently recording into each slot
+  private volatile long currentSlice;
+  private volatile boolean closed;
+  private volatile IOException writeFailure;
+  private long nextDrainSlice;  // guarded by this
+  private boolean firstSliceWritten;  // guarded by this
+  
+  /**
+   * Constructs a new timeline which will start with the current time.  The header of the output 
+   * will be written immediately.  The writer will be closed when this timeline is closed.
+   * 
+   * @param out Writer to output the timeline to, should typically be buffered
+   * @param format Format to write the timeline in
+   * @param sliceDuration Duration of each slice in the timeline
+   * @param unit Time unit for the provided slice duration
+   * @throws IOException Thrown if the header could not be written
+   */
+  public ThroughputTimeline(Writer out, OutputFormat format, 
+                            long sliceDuration, TimeUnit unit) throws IOException {
+    ArgumentVerifier.assertNotNull(out, "out");
+    ArgumentVerifier.assertNotNull(format, "format");
+    ArgumentVerifier.assertGreaterThanZero(sliceDuration, "sliceDuration");
+    
+    this.startNanos = Clock.accurateTimeNanos();
+    this.startMillis = Clock.accurateTimeMillis();
+    this.out = out;
+    this.format = format;
+    this.sliceNanos = unit.toNanos(sliceDuration);
+    ring = new AtomicLongArray(RING_SIZE * FIELD_COUNT);
+    slotSlices = new AtomicLongArray(RING_SIZE);
+    for (int i = 0; i < RING_SIZE; i++) {
+      slotSlices.set(i, i);
+    }
+    slotRecorders = new AtomicLongArray(RING_SIZE);
+    currentSlice = 0;
+    closed = false;
+    writeFailure = null;
+    nextDrainSlice = 0;
+    firstSliceWritten = false;
+    
+    if (format == OutputFormat.CSV) {
+      out.write("timeMillis,completions,errors,averageRunTimeMillis,maxRunTimeMillis");
+      out.write(System.lineSeparator());
+    } else {
+      out.write('[');
+    }
+  }
+  
+  @Override
+  public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                           long startNanos, long runTimeNanos, Throwable error) {
+    long completedSlice = Math.max(0, (startNanos + runTimeNanos - this.startNanos) / sliceNanos);
+    while (! closed) {
+      long slice = completedSlice;
+      long currentSlice = this.currentSlice;
+      if (slice > currentSlice) {
+        advance(slice);
+      } else if (slice < currentSlice - 1) {
+        // very late, previous slice has already been drained, so count into the oldest available
+        slice = currentSlice - 1;
+      }
+      
+      int slot = (int)(slice % RING_SIZE);
+      slotRecorders.incrementAndGet(slot);
+      try {
+        /* The drain marks the slot before waiting for recorders to finish, so if the slot still 
+         * belongs to our slice the drain will see everything we record into it.
+         */
+        if (slotSlices.get(slot) == slice) {
+          record(slot * FIELD_COUNT, stepType, runTimeNanos, error);
+          return;
+        }
+      } finally {
+        slotRecorders.decrementAndGet(slot);
+      }
+      // slice was drained after we read the current slice, retry with the new current slice
+    }
+  }
+    
+  private void record(int offset, ScriptStepType stepType, long runTimeNanos, Throwable error) {
+    if (stepType == ScriptStepType.Normal) {
+      ring.incrementAndGet(offset + COMPLETIONS_FIELD);
+      ring.addAndGet(offset + RUN_TIME_TOTAL_FIELD, runTimeNanos);
+      long max;
+      while ((max = ring.get(offset + RUN_TIME_MAX_FIELD)) < runTimeNanos && 
+             ! ring.compareAndSet(offset + RUN_TIME_MAX_FIELD, max, runTimeNanos)) {
+        // retry
+      }
+    }
+    if (error != null) {
+      ring.incrementAndGet(offset + ERRORS_FIELD);
+    }
+  }
+  
+  /**
+   * Move the current slice forward, draining any slices which are two or more slices old.  The 
+   * previous slice is not drained so that steps which are just finishing recording in it will 
+   * still be counted.
+   * 
+   * @param slice New current slice
+   */
+  private synchronized void advance(long slice) {
+    if (slice <= currentSlice || closed) {
+      return;
+    }
+    drainThrough(slice - 2);
+    // must be set after draining so that only this thread can record into reset slots
+    currentSlice = slice;
+  }
+  
+  /**
+   * Drain all slices up to and including the provided slice.  Each slot is marked as draining 
+   * before it is read, then once threads which are still recording into it have finished it is 
+   * reset and handed to the slice which will next use it.  Must be invoked while holding the 
+   * {@code this} lock.
+   * 
+   * @param lastSlice Last slice to drain
+   */
+  private void drainThrough(long lastSlice) {
+    if (nextDrainSlice > lastSlice) {
+      return;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (; nextDrainSlice <= lastSlice; nextDrainSlice++) {
+      int slot = (int)(nextDrainSlice % RING_SIZE);
+      int offset = slot * FIELD_COUNT;
+      slotSlices.set(slot, DRAINING_SLICE);
+      while (slotRecorders.get(slot) != 0) {
+        // recorders only do a few atomic operations while counted, so this wait is short
+        Thread.yield();
+      }
+      long completions = ring.getAndSet(offset + COMPLETIONS_FIELD, 0);
+      long errors = ring.getAndSet(offset + ERRORS_FIELD, 0);
+      long runTimeTotal = ring.getAndSet(offset + RUN_TIME_TOTAL_FIELD, 0);
+      long runTimeMax = ring.getAndSet(offset + RUN_TIME_MAX_FIELD, 0);
+      slotSlices.set(slot, nextDrainSlice + RING_SIZE);
+      double averageMillis = completions == 0 ? 
+          0 : ((double)runTimeTotal / completions) / TimeUnit.MILLISECONDS.toNanos(1);
+      long timeMillis = startMillis + TimeUnit.NANOSECONDS.toMillis(nextDrainSlice * sliceNanos);
+      if (format == OutputFormat.CSV) {
+        sb.append(timeMillis).append(',').append(completions).append(',').append(errors)
+          .append(',').append(averageMillis).append(',')
+          .append(TimeUnit.NANOSECONDS.toMillis(runTimeMax)).append(System.lineSeparator());
+      } else {
+        if (firstSliceWritten) {
+          sb.append(',');
+        }
+        sb.append(System.lineSeparator())
+          .append("  {\"timeMillis\": ").append(timeMillis)
+          .append(", \"completions\": ").append(completions)
+          .append(", \"errors\": ").append(errors)
+          .append(", \"averageRunTimeMillis\": ").append(averageMillis)
+          .append(", \"maxRunTimeMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(runTimeMax))
+          .append('}');
+      }
+      firstSliceWritten = true;
+    }
+    if (writeFailure != null) {
+      return;
+    }
+    try {
+      out.write(sb.toString());
+      out.flush();
+    } catch (IOException e) {
+      writeFailure = e;
+    }
+  }
+  
+  /**
+   * Writes out all remaining slices (including the current one) and closes the writer.  Any 
+   * results provided after this call will be ignored.
+   * 
+   * @throws IOException Thrown if any write failed, or if the writer could not be closed
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      long nowSlice = (Clock.accurateTimeNanos() - startNanos) / sliceNanos;
+      drainThrough(Math.max(currentSlice, nowSlice));
+      if (writeFailure == null && format == OutputFormat.JSON) {
+        try {
+          out.write(System.lineSeparator() + ']' + System.lineSeparator());
+        } catch (IOException e) {
+          writeFailure = e;
+        }
+      }
+    }
+    try {
+      out.close();
+    } finally {
+      if (writeFailure != null) {
+        throw writeFailure;
+      }
+    }
+  }
+  
+  /**
+   * Formats which the timeline can be written in.
+   */
+  public enum OutputFormat {
+    /**
+     * Comma separated values with a header line, one line per slice.
+     */
+    CSV, 
+    /**
+     * A JSON array containing one object per slice.
+     */
+    JSON;
+  }
+}
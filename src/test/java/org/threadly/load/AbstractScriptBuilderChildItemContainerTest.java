@@ -34,4 +34,24 @@ public class AbstractScriptBuilderChildItemContainerTest {
     assertFalse(ChildItemContainer.EMPTY_CHILD_ITEMS_CONTAINER.iterator().hasNext());
     assertTrue(new ChildItemContainer(new ExecutionItem[1], false).iterator().hasNext());
   }
+  
+  @Test
+  public void getChildTest() {
+    ExecutionItem item = new AbstractScriptBuilder.ScriptStepRunner(new TestStep());
+    ChildItemContainer cic = new ChildItemContainer(new ExecutionItem[] { item }, true);
+    assertEquals(0, ChildItemContainer.EMPTY_CHILD_ITEMS_CONTAINER.getChildCount());
+    assertEquals(1, cic.getChildCount());
+    assertTrue(cic.getChild(0) == item);
+  }
+  
+  @Test
+  public void getChildItemsCachedTest() {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep());
+    ExecutionItem item = builder.getStepAsExecutionItem();
+    assertTrue(item.getChildItems() == item.getChildItems());
+    
+    builder.addStep(new TestStep());
+    assertEquals(2, item.getChildItems().getChildCount());
+  }
 }
@@ -2,8 +2,10 @@ package org.threadly.load;
 
 import static org.junit.Assert.*;
 
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.threadly.concurrent.future.FutureCallback;
@@ -57,4 +59,123 @@ public class AbstractScriptBuilderTest {
     });
     av.waitForTest();
   }
+  
+  @Test
+  public void addWarmUpIterationsTest() throws InterruptedException, ExecutionException {
+    TestStep warmUpStep = new TestStep("warmUp");
+    SequentialScriptBuilder warmUpBuilder = new SequentialScriptBuilder();
+    warmUpBuilder.addStep(warmUpStep);
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    ListenableFuture<ResultSummary> warmUpFuture = builder.addWarmUp(warmUpBuilder, 10, 0, 0);
+    TestStep step = new TestStep("main");
+    builder.addStep(step);
+    ExecutableScript script = builder.build();
+    final AtomicInteger recordedCount = new AtomicInteger(0);
+    script.addResultRecorder(new StepResultRecorder() {
+      @Override
+      public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                               long startNanos, long runTimeNanos, Throwable error) {
+        recordedCount.incrementAndGet();
+      }
+    });
+    
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+    
+    assertEquals(1, futures.size());
+    assertEquals(1, recordedCount.get());
+    assertEquals(1, step.getRunCount());
+    assertEquals(10, warmUpStep.getRunCount());
+    ResultSummary summary = warmUpFuture.get();
+    assertEquals(10, summary.getStepCount());
+    assertEquals(10, summary.getExecutedCount());
+    assertEquals(0, summary.getFailureCount());
+    assertEquals(10, summary.getIdentifierSummaries().get("warmUp").getCount());
+  }
+  
+  @Test
+  public void addWarmUpDurationTest() throws InterruptedException, ExecutionException {
+    int durationMillis = 100;
+    SequentialScriptBuilder warmUpBuilder = new SequentialScriptBuilder();
+    warmUpBuilder.addStep(new TestStep("warmUp", 10));
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    ListenableFuture<ResultSummary> warmUpFuture = 
+        builder.addWarmUp(warmUpBuilder, 0, durationMillis, 0);
+    builder.addStep(new TestStep());
+    
+    long start = Clock.accurateForwardProgressingMillis();
+    assertNull(StepResultCollectionUtils.getFailedResult(builder.build().startScript()));
+    long end = Clock.accurateForwardProgressingMillis();
+    
+    assertTrue(end - start >= durationMillis);
+    ResultSummary summary = warmUpFuture.get();
+    assertTrue(summary.getRunDurationMillis() >= durationMillis);
+    assertTrue(summary.getExecutedCount() > 1);
+  }
+  
+  @Test
+  public void addWarmUpRateLimitedTest() throws InterruptedException, ExecutionException {
+    int testSteps = 5;
+    SequentialScriptBuilder warmUpBuilder = new SequentialScriptBuilder();
+    warmUpBuilder.addStep(new TestStep());
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addWarmUp(warmUpBuilder, testSteps + 1, 0, testSteps * 10);
+    for (int i = 0; i < 100; i++) {
+      builder.addStep(new TestStep());
+    }
+    
+    long start = Clock.accurateForwardProgressingMillis();
+    assertNull(StepResultCollectionUtils.getFailedResult(builder.build().startScript()));
+    long end = Clock.accurateForwardProgressingMillis();
+    
+    // warm up is limited, the main steps after it are not
+    assertTrue(end - start >= 100);
+    assertTrue(end - start < 2000);
+  }
+  
+  @Test
+  public void addWarmUpRateNotReportedTest() throws InterruptedException, ExecutionException {
+    SequentialScriptBuilder warmUpBuilder = new SequentialScriptBuilder();
+    warmUpBuilder.addStep(new TestStep());
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addWarmUp(warmUpBuilder, 2, 0, 1000);
+    builder.addStep(new TestStep());
+    
+    ScriptControl control = builder.build().startScriptWithControl();
+    assertNull(control.getCompletionFuture().get());
+    
+    // the warm up rate is not the rate of the script
+    assertEquals(0, control.getCurrentStepPerSecondLimit(), 0);
+  }
+  
+  @Test
+  public void addWarmUpFailureTest() throws InterruptedException, ExecutionException {
+    SequentialScriptBuilder warmUpBuilder = new SequentialScriptBuilder();
+    warmUpBuilder.addStep(new FailureTestStep());
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    ListenableFuture<ResultSummary> warmUpFuture = builder.addWarmUp(warmUpBuilder, 10, 0, 0);
+    TestStep step = new TestStep();
+    builder.addStep(step);
+    
+    List<ListenableFuture<StepResult>> futures = builder.build().startScript();
+    // main step is canceled, warm up failure is only reported through its own summary
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+    assertTrue(futures.get(0).isCancelled());
+    assertEquals(0, step.getRunCount());
+    ResultSummary summary = warmUpFuture.get();
+    assertEquals(1, summary.getExecutedCount());
+    assertEquals(1, summary.getFailureCount());
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void addWarmUpNoLimitFail() {
+    SequentialScriptBuilder warmUpBuilder = new SequentialScriptBuilder();
+    warmUpBuilder.addStep(new TestStep());
+    new SequentialScriptBuilder().addWarmUp(warmUpBuilder, 0, 0, 0);
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void addWarmUpNoStepsFail() {
+    new SequentialScriptBuilder().addWarmUp(new SequentialScriptBuilder(), 1, 0, 0);
+  }
 }
@@ -24,6 +24,22 @@ public class AmbushTestUtils {
     return result;
   }
   
+  public static ExecutableScript makeScript(ScriptStep firstStep, 
+                                            ScriptStep parallelStep, int parallelCount) {
+    return makeScriptBuilder(firstStep, parallelStep, parallelCount).build();
+  }
+  
+  public static SequentialScriptBuilder makeScriptBuilder(ScriptStep firstStep, 
+                                                          ScriptStep parallelStep, 
+                                                          int parallelCount) {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(firstStep);
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addStep(parallelStep, parallelCount);
+    builder.addSteps(pBuilder);
+    return builder;
+  }
+  
   public static void addSteps(List<TestStep> steps, AbstractScriptBuilder builder) {
     Iterator<TestStep> it = steps.iterator();
     while (it.hasNext()) {
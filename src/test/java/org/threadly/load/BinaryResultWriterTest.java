@@ -0,0 +1,180 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.threadly.concurrent.future.FutureUtils;
+
+@SuppressWarnings("javadoc")
+public class BinaryResultWriterTest {
+  private File resultFile;
+  
+  @Before
+  public void setup() throws IOException {
+    resultFile = File.createTempFile("ambushResults", ".bin");
+  }
+  
+  @After
+  public void cleanup() {
+    BinaryResultWriter.getSymbolFile(resultFile).delete();
+    resultFile.delete();
+    resultFile = null;
+  }
+  
+  private static List<long[]> readAll(BinaryResultReader reader) throws IOException {
+    final List<long[]> result = new ArrayList<long[]>();
+    reader.readRecords(new BinaryResultReader.RecordHandler() {
+      @Override
+      public void handleRecord(int identifierId, long startNanos, long runTimeNanos, 
+                               byte status, int errorId) {
+        result.add(new long[] { identifierId, startNanos, runTimeNanos, status, errorId });
+      }
+    });
+    return result;
+  }
+  
+  @Test
+  public void writeAndReadTest() throws IOException {
+    BinaryResultWriter writer = new BinaryResultWriter(resultFile);
+    writer.recordResult("foo", ScriptStepType.Normal, 10, 20, null);
+    writer.recordResult(new LightCharSequence("bar".toCharArray()), 
+                        ScriptStepType.Normal, 30, 40, new IllegalStateException());
+    writer.recordResult("foo", ScriptStepType.Maintenance, 50, 0, null);
+    writer.recordResult("bar", ScriptStepType.AsyncMaintenance, 60, 0, new IllegalStateException());
+    writer.close();
+    
+    BinaryResultReader reader = new BinaryResultReader(resultFile);
+    assertEquals(4, reader.getRecordCount());
+    assertEquals(2, reader.getIdentifierCount());
+    List<long[]> records = readAll(reader);
+    assertEquals(4, records.size());
+    
+    assertEquals("foo", reader.getIdentifier((int)records.get(0)[0]));
+    assertEquals(10, records.get(0)[1]);
+    assertEquals(20, records.get(0)[2]);
+    assertEquals(BinaryResultWriter.STATUS_PASS, records.get(0)[3]);
+    assertEquals(BinaryResultWriter.NO_ERROR_ID, records.get(0)[4]);
+    
+    assertEquals("bar", reader.getIdentifier((int)records.get(1)[0]));
+    assertEquals(BinaryResultWriter.STATUS_ERROR, records.get(1)[3]);
+    assertEquals(IllegalStateException.class.getName(), reader.getError((int)records.get(1)[4]));
+    
+    assertEquals(records.get(0)[0], records.get(2)[0]);
+    assertEquals(BinaryResultWriter.STATUS_MAINTENANCE_PASS, records.get(2)[3]);
+    
+    assertEquals(records.get(1)[0], records.get(3)[0]);
+    assertEquals(BinaryResultWriter.STATUS_MAINTENANCE_ERROR, records.get(3)[3]);
+    assertEquals(records.get(1)[4], records.get(3)[4]);
+  }
+  
+  @Test
+  public void manyRecordsTest() throws IOException {
+    int recordCount = 100000;  // larger than the write and read buffers
+    BinaryResultWriter writer = new BinaryResultWriter(resultFile);
+    for (int i = 0; i < recordCount; i++) {
+      writer.recordResult("foo", ScriptStepType.Normal, i, i, null);
+    }
+    writer.close();
+    
+    BinaryResultReader reader = new BinaryResultReader(resultFile);
+    assertEquals(recordCount, reader.getRecordCount());
+    List<long[]> records = readAll(reader);
+    assertEquals(recordCount, records.size());
+    for (int i = 0; i < recordCount; i++) {
+      assertEquals(i, records.get(i)[1]);
+    }
+  }
+  
+  @Test
+  public void resultsAfterCloseIgnoredTest() throws IOException {
+    BinaryResultWriter writer = new BinaryResultWriter(resultFile);
+    writer.close();
+    writer.recordResult("foo", ScriptStepType.Normal, 10, 20, null);
+    
+    assertEquals(0, new BinaryResultReader(resultFile).getRecordCount());
+  }
+  
+  @Test
+  public void scriptResultsRecordedTest() throws Exception {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep("pass"));
+    builder.addStep(new FailureTestStep("fail", 0));
+    ExecutableScript script = builder.build();
+    BinaryResultWriter writer = new BinaryResultWriter(resultFile);
+    script.addResultRecorder(writer);
+    FutureUtils.blockTillAllComplete(script.startScript());
+    writer.close();
+    
+    BinaryResultReader reader = new BinaryResultReader(resultFile);
+    List<long[]> records = readAll(reader);
+    assertEquals(2, records.size());
+    assertEquals("pass", reader.getIdentifier((int)records.get(0)[0]));
+    assertEquals(BinaryResultWriter.STATUS_PASS, records.get(0)[3]);
+    assertEquals("fail", reader.getIdentifier((int)records.get(1)[0]));
+    assertEquals(BinaryResultWriter.STATUS_ERROR, records.get(1)[3]);
+    
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    reader.printReport(new PrintStream(report));
+    assertTrue(report.toString().contains("Failed steps: 1"));
+  }
+  
+  @Test
+  public void unknownStatusTest() throws IOException {
+    BinaryResultWriter writer = new BinaryResultWriter(resultFile);
+    writer.recordResult("foo", ScriptStepType.Normal, 10, 20, null);
+    writer.recordResult("foo", ScriptStepType.Normal, 30, 40, null);
+    writer.close();
+    // corrupt the status of the second record
+    RandomAccessFile raf = new RandomAccessFile(resultFile, "rw");
+    try {
+      raf.seek(BinaryResultWriter.HEADER_SIZE + BinaryResultWriter.RECORD_SIZE + 4 + 8 + 8);
+      raf.writeByte(42);
+    } finally {
+      raf.close();
+    }
+    
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    new BinaryResultReader(resultFile).printReport(new PrintStream(report));
+    assertTrue(report.toString().contains("Steps recorded: 1"));
+    assertTrue(report.toString().contains("Records with unknown status 42: 1"));
+  }
+  
+  @Test
+  public void missingSymbolsTest() throws IOException {
+    BinaryResultWriter writer = new BinaryResultWriter(resultFile);
+    writer.recordResult("foo", ScriptStepType.Normal, 10, 20, new IllegalStateException());
+    writer.close();
+    // simulate the writer exiting before the symbols were flushed
+    DataOutputStream symbolOut = 
+        new DataOutputStream(new FileOutputStream(BinaryResultWriter.getSymbolFile(resultFile)));
+    try {
+      symbolOut.writeInt(BinaryResultWriter.SYMBOL_FILE_MAGIC);
+      symbolOut.writeInt(BinaryResultWriter.FORMAT_VERSION);
+      symbolOut.writeByte(BinaryResultWriter.SYMBOL_TYPE_IDENTIFIER);  // partial symbol
+    } finally {
+      symbolOut.close();
+    }
+    
+    BinaryResultReader reader = new BinaryResultReader(resultFile);
+    assertEquals(0, reader.getIdentifierCount());
+    assertEquals("<unknown id 0>", reader.getIdentifier(0));
+    assertEquals("<unknown id 0>", reader.getError(0));
+    
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    reader.printReport(new PrintStream(report));
+    assertTrue(report.toString().contains("<unknown id 0> occurred 1 times"));
+    assertTrue(report.toString().contains("Longest running step: <unknown id 0>"));
+  }
+}
@@ -0,0 +1,86 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class CharSequenceChainTest {
+  private static final String[] SEGMENTS = new String[] { "foo", "", "bar", "b", "bazz" };
+  private static final String FULL_STRING = "foobarbbazz";
+  
+  private static CharSequenceChain makeChain() {
+    return new CharSequenceChain(SEGMENTS[0], 
+                                 new LightCharSequence(SEGMENTS[1].toCharArray()), 
+                                 new CharSequenceChain(SEGMENTS[2], SEGMENTS[3]), 
+                                 new StringBuilder(SEGMENTS[4]));
+  }
+  
+  @Test
+  public void lengthTest() {
+    assertEquals(FULL_STRING.length(), makeChain().length());
+    assertEquals(0, new CharSequenceChain().length());
+  }
+  
+  @Test
+  public void charAtTest() {
+    CharSequenceChain chain = makeChain();
+    for (int i = 0; i < FULL_STRING.length(); i++) {
+      assertEquals(FULL_STRING.charAt(i), chain.charAt(i));
+    }
+  }
+  
+  @Test (expected = IndexOutOfBoundsException.class)
+  public void charAtOutOfBoundsFail() {
+    makeChain().charAt(FULL_STRING.length());
+  }
+  
+  @Test
+  public void subSequenceTest() {
+    CharSequenceChain chain = makeChain();
+    for (int start = 0; start <= FULL_STRING.length(); start++) {
+      for (int end = start; end <= FULL_STRING.length(); end++) {
+        assertEquals(FULL_STRING.substring(start, end), chain.subSequence(start, end).toString());
+      }
+    }
+  }
+  
+  @Test (expected = IndexOutOfBoundsException.class)
+  public void subSequenceOutOfBoundsFail() {
+    makeChain().subSequence(2, FULL_STRING.length() + 1);
+  }
+  
+  @Test
+  public void toStringTest() {
+    CharSequenceChain chain = makeChain();
+    String result = chain.toString();
+    
+    assertEquals(FULL_STRING, result);
+    assertTrue(result == chain.toString());
+  }
+  
+  @Test
+  public void hashCodeTest() {
+    assertEquals(FULL_STRING.hashCode(), makeChain().hashCode());
+  }
+  
+  @Test
+  public void equalsTest() {
+    CharSequenceChain chain = makeChain();
+    
+    assertTrue(chain.equals(FULL_STRING));
+    assertTrue(chain.equals(makeChain()));
+    assertTrue(chain.equals(new LightCharSequence(FULL_STRING.toCharArray())));
+    assertFalse(chain.equals(FULL_STRING + "a"));
+    assertFalse(chain.equals(new CharSequenceChain("bar", "foo")));
+  }
+  
+  @Test
+  public void copiesMutableSequenceTest() {
+    StringBuilder sb = new StringBuilder("foo");
+    CharSequenceChain chain = new CharSequenceChain(sb, "bar");
+    sb.setLength(0);
+    
+    assertEquals("foobar", chain.toString());
+  }
+}
@@ -0,0 +1,68 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.threadly.util.StringUtils;
+
+@SuppressWarnings("javadoc")
+public class CharsDeduplicatorTest {
+  @After
+  public void cleanup() {
+    CharsDeduplicator.clearCache();
+  }
+  
+  @Test
+  public void deDuplicateNullTest() {
+    assertNull(CharsDeduplicator.deDuplicate((String)null));
+    assertNull(CharsDeduplicator.deDuplicate((char[])null));
+  }
+  
+  @Test
+  public void deDuplicateStringTest() {
+    String str = StringUtils.makeRandomString(10);
+    LightCharSequence result = CharsDeduplicator.deDuplicate(new String(str));
+    
+    assertEquals(str, result.toString());
+    assertTrue(result == CharsDeduplicator.deDuplicate(new String(str)));
+  }
+  
+  @Test
+  public void deDuplicateCharsAndStringTest() {
+    String str = StringUtils.makeRandomString(10);
+    LightCharSequence result = CharsDeduplicator.deDuplicate(str.toCharArray());
+    
+    assertTrue(result == CharsDeduplicator.deDuplicate(str));
+  }
+  
+  @Test
+  public void deDuplicateSameLengthTest() {
+    LightCharSequence result1 = CharsDeduplicator.deDuplicate("ab");
+    LightCharSequence result2 = CharsDeduplicator.deDuplicate("ba");
+    
+    assertFalse(result1 == result2);
+    assertEquals("ab", result1.toString());
+    assertEquals("ba", result2.toString());
+  }
+  
+  @Test
+  public void deDuplicateBeyondCacheSizeTest() {
+    String prefix = StringUtils.makeRandomString(5);
+    for (int i = 0; i < CharsDeduplicator.CACHE_SIZE * 2; i++) {
+      String str = prefix + i;
+      assertEquals(str, CharsDeduplicator.deDuplicate(str).toString());
+    }
+  }
+  
+  @Test
+  public void clearCacheTest() {
+    String str = StringUtils.makeRandomString(10);
+    LightCharSequence result = CharsDeduplicator.deDuplicate(str);
+    CharsDeduplicator.clearCache();
+    
+    LightCharSequence newResult = CharsDeduplicator.deDuplicate(str);
+    assertFalse(result == newResult);
+    assertEquals(result, newResult);
+  }
+}
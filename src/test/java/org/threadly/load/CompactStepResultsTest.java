@@ -0,0 +1,127 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+@SuppressWarnings("javadoc")
+public class CompactStepResultsTest {
+  @Test
+  public void recordAndViewTest() {
+    CompactStepResults results = new CompactStepResults(4);
+    int slot1 = results.assignSlot("foo");
+    int slot2 = results.assignSlot(new LightCharSequence("bar".toCharArray()));
+    int slot3 = results.assignSlot("foo");
+    int slot4 = results.assignSlot("maintenance");
+    Exception failure = new Exception();
+    results.recordResult(slot1, ScriptStepType.Normal, 10, null);
+    results.recordResult(slot2, ScriptStepType.Normal, 30, failure);
+    results.recordResult(slot4, ScriptStepType.Maintenance, 0, null);
+    
+    assertEquals(4, results.size());
+    assertEquals(CompactStepResults.STATUS_PASS, results.getStatus(slot1));
+    assertEquals(CompactStepResults.STATUS_ERROR, results.getStatus(slot2));
+    assertEquals(CompactStepResults.STATUS_NOT_RUN, results.getStatus(slot3));
+    assertEquals(CompactStepResults.STATUS_MAINTENANCE_PASS, results.getStatus(slot4));
+    assertNull(results.getResult(slot3));
+    
+    StepResult result = results.getResult(slot1);
+    assertEquals("foo", result.getDescription());
+    assertEquals(10, result.getRunTime(TimeUnit.NANOSECONDS));
+    assertNull(result.getError());
+    assertFalse(result.wasMaintanceStep());
+    assertTrue(results.getResult(slot4).wasMaintanceStep());
+    
+    List<StepResult> fails = results.getFailedResults();
+    assertEquals(1, fails.size());
+    assertEquals("bar", fails.get(0).getDescription());
+    assertTrue(failure == fails.get(0).getError());
+    
+    assertEquals(20, results.getRunTimeAverage(TimeUnit.NANOSECONDS), 0);
+    assertEquals(2, results.getRunTimeHistogram().getTotalCount());
+    Map<Double, StepResult> percentiles = results.getRunTimePercentiles(0, 100);
+    assertEquals("foo", percentiles.get(0.).getDescription());
+    assertEquals("bar", percentiles.get(100.).getDescription());
+  }
+  
+  @Test
+  public void calculateRunTimePercentilesTest() {
+    CompactStepResults results = new CompactStepResults(102);
+    for (int i = 0; i < 100; i++) {
+      results.recordResult(results.assignSlot("step" + i), ScriptStepType.Normal, 100 - i, null);
+    }
+    results.recordResult(results.assignSlot("maintenance"), 
+                         ScriptStepType.Maintenance, 1000, null);
+    results.assignSlot("notRun");
+    
+    RunTimePercentiles percentiles = results.calculateRunTimePercentiles(50, 100);
+    assertEquals(100, percentiles.getValueCount());
+    assertEquals(51, percentiles.getRunTime(50., TimeUnit.NANOSECONDS));
+    assertEquals("step49", percentiles.getResult(50.).getDescription());
+    assertEquals(100, percentiles.getRunTime(100., TimeUnit.NANOSECONDS));
+    assertEquals("step0", percentiles.getResult(100.).getDescription());
+  }
+  
+  @Test
+  public void calculateRunTimePercentilesEmptyTest() {
+    CompactStepResults results = new CompactStepResults(1);
+    results.assignSlot("foo");
+    
+    assertEquals(0, results.calculateRunTimePercentiles(50).getValueCount());
+    assertNull(results.calculateRunTimePercentiles(50).getResult(0));
+    assertTrue(results.getRunTimePercentiles(50).isEmpty());
+  }
+  
+  @Test (expected = IllegalStateException.class)
+  public void assignSlotOverCapacityFail() {
+    CompactStepResults results = new CompactStepResults(1);
+    results.assignSlot("foo");
+    results.assignSlot("foo");
+  }
+  
+  @Test
+  public void scriptCompactResultsTest() throws Exception {
+    int stepCount = 10;
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    for (int i = 0; i < stepCount; i++) {
+      builder.addStep(new TestStep());
+    }
+    ExecutableScript script = builder.build();
+    script.setCompactResults(true);
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    FutureUtils.blockTillAllComplete(futures);
+    
+    for (ListenableFuture<StepResult> f : futures) {
+      assertNull(f.get());
+    }
+    CompactStepResults results = script.getCompactResults();
+    assertEquals(stepCount, results.size());
+    for (int i = 0; i < stepCount; i++) {
+      assertEquals(CompactStepResults.STATUS_PASS, results.getStatus(i));
+    }
+    assertTrue(results.getFailedResults().isEmpty());
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+  }
+  
+  @Test
+  public void scriptCompactResultsFailureTest() throws Exception {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep());
+    builder.addStep(new FailureTestStep());
+    ExecutableScript script = builder.build();
+    script.setCompactResults(true);
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    
+    StepResult failure = StepResultCollectionUtils.getFailedResult(futures);
+    assertNotNull(failure);
+    List<StepResult> fails = script.getCompactResults().getFailedResults();
+    assertEquals(1, fails.size());
+    assertTrue(failure.getError() == fails.get(0).getError());
+  }
+}
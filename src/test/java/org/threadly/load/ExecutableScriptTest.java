@@ -0,0 +1,313 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.threadly.concurrent.future.ListenableFuture;
+
+@SuppressWarnings("javadoc")
+public class ExecutableScriptTest {
+  private static ExecutableScript makeScript(int stepCount, ScriptStep ... extraSteps) {
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    for (int i = 0; i < stepCount; i++) {
+      builder.addStep(new TestStep("step" + i));
+    }
+    for (ScriptStep step : extraSteps) {
+      builder.addStep(step);
+    }
+    return builder.build();
+  }
+  
+  @Test
+  public void startScriptWithRecorderTest() throws InterruptedException, ExecutionException {
+    int stepCount = 20;
+    ExecutableScript script = makeScript(stepCount);
+    final List<String> recorded = Collections.synchronizedList(new ArrayList<String>());
+    
+    ListenableFuture<StepResult> future = script.startScript(new StepResultRecorder() {
+      @Override
+      public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                               long startNanos, long runTimeNanos, Throwable error) {
+        assertNull(error);
+        recorded.add(identifier.toString());
+      }
+    });
+    
+    assertNull(future.get());
+    assertEquals(stepCount, recorded.size());
+    for (int i = 0; i < stepCount; i++) {
+      assertTrue(recorded.contains("step" + i));
+    }
+  }
+  
+  @Test
+  public void startScriptWithRecorderFailureTest() throws InterruptedException, ExecutionException {
+    RuntimeException failure = new RuntimeException();
+    ExecutableScript script = makeScript(5, new FailureTestStep("fail", failure));
+    final AtomicInteger failureCount = new AtomicInteger(0);
+    
+    ListenableFuture<StepResult> future = script.startScript(new StepResultRecorder() {
+      @Override
+      public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                               long startNanos, long runTimeNanos, Throwable error) {
+        if (error != null) {
+          failureCount.incrementAndGet();
+        }
+      }
+    });
+    
+    StepResult result = future.get();
+    assertNotNull(result);
+    assertEquals("fail", result.getDescription());
+    assertTrue(result.getError() == failure);
+    assertEquals(1, failureCount.get());
+  }
+  
+  @Test
+  public void startScriptWithRecorderCompactResultsTest() throws InterruptedException, 
+                                                                  ExecutionException {
+    int stepCount = 10;
+    ExecutableScript script = makeScript(stepCount);
+    script.setCompactResults(true);
+    final AtomicInteger recordedCount = new AtomicInteger(0);
+    
+    ListenableFuture<StepResult> future = script.startScript(new StepResultRecorder() {
+      @Override
+      public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                               long startNanos, long runTimeNanos, Throwable error) {
+        recordedCount.incrementAndGet();
+      }
+    });
+    
+    assertNull(future.get());
+    assertEquals(stepCount, recordedCount.get());
+    assertEquals(stepCount, script.getCompactResults().size());
+  }
+  
+  @Test
+  public void startScriptAgainTest() throws InterruptedException, ExecutionException {
+    TestStep step = new TestStep("step");
+    ExecutableScript script = makeScript(0, step, step, step);
+    
+    List<ListenableFuture<StepResult>> firstFutures = script.startScript();
+    assertNull(StepResultCollectionUtils.getFailedResult(firstFutures));
+    List<ListenableFuture<StepResult>> secondFutures = script.startScript();
+    assertNull(StepResultCollectionUtils.getFailedResult(secondFutures));
+    
+    assertEquals(3, secondFutures.size());
+    for (int i = 0; i < secondFutures.size(); i++) {
+      assertTrue(firstFutures.get(i) != secondFutures.get(i));
+      assertEquals("step", secondFutures.get(i).get().getDescription());
+    }
+    assertEquals(6, step.getRunCount());
+  }
+  
+  @Test
+  public void startScriptAgainAfterFailureTest() throws InterruptedException, ExecutionException {
+    final AtomicInteger runCount = new AtomicInteger(0);
+    ExecutableScript script = makeScript(3, new AbstractScriptStep("failOnce") {
+      @Override
+      public void runStep() {
+        if (runCount.getAndIncrement() == 0) {
+          throw new RuntimeException();
+        }
+      }
+    });
+    
+    assertNotNull(StepResultCollectionUtils.getFailedResult(script.startScript()));
+    assertNull(StepResultCollectionUtils.getFailedResult(script.startScript()));
+    assertEquals(2, runCount.get());
+  }
+  
+  @Test
+  public void startScriptAgainWhileFailedTasksQueuedTest() throws InterruptedException, 
+                                                                  ExecutionException {
+    final AtomicInteger failRunCount = new AtomicInteger(0);
+    TestStep sequenceStep = new TestStep("sequenceStep");
+    SequentialScriptBuilder sBuilder = new SequentialScriptBuilder();
+    for (int i = 0; i < 10; i++) {
+      sBuilder.addStep(sequenceStep);
+    }
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addSteps(sBuilder);
+    pBuilder.addStep(new AbstractScriptStep("failOnce") {
+      @Override
+      public void runStep() {
+        if (failRunCount.getAndIncrement() == 0) {
+          throw new RuntimeException();
+        }
+      }
+    });
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    // slow enough that the sequence's next step is still queued in the limiter at the failure
+    builder.setMaxScriptStepRate(20);
+    builder.addSteps(pBuilder);
+    ExecutableScript script = builder.build();
+    
+    List<ListenableFuture<StepResult>> firstFutures = script.startScript();
+    assertNotNull(StepResultCollectionUtils.getFailedResult(firstFutures));
+    int firstRunCount = sequenceStep.getRunCount();
+    assertTrue(firstRunCount < 10);
+    List<ListenableFuture<StepResult>> secondFutures = script.startScript();
+    assertNull(StepResultCollectionUtils.getFailedResult(secondFutures));
+    
+    for (int i = 0; i < secondFutures.size(); i++) {
+      assertNotNull(secondFutures.get(i).get());
+    }
+    for (int i = firstRunCount; i < 10; i++) {
+      assertTrue(firstFutures.get(i).isCancelled());
+    }
+    // give tasks left from the first run time to be run by the limiter
+    Thread.sleep(200);
+    assertEquals(firstRunCount + 10, sequenceStep.getRunCount());
+    assertEquals(2, failRunCount.get());
+  }
+  
+  @Test
+  public void startScriptAgainWhileFailedStepsBlockedTest() throws InterruptedException, 
+                                                                  ExecutionException, 
+                                                                  TimeoutException {
+    final AtomicBoolean secondRun = new AtomicBoolean(false);
+    final CountDownLatch blockersStarted = new CountDownLatch(2);
+    final CountDownLatch releaseBlockers = new CountDownLatch(1);
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    builder.addStep(new AbstractScriptStep("failOnce") {
+      @Override
+      public void runStep() throws InterruptedException {
+        if (! secondRun.get()) {
+          assertTrue(blockersStarted.await(10, TimeUnit.SECONDS));
+          throw new RuntimeException();
+        }
+      }
+    });
+    for (int i = 0; i < 2; i++) {
+      builder.addStep(new AbstractScriptStep("blockOnce" + i) {
+        @Override
+        public void runStep() {
+          if (secondRun.get()) {
+            return;
+          }
+          blockersStarted.countDown();
+          // keeps its pool thread after the failure, ignoring being interrupted
+          while (true) {
+            try {
+              releaseBlockers.await();
+              return;
+            } catch (InterruptedException e) {
+              // ignored
+            }
+          }
+        }
+      });
+      builder.addStep(new AbstractScriptStep("barrier" + i) {
+        @Override
+        public void runStep() throws InterruptedException, BrokenBarrierException, 
+                                     TimeoutException {
+          if (secondRun.get()) {
+            // needs two free threads in the pool at once
+            barrier.await(10, TimeUnit.SECONDS);
+          }
+        }
+      });
+    }
+    ExecutableScript script = builder.build();
+    script.setExecutorFactory(ScriptExecutors.fixedSizePool(3));
+    
+    try {
+      ScriptControl control = script.startScriptWithControl();
+      assertNotNull(control.getCompletionFuture().get(10, TimeUnit.SECONDS));
+      secondRun.set(true);
+      List<ListenableFuture<StepResult>> futures = script.startScript();
+      
+      assertNull(StepResultCollectionUtils.getFailedResult(futures));
+      assertEquals(5, futures.size());
+      for (ListenableFuture<StepResult> f : futures) {
+        assertNull(f.get().getError());
+      }
+    } finally {
+      releaseBlockers.countDown();
+    }
+  }
+  
+  @Test (expected = IllegalStateException.class)
+  public void startScriptWhileRunningFail() throws InterruptedException {
+    TestStep slowStep = new TestStep("slow", 200);
+    ExecutableScript script = makeScript(0, slowStep);
+    
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    try {
+      script.startScript();
+    } finally {
+      StepResultCollectionUtils.getFailedResult(futures);
+    }
+  }
+  
+  @Test
+  public void startScriptWithRecorderProvidesNoFuturesTest() throws InterruptedException, 
+                                                                    ExecutionException {
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    for (int i = 0; i < 5; i++) {
+      builder.addStep(new TestStep("step" + i));
+    }
+    builder.addStep(new AbstractScriptStep("fail") {
+      @Override
+      public void runStep() {
+        throw new RuntimeException();
+      }
+    });
+    List<? extends ListenableFuture<StepResult>> builtFutures = builder.currentStep.getFutures();
+    ExecutableScript script = builder.build();
+    final AtomicInteger recordedCount = new AtomicInteger(0);
+    
+    StepResult failure = script.startScript(new StepResultRecorder() {
+      @Override
+      public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                               long startNanos, long runTimeNanos, Throwable error) {
+        recordedCount.incrementAndGet();
+      }
+    }).get();
+    
+    assertNotNull(failure);
+    assertEquals("fail", failure.getDescription());
+    assertTrue(recordedCount.get() > 0);
+    // no future was used by the run, or retained for it
+    assertNull(script.executionPlan.getFutures());
+    for (ListenableFuture<StepResult> f : builtFutures) {
+      assertFalse(f.isDone());
+    }
+    // the first run with futures still completes the futures from the builder
+    assertNotNull(StepResultCollectionUtils.getFailedResult(script.startScript()));
+    assertTrue(builtFutures.get(builtFutures.size() - 1).isDone());
+  }
+  
+  @Test
+  public void startScriptWithRecorderNotRetainedTest() throws InterruptedException, 
+                                                              ExecutionException {
+    ExecutableScript script = makeScript(5);
+    final AtomicInteger recordedCount = new AtomicInteger(0);
+    
+    assertNull(script.startScript(new StepResultRecorder() {
+      @Override
+      public void recordResult(CharSequence identifier, ScriptStepType stepType, 
+                               long startNanos, long runTimeNanos, Throwable error) {
+        recordedCount.incrementAndGet();
+      }
+    }).get());
+    assertNull(StepResultCollectionUtils.getFailedResult(script.startScript()));
+    
+    assertEquals(5, recordedCount.get());
+  }
+}
@@ -0,0 +1,88 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ExecutionGraphStatisticsTest {
+  private static SequentialScriptBuilder makeBuilder() {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep("first"));
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addStep(new TestStep("parallel"), 4);
+    SequentialScriptBuilder innerBuilder = new SequentialScriptBuilder();
+    innerBuilder.addStep(new TestStep("inner"));
+    innerBuilder.addStep(new TestStep("inner"));
+    pBuilder.addSteps(innerBuilder);
+    builder.addSteps(pBuilder);
+    builder.setMaxScriptStepRate(1000);  // synthetic item, not reported
+    builder.addStep(new TestStep("last"));
+    return builder;
+  }
+  
+  @Test
+  public void statisticsTest() {
+    SequentialScriptBuilder builder = makeBuilder();
+    int expectedThreads = builder.getMaximumNeededThreadCount();
+    ExecutionGraphStatistics stats = ExecutionGraphStatistics.of(builder.build());
+    
+    assertEquals(8, stats.getStepCount());
+    assertEquals(3, stats.getCollectionCount());
+    assertEquals(3, stats.getMaxDepth());
+    assertEquals(5, stats.getMaxFanOut());
+    assertEquals(5, stats.getEstimatedConcurrency());
+    assertEquals(expectedThreads, stats.getEstimatedThreadCount());
+  }
+  
+  @Test
+  public void visitOrderTest() {
+    final StringBuilder sb = new StringBuilder();
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep("a"));
+    builder.addStep(new TestStep("b"));
+    builder.build().visitExecutionGraph(new ExecutionGraphVisitor() {
+      @Override
+      public void visitStep(int nodeId, int parentNodeId, int depth, CharSequence identifier) {
+        sb.append(nodeId).append(':').append(parentNodeId).append(':').append(identifier)
+          .append(' ');
+      }
+      
+      @Override
+      public void startCollection(int nodeId, int parentNodeId, int depth, 
+                                  boolean sequential, int childCount) {
+        sb.append("start").append(nodeId).append(':').append(childCount).append(' ');
+      }
+      
+      @Override
+      public void endCollection(int nodeId, int depth, boolean sequential, int childCount, 
+                                int estimatedConcurrency, int estimatedThreads) {
+        sb.append("end").append(nodeId).append(':').append(estimatedConcurrency)
+          .append(':').append(estimatedThreads);
+      }
+    });
+    
+    assertEquals("start0:2 1:0:a 2:0:b end0:1:2", sb.toString());
+  }
+  
+  @Test
+  public void dotWriterTest() throws Exception {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep("step \"1\""));
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addStep(new TestStep("p"), 2);
+    builder.addSteps(pBuilder);
+    StringBuilder sb = new StringBuilder();
+    ExecutionGraphDotWriter.write(builder.build(), sb);
+    String dot = sb.toString();
+    
+    assertTrue(dot.startsWith("digraph script {"));
+    assertTrue(dot.trim().endsWith("}"));
+    assertTrue(dot.contains("n1 [label=\"step \\\"1\\\"\"];"));
+    assertTrue(dot.contains("n0 -> n1;"));
+    assertTrue(dot.contains("n0 -> n2;"));
+    assertTrue(dot.contains("n2 -> n3;"));
+    assertTrue(dot.contains("n2 -> n4;"));
+    assertTrue(dot.contains("n2 [shape=box, label=\"parallel (2)\\nconcurrency=2 threads=2\"];"));
+  }
+}
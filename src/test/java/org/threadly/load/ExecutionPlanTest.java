@@ -0,0 +1,177 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.load.ExecutionPlan.NodeType;
+
+@SuppressWarnings("javadoc")
+public class ExecutionPlanTest {
+  private static ExecutableScript makeScript(TestStep first, TestStep parallel, TestStep inner, 
+                                             TestStep last) {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(first);
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addStep(parallel, 3);
+    SequentialScriptBuilder innerBuilder = new SequentialScriptBuilder();
+    innerBuilder.addStep(inner);
+    innerBuilder.addStep(inner);
+    pBuilder.addSteps(innerBuilder);
+    builder.addSteps(pBuilder);
+    builder.setMaxScriptStepRate(1000);
+    builder.addProgressFuture();
+    builder.addStep(last);
+    return builder.build();
+  }
+  
+  @Test
+  public void compileTest() {
+    ExecutionPlan plan = makeScript(new TestStep("first"), new TestStep("parallel"), 
+                                    new TestStep("inner"), new TestStep("last")).getExecutionPlan();
+    
+    assertEquals(12, plan.getNodeCount());
+    assertEquals(7, plan.getStepCount());
+    assertEquals(NodeType.Sequence, plan.getNodeType(0));
+    assertEquals(5, plan.getChildCount(0));
+    assertEquals(plan.getNodeCount(), plan.getSubtreeEnd(0));
+    
+    assertEquals(NodeType.Step, plan.getNodeType(plan.getChild(0, 0)));
+    assertEquals("first", plan.getStepIdentifier(plan.getChild(0, 0)).toString());
+    int parallelNode = plan.getChild(0, 1);
+    assertEquals(NodeType.Parallel, plan.getNodeType(parallelNode));
+    assertEquals(4, plan.getChildCount(parallelNode));
+    int innerNode = plan.getChild(parallelNode, 3);
+    assertEquals(NodeType.Sequence, plan.getNodeType(innerNode));
+    assertEquals(2, plan.getChildCount(innerNode));
+    assertEquals(innerNode + 3, plan.getSubtreeEnd(innerNode));
+    assertEquals(plan.getSubtreeEnd(parallelNode), plan.getSubtreeEnd(innerNode));
+    assertEquals(NodeType.RateChange, plan.getNodeType(plan.getChild(0, 2)));
+    assertEquals(NodeType.Synthetic, plan.getNodeType(plan.getChild(0, 3)));
+    assertEquals("last", plan.getStepIdentifier(plan.getChild(0, 4)).toString());
+    
+    assertEquals(5, plan.getFutures(parallelNode).size());
+    assertEquals(2, plan.getFutures(innerNode).size());
+    assertTrue(plan.getFutures(plan.getChild(0, 2)).isEmpty());
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void getStepIdentifierNotStepFail() {
+    ExecutionPlan plan = makeScript(new TestStep(), new TestStep(), 
+                                    new TestStep(), new TestStep()).getExecutionPlan();
+    plan.getStepIdentifier(0);
+  }
+  
+  @Test
+  public void runTest() throws InterruptedException, ExecutionException {
+    TestStep first = new TestStep("first");
+    TestStep parallel = new TestStep("parallel");
+    TestStep inner = new TestStep("inner");
+    TestStep last = new TestStep("last");
+    ExecutableScript script = makeScript(first, parallel, inner, last);
+    
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+    
+    assertEquals(7, futures.size());
+    assertEquals(1, first.getRunCount());
+    assertEquals(3, parallel.getRunCount());
+    assertEquals(2, inner.getRunCount());
+    assertEquals(1, last.getRunCount());
+    // futures are provided in the order the steps were added
+    assertEquals("first", futures.get(0).get().getDescription());
+    assertEquals("last", futures.get(futures.size() - 1).get().getDescription());
+  }
+  
+  @Test
+  public void runFailureTest() throws InterruptedException, ExecutionException {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addStep(new TestStep(), 4);
+    pBuilder.addStep(new FailureTestStep());
+    builder.addSteps(pBuilder);
+    TestStep last = new TestStep();
+    builder.addStep(last);
+    
+    List<ListenableFuture<StepResult>> futures = builder.build().startScript();
+    assertNotNull(StepResultCollectionUtils.getFailedResult(futures));
+    try {
+      // canceled asynchronously once the failure is seen
+      futures.get(futures.size() - 1).get();
+      fail("Exception should have thrown");
+    } catch (CancellationException e) {
+      // expected
+    }
+    assertEquals(0, last.getRunCount());
+  }
+  
+  @Test
+  public void sequencesDoNotHoldThreadTest() throws InterruptedException, ExecutionException, 
+                                                   TimeoutException {
+    TestStep first = new TestStep("first");
+    TestStep parallel = new TestStep("parallel");
+    TestStep inner = new TestStep("inner");
+    TestStep last = new TestStep("last");
+    ExecutableScript script = makeScript(first, parallel, inner, last);
+    // a sequence waiting on its parallel child would leave no thread to run the child
+    script.setExecutorFactory(ScriptExecutors.fixedSizePool(1));
+    
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    futures.get(futures.size() - 1).get(10, TimeUnit.SECONDS);
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+    assertEquals(3, parallel.getRunCount());
+    assertEquals(2, inner.getRunCount());
+    assertEquals(1, last.getRunCount());
+  }
+  
+  @Test
+  public void parallelFailureCompletesWithoutWaitingTest() throws InterruptedException, 
+                                                                  ExecutionException, 
+                                                                  TimeoutException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final TestStep blockingStep = new TestStep("blocking") {
+      @Override
+      public void handleRunStart() {
+        while (true) {
+          try {
+            release.await();
+            return;
+          } catch (InterruptedException e) {
+            // ignored so that the step keeps running after the failure
+          }
+        }
+      }
+    };
+    FailureTestStep failureStep = new FailureTestStep() {
+      @Override
+      public void handleRunStart() {
+        blockingStep.blockTillStarted();
+      }
+    };
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addStep(blockingStep);
+    pBuilder.addStep(failureStep);
+    builder.addSteps(pBuilder);
+    TestStep last = new TestStep();
+    builder.addStep(last);
+    
+    ScriptControl control = builder.build().startScriptWithControl();
+    try {
+      // completes from the failure while the other step of the group is still running
+      StepResult failedResult = control.getCompletionFuture().get(10, TimeUnit.SECONDS);
+      assertNotNull(failedResult);
+      assertEquals(0, blockingStep.getRunCount());
+      assertEquals(0, last.getRunCount());
+    } finally {
+      release.countDown();
+    }
+  }
+}
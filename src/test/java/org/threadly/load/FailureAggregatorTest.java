@@ -0,0 +1,140 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FailureAggregatorTest {
+  private static Exception makeFailure(String message) {
+    return new IllegalStateException(message);  // all created from the same frame
+  }
+  
+  @Test
+  public void signatureEqualForSameFrameTest() {
+    FailureSignature signature1 = FailureSignature.of(makeFailure("foo"));
+    FailureSignature signature2 = FailureSignature.of(makeFailure("bar"));
+    
+    assertEquals(signature1, signature2);
+    assertEquals(signature1.hashCode(), signature2.hashCode());
+    assertEquals(IllegalStateException.class.getName(), signature1.getTypeName());
+  }
+  
+  @Test
+  public void signatureDifferentTypeOrCauseTest() {
+    FailureSignature signature = FailureSignature.of(makeFailure("foo"));
+    
+    assertFalse(signature.equals(FailureSignature.of(new IllegalStateException())));
+    Exception withCause = makeFailure("foo");
+    withCause.initCause(new Exception());
+    assertFalse(signature.equals(FailureSignature.of(withCause)));
+  }
+  
+  @Test
+  public void trimmedStackLengthTest() {
+    StackTraceElement stepFrame = new StackTraceElement("com.foo.Step", "run", "Step.java", 10);
+    StackTraceElement ambushFrame = 
+        new StackTraceElement(ScriptRunner.class.getName(), "run", "ScriptRunner.java", 10);
+    
+    assertEquals(0, FailureSignature.trimmedStackLength(new StackTraceElement[0]));
+    assertEquals(1, FailureSignature.trimmedStackLength(new StackTraceElement[] { ambushFrame }));
+    assertEquals(2, FailureSignature.trimmedStackLength(new StackTraceElement[] { stepFrame, 
+                                                                                 stepFrame, 
+                                                                                 ambushFrame, 
+                                                                                 stepFrame }));
+  }
+  
+  @Test
+  public void recordFailureGroupsTest() {
+    FailureAggregator aggregator = new FailureAggregator();
+    aggregator.recordResult("step1", ScriptStepType.Normal, 0, 1, makeFailure("foo"));
+    aggregator.recordResult("step2", ScriptStepType.Normal, 0, 1, makeFailure("bar"));
+    aggregator.recordResult("step1", ScriptStepType.Normal, 0, 1, makeFailure("foo"));
+    aggregator.recordResult("step3", ScriptStepType.Normal, 0, 1, null);
+    aggregator.recordResult("step3", ScriptStepType.Normal, 0, 1, new Exception());
+    
+    assertEquals(4, aggregator.getFailureCount());
+    assertEquals(2, aggregator.getFailureGroups().size());
+    FailureAggregator.FailureGroup group = 
+        aggregator.getFailureGroups().get(FailureSignature.of(makeFailure("")));
+    assertEquals(3, group.getCount());
+    assertEquals(2, group.getStepDescriptions().size());
+    assertEquals(3, group.getSampleTraces().size());
+    assertTrue(group.getSampleTraces().get(0).startsWith(IllegalStateException.class.getName()));
+  }
+  
+  @Test
+  public void sampleTracesBoundedTest() {
+    FailureAggregator aggregator = new FailureAggregator();
+    for (int i = 0; i < FailureAggregator.MAX_TRACE_SAMPLES * 2; i++) {
+      aggregator.recordFailure(null, makeFailure(Integer.toString(i)));
+    }
+    
+    FailureAggregator.FailureGroup group = 
+        aggregator.getFailureGroups().values().iterator().next();
+    assertEquals(FailureAggregator.MAX_TRACE_SAMPLES * 2, group.getCount());
+    assertEquals(FailureAggregator.MAX_TRACE_SAMPLES, group.getSampleTraces().size());
+    assertTrue(group.getStepDescriptions().isEmpty());
+  }
+  
+  @Test
+  public void concurrentRecordTest() throws Exception {
+    final FailureAggregator aggregator = new FailureAggregator();
+    final int threadCount = 4;
+    final int failuresPerThread = 1000;
+    List<Thread> threads = new ArrayList<Thread>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < failuresPerThread; j++) {
+            aggregator.recordFailure("step" + (j % 100), makeFailure(""));
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    
+    assertEquals(threadCount * failuresPerThread, aggregator.getFailureCount());
+    assertEquals(1, aggregator.getFailureGroups().size());
+    FailureAggregator.FailureGroup group = 
+        aggregator.getFailureGroups().values().iterator().next();
+    assertEquals(threadCount * failuresPerThread, group.getCount());
+    assertEquals(FailureAggregator.MAX_STEP_SAMPLES, group.getStepDescriptions().size());
+  }
+  
+  @Test
+  public void mergeAndSerializeTest() throws Exception {
+    FailureAggregator aggregator1 = new FailureAggregator();
+    aggregator1.recordFailure("step1", makeFailure("foo"));
+    FailureAggregator aggregator2 = new FailureAggregator();
+    aggregator2.recordFailure("step2", makeFailure("foo"));
+    aggregator2.recordFailure("step2", new Exception());
+    
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    aggregator2.writeTo(new DataOutputStream(bytes));
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    FailureAggregator read = FailureAggregator.readFrom(in);
+    assertEquals(2, read.getFailureCount());
+    assertEquals(2, read.getFailureGroups().size());
+    
+    aggregator1.merge(read);
+    assertEquals(3, aggregator1.getFailureCount());
+    assertEquals(2, aggregator1.getFailureGroups().size());
+    FailureAggregator.FailureGroup group = 
+        aggregator1.getFailureGroups().get(FailureSignature.of(makeFailure("")));
+    assertEquals(2, group.getCount());
+    assertEquals(2, group.getStepDescriptions().size());
+  }
+}
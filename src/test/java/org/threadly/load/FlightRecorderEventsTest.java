@@ -0,0 +1,102 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+@SuppressWarnings("javadoc")
+public class FlightRecorderEventsTest {
+  private static int countEvents(List<RecordedEvent> events, String name) {
+    int count = 0;
+    for (RecordedEvent e : events) {
+      if (e.getEventType().getName().equals(name)) {
+        count++;
+      }
+    }
+    return count;
+  }
+  
+  private static List<RecordedEvent> record(ExecutableScript script) throws IOException, 
+                                                                           InterruptedException {
+    File file = File.createTempFile("ambush", ".jfr");
+    Recording recording = new Recording();
+    try {
+      recording.enable(JfrSupport.StepEvent.class);
+      recording.enable(JfrSupport.RateLimiterWaitEvent.class);
+      recording.enable(JfrSupport.StartHandlerWaitEvent.class);
+      recording.start();
+      assertTrue(FlightRecorderEvents.isRecording());
+      
+      StepResultCollectionUtils.getFailedResult(script.startScript());
+      
+      recording.stop();
+      recording.dump(file.toPath());
+      return RecordingFile.readAllEvents(file.toPath());
+    } finally {
+      recording.close();
+      file.delete();
+    }
+  }
+  
+  @Test
+  public void notRecordingTest() {
+    assertFalse(FlightRecorderEvents.isRecording());
+  }
+  
+  @Test
+  public void stepEventTest() throws IOException, InterruptedException {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.setMaxScriptStepRate(1000);
+    TestStep passStep = new TestStep("pass");
+    for (int i = 0; i < 5; i++) {
+      builder.addStep(passStep);
+    }
+    builder.addStep(new FailureTestStep("fail", new IllegalStateException("failure")));
+    
+    List<RecordedEvent> events = record(builder.build());
+    
+    assertEquals(6, countEvents(events, "org.threadly.load.Step"));
+    assertTrue(countEvents(events, "org.threadly.load.RateLimiterWait") > 0);
+    boolean foundFailure = false;
+    for (RecordedEvent e : events) {
+      if (e.getEventType().getName().equals("org.threadly.load.Step")) {
+        assertEquals(ScriptStepType.Normal.name(), e.getString("stepType"));
+        if (e.getString("identifier").equals("fail")) {
+          assertFalse(e.getBoolean("passed"));
+          assertEquals("failure", e.getString("errorMessage"));
+          foundFailure = true;
+        } else {
+          assertEquals("pass", e.getString("identifier"));
+          assertTrue(e.getBoolean("passed"));
+        }
+      }
+    }
+    assertTrue(foundFailure);
+  }
+  
+  @Test
+  public void startHandlerWaitEventTest() throws IOException, InterruptedException {
+    SequentialScriptBuilder signalingBuilder = new SequentialScriptBuilder();
+    TestStep signalStep = new TestStep("signal", 10);
+    for (int i = 0; i < 4; i++) {
+      signalingBuilder.addStep(signalStep);
+    }
+    SequentialScriptBuilder waitingBuilder = new SequentialScriptBuilder();
+    TestStep waitingStep = new TestStep("waiting");
+    waitingBuilder.addStep(waitingStep);
+    waitingBuilder.addStep(waitingStep);
+    
+    List<RecordedEvent> events = 
+        record(ScriptBuilderUtils.balanceBuilders(signalingBuilder, waitingBuilder).build());
+    
+    assertEquals(2, countEvents(events, "org.threadly.load.StartHandlerWait"));
+  }
+}
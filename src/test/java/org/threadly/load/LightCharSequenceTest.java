@@ -0,0 +1,60 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.threadly.util.StringUtils;
+
+@SuppressWarnings("javadoc")
+public class LightCharSequenceTest {
+  @Test
+  public void hashCodeMatchesStringTest() {
+    String str = StringUtils.makeRandomString(10);
+    
+    assertEquals(str.hashCode(), new LightCharSequence(str.toCharArray()).hashCode());
+    assertEquals("".hashCode(), new LightCharSequence(new char[0]).hashCode());
+  }
+  
+  @Test
+  public void anagramHashCodeTest() {
+    assertFalse(new LightCharSequence("abc".toCharArray()).hashCode() == 
+                  new LightCharSequence("cba".toCharArray()).hashCode());
+  }
+  
+  @Test
+  public void equalsTest() {
+    String str = StringUtils.makeRandomString(10);
+    LightCharSequence lcs = new LightCharSequence(str.toCharArray());
+    
+    assertTrue(lcs.equals(str));
+    assertTrue(lcs.equals(new LightCharSequence(str.toCharArray())));
+    assertTrue(lcs.equals(new StringBuilder(str)));
+    assertFalse(lcs.equals(str + "a"));
+    assertFalse(lcs.equals(new LightCharSequence("cba".toCharArray())));
+    assertFalse(lcs.equals(null));
+  }
+  
+  @Test
+  public void equalsChainTest() {
+    String str = StringUtils.makeRandomString(10);
+    LightCharSequence lcs = new LightCharSequence(str.toCharArray());
+    CharSequenceChain chain = new CharSequenceChain(str.substring(0, 5), str.substring(5));
+    
+    assertEquals(lcs.hashCode(), chain.hashCode());
+    assertTrue(lcs.equals(chain));
+    assertTrue(chain.equals(lcs));
+  }
+  
+  @Test
+  public void mapKeyLookupTest() {
+    String str = StringUtils.makeRandomString(10);
+    Map<CharSequence, String> map = new HashMap<CharSequence, String>();
+    map.put(new LightCharSequence(str.toCharArray()), str);
+    
+    assertEquals(str, map.get(new LightCharSequence(str.toCharArray())));
+    assertEquals(str, map.get(new CharSequenceChain(str.substring(0, 5), str.substring(5))));
+  }
+}
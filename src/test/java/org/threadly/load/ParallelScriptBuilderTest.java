@@ -10,6 +10,7 @@ import java.util.concurrent.TimeoutException;
 import org.junit.Test;
 import org.threadly.concurrent.future.FutureUtils;
 import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.util.Clock;
 
 @SuppressWarnings("javadoc")
 public class ParallelScriptBuilderTest {
@@ -64,4 +65,19 @@ public class ParallelScriptBuilderTest {
     
     FutureUtils.blockTillAllCompleteOrFirstError(futures, 10 * 1000);
   }
+  
+  @Test
+  public void parallelFailureCancelsGroupTest() throws InterruptedException {
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addStep(new FailureTestStep());
+    TestStep blockingStep = new TestStep("blocking", 10 * 1000);
+    pBuilder.addStep(blockingStep);
+    
+    long start = Clock.accurateForwardProgressingMillis();
+    List<ListenableFuture<StepResult>> futures = pBuilder.build().startScript();
+    assertNotNull(StepResultCollectionUtils.getFailedResult(futures));
+    // remaining step should be canceled rather than run to completion
+    FutureUtils.blockTillAllComplete(futures);
+    assertTrue(Clock.accurateForwardProgressingMillis() - start < 10 * 1000);
+  }
 }
@@ -0,0 +1,105 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PrometheusMetricsTest {
+  private static void recordRunTime(PrometheusMetrics metrics, CharSequence identifier, 
+                                    long runTimeMillis, Throwable error) {
+    metrics.recordResult(identifier, ScriptStepType.Normal, 0, 
+                         TimeUnit.MILLISECONDS.toNanos(runTimeMillis), error);
+  }
+  
+  @Test
+  public void stepMetricsTest() throws IOException {
+    PrometheusMetrics metrics = new PrometheusMetrics(null, 0.01, 0.1);
+    recordRunTime(metrics, "fast", 5, null);
+    recordRunTime(metrics, new LightCharSequence("fast".toCharArray()), 50, null);
+    recordRunTime(metrics, "fast", 500, new RuntimeException());
+    metrics.recordResult("maintenance", ScriptStepType.Maintenance, 0, 0, null);
+    
+    StringWriter sw = new StringWriter();
+    metrics.writeTo(sw);
+    String result = sw.toString();
+    
+    assertTrue(result.contains("# TYPE ambush_steps_total counter\n"));
+    assertTrue(result.contains("ambush_steps_total{step=\"fast\"} 3\n"));
+    assertTrue(result.contains("ambush_step_errors_total{step=\"fast\"} 1\n"));
+    String bucketPrefix = "ambush_step_duration_seconds_bucket{step=\"fast\",le=";
+    assertTrue(result.contains(bucketPrefix + "\"0.01\"} 1\n"));
+    assertTrue(result.contains(bucketPrefix + "\"0.1\"} 2\n"));
+    assertTrue(result.contains(bucketPrefix + "\"+Inf\"} 3\n"));
+    assertTrue(result.contains("ambush_step_duration_seconds_sum{step=\"fast\"} 0.555\n"));
+    assertTrue(result.contains("ambush_step_duration_seconds_count{step=\"fast\"} 3\n"));
+    // maintenance steps without errors are not included
+    assertFalse(result.contains("maintenance"));
+    // no script provided, so no health
+    assertFalse(result.contains("ambush_script_running"));
+  }
+  
+  @Test
+  public void escapeIdentifierTest() {
+    PrometheusMetrics metrics = new PrometheusMetrics(null);
+    recordRunTime(metrics, "a\"b\\c\nd", 1, null);
+    
+    assertTrue(metrics.toString().contains("ambush_steps_total{step=\"a\\\"b\\\\c\\nd\"} 1\n"));
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void unorderedBoundsFail() {
+    new PrometheusMetrics(null, 0.1, 0.01);
+  }
+  
+  @Test
+  public void scriptHealthTest() throws InterruptedException {
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    builder.addStep(new TestStep("step"), 10);
+    ExecutableScript script = builder.build();
+    PrometheusMetrics metrics = new PrometheusMetrics(script);
+    script.addResultRecorder(metrics);
+    
+    assertNull(StepResultCollectionUtils.getFailedResult(script.startScript()));
+    String result = metrics.toString();
+    assertTrue(result.contains("ambush_steps_total{step=\"step\"} 10\n"));
+    assertTrue(result.contains("# TYPE ambush_script_running gauge\n"));
+    assertTrue(result.contains("ambush_pool_threads "));
+    assertTrue(result.contains("ambush_pool_queued_tasks "));
+  }
+  
+  @Test
+  public void endpointTest() throws IOException {
+    PrometheusMetrics metrics = new PrometheusMetrics(null);
+    recordRunTime(metrics, "step", 1, null);
+    
+    PrometheusEndpoint endpoint = new PrometheusEndpoint(metrics, 0);
+    try {
+      URL url = new URL("http://localhost:" + endpoint.getPort() + 
+                          PrometheusEndpoint.METRICS_PATH);
+      HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+      assertEquals(200, connection.getResponseCode());
+      assertEquals(PrometheusMetrics.CONTENT_TYPE, connection.getContentType());
+      InputStream in = connection.getInputStream();
+      StringBuilder sb = new StringBuilder();
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        sb.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+      }
+      in.close();
+      
+      assertEquals(metrics.toString(), sb.toString());
+    } finally {
+      endpoint.close();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+
+@SuppressWarnings("javadoc")
+public class ResultAggregationTest {
+  private static List<ListenableFuture<StepResult>> makeFutures(int count) {
+    List<ListenableFuture<StepResult>> result = new ArrayList<ListenableFuture<StepResult>>(count);
+    for (int i = 0; i < count; i++) {
+      StepResult sr;
+      if (i % 1000 == 999) {
+        sr = new ErrorStepResult("fail", i, new Exception());
+      } else if (i % 100 == 0) {
+        sr = new MaintenancePassStepResult("maintenance");
+      } else {
+        sr = new PassStepResult("step" + (i % 10), i);
+      }
+      result.add(FutureUtils.<StepResult>immediateResultFuture(sr));
+    }
+    SettableListenableFuture<StepResult> canceled = new SettableListenableFuture<StepResult>();
+    canceled.cancel(false);
+    result.add(canceled);
+    return result;
+  }
+  
+  private static void verifyMatchesSequential(List<ListenableFuture<StepResult>> futures, 
+                                              ResultAggregation aggregation) throws Exception {
+    ResultSummary expected = ResultSummary.fromFutures(futures, 0);
+    ResultSummary summary = aggregation.getSummary();
+    
+    assertEquals(expected.getStepCount(), summary.getStepCount());
+    assertEquals(expected.getExecutedCount(), summary.getExecutedCount());
+    assertEquals(expected.getFailureCount(), summary.getFailureCount());
+    assertEquals(expected.getRunTimeHistogram().getTotalCount(), 
+                 summary.getRunTimeHistogram().getTotalCount());
+    assertEquals(expected.getRunTimeHistogram().getMean(), 
+                 summary.getRunTimeHistogram().getMean(), 0.0001);
+    assertEquals(expected.getLongestStepRunTime(TimeUnit.NANOSECONDS), 
+                 summary.getLongestStepRunTime(TimeUnit.NANOSECONDS));
+    assertEquals(expected.getIdentifierSummaries().size(), 
+                 summary.getIdentifierSummaries().size());
+    assertEquals(expected.getReportLines(ScriptRunner.RETURNED_PERCENTILES), 
+                 summary.getReportLines(ScriptRunner.RETURNED_PERCENTILES));
+    assertEquals(StepResultCollectionUtils.getAllFailedResults(futures), 
+                 aggregation.getFailedResults());
+  }
+  
+  @Test
+  public void sequentialAggregateTest() throws Exception {
+    List<ListenableFuture<StepResult>> futures = makeFutures(5000);
+    
+    verifyMatchesSequential(futures, ResultAggregation.aggregate(futures, null));
+  }
+  
+  @Test
+  public void parallelAggregateTest() throws Exception {
+    List<ListenableFuture<StepResult>> futures = 
+        makeFutures(ResultAggregation.SEQUENTIAL_THRESHOLD * 5 + 1);
+    ResultAggregation aggregation = ResultAggregation.aggregate(futures, null);
+    
+    verifyMatchesSequential(futures, aggregation);
+    assertEquals(ResultAggregation.SEQUENTIAL_THRESHOLD * 5 / 1000, 
+                 aggregation.getFailedResults().size());
+    assertEquals(1, aggregation.getSummary().getStepCount() - 
+                      aggregation.getSummary().getExecutedCount());
+  }
+  
+  @Test
+  public void providedPoolTest() throws Exception {
+    List<ListenableFuture<StepResult>> futures = 
+        makeFutures(ResultAggregation.SEQUENTIAL_THRESHOLD * 3);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      verifyMatchesSequential(futures, ResultAggregation.aggregate(futures, null, pool));
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void recordedFailuresNotRegroupedTest() throws Exception {
+    List<ListenableFuture<StepResult>> futures = 
+        makeFutures(ResultAggregation.SEQUENTIAL_THRESHOLD * 2);
+    FailureAggregator recordedFailures = new FailureAggregator();
+    recordedFailures.recordFailure("foo", new Exception());
+    ResultAggregation aggregation = ResultAggregation.aggregate(futures, recordedFailures);
+    
+    assertTrue(recordedFailures == aggregation.getSummary().getFailures());
+    assertEquals(1, aggregation.getSummary().getFailureCount());
+    assertEquals(1, recordedFailures.getFailureCount());
+    assertEquals(ResultAggregation.SEQUENTIAL_THRESHOLD * 2 / 1000, 
+                 aggregation.getSummary().getIdentifierSummaries().get("fail").getFailureCount());
+  }
+  
+  @Test
+  public void waitsForCompletionTest() throws Exception {
+    final SettableListenableFuture<StepResult> slf = new SettableListenableFuture<StepResult>();
+    List<ListenableFuture<StepResult>> futures = new ArrayList<ListenableFuture<StepResult>>();
+    futures.add(slf);
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          // ignored
+        }
+        slf.setResult(new PassStepResult("foo", 1));
+      }
+    }).start();
+    
+    ResultAggregation aggregation = ResultAggregation.aggregate(futures, null);
+    assertEquals(1, aggregation.getSummary().getExecutedCount());
+    assertTrue(aggregation.getFailedResults().isEmpty());
+  }
+}
@@ -0,0 +1,157 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+@SuppressWarnings("javadoc")
+public class ResultSummaryTest {
+  @Test
+  public void fromFuturesTest() throws Exception {
+    Exception failure = new Exception();
+    List<ListenableFuture<StepResult>> futures = new ArrayList<ListenableFuture<StepResult>>();
+    futures.add(FutureUtils.<StepResult>immediateResultFuture(new PassStepResult("foo", 10)));
+    futures.add(FutureUtils.<StepResult>immediateResultFuture(new PassStepResult("foo", 30)));
+    futures.add(FutureUtils.<StepResult>immediateResultFuture(new ErrorStepResult("bar", 20, 
+                                                                                  failure)));
+    futures.add(FutureUtils.<StepResult>immediateResultFuture(new MaintenancePassStepResult("m")));
+    
+    ResultSummary summary = ResultSummary.fromFutures(futures, 100);
+    assertEquals(4, summary.getStepCount());
+    assertEquals(4, summary.getExecutedCount());
+    assertEquals(1, summary.getFailureCount());
+    assertEquals(100, summary.getRunDurationMillis());
+    assertEquals(3, summary.getRunTimeHistogram().getTotalCount());
+    assertEquals("foo", summary.getLongestStepDescription());
+    assertEquals(30, summary.getLongestStepRunTime(TimeUnit.NANOSECONDS));
+    assertEquals(1, summary.getFailures().getFailureGroups().size());
+    FailureAggregator.FailureGroup fs = 
+        summary.getFailures().getFailureGroups().values().iterator().next();
+    assertEquals(1, fs.getCount());
+    assertEquals("bar", fs.getStepDescriptions().get(0));
+    ResultSummary.IdentifierSummary is = summary.getIdentifierSummaries().get("foo");
+    assertEquals(2, is.getCount());
+    assertEquals(0, is.getFailureCount());
+    assertEquals(20, is.getRunTimeAverage(TimeUnit.NANOSECONDS), 0);
+    assertEquals(30, is.getMaxRunTime(TimeUnit.NANOSECONDS));
+    assertEquals(3, summary.getIdentifierSummaries().size());
+  }
+  
+  @Test
+  public void fromCompactResultsTest() {
+    CompactStepResults results = new CompactStepResults(3);
+    results.assignSlot("foo");
+    results.assignSlot("bar");
+    results.assignSlot("foo");
+    results.recordResult(0, ScriptStepType.Normal, 10, null);
+    results.recordResult(1, ScriptStepType.Normal, 30, new Exception());
+    
+    ResultSummary summary = ResultSummary.fromCompactResults(results, 100);
+    assertEquals(3, summary.getStepCount());
+    assertEquals(2, summary.getExecutedCount());
+    assertEquals(1, summary.getFailureCount());
+    assertEquals(2, summary.getRunTimeHistogram().getTotalCount());
+    assertEquals("bar", summary.getLongestStepDescription());
+    assertEquals(1, summary.getIdentifierSummaries().get("bar").getFailureCount());
+  }
+  
+  @Test
+  public void mergeTest() {
+    Exception failure = new Exception();
+    ResultSummary summary1 = new ResultSummary();
+    summary1.addStepCounts(2, 2);
+    summary1.setRunDurationMillis(100);
+    summary1.addResult("foo", false, 10, null);
+    summary1.addResult("bar", false, 20, failure);
+    ResultSummary summary2 = new ResultSummary();
+    summary2.addStepCounts(3, 1);
+    summary2.setRunDurationMillis(50);
+    summary2.addResult("bar", false, 40, failure);
+    
+    summary1.merge(summary2);
+    assertEquals(5, summary1.getStepCount());
+    assertEquals(3, summary1.getExecutedCount());
+    assertEquals(2, summary1.getFailureCount());
+    assertEquals(100, summary1.getRunDurationMillis());
+    assertEquals(3, summary1.getRunTimeHistogram().getTotalCount());
+    assertEquals(40, summary1.getLongestStepRunTime(TimeUnit.NANOSECONDS));
+    assertEquals(1, summary1.getFailures().getFailureGroups().size());
+    FailureAggregator.FailureGroup fs = 
+        summary1.getFailures().getFailureGroups().values().iterator().next();
+    assertEquals(2, fs.getCount());
+    assertEquals(1, fs.getStepDescriptions().size());
+    assertEquals(2, summary1.getIdentifierSummaries().get("bar").getCount());
+    // merged summary is not modified
+    assertEquals(1, summary2.getFailureCount());
+  }
+  
+  @Test
+  public void failureSamplesBoundedTest() {
+    Exception failure = new Exception();
+    ResultSummary summary = new ResultSummary();
+    for (int i = 0; i < FailureAggregator.MAX_STEP_SAMPLES * 2; i++) {
+      summary.addResult("step" + i, false, 1, failure);
+    }
+    
+    FailureAggregator.FailureGroup fs = 
+        summary.getFailures().getFailureGroups().values().iterator().next();
+    assertEquals(FailureAggregator.MAX_STEP_SAMPLES * 2, fs.getCount());
+    assertEquals(FailureAggregator.MAX_STEP_SAMPLES, fs.getStepDescriptions().size());
+    assertEquals(FailureAggregator.MAX_TRACE_SAMPLES, fs.getSampleTraces().size());
+  }
+  
+  @Test
+  public void recordedFailuresNotRegroupedTest() {
+    FailureAggregator failures = new FailureAggregator();
+    Exception failure = new Exception();
+    failures.recordFailure("foo", failure);
+    ResultSummary summary = new ResultSummary(failures, false);
+    summary.addResult("foo", false, 1, failure);
+    
+    assertEquals(1, summary.getFailureCount());
+    assertEquals(1, summary.getIdentifierSummaries().get("foo").getFailureCount());
+  }
+  
+  @Test
+  public void writeAndReadTest() throws Exception {
+    ResultSummary summary = new ResultSummary();
+    summary.addStepCounts(3, 3);
+    summary.setRunDurationMillis(1000);
+    summary.addResult("foo", false, 10, null);
+    summary.addResult("bar", false, 20, new Exception());
+    summary.addResult("maintenance", true, 5, null);
+    
+    File file = File.createTempFile("ambushSummary", ".bin");
+    try {
+      summary.writeTo(file);
+      ResultSummary read = ResultSummary.readFrom(file);
+      
+      assertEquals(summary.getReportLines(ScriptRunner.RETURNED_PERCENTILES), 
+                   read.getReportLines(ScriptRunner.RETURNED_PERCENTILES));
+      assertEquals(3, read.getIdentifierSummaries().size());
+      assertEquals(1, read.getFailures().getFailureGroups().size());
+    } finally {
+      file.delete();
+    }
+  }
+  
+  @Test
+  public void reportAllPassedTest() {
+    ResultSummary summary = new ResultSummary();
+    summary.addStepCounts(1, 1);
+    summary.addResult("foo", false, TimeUnit.MILLISECONDS.toNanos(10), null);
+    
+    List<String> lines = summary.getReportLines(50, 100);
+    assertEquals("All steps passed!", lines.get(0));
+    assertEquals("Totals steps executed: 1 / 1", lines.get(1));
+    assertEquals("Longest running step: foo, ran for: 10 milliseconds", 
+                 lines.get(lines.size() - 1));
+  }
+}
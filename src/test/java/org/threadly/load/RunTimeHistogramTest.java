@@ -0,0 +1,132 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class RunTimeHistogramTest {
+  private RunTimeHistogram histogram;
+  
+  @Before
+  public void setup() {
+    histogram = new RunTimeHistogram();
+  }
+  
+  @Test
+  public void emptyTest() {
+    assertEquals(0, histogram.getTotalCount());
+    assertEquals(0, histogram.getMinValue());
+    assertEquals(0, histogram.getMaxValue());
+    assertTrue(Double.isNaN(histogram.getMean()));
+    assertEquals(0, histogram.getValueAtPercentile(50));
+  }
+  
+  @Test
+  public void bucketIndexTest() {
+    long[] values = new long[] { 0, 1, 127, 128, 129, 1000, 123456789, Long.MAX_VALUE };
+    int lastIndex = -1;
+    for (long value : values) {
+      int index = RunTimeHistogram.bucketIndex(value);
+      assertTrue(index >= lastIndex);
+      assertTrue(index < RunTimeHistogram.BUCKET_COUNT);
+      long highestValue = RunTimeHistogram.bucketHighestValue(index);
+      assertTrue(highestValue >= value);
+      assertTrue(highestValue - value <= value / 64);
+      lastIndex = index;
+    }
+    assertEquals(RunTimeHistogram.BUCKET_COUNT - 1, RunTimeHistogram.bucketIndex(Long.MAX_VALUE));
+  }
+  
+  @Test
+  public void recordValueTest() {
+    for (int i = 1; i <= 100; i++) {
+      histogram.recordValue(i);
+    }
+    
+    assertEquals(100, histogram.getTotalCount());
+    assertEquals(1, histogram.getMinValue());
+    assertEquals(100, histogram.getMaxValue());
+    assertEquals(50.5, histogram.getMean(), 0);
+    assertEquals(1, histogram.getValueAtPercentile(0));
+    assertEquals(50, histogram.getValueAtPercentile(50));
+    assertEquals(99, histogram.getValueAtPercentile(99));
+    assertEquals(100, histogram.getValueAtPercentile(100));
+  }
+  
+  @Test
+  public void recordNegativeValueTest() {
+    histogram.recordValue(-10);
+    
+    assertEquals(1, histogram.getTotalCount());
+    assertEquals(0, histogram.getMaxValue());
+  }
+  
+  @Test
+  public void largeValuePercentileTest() {
+    histogram.recordValue(1000000, 9);
+    histogram.recordValue(50000000);
+    
+    long p50 = histogram.getValueAtPercentile(50);
+    assertTrue(p50 >= 1000000 && p50 <= 1000000 * 1.02);
+    assertEquals(50000000, histogram.getValueAtPercentile(99.9));
+  }
+  
+  @Test
+  public void mergeTest() {
+    RunTimeHistogram other = new RunTimeHistogram();
+    histogram.recordValue(10);
+    other.recordValue(5);
+    other.recordValue(20);
+    
+    histogram.merge(other);
+    
+    assertEquals(3, histogram.getTotalCount());
+    assertEquals(5, histogram.getMinValue());
+    assertEquals(20, histogram.getMaxValue());
+    assertEquals(10, histogram.getValueAtPercentile(50));
+    assertEquals(2, other.getTotalCount());
+  }
+  
+  @Test
+  public void resetTest() {
+    histogram.recordValue(10);
+    histogram.reset();
+    
+    assertEquals(0, histogram.getTotalCount());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+  }
+  
+  @Test
+  public void getValuesAtPercentilesTest() {
+    for (int i = 1; i <= 10000; i++) {
+      histogram.recordValue(i * 1000L);
+    }
+    
+    double[] percentiles = new double[] { 99, 0, 50, 99.9, 100, 50 };
+    long[] values = histogram.getValuesAtPercentiles(percentiles);
+    assertEquals(percentiles.length, values.length);
+    for (int i = 0; i < percentiles.length; i++) {
+      assertEquals(histogram.getValueAtPercentile(percentiles[i]), values[i]);
+    }
+  }
+  
+  @Test
+  public void getValuesAtPercentilesEmptyTest() {
+    long[] values = histogram.getValuesAtPercentiles(50, 100);
+    
+    assertEquals(0, values[0]);
+    assertEquals(0, values[1]);
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void percentilesOutOfRangeFail() {
+    histogram.getValuesAtPercentiles(50, -1);
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void percentileOutOfRangeFail() {
+    histogram.getValueAtPercentile(101);
+  }
+}
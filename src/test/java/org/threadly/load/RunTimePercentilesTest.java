@@ -0,0 +1,125 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class RunTimePercentilesTest {
+  private static final double[] TEST_PERCENTILES = new double[] { 0, 1, 25, 50, 50, 75, 
+                                                                  90, 99, 99.9, 100 };
+  
+  private static void verifyAgainstSort(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    long[] selected = values.clone();
+    int[] tags = new int[values.length];
+    for (int i = 0; i < tags.length; i++) {
+      tags[i] = i;
+    }
+    int[] resultTags = new int[TEST_PERCENTILES.length];
+    RunTimePercentiles percentiles = 
+        RunTimePercentiles.select(selected, tags, values.length, TEST_PERCENTILES, resultTags);
+    
+    assertEquals(TEST_PERCENTILES.length, percentiles.size());
+    assertEquals(values.length, percentiles.getValueCount());
+    for (int i = 0; i < TEST_PERCENTILES.length; i++) {
+      int index = TEST_PERCENTILES[i] == 100 ? 
+                    values.length - 1 : (int)((TEST_PERCENTILES[i] / 100) * values.length);
+      assertEquals(sorted[index], percentiles.getRunTime(i, TimeUnit.NANOSECONDS));
+      // tag must still point to the original location of the value
+      assertEquals(sorted[index], values[resultTags[i]]);
+    }
+  }
+  
+  @Test
+  public void randomValuesTest() {
+    Random random = new Random(42);
+    for (int size : new int[] { 1, 2, 15, 17, 100, 1000, 100000 }) {
+      long[] values = new long[size];
+      for (int i = 0; i < size; i++) {
+        values[i] = Math.abs(random.nextLong()) % 1000000000L;
+      }
+      verifyAgainstSort(values);
+    }
+  }
+  
+  @Test
+  public void duplicateValuesTest() {
+    Random random = new Random(42);
+    long[] values = new long[10000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextInt(5);
+    }
+    verifyAgainstSort(values);
+    
+    Arrays.fill(values, 10);
+    verifyAgainstSort(values);
+  }
+  
+  @Test
+  public void sortedValuesTest() {
+    long[] values = new long[10000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i;
+    }
+    verifyAgainstSort(values);
+    
+    for (int i = 0; i < values.length; i++) {
+      values[i] = values.length - i;
+    }
+    verifyAgainstSort(values);
+  }
+  
+  @Test
+  public void fromRunTimesCountTest() {
+    long[] values = new long[] { 5, 4, 3, 2, 1, 100, 100 };
+    RunTimePercentiles percentiles = RunTimePercentiles.fromRunTimes(values, 5, 0, 100);
+    
+    assertEquals(5, percentiles.getValueCount());
+    assertEquals(1, percentiles.getRunTime(0., TimeUnit.NANOSECONDS));
+    assertEquals(5, percentiles.getRunTime(100., TimeUnit.NANOSECONDS));
+    assertNull(percentiles.getResult(0));
+  }
+  
+  @Test
+  public void emptyTest() {
+    RunTimePercentiles percentiles = RunTimePercentiles.fromRunTimes(new long[0], 0, 50);
+    
+    assertEquals(0, percentiles.getValueCount());
+    assertEquals(0, percentiles.getRunTime(50., TimeUnit.NANOSECONDS));
+  }
+  
+  @Test
+  public void fromHistogramTest() {
+    RunTimeHistogram histogram = new RunTimeHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.recordValue(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    RunTimePercentiles percentiles = RunTimePercentiles.fromHistogram(histogram, 50, 100);
+    
+    assertEquals(100, percentiles.getValueCount());
+    assertEquals(histogram.getValueAtPercentile(50), 
+                 percentiles.getRunTime(50., TimeUnit.NANOSECONDS));
+    assertEquals(100, percentiles.getRunTime(100., TimeUnit.MILLISECONDS));
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void percentileNotRequestedFail() {
+    RunTimePercentiles.fromRunTimes(new long[] { 1 }, 1, 50).getRunTime(90., TimeUnit.SECONDS);
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void percentileOutOfRangeFail() {
+    RunTimePercentiles.fromRunTimes(new long[] { 1 }, 1, 100.1);
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void noPercentilesFail() {
+    RunTimePercentiles.fromRunTimes(new long[] { 1 }, 1);
+  }
+}
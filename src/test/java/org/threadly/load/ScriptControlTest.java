@@ -0,0 +1,181 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+import static org.threadly.load.AmbushTestUtils.*;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.util.Clock;
+
+@SuppressWarnings("javadoc")
+public class ScriptControlTest {
+  @Test
+  public void runTest() throws InterruptedException, ExecutionException {
+    TestStep step = new TestStep();
+    ScriptControl control = makeScript(new TestStep(), step, 10).startScriptWithControl();
+    
+    assertNull(control.getCompletionFuture().get());
+    assertEquals(11, control.getFutures().size());
+    assertNull(StepResultCollectionUtils.getFailedResult(control.getFutures()));
+    assertEquals(10, step.getRunCount());
+    assertEquals(0, control.getRunningStepCount());
+    assertTrue(control.isStopped());
+  }
+  
+  @Test
+  public void pauseAndResumeTest() throws InterruptedException, ExecutionException {
+    TestStep firstStep = new TestStep("first", 100);
+    TestStep step = new TestStep();
+    ScriptControl control = makeScript(firstStep, step, 10).startScriptWithControl();
+    firstStep.blockTillStarted();
+    control.pause();
+    assertTrue(control.isPaused());
+    
+    firstStep.blockTillFinished();
+    Thread.sleep(50);
+    assertEquals(0, step.getRunCount());
+    assertFalse(control.getCompletionFuture().isDone());
+    
+    control.resume();
+    assertFalse(control.isPaused());
+    assertNull(control.getCompletionFuture().get());
+    assertEquals(10, step.getRunCount());
+  }
+  
+  @Test
+  public void pauseReleasesThreadsTest() throws InterruptedException, ExecutionException {
+    final AtomicReference<ThreadPoolExecutor> pool = new AtomicReference<ThreadPoolExecutor>();
+    final ScriptExecutorFactory singleThread = ScriptExecutors.fixedSizePool(1);
+    TestStep firstStep = new TestStep("first", 100);
+    TestStep step = new TestStep();
+    ExecutableScript script = makeScript(firstStep, step, 10);
+    script.setExecutorFactory(new ScriptExecutorFactory() {
+      @Override
+      public Executor makeExecutor(int maximumThreadCount) {
+        pool.set((ThreadPoolExecutor)singleThread.makeExecutor(maximumThreadCount));
+        return pool.get();
+      }
+    });
+    ScriptControl control = script.startScriptWithControl();
+    firstStep.blockTillStarted();
+    control.pause();
+    firstStep.blockTillFinished();
+    
+    // paused steps are queued rather than holding the only thread
+    long start = Clock.accurateForwardProgressingMillis();
+    while (pool.get().getActiveCount() != 0) {
+      assertTrue(Clock.accurateForwardProgressingMillis() - start < 10 * 1000);
+      Thread.sleep(10);
+    }
+    assertEquals(0, step.getRunCount());
+    assertFalse(control.getCompletionFuture().isDone());
+    
+    control.resume();
+    assertNull(control.getCompletionFuture().get());
+    assertEquals(10, step.getRunCount());
+  }
+  
+  @Test
+  public void stopWhilePausedTest() throws InterruptedException, ExecutionException {
+    TestStep firstStep = new TestStep("first", 100);
+    TestStep step = new TestStep();
+    ScriptControl control = makeScript(firstStep, step, 10).startScriptWithControl();
+    firstStep.blockTillStarted();
+    control.pause();
+    firstStep.blockTillFinished();
+    
+    assertNull(control.stop().get());
+    assertEquals(0, step.getRunCount());
+    assertNull(control.getFutures().get(0).get().getError());
+    for (int i = 1; i < control.getFutures().size(); i++) {
+      assertTrue(control.getFutures().get(i).isCancelled());
+    }
+  }
+  
+  @Test
+  public void setMaxConcurrencyTest() throws InterruptedException, ExecutionException {
+    final AtomicInteger running = new AtomicInteger(0);
+    final AtomicInteger maxRunning = new AtomicInteger(0);
+    ScriptStep step = new AbstractScriptStep("concurrent") {
+      @Override
+      public void runStep() throws InterruptedException {
+        int current = running.incrementAndGet();
+        while (true) {
+          int max = maxRunning.get();
+          if (current <= max || maxRunning.compareAndSet(max, current)) {
+            break;
+          }
+        }
+        Thread.sleep(10);
+        running.decrementAndGet();
+      }
+    };
+    TestStep firstStep = new TestStep("first", 100);
+    ScriptControl control = makeScript(firstStep, step, 20).startScriptWithControl();
+    firstStep.blockTillStarted();
+    control.setMaxConcurrency(2);
+    assertEquals(2, control.getMaxConcurrency());
+    
+    assertNull(control.getCompletionFuture().get());
+    assertTrue(maxRunning.get() <= 2);
+    assertTrue(maxRunning.get() > 0);
+  }
+  
+  @Test
+  public void stopTest() throws InterruptedException, ExecutionException {
+    TestStep firstStep = new TestStep("first", 100);
+    TestStep step = new TestStep();
+    ScriptControl control = makeScript(firstStep, step, 10).startScriptWithControl();
+    firstStep.blockTillStarted();
+    
+    ListenableFuture<StepResult> completionFuture = control.stop();
+    assertTrue(control.isStopped());
+    assertNull(completionFuture.get());
+    
+    List<ListenableFuture<StepResult>> futures = control.getFutures();
+    // the running step is allowed to complete
+    assertEquals("first", futures.get(0).get().getDescription());
+    for (int i = 1; i < futures.size(); i++) {
+      try {
+        futures.get(i).get();
+        fail("Exception should have thrown");
+      } catch (CancellationException e) {
+        // expected
+      }
+    }
+    assertEquals(0, step.getRunCount());
+  }
+  
+  @Test
+  public void setStepPerSecondLimitTest() throws InterruptedException, ExecutionException {
+    TestStep step = new TestStep();
+    ScriptControl control = makeScript(new TestStep("first", 50), step, 10)
+                              .startScriptWithControl();
+    long start = Clock.accurateForwardProgressingMillis();
+    control.setStepPerSecondLimit(20);
+    assertEquals(20, control.getStepPerSecondLimit(), 0);
+    
+    assertNull(control.getCompletionFuture().get());
+    assertEquals(10, step.getRunCount());
+    // 10 steps at 20 per second, the first of which may start right away
+    assertTrue(Clock.accurateForwardProgressingMillis() - start >= 400);
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void setMaxConcurrencyNegativeFail() throws InterruptedException {
+    ScriptControl control = makeScript(new TestStep(), new TestStep(), 1).startScriptWithControl();
+    try {
+      control.setMaxConcurrency(-1);
+    } finally {
+      StepResultCollectionUtils.getFailedResult(control.getFutures());
+    }
+  }
+}
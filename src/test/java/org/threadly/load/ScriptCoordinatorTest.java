@@ -0,0 +1,101 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ScriptCoordinatorTest {
+  private static final int TOTAL_STEPS = 11;
+  
+  @Test
+  public void splitAcrossAgentsTest() throws Exception {
+    TestScriptCoordinator coordinator = 
+        new TestScriptCoordinator(new String[]{SplitScriptFactory.class.getName(), 
+                                               ScriptFactory.AGENT_COUNT_PARAMETER + "=3"});
+    
+    assertEquals(1, coordinator.runScript());
+    for (Thread t : coordinator.agentThreads) {
+      t.join();
+    }
+    assertEquals(3, coordinator.agentThreads.size());
+    // steps may be canceled after the failure, so only the total is deterministic
+    assertTrue(containsLine(coordinator.output, " / " + (TOTAL_STEPS + 1)));
+    assertTrue(containsLine(coordinator.output, "agent failure"));
+  }
+  
+  @Test
+  public void singleAgentCompactResultsTest() throws Exception {
+    TestScriptCoordinator coordinator = 
+        new TestScriptCoordinator(new String[]{SplitScriptFactory.class.getName(), 
+                                               ScriptRunner.COMPACT_RESULTS_PARAMETER + "=true"});
+    
+    assertEquals(1, coordinator.runScript());
+    assertEquals(1, coordinator.agentThreads.size());
+    // steps may be canceled after the failure, so only the total is deterministic
+    assertTrue(containsLine(coordinator.output, " / " + (TOTAL_STEPS + 1)));
+  }
+  
+  private static boolean containsLine(List<String> output, String search) {
+    for (String s : output) {
+      if (s.contains(search)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  private static class TestScriptCoordinator extends ScriptCoordinator {
+    private final List<String> output = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Thread> agentThreads = new ArrayList<Thread>();
+    
+    protected TestScriptCoordinator(String[] args) {
+      super(args);
+    }
+    
+    @Override
+    protected void out(String msg) {
+      output.add(msg);
+    }
+    
+    @Override
+    protected List<Process> startAgents(final int port, int agentCount) {
+      for (int i = 0; i < agentCount; i++) {
+        Thread t = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              ScriptAgent.connect("localhost", port).runScript();
+            } catch (Exception e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+        agentThreads.add(t);
+        t.start();
+      }
+      return Collections.emptyList();
+    }
+  }
+  
+  protected static class SplitScriptFactory extends ScriptFactory {
+    @Override
+    public ExecutableScript buildScript() {
+      ParallelScriptBuilder builder = new ParallelScriptBuilder();
+      builder.addStep(new TestStep(), splitLoad(TOTAL_STEPS));
+      if (getAgentIndex() == getAgentCount() - 1) {
+        builder.addStep(new AbstractScriptStep("fail step") {
+          @Override
+          public void runStep() throws Exception {
+            throw new Exception("agent failure");
+          }
+        });
+      }
+      return builder.build();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+import static org.threadly.load.AmbushTestUtils.*;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+@SuppressWarnings("javadoc")
+public class ScriptExecutorsTest {
+  private static void runScript(ScriptExecutorFactory factory, 
+                                double stepRate) throws Exception {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    addSteps(makeTestSteps(null, TEST_COMPLEXITY), pBuilder);
+    builder.addSteps(pBuilder);
+    addSteps(makeTestSteps(null, TEST_COMPLEXITY), builder);
+    if (stepRate > 0) {
+      builder.setMaxScriptStepRate(stepRate);
+    }
+    ExecutableScript script = builder.build();
+    script.setExecutorFactory(factory);
+    
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    FutureUtils.blockTillAllCompleteOrFirstError(futures, 10 * 1000);
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+  }
+  
+  @Test
+  public void prioritySchedulerTest() throws Exception {
+    Executor executor = ScriptExecutors.priorityScheduler().makeExecutor(2);
+    assertTrue(executor instanceof PriorityScheduler);
+    
+    runScript(ScriptExecutors.priorityScheduler(), 0);
+  }
+  
+  @Test
+  public void lazyPrioritySchedulerTest() throws Exception {
+    Executor executor = ScriptExecutors.lazyPriorityScheduler(2).makeExecutor(100);
+    assertTrue(executor instanceof PriorityScheduler);
+    assertEquals(100, ((PriorityScheduler)executor).getMaxPoolSize());
+    assertEquals(2, ((PriorityScheduler)executor).getCurrentPoolSize());
+    
+    runScript(ScriptExecutors.lazyPriorityScheduler(1), 0);
+  }
+  
+  @Test
+  public void gcBeforeStartDisabledTest() throws Exception {
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    addSteps(makeTestSteps(null, TEST_COMPLEXITY), builder);
+    ExecutableScript script = builder.build();
+    script.setGcBeforeStart(false);
+    
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    FutureUtils.blockTillAllCompleteOrFirstError(futures, 10 * 1000);
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+  }
+  
+  @Test
+  public void workStealingPoolTest() throws Exception {
+    Executor executor = ScriptExecutors.workStealingPool().makeExecutor(2);
+    assertTrue(executor instanceof ForkJoinPool);
+    assertEquals(2, ((ForkJoinPool)executor).getParallelism());
+    
+    runScript(ScriptExecutors.workStealingPool(), 0);
+  }
+  
+  @Test
+  public void workStealingPoolRateLimitedTest() throws Exception {
+    runScript(ScriptExecutors.workStealingPool(), 10000);
+  }
+  
+  @Test
+  public void fixedSizePoolTest() throws Exception {
+    Executor executor = ScriptExecutors.fixedSizePool(4).makeExecutor(100);
+    assertTrue(executor instanceof ThreadPoolExecutor);
+    assertEquals(4, ((ThreadPoolExecutor)executor).getMaximumPoolSize());
+    // threads are started on demand
+    assertEquals(0, ((ThreadPoolExecutor)executor).getPoolSize());
+    
+    runScript(ScriptExecutors.processorSizedPool(), 10000);
+  }
+  
+  @Test
+  public void forNameTest() {
+    assertEquals("priorityScheduler", 
+                 ScriptExecutors.forName("priorityScheduler").toString());
+    assertEquals("workStealingPool", ScriptExecutors.forName(" workStealingPool").toString());
+    assertEquals("fixedSizePool(8)", ScriptExecutors.forName("fixedSizePool( 8 )").toString());
+    assertEquals("lazyPriorityScheduler(4)", 
+                 ScriptExecutors.forName("lazyPriorityScheduler(4)").toString());
+    assertTrue(ScriptExecutors.forName("lazyPriorityScheduler").toString()
+                              .startsWith("lazyPriorityScheduler("));
+    assertTrue(ScriptExecutors.forName("processorSizedPool").toString()
+                              .startsWith("fixedSizePool("));
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void forNameUnknownFail() {
+    ScriptExecutors.forName("foo");
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void forNameInvalidThreadCountFail() {
+    ScriptExecutors.forName("fixedSizePool(foo)");
+  }
+}
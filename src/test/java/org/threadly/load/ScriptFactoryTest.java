@@ -261,6 +261,43 @@ public class ScriptFactoryTest {
     assertEquals(val, factory.getStringValue(key, val));
   }
   
+  @Test
+  public void agentDefaultsTest() {
+    assertEquals(1, factory.getAgentCount());
+    assertEquals(0, factory.getAgentIndex());
+    assertEquals(10, factory.splitLoad(10));
+    assertEquals(10, factory.splitRate(10), 0);
+  }
+  
+  @Test
+  public void splitLoadTest() {
+    properties.put(ScriptFactory.AGENT_COUNT_PARAMETER, "3");
+    int total = 0;
+    for (int i = 0; i < 3; i++) {
+      properties.put(ScriptFactory.AGENT_INDEX_PARAMETER, Integer.toString(i));
+      int load = factory.splitLoad(10);
+      assertTrue(load == 3 || load == 4);
+      total += load;
+    }
+    assertEquals(10, total);
+  }
+  
+  @Test
+  public void splitBuildersTest() {
+    AbstractScriptBuilder[] builders = new AbstractScriptBuilder[5];
+    for (int i = 0; i < builders.length; i++) {
+      builders[i] = new SequentialScriptBuilder();
+    }
+    properties.put(ScriptFactory.AGENT_COUNT_PARAMETER, "2");
+    properties.put(ScriptFactory.AGENT_INDEX_PARAMETER, "1");
+    
+    AbstractScriptBuilder[] result = factory.splitBuilders(builders);
+    assertEquals(2, result.length);
+    assertTrue(builders[1] == result[0]);
+    assertTrue(builders[3] == result[1]);
+    assertEquals(1.5, factory.splitRate(3), 0);
+  }
+  
   protected static class TestScriptFactory extends ScriptFactory {
     @Override
     public ExecutableScript buildScript() {
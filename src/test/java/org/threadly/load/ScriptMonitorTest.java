@@ -0,0 +1,164 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+import static org.threadly.load.AmbushTestUtils.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.util.Clock;
+import org.threadly.util.StringUtils;
+
+@SuppressWarnings("javadoc")
+public class ScriptMonitorTest {
+  @Test
+  public void registerAndUnregisterTest() throws JMException, InterruptedException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ExecutableScript script = makeScript(new TestStep(), new TestStep(), 10);
+    ScriptMonitor monitor = script.registerMBean(StringUtils.makeRandomString(5));
+    ObjectName name = monitor.getObjectName();
+    try {
+      assertTrue(server.isRegistered(name));
+      assertEquals(Boolean.FALSE, server.getAttribute(name, "Running"));
+      
+      assertNull(StepResultCollectionUtils.getFailedResult(script.startScript()));
+      assertEquals(11L, server.getAttribute(name, "CompletedStepCount"));
+      assertEquals(0L, server.getAttribute(name, "FailedStepCount"));
+      assertEquals(0, server.getAttribute(name, "RunningStepCount"));
+    } finally {
+      script.unregisterMBean();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+  
+  @Test (expected = IllegalStateException.class)
+  public void registerTwiceFail() throws JMException {
+    ExecutableScript script = makeScript(new TestStep(), new TestStep(), 1);
+    script.registerMBean(StringUtils.makeRandomString(5));
+    try {
+      script.registerMBean(StringUtils.makeRandomString(5));
+    } finally {
+      script.unregisterMBean();
+    }
+  }
+  
+  @Test
+  public void failedStepCountTest() throws JMException, InterruptedException {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep());
+    builder.addStep(new FailureTestStep());
+    ExecutableScript script = builder.build();
+    ScriptMonitor monitor = script.registerMBean(StringUtils.makeRandomString(5));
+    try {
+      assertNotNull(StepResultCollectionUtils.getFailedResult(script.startScript()));
+      assertEquals(2, monitor.getCompletedStepCount());
+      assertEquals(1, monitor.getFailedStepCount());
+    } finally {
+      script.unregisterMBean();
+    }
+  }
+  
+  @Test
+  public void setStepPerSecondLimitAndStopTest() throws JMException, InterruptedException, 
+                                                         ExecutionException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    TestStep firstStep = new TestStep("first", 100);
+    TestStep step = new TestStep();
+    ExecutableScript script = makeScript(firstStep, step, 10);
+    ObjectName name = script.registerMBean(StringUtils.makeRandomString(5)).getObjectName();
+    try {
+      List<ListenableFuture<StepResult>> futures = script.startScript();
+      firstStep.blockTillStarted();
+      assertEquals(Boolean.TRUE, server.getAttribute(name, "Running"));
+      assertEquals(1, server.getAttribute(name, "RunningStepCount"));
+      assertTrue((Integer)server.getAttribute(name, "PoolSize") > 0);
+      
+      server.setAttribute(name, new Attribute("StepPerSecondLimit", 10.0));
+      assertEquals(10.0, server.getAttribute(name, "StepPerSecondLimit"));
+      
+      server.invoke(name, "stop", new Object[0], new String[0]);
+      StepResultCollectionUtils.getFailedResult(futures);
+      assertEquals("first", futures.get(0).get().getDescription());
+      assertEquals(0, step.getRunCount());
+    } finally {
+      script.unregisterMBean();
+    }
+  }
+  
+  @Test
+  public void recentRunTimeTest() throws InterruptedException {
+    long windowNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    ScriptMonitor monitor = 
+        new ScriptMonitor(makeScript(new TestStep(), new TestStep(), 1), null, windowNanos);
+    assertEquals(0, monitor.getRecentMaxRunTimeMillis(), 0);
+    
+    long nowNanos = Clock.accurateTimeNanos();
+    for (int i = 1; i <= 100; i++) {
+      long runTimeNanos = TimeUnit.MILLISECONDS.toNanos(i);
+      monitor.recordResult("step", ScriptStepType.Normal, 
+                           nowNanos - runTimeNanos, runTimeNanos, null);
+    }
+    // not reported until the window has completed
+    assertEquals(0, monitor.getRecentMedianRunTimeMillis(), 0);
+    
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(windowNanos) + 50);
+    assertEquals(50, monitor.getRecentMedianRunTimeMillis(), 1);
+    assertEquals(90, monitor.getRecent90thPercentileRunTimeMillis(), 2);
+    assertEquals(99, monitor.getRecent99thPercentileRunTimeMillis(), 2);
+    assertEquals(100, monitor.getRecentMaxRunTimeMillis(), 2);
+  }
+  
+  @Test
+  public void lateRecordDoesNotLeakIntoResetWindowTest() throws InterruptedException {
+    final long windowNanos = TimeUnit.SECONDS.toNanos(1);
+    final ScriptMonitor monitor = 
+        new ScriptMonitor(makeScript(new TestStep(), new TestStep(), 1), null, windowNanos);
+    final int threadCount = 4;
+    final int lastWindow = 2000;
+    List<Thread> threads = new ArrayList<Thread>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int w = 0; w <= lastWindow; w++) {
+            record(monitor, windowNanos, w);
+            // late result for a window whose slot is reset by the next window
+            record(monitor, windowNanos, Math.max(0, w - 2));
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    
+    RunTimeHistogram histogram = monitor.getWindowHistogram(lastWindow);
+    assertTrue(histogram.getTotalCount() > 0);
+    assertEquals(runTimeForWindow(lastWindow), histogram.getMaxValue(), 
+                 runTimeForWindow(lastWindow) / 10);
+  }
+  
+  // windows which share a slot get run times in different buckets
+  private static long runTimeForWindow(long window) {
+    return TimeUnit.MILLISECONDS.toNanos(window % 6 < 3 ? 1 : 100);
+  }
+  
+  private static void record(ScriptMonitor monitor, long windowNanos, long window) {
+    long runTimeNanos = runTimeForWindow(window);
+    monitor.recordResult("step", ScriptStepType.Normal, 
+                         monitor.startNanos + (window * windowNanos) - runTimeNanos + 1, 
+                         runTimeNanos, null);
+  }
+}
@@ -0,0 +1,164 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+import static org.threadly.load.AmbushTestUtils.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.load.ExecutionPlan.NodeType;
+
+@SuppressWarnings("javadoc")
+public class ScriptTemplateTest {
+  private static ScriptTemplate makeTemplate(TestStep first, TestStep parallel, TestStep last) {
+    SequentialScriptBuilder builder = makeScriptBuilder(first, parallel, 2);
+    builder.addStep(last);
+    return new ScriptTemplate(builder);
+  }
+  
+  @Test
+  public void constructTest() {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep());
+    builder.addStep(new TestStep());
+    int threadCount = builder.getMaximumNeededThreadCount();
+    ScriptTemplate template = new ScriptTemplate(builder);
+    
+    assertEquals(2, template.getStepCount());
+    assertEquals(threadCount, template.getMaximumNeededThreadCount());
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void constructNoStepsFail() {
+    new ScriptTemplate(new SequentialScriptBuilder());
+  }
+  
+  @Test (expected = RuntimeException.class)
+  public void builderReplacedFail() {
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addStep(new TestStep());
+    new ScriptTemplate(builder);
+    
+    builder.addStep(new TestStep());
+  }
+  
+  @Test
+  public void addTemplateThreadCountTest() {
+    ScriptTemplate template = makeTemplate(new TestStep(), new TestStep(), new TestStep());
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    builder.addSteps(template, 3);
+    
+    assertEquals(template.getMaximumNeededThreadCount() * 3, 
+                 builder.getMaximumNeededThreadCount());
+  }
+  
+  @Test
+  public void compileTest() {
+    ScriptTemplate template = makeTemplate(new TestStep("first"), new TestStep("parallel"), 
+                                           new TestStep("last"));
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    builder.addSteps(template, 2);
+    ExecutionPlan plan = builder.build().getExecutionPlan();
+    
+    // root, then each instance is a sequence, parallel collection, and 4 steps
+    assertEquals(1 + (2 * 6), plan.getNodeCount());
+    assertEquals(8, plan.getStepCount());
+    int firstInstance = plan.getChild(0, 0);
+    int secondInstance = plan.getChild(0, 1);
+    assertEquals(NodeType.Sequence, plan.getNodeType(firstInstance));
+    assertEquals(NodeType.Parallel, plan.getNodeType(plan.getChild(firstInstance, 1)));
+    assertEquals("first", plan.getStepIdentifier(plan.getChild(firstInstance, 0)).toString());
+    // instances share the template's runners, but are provided their own futures once run
+    assertSame(plan.getItem(plan.getChild(firstInstance, 0)), 
+               plan.getItem(plan.getChild(secondInstance, 0)));
+    assertNull(plan.getFutures(firstInstance).get(0));
+    plan.prepareForRun(true);
+    assertEquals(4, plan.getFutures(firstInstance).size());
+    assertNotNull(plan.getFutures(firstInstance).get(0));
+    assertTrue(plan.getFutures(firstInstance).get(0) != 
+                 plan.getFutures(secondInstance).get(0));
+  }
+  
+  @Test
+  public void runTest() throws InterruptedException {
+    TestStep first = new TestStep("first");
+    TestStep parallel = new TestStep("parallel");
+    TestStep last = new TestStep("last");
+    ScriptTemplate template = makeTemplate(first, parallel, last);
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addSteps(template);
+    ParallelScriptBuilder pBuilder = new ParallelScriptBuilder();
+    pBuilder.addSteps(template, 5);
+    builder.addSteps(pBuilder);
+    
+    List<ListenableFuture<StepResult>> futures = builder.build().startScript();
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+    
+    assertEquals(6 * 4, futures.size());
+    assertEquals(6, first.getRunCount());
+    assertEquals(6 * 2, parallel.getRunCount());
+    assertEquals(6, last.getRunCount());
+  }
+  
+  @Test
+  public void runFailureTest() throws InterruptedException {
+    SequentialScriptBuilder templateBuilder = new SequentialScriptBuilder();
+    templateBuilder.addStep(new TestStep());
+    templateBuilder.addStep(new FailureTestStep());
+    ScriptTemplate template = new ScriptTemplate(templateBuilder);
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addSteps(template);
+    TestStep last = new TestStep();
+    builder.addStep(last);
+    
+    List<ListenableFuture<StepResult>> futures = builder.build().startScript();
+    assertNotNull(StepResultCollectionUtils.getFailedResult(futures));
+    assertEquals(0, last.getRunCount());
+  }
+  
+  @Test
+  public void warmUpWithinParallelTemplateTest() throws InterruptedException {
+    int instances = 4;
+    int iterations = 20;
+    TestStep warmUpStep = new TestStep("warmUp", 1);
+    SequentialScriptBuilder warmUpBuilder = new SequentialScriptBuilder();
+    warmUpBuilder.addStep(warmUpStep);
+    SequentialScriptBuilder templateBuilder = new SequentialScriptBuilder();
+    templateBuilder.addWarmUp(warmUpBuilder, iterations, 0, 0);
+    TestStep step = new TestStep("main");
+    templateBuilder.addStep(step);
+    ScriptTemplate template = new ScriptTemplate(templateBuilder);
+    ParallelScriptBuilder builder = new ParallelScriptBuilder();
+    builder.addSteps(template, instances);
+    ExecutableScript script = builder.build();
+    ExecutionPlan plan = script.getExecutionPlan();
+    
+    // each instance must have its own warm up, since the warm up plan is run per iteration
+    assertTrue(plan.getItem(plan.getChild(plan.getChild(0, 0), 0)) != 
+                 plan.getItem(plan.getChild(plan.getChild(0, 1), 0)));
+    List<ListenableFuture<StepResult>> futures = script.startScript();
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+    assertEquals(instances, futures.size());
+    assertEquals(instances * iterations, warmUpStep.getRunCount());
+    assertEquals(instances, step.getRunCount());
+  }
+  
+  @Test
+  public void templateWithinWarmUpTest() throws InterruptedException {
+    TestStep step = new TestStep("warmUp");
+    SequentialScriptBuilder templateBuilder = new SequentialScriptBuilder();
+    templateBuilder.addStep(step);
+    ScriptTemplate template = new ScriptTemplate(templateBuilder);
+    SequentialScriptBuilder warmUpBuilder = new SequentialScriptBuilder();
+    warmUpBuilder.addSteps(template);
+    SequentialScriptBuilder builder = new SequentialScriptBuilder();
+    builder.addWarmUp(warmUpBuilder, 3, 0, 0);
+    builder.addSteps(template);
+    
+    List<ListenableFuture<StepResult>> futures = builder.build().startScript();
+    assertNull(StepResultCollectionUtils.getFailedResult(futures));
+    assertEquals(1, futures.size());
+    assertEquals(4, step.getRunCount());
+  }
+}
@@ -4,7 +4,9 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
@@ -75,6 +77,15 @@ public class StepResultCollectionUtilsTest {
     assertTrue(failResults.get(0) == StepResultCollectionUtils.getFailedResult(futures));
   }
   
+  @Test
+  public void getFailedResultNotRandomAccessTest() throws InterruptedException {
+    assertNull(StepResultCollectionUtils.getFailedResult(
+                   new LinkedList<ListenableFuture<PassStepResult>>(passFutures)));
+    List<ListenableFuture<? extends StepResult>> linkedFutures = 
+        new LinkedList<ListenableFuture<? extends StepResult>>(futures);
+    assertTrue(failResults.get(0) == StepResultCollectionUtils.getFailedResult(linkedFutures));
+  }
+  
   @Test
   public void getAllFailedResultsTest() throws InterruptedException {
     assertTrue(StepResultCollectionUtils.getAllFailedResults(passFutures).isEmpty());
@@ -88,7 +99,41 @@ public class StepResultCollectionUtilsTest {
                  StepResultCollectionUtils.getRunTimeAverage(futures, TimeUnit.NANOSECONDS), 0);
   }
   
-  // TODO - add unit tests for percentiles
+  @Test
+  public void nullResultsIgnoredTest() throws InterruptedException {
+    futures.add(FutureUtils.<StepResult>immediateResultFuture(null));
+    
+    assertEquals(failFutures.size(), StepResultCollectionUtils.getAllFailedResults(futures).size());
+    assertEquals(PROCESSING_TIME_NANOS, 
+                 StepResultCollectionUtils.getRunTimeAverage(futures, TimeUnit.NANOSECONDS), 0);
+    assertNotNull(StepResultCollectionUtils.getRunTimePercentiles(futures, 100).get(100.));
+  }
+  
+  @Test
+  public void getRunTimePercentilesTest() throws InterruptedException {
+    List<ListenableFuture<StepResult>> futures = new ArrayList<ListenableFuture<StepResult>>();
+    for (int i = 100; i > 0; i--) {
+      futures.add(FutureUtils.<StepResult>immediateResultFuture(new PassStepResult("foo", i)));
+    }
+    
+    RunTimePercentiles percentiles = 
+        StepResultCollectionUtils.calculateRunTimePercentiles(futures, 0, 50, 99, 100);
+    assertEquals(100, percentiles.getValueCount());
+    assertEquals(1, percentiles.getRunTime(0., TimeUnit.NANOSECONDS));
+    assertEquals(51, percentiles.getRunTime(50., TimeUnit.NANOSECONDS));
+    assertEquals(100, percentiles.getRunTime(99., TimeUnit.NANOSECONDS));
+    assertEquals(100, percentiles.getRunTime(100., TimeUnit.NANOSECONDS));
+    assertEquals(51, percentiles.getResult(50.).getRunTime(TimeUnit.NANOSECONDS));
+    Map<Double, StepResult> percentileMap = 
+        StepResultCollectionUtils.getRunTimePercentiles(futures, 50, 100);
+    assertEquals(2, percentileMap.size());
+    assertTrue(percentiles.getResult(50.) == percentileMap.get(50.));
+  }
+  
+  @Test (expected = IllegalArgumentException.class)
+  public void getRunTimePercentilesOutOfRangeFail() throws InterruptedException {
+    StepResultCollectionUtils.getRunTimePercentiles(futures, 101);
+  }
   
   @Test
   public void getLongestRuntimeStepPassStepTest() throws InterruptedException {
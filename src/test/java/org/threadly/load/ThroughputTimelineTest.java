@@ -0,0 +1,131 @@
+package org.threadly.load;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.threadly.util.Clock;
+
+@SuppressWarnings("javadoc")
+public class ThroughputTimelineTest {
+  private static final long SLICE_NANOS = TimeUnit.HOURS.toNanos(1);
+  
+  private static String[] lines(StringWriter sw) {
+    return sw.toString().split(System.lineSeparator());
+  }
+  
+  @Test
+  public void csvTimelineTest() throws IOException {
+    StringWriter sw = new StringWriter();
+    ThroughputTimeline timeline = 
+        new ThroughputTimeline(sw, ThroughputTimeline.OutputFormat.CSV, 1, TimeUnit.HOURS);
+    long start = timeline.startNanos;
+    timeline.recordResult("foo", ScriptStepType.Normal, start, 
+                          TimeUnit.MILLISECONDS.toNanos(10), null);
+    timeline.recordResult("foo", ScriptStepType.Normal, start, 
+                          TimeUnit.MILLISECONDS.toNanos(30), new Exception());
+    timeline.recordResult("foo", ScriptStepType.Maintenance, start, 0, null);
+    // skip an empty slice
+    timeline.recordResult("foo", ScriptStepType.Normal, start + (SLICE_NANOS * 2), 
+                          TimeUnit.MILLISECONDS.toNanos(5), null);
+    assertEquals(2, lines(sw).length);  // header and first slice, empty slice not yet drained
+    timeline.close();
+    
+    String[] lines = lines(sw);
+    assertEquals(4, lines.length);
+    assertEquals("timeMillis,completions,errors,averageRunTimeMillis,maxRunTimeMillis", lines[0]);
+    assertTrue(lines[1].endsWith(",2,1,20.0,30"));
+    assertEquals(timeline.startMillis, Long.parseLong(lines[1].substring(0, lines[1].indexOf(','))));
+    assertTrue(lines[2].endsWith(",0,0,0.0,0"));
+    assertTrue(lines[3].endsWith(",1,0,5.0,5"));
+  }
+  
+  @Test
+  public void drainAfterSliceTest() throws IOException {
+    StringWriter sw = new StringWriter();
+    ThroughputTimeline timeline = 
+        new ThroughputTimeline(sw, ThroughputTimeline.OutputFormat.CSV, 1, TimeUnit.HOURS);
+    long start = timeline.startNanos;
+    for (int i = 0; i < 20; i++) {
+      // move across many slices, more than the ring can hold at once
+      timeline.recordResult("foo", ScriptStepType.Normal, start + (SLICE_NANOS * i), 1, null);
+    }
+    
+    assertEquals(19, lines(sw).length);  // header + 18 drained slices
+    timeline.close();
+    assertEquals(21, lines(sw).length);
+    for (int i = 1; i < 21; i++) {
+      assertTrue(lines(sw)[i].contains(",1,0,"));
+    }
+  }
+  
+  @Test
+  public void jsonTimelineTest() throws IOException {
+    StringWriter sw = new StringWriter();
+    ThroughputTimeline timeline = 
+        new ThroughputTimeline(sw, ThroughputTimeline.OutputFormat.JSON, 1, TimeUnit.HOURS);
+    long start = timeline.startNanos;
+    timeline.recordResult("foo", ScriptStepType.Normal, start, TimeUnit.MILLISECONDS.toNanos(10), null);
+    timeline.recordResult("foo", ScriptStepType.Normal, start + SLICE_NANOS, 0, new Exception());
+    timeline.close();
+    
+    String result = sw.toString().trim();
+    assertTrue(result.startsWith("["));
+    assertTrue(result.endsWith("]"));
+    assertTrue(result.contains("\"completions\": 1, \"errors\": 0, \"averageRunTimeMillis\": 10.0"));
+    assertTrue(result.contains("\"completions\": 1, \"errors\": 1, \"averageRunTimeMillis\": 0.0"));
+    assertEquals(1, result.split("\\},").length - 1);
+  }
+  
+  @Test
+  public void concurrentRecordAcrossSlicesTest() throws Exception {
+    StringWriter sw = new StringWriter();
+    final ThroughputTimeline timeline = 
+        new ThroughputTimeline(sw, ThroughputTimeline.OutputFormat.CSV, 1, TimeUnit.MILLISECONDS);
+    final int threadCount = 4;
+    final int recordsPerThread = 20000;
+    List<Thread> threads = new ArrayList<Thread>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < recordsPerThread; j++) {
+            // some results are late, so they race with their slice being drained
+            long start = Clock.accurateTimeNanos() - TimeUnit.MILLISECONDS.toNanos(j % 3);
+            timeline.recordResult("foo", ScriptStepType.Normal, start, 0, null);
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    timeline.close();
+    
+    String[] lines = lines(sw);
+    long completions = 0;
+    for (int i = 1; i < lines.length; i++) {
+      completions += Long.parseLong(lines[i].split(",")[1]);
+    }
+    assertEquals(threadCount * recordsPerThread, completions);
+  }
+  
+  @Test
+  public void recordAfterCloseIgnoredTest() throws IOException {
+    StringWriter sw = new StringWriter();
+    ThroughputTimeline timeline = 
+        new ThroughputTimeline(sw, ThroughputTimeline.OutputFormat.CSV, 1, TimeUnit.HOURS);
+    timeline.close();
+    String output = sw.toString();
+    timeline.recordResult("foo", ScriptStepType.Normal, timeline.startNanos + (SLICE_NANOS * 4), 1, null);
+    
+    assertEquals(output, sw.toString());
+  }
+}